@@ -14,6 +14,7 @@ import android.net.Uri;
 import android.os.Bundle;
 import android.os.SystemClock;
 import android.util.Log;
+import android.view.MotionEvent;
 import android.view.accessibility.AccessibilityEvent;
 import android.view.accessibility.AccessibilityNodeInfo;
 
@@ -25,41 +26,57 @@ import androidx.test.uiautomator.StaleObjectException;
 import androidx.test.uiautomator.UiDevice;
 import androidx.test.uiautomator.UiObject2;
 import androidx.test.uiautomator.UiObjectNotFoundException;
-import androidx.test.uiautomator.Until;
 
 import org.junit.Test;
 
-import java.io.BufferedReader;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.lang.reflect.Type;
 import java.net.InetAddress;
-import java.net.ServerSocket;
-import java.net.Socket;
-import java.net.URLDecoder;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class HierarchyTest extends AccessibilityService {
     private static final String TAG = "hank_auto";
+    // 只用于解析脚本和手势参数（线程安全，可共享）
+    private static final Gson GSON = new Gson();
     private String path;
-    private AccessibilityEvent lastWindowChangeEvent = null;
-    private ServerSocket serverSocket;
+    private HttpServer httpServer;
+    // 路径 → 处理器，并按路由统计延迟、并发数、错误数和响应字节数（/metrics）
+    private final RouteTable routes = buildRoutes();
+    private Method getWindowRootsMethod;
+    // /dump?since= 使用的最近几个层级版本
+    private final HierarchySnapshotStore snapshotStore = new HierarchySnapshotStore(8);
+    // 界面静止时复用的层级快照，界面变化事件到达时失效（cache_max_age参数可调整/关闭）
+    private volatile HierarchySnapshotCache snapshotCache = new HierarchySnapshotCache(3000);
+    // 界面变化通知，元素等待在事件到达时才重新检查
+    private final UiEventMonitor eventMonitor = new UiEventMonitor();
+    // 点击事件单独记录，只用于确认点击完成（wait_click），不计入界面变化和静止判断
+    private final UiEventMonitor clickMonitor = new UiEventMonitor(64);
+    // 等待期间没有事件时的最长检查间隔（兜底漏掉的事件）
+    private int waitPollCeilingMillis = 1000;
     private TouchController touchController;  // 添加TouchController实例
-    private final AtomicBoolean uiChanged = new AtomicBoolean(false);
+    // 按SystemClock.uptimeMillis()截止时间注入手势（/gesture、swipe_sequence）
+    private GestureExecutor gestureExecutor;
+    // 同上，按下/移动交给注入线程异步注入，抬起时同步等待（async=true）
+    private GestureExecutor asyncGestureExecutor;
+    // 不带since的/is_ui_change上次检查到的事件序号（兼容旧客户端的全局检查点）
+    private final AtomicLong lastUiChangeCheck = new AtomicLong();
 
     private void init() {
         Configurator.getInstance().setWaitForIdleTimeout(1);
@@ -67,18 +84,74 @@ public class HierarchyTest extends AccessibilityService {
         Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
         File filesDir = context.getFilesDir();
         touchController = new TouchController(InstrumentationRegistry.getInstrumentation());
+        GestureExecutor.Clock uptimeClock = new GestureExecutor.Clock() {
+            @Override
+            public long uptimeMillis() {
+                return SystemClock.uptimeMillis();
+            }
+
+            @Override
+            public void sleepUntil(long deadline) {
+                long remaining = deadline - SystemClock.uptimeMillis();
+                if (remaining > 0) SystemClock.sleep(remaining);
+            }
+        };
+        gestureExecutor = new GestureExecutor(touchController::touch, uptimeClock);
+        asyncGestureExecutor = new GestureExecutor((action, x, y, downTime, eventTime) ->
+                touchController.touch(action, x, y, downTime, eventTime, true), uptimeClock);
 
         path = filesDir.getPath();
     }
 
     private final UiAutomation.AccessibilityEventFilter checkWindowUpdate = event -> {
-        if (event.getEventType() == AccessibilityEvent.TYPE_WINDOW_CONTENT_CHANGED) {
-            lastWindowChangeEvent = event;
-            return true;
-        }
-        return false;
+        recordEvent(event);
+        return event.getEventType() == AccessibilityEvent.TYPE_WINDOW_CONTENT_CHANGED;
     };
 
+    private static final String TYPE_VIEW_CLICKED = AccessibilityEvent.eventTypeToString(AccessibilityEvent.TYPE_VIEW_CLICKED);
+
+    /**
+     * 记录界面变化事件；点击事件不改变层级，记在clickMonitor中供点击完成的确认，
+     * 不影响is_ui_change、/events、元素等待和wait_idle
+     */
+    private void recordEvent(AccessibilityEvent event) {
+        if (isHierarchyChangeEvent(event)) {
+            // 先让缓存失效再通知等待方，被唤醒的检查一定拿到新快照
+            snapshotCache.invalidate();
+            eventMonitor.onEvent(toUiEvent(event));
+        } else if (event.getEventType() == AccessibilityEvent.TYPE_VIEW_CLICKED) {
+            clickMonitor.onEvent(toUiEvent(event));
+        }
+    }
+
+    /**
+     * 复制事件中推送需要的字段（AccessibilityEvent会被系统回收复用，不能保留引用）
+     */
+    private static UiEvent toUiEvent(AccessibilityEvent event) {
+        CharSequence packageName = event.getPackageName();
+        return new UiEvent(AccessibilityEvent.eventTypeToString(event.getEventType()),
+                packageName != null ? packageName.toString() : null,
+                event.getWindowId(), event.getEventTime());
+    }
+
+    /**
+     * 会让已缓存的层级快照过期的事件
+     */
+    private static boolean isHierarchyChangeEvent(AccessibilityEvent event) {
+        switch (event.getEventType()) {
+            case AccessibilityEvent.TYPE_WINDOW_CONTENT_CHANGED:
+            case AccessibilityEvent.TYPE_WINDOW_STATE_CHANGED:
+            case AccessibilityEvent.TYPE_WINDOWS_CHANGED:
+            case AccessibilityEvent.TYPE_VIEW_SCROLLED:
+            case AccessibilityEvent.TYPE_VIEW_TEXT_CHANGED:
+            case AccessibilityEvent.TYPE_VIEW_SELECTED:
+            case AccessibilityEvent.TYPE_VIEW_FOCUSED:
+                return true;
+            default:
+                return false;
+        }
+    }
+
     @Test
     public void TestCase1() {
         init();
@@ -93,104 +166,120 @@ public class HierarchyTest extends AccessibilityService {
         }
     }
 
+    // 不改变界面的路由，其余路由处理前后都会让快照缓存失效
+    private static final Set<String> READ_ONLY_ROUTES = new HashSet<>(Arrays.asList(
+            "/status", "/server_stats", "/metrics", "/dump", "/screenshot", "/is_ui_change", "/events", "/wait_idle",
+            "/find_element", "/find_elements", "/find_batch", "/get_root"));
+
     private void startHttpServer() {
-        Thread serverThread = new Thread(() -> {
-            try {
-                Bundle arguments = InstrumentationRegistry.getArguments();
-                int port = arguments.getInt("port", 8000);
-                InetAddress serverAddress = InetAddress.getByName("localhost");
-                serverSocket = new ServerSocket(port, 0, serverAddress);
-                Log.i(TAG, "HTTP Server running on " + serverAddress.getHostAddress() + ":" + port);
-
-                while (!serverSocket.isClosed()) {
-                    Socket clientSocket = serverSocket.accept();
-                    new Thread(() -> handleClient(clientSocket)).start();
-                }
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
-        });
-        serverThread.start();
-    }
-
-    private void handleClient(Socket socket) {
-        try (InputStream is = socket.getInputStream();
-             OutputStream os = socket.getOutputStream()) {  // os在此块内有效
-
-            Map<String, String> request = parseHttpRequest(is);
-            String method = request.get("method");
-            String path = request.get("path");
-            String requestBody = request.get("body"); // 新增：获取POST请求体
-            Map<String, String> params = parseQueryParams(request.get("query"));
-
-            try {  // 新增内层try块
-                switch (path) {
-                    case "/execute_json_script":
-                        if ("POST".equals(method)) {
-                            // 调用handleExecuteJsonScript处理POST请求体中的JSON
-                            handleExecuteJsonScript(os, requestBody);
-                        } else {
-                            sendResponse(os, 405, "application/json",
-                                    "{\"success\":false, \"message\":\"仅支持POST方法\"}");
-                        }
-                        break;
-                    case "/status": // 状态检查路由
-                        handleHealthRequest(os);
-                        break;
-                    case "/dump":
-                        handleDumpRequest(os, params);
-                        break;
-                    case "/screenshot":
-                        handlePicRequest(os, params);
-                        break;
-                    case "/is_ui_change":
-                        handleIsUiChangeRequest(os);
-                        break;
-                    case "/find_element":
-                        handleFindElementRequest(os, params);
-                        break;
-                    case "/find_elements":
-                        handleFindElementsRequest(os, params);
-                        break;
-                    case "/get_root":
-                        handleGetRootRequest(os);
-                        break;
-                    case "/click":
-                        handleClickRequest(os,params);
-                        break;
-                    case "/touch_down": // 新增：单点按下
-                        handleTouchDownRequest(os, params);
-                        break;
-                    case "/touch_up": // 新增：单点抬起
-                        handleTouchUpRequest(os, params);
-                        break;
-                    case "/touch_move": // 新增：滑动
-                        handleTouchMoveRequest(os, params);
-                        break;
-                    case "/input":
-                        // 支持GET和POST（参数可放在URL或请求体）
-                        if ("GET".equals(method) || "POST".equals(method)) {
-                            handleInputRequest(os, params);
-                        } else {
-                            sendResponse(os, 405, "application/json",
-                                    "{\"success\":false, \"message\":\"仅支持GET/POST方法\"}");
-                        }
-                        break;
-                    default:
-                        sendResponse(os, 404, "text/plain", "Not Found");
-                }
-            } catch (Exception e) {  // 捕获所有异常
-                sendResponse(os, 500, "text/plain", "Internal Server Error");
-                e.printStackTrace();
+        try {
+            Bundle arguments = InstrumentationRegistry.getArguments();
+            int port = arguments.getInt("port", 8000);
+            InetAddress serverAddress = InetAddress.getByName("localhost");
+
+            // 工作线程池配置（可通过instrumentation参数按设备档位调整）
+            WorkerPool.Config poolConfig = new WorkerPool.Config();
+            poolConfig.poolSize = getIntArgument(arguments, "pool_size", poolConfig.poolSize);
+            poolConfig.queueSize = getIntArgument(arguments, "queue_size", poolConfig.queueSize);
+            if ("caller_runs".equals(arguments.getString("reject_policy"))) {
+                poolConfig.rejectionPolicy = WorkerPool.RejectionPolicy.CALLER_RUNS;
             }
+            poolConfig.parseRouteLimits(arguments.getString("route_limits"));
 
+            // 传输层：默认阻塞式，transport=nio 时使用Selector非阻塞实现
+            if ("nio".equals(arguments.getString("transport"))) {
+                httpServer = new NioHttpServer(serverAddress, port, poolConfig, this::dispatch);
+            } else {
+                httpServer = new HttpServer(serverAddress, port, poolConfig, this::dispatch);
+            }
+            // 持久连接：空闲超时和单连接最大请求数
+            httpServer.setKeepAlive(getIntArgument(arguments, "keepalive_timeout", 5000),
+                    getIntArgument(arguments, "max_requests", 1000));
+            // 各阶段耗时：server_timing=true时每个响应带Server-Timing头部，脚本结果带timing字段
+            httpServer.setServerTiming(Boolean.parseBoolean(arguments.getString("server_timing")));
+            // 快照缓存的最长有效时间（毫秒），0表示关闭缓存
+            snapshotCache = new HierarchySnapshotCache(getIntArgument(arguments, "cache_max_age", 3000));
+            waitPollCeilingMillis = getIntArgument(arguments, "wait_poll_max", 1000);
+            // 响应压缩：compress_level为0时关闭，小于compress_min_size字节的响应不压缩
+            int compressLevel = getIntArgument(arguments, "compress_level", ResponseCompression.DEFAULT_LEVEL);
+            httpServer.setCompression(compressLevel > 0
+                    ? new ResponseCompression(compressLevel,
+                            getIntArgument(arguments, "compress_min_size", ResponseCompression.DEFAULT_MIN_SIZE))
+                    : null);
+            httpServer.start();
+            Log.i(TAG, "HTTP Server running on " + serverAddress.getHostAddress() + ":" + port);
         } catch (IOException e) {
-            // 处理socket创建异常
             e.printStackTrace();
         }
     }
 
-    private void handleHealthRequest(OutputStream os) throws IOException {
+    /**
+     * 读取整型instrumentation参数（am instrument -e 传入的都是字符串）
+     */
+    private int getIntArgument(Bundle arguments, String key, int defaultValue) {
+        String value = arguments.getString(key);
+        if (value == null) return defaultValue;
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    private void dispatch(HttpRequest request, HttpResponse os) throws Exception {
+        String path = request.getPath();
+
+        // 点击、输入等操作会改变界面，事件到达前就让缓存失效，操作后的读取不会拿到旧快照
+        boolean mutating = !READ_ONLY_ROUTES.contains(path);
+        if (mutating) snapshotCache.invalidate();
+        try {
+            routes.handle(request, os);
+        } finally {
+            if (mutating) snapshotCache.invalidate();
+        }
+    }
+
+    /**
+     * 注册所有路由；methods为空表示不限制方法，其余方法返回405
+     */
+    private RouteTable buildRoutes() {
+        RouteTable table = new RouteTable();
+        table.add("/execute_json_script", (request, os) -> handleExecuteJsonScript(os, request.getBody()), "POST");
+        table.add("/status", (request, os) -> handleHealthRequest(os)); // 状态检查路由
+        table.add("/server_stats", (request, os) -> { // 线程池/队列和快照缓存计数器
+            String poolStats = httpServer.getWorkerPool().toJson();
+            sendResponse(os, 200, "application/json", poolStats.substring(0, poolStats.length() - 1)
+                    + ",\"snapshot_cache\":" + snapshotCache.toJson()
+                    + ",\"ui_waits\":" + eventMonitor.toJson()
+                    + ",\"injector\":" + touchController.getAsyncInjectorStats() + "}");
+        });
+        table.add("/metrics", (request, os) -> routes.sendMetrics(os)); // 按路由的延迟直方图、并发数、错误数、字节数
+        table.add("/dump", (request, os) -> handleDumpRequest(os, request.getParams()));
+        table.add("/screenshot", (request, os) -> handlePicRequest(os, request.getParams()));
+        table.add("/is_ui_change", (request, os) -> handleIsUiChangeRequest(os, request.getParams()));
+        table.add("/events", (request, os) -> handleEventsRequest(request, os, request.getParams())); // SSE推送界面变化
+        table.add("/wait_idle", (request, os) -> handleWaitIdleRequest(os, request.getParams())); // 等待界面静止
+        table.add("/find_element", (request, os) -> handleFindElementRequest(os, request.getParams()));
+        table.add("/find_elements", (request, os) -> handleFindElementsRequest(os, request.getParams()));
+        table.add("/find_batch", (request, os) -> handleFindBatchRequest(os, // 一次请求执行多个选择器
+                "POST".equals(request.getMethod()) ? request.getBody() : request.getParams().get("selectors"),
+                request.getParams()));
+        table.add("/get_root", (request, os) -> handleGetRootRequest(os));
+        table.add("/click", (request, os) -> handleClickRequest(os, request.getParams()));
+        table.add("/touch_down", (request, os) -> handleTouchDownRequest(os, request.getParams())); // 新增：单点按下
+        table.add("/touch_up", (request, os) -> handleTouchUpRequest(os, request.getParams())); // 新增：单点抬起
+        table.add("/touch_move", (request, os) -> handleTouchMoveRequest(os, request.getParams())); // 新增：滑动
+        // 按时间线注入的单指手势（滑动、拖拽、fling）
+        table.add("/gesture", (request, os) ->
+                handleGestureRequest(os, request.getBody(), isAsync(request.getParams())), "POST");
+        // 多指手势（捏合、张开、旋转、多指滑动）
+        table.add("/multi_gesture", (request, os) -> handleMultiGestureRequest(os, request.getBody()), "POST");
+        // 支持GET和POST（参数可放在URL或请求体）
+        table.add("/input", (request, os) -> handleInputRequest(os, request.getParams()), "GET", "POST");
+        return table;
+    }
+
+    private void handleHealthRequest(HttpResponse os) throws IOException {
         String responseText = "server is running";
         sendResponse(os, 200, "text/plain", responseText);
     }
@@ -198,7 +287,7 @@ public class HierarchyTest extends AccessibilityService {
     /**
      * 处理点击请求：通过坐标直接调用TouchController执行点击
      */
-    private void handleClickRequest(OutputStream os, Map<String, String> params) throws IOException {
+    private void handleClickRequest(HttpResponse os, Map<String, String> params) throws IOException {
         // 获取坐标参数（从请求参数中解析x和y）
         String xStr = params.get("x");
         String yStr = params.get("y");
@@ -214,15 +303,22 @@ public class HierarchyTest extends AccessibilityService {
             float x = Float.parseFloat(xStr);
             float y = Float.parseFloat(yStr);
 
+            long press = parseTimeout(params.get("press"), DEFAULT_PRESS_MILLIS);
+            int waitClick = parseTimeout(params.get("wait_click"), 0);
+
             // 调用TouchController执行点击（按下->抬起）
+            long seen = clickMonitor.getSequence();
             boolean downSuccess = touchController.touchDown(x, y);
-            // 增加微小延迟，模拟真实点击的按下-抬起间隔
-            SystemClock.sleep(50);
+            if (press > 0) SystemClock.sleep(press);  // 按下时长（press参数，默认50毫秒）
             boolean upSuccess = touchController.touchUp(x, y);
 
             // 根据执行结果返回响应
             if (downSuccess && upSuccess) {
-                sendResponse(os, 200, "text/plain", "Click at (" + x + ", " + y + ") success");
+                String message = "Click at (" + x + ", " + y + ") success";
+                if (waitClick > 0) {
+                    message += awaitClickEvent(seen, waitClick) ? ", click event received" : ", no click event";
+                }
+                sendResponse(os, 200, "text/plain", message);
             } else {
                 sendResponse(os, 500, "text/plain", "Click failed (down: " + downSuccess + ", up: " + upSuccess + ")");
             }
@@ -236,81 +332,10 @@ public class HierarchyTest extends AccessibilityService {
     }
 
 
-    private Map<String, String> parseHttpRequest(InputStream is) throws IOException {
-        Map<String, String> request = new HashMap<>();
-        BufferedReader reader = new BufferedReader(new InputStreamReader(is));
-
-        // 读取请求行
-        String requestLine = reader.readLine();
-        if (requestLine == null) return request;
-        String[] parts = requestLine.split(" ");
-        if (parts.length >= 2) {
-            request.put("method", parts[0]);
-            request.put("path", parts[1]);
-            if (parts.length >= 3) request.put("protocol", parts[2]);
-        }
-
-        // 解析路径和查询参数
-        String path = request.get("path");
-        if (path != null) {
-            int qIndex = path.indexOf('?');
-            if (qIndex != -1) {
-                request.put("query", path.substring(qIndex + 1));
-                request.put("path", path.substring(0, qIndex));
-            } else {
-                request.put("query", "");
-            }
-        } else {
-            request.put("query", "");
-        }
-
-        // 读取头部信息（重点：获取Content-Length）
-        int contentLength = 0;
-        while (true) {
-            String line = reader.readLine();
-            if (line == null || line.isEmpty()) break;
-            // 解析Content-Length头部，用于读取Body
-            if (line.startsWith("Content-Length:")) {
-                contentLength = Integer.parseInt(line.split(":")[1].trim());
-            }
-        }
-
-        // 读取POST Body（根据Content-Length读取）
-        if (contentLength > 0) {
-            char[] bodyChars = new char[contentLength];
-            reader.read(bodyChars, 0, contentLength);
-            request.put("body", new String(bodyChars));
-        } else {
-            request.put("body", ""); // 空Body
-        }
-
-        return request;
-    }
-
-    private Map<String, String> parseQueryParams(String query) {
-        Map<String, String> params = new HashMap<>();
-        if (query == null) return params;
-
-        String[] pairs = query.split("&");
-        for (String pair : pairs) {
-            int idx = pair.indexOf('=');
-            if (idx != -1) {
-                try {
-                    String key = URLDecoder.decode(pair.substring(0, idx), "UTF-8");
-                    String value = URLDecoder.decode(pair.substring(idx + 1), "UTF-8");
-                    params.put(key, value);
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-            }
-        }
-        return params;
-    }
-
     /**
      * 处理单点按下请求（仅按下不抬起）
      */
-    private void handleTouchDownRequest(OutputStream os, Map<String, String> params) throws IOException {
+    private void handleTouchDownRequest(HttpResponse os, Map<String, String> params) throws IOException {
         // 解析坐标参数
         String xStr = params.get("x");
         String yStr = params.get("y");
@@ -323,7 +348,7 @@ public class HierarchyTest extends AccessibilityService {
             float x = Float.parseFloat(xStr);
             float y = Float.parseFloat(yStr);
             // 调用TouchController执行按下
-            boolean success = touchController.touchDown(x, y);
+            boolean success = touchController.touchDown(x, y, isAsync(params));
             if (success) {
                 sendResponse(os, 200, "text/plain", "TouchDown at (" + x + ", " + y + ") success");
             } else {
@@ -339,7 +364,7 @@ public class HierarchyTest extends AccessibilityService {
     /**
      * 处理单点抬起请求（需与之前的touchDown对应）
      */
-    private void handleTouchUpRequest(OutputStream os, Map<String, String> params) throws IOException {
+    private void handleTouchUpRequest(HttpResponse os, Map<String, String> params) throws IOException {
         // 解析坐标参数（需与按下坐标一致，确保抬起对应点）
         String xStr = params.get("x");
         String yStr = params.get("y");
@@ -371,7 +396,7 @@ public class HierarchyTest extends AccessibilityService {
     /**
      * 处理触摸移动请求（基于MotionEvent的连续移动，需配合touchDown和touchUp使用）
      */
-    private void handleTouchMoveRequest(OutputStream os, Map<String, String> params) throws IOException {
+    private void handleTouchMoveRequest(HttpResponse os, Map<String, String> params) throws IOException {
         // 解析当前移动坐标参数
         String xStr = params.get("x");
         String yStr = params.get("y");
@@ -388,7 +413,7 @@ public class HierarchyTest extends AccessibilityService {
             float y = Float.parseFloat(yStr);
 
             // 调用TouchController执行移动（基于MotionEvent的单点连续移动）
-            boolean success = touchController.touchMove(x, y);
+            boolean success = touchController.touchMove(x, y, isAsync(params));
 
             // 根据执行结果返回响应
             if (success) {
@@ -405,281 +430,585 @@ public class HierarchyTest extends AccessibilityService {
         }
     }
 
+    /**
+     * 处理手势请求：请求体为Gesture的JSON描述，按截止时间注入后返回计划与实际时长
+     */
+    private void handleGestureRequest(HttpResponse os, String body, boolean async) throws IOException {
+        Gesture gesture;
+        try {
+            gesture = Gesture.parse(body);
+        } catch (IllegalArgumentException e) {
+            sendJsonError(os, 400, e.getMessage());
+            return;
+        }
+        GestureExecutor.Result result = (async ? asyncGestureExecutor : gestureExecutor).execute(gesture);
+        sendResponse(os, result.isSuccess() ? 200 : 500, "application/json", result.toJson());
+    }
+
+    /**
+     * 处理多指手势请求：请求体为MultiGesture的JSON描述，所有手指在同一组MotionEvent中按截止时间注入
+     */
+    private void handleMultiGestureRequest(HttpResponse os, String body) throws IOException {
+        MultiGesture gesture;
+        try {
+            gesture = MultiGesture.parse(body);
+        } catch (IllegalArgumentException e) {
+            sendJsonError(os, 400, e.getMessage());
+            return;
+        }
+        GestureExecutor.Result result = performMultiGesture(gesture);
+        sendResponse(os, result.isSuccess() ? 200 : 500, "application/json", result.toJson());
+    }
+
+    private GestureExecutor.Result performMultiGesture(MultiGesture gesture) {
+        float[][][] tracks = gesture.getTracks();
+        MotionEvent.PointerCoords[][] touches = new MotionEvent.PointerCoords[tracks.length][];
+        for (int p = 0; p < tracks.length; p++) {
+            touches[p] = new MotionEvent.PointerCoords[tracks[p].length];
+            for (int k = 0; k < tracks[p].length; k++) {
+                MotionEvent.PointerCoords coords = new MotionEvent.PointerCoords();
+                coords.pressure = 1.0f;
+                coords.size = 1.0f;
+                coords.x = tracks[p][k][0];
+                coords.y = tracks[p][k][1];
+                touches[p][k] = coords;
+            }
+        }
+        return touchController.performMultiPointerGesture(gesture.getTimes(), touches);
+    }
 
-    private void handleDumpRequest(OutputStream os, Map<String, String> params) throws IOException {
+    private void handleDumpRequest(HttpResponse os, Map<String, String> params) throws Exception {
+        if (params.containsKey("since")) {
+            handleDumpDiffRequest(os, params);
+            return;
+        }
+        if (params.containsKey("fields") || params.containsKey("max_depth") || params.containsKey("visible_only")
+                || params.containsKey("format")) {
+            handleSelectiveDumpRequest(os, params);
+            return;
+        }
         boolean compressed = Boolean.parseBoolean(params.getOrDefault("compressed", "false"));
-        File dumpFile = dumpWindowHierarchy(compressed, "dump.xml");
-        sendFileResponse(os, "application/xml", dumpFile);
+        // 界面未变化时直接返回上次的结果
+        // 遍历和写XML在同一次dumpWindowHierarchy中完成，一起计入tree
+        long start = RequestTiming.now();
+        byte[] xml = snapshotCache.get("dump?compressed=" + compressed, isFresh(params), () -> {
+            // 直接序列化到当前线程复用的内存缓冲区，不再写入共享的dump.xml再读回
+            ResponseBuffer buffer = ResponseBuffer.obtain();
+            dumpWindowHierarchy(compressed, buffer);
+            return buffer.toByteArray();
+        });
+        RequestTiming.current().stop(RequestTiming.TREE, start);
+        os.send(200, "application/xml; charset=UTF-8", xml);
     }
 
-    private void handlePicRequest(OutputStream os, Map<String, String> params) throws IOException {
+    /**
+     * 自定义dump：单次遍历无障碍树，按fields/max_depth/visible_only只输出需要的部分；
+     * format=binary时输出紧凑二进制格式（解码见BinaryHierarchyReader）
+     */
+    private void handleSelectiveDumpRequest(HttpResponse os, Map<String, String> params) throws Exception {
+        int fields;
+        int maxDepth;
+        try {
+            fields = HierarchyFields.parse(params.get("fields"));
+            maxDepth = Integer.parseInt(params.getOrDefault("max_depth", "-1"));
+        } catch (IllegalArgumentException e) {
+            sendResponse(os, 400, "text/plain", "Invalid dump parameters: " + e.getMessage());
+            return;
+        }
+        boolean visibleOnly = Boolean.parseBoolean(params.getOrDefault("visible_only", "true"));
+        String format = params.getOrDefault("format", "xml");
+        if (!format.equals("xml") && !format.equals("binary")) {
+            sendResponse(os, 400, "text/plain", "Invalid dump parameters: unknown format " + format);
+            return;
+        }
+
+        ResponseBuffer buffer = ResponseBuffer.obtain();
+        NodeSink sink = format.equals("binary")
+                ? new BinaryHierarchyWriter(buffer, fields)
+                : new XmlHierarchyWriter(buffer);
+        if (visibleOnly) {
+            // 缓存的快照包含全部可见节点和属性，按参数重放即可
+            HierarchySnapshot snapshot = getSnapshot(isFresh(params));
+            long start = RequestTiming.now();
+            snapshot.replay(fields, maxDepth, sink);
+            RequestTiming.current().stop(RequestTiming.SERIALIZE, start);
+        } else {
+            long start = RequestTiming.now();
+            UiDevice mDevice = UiDevice.getInstance(InstrumentationRegistry.getInstrumentation());
+            new HierarchyWalker(fields, maxDepth, false)
+                    .walk(getWindowRootNodes(), mDevice.getDisplayRotation(), sink);
+            RequestTiming.current().stop(RequestTiming.TREE, start);
+        }
+        os.send(200, format.equals("binary") ? "application/octet-stream" : "application/xml; charset=UTF-8",
+                buffer.getBuffer(), 0, buffer.size());
+    }
+
+    /**
+     * 增量dump：采集当前树并与since版本比较，只返回新增/删除/变化的节点。
+     * since未知（0或已被淘汰）时返回完整快照（full=true），客户端以返回的version作为下次的since
+     */
+    private void handleDumpDiffRequest(HttpResponse os, Map<String, String> params) throws Exception {
+        long since;
+        try {
+            since = Long.parseLong(params.get("since"));
+        } catch (NumberFormatException e) {
+            sendResponse(os, 400, "text/plain", "Invalid dump parameters: since must be a version number");
+            return;
+        }
+        HierarchySnapshot snapshot = getSnapshot(isFresh(params));
+        long start = RequestTiming.now();
+        // 版本号在这里才分配：与上一个版本比较一次，内容未变化时沿用原版本
+        HierarchySnapshot current = snapshotStore.publish(snapshot);
+        ResponseBuffer buffer = ResponseBuffer.obtain();
+        HierarchyDiff.compute(snapshotStore.get(since), current).writeJson(buffer);
+        RequestTiming.current().stop(RequestTiming.SERIALIZE, start);
+        os.send(200, "application/json; charset=UTF-8", buffer.getBuffer(), 0, buffer.size());
+    }
+
+    /**
+     * 当前界面的完整快照（全部属性、只含可见节点），界面未变化时来自缓存；
+     * 快照没有版本号，/dump?since=使用时才登记到snapshotStore
+     */
+    private HierarchySnapshot getSnapshot(boolean fresh) throws Exception {
+        long start = RequestTiming.now();
+        try {
+            return snapshotCache.get("snapshot", fresh, this::loadSnapshot);
+        } finally {
+            RequestTiming.current().stop(RequestTiming.TREE, start);
+        }
+    }
+
+    private HierarchySnapshot loadSnapshot() throws Exception {
+        UiDevice mDevice = UiDevice.getInstance(InstrumentationRegistry.getInstrumentation());
+        UiTreeBuilder tree = new UiTreeBuilder();
+        new HierarchyWalker(HierarchyFields.ALL, -1, true)
+                .walk(getWindowRootNodes(), mDevice.getDisplayRotation(), tree);
+        return new HierarchySnapshot(tree.getRotation(), tree.getRoots());
+    }
+
+    /**
+     * 等待期间使用的快照：事件触发的检查用缓存；兜底轮询触发的检查只接受一个轮询间隔内采集的快照，
+     * 并发的等待方共用同一次采集
+     */
+    private HierarchySnapshot getWaitSnapshot(boolean pollFresh) throws Exception {
+        if (!pollFresh) return getSnapshot(false);
+        long start = RequestTiming.now();
+        try {
+            return snapshotCache.getNotOlderThan("snapshot", waitPollCeilingMillis, this::loadSnapshot);
+        } finally {
+            RequestTiming.current().stop(RequestTiming.TREE, start);
+        }
+    }
+
+    private static boolean isFresh(Map<String, String> params) {
+        return Boolean.parseBoolean(params.getOrDefault("fresh", "false"));
+    }
+
+    /**
+     * async=true时触摸事件交给注入线程异步注入，请求不等待输入分发确认
+     */
+    private static boolean isAsync(Map<String, String> params) {
+        return Boolean.parseBoolean(params.getOrDefault("async", "false"));
+    }
+
+    private void handlePicRequest(HttpResponse os, Map<String, String> params) throws IOException {
         int quality = Integer.parseInt(Objects.requireNonNull(params.getOrDefault("quality", "80")));
         File screenshot = takeScreenshot(quality);
-        sendFileResponse(os, "image/png", screenshot);
+        try {
+            sendFileResponse(os, "image/png", screenshot);
+        } finally {
+            // 每次截图使用独立文件，发送后删除（NIO模式下已打开的文件仍可继续发送）
+            screenshot.delete();
+        }
     }
 
-    private void handleIsUiChangeRequest(OutputStream os) throws IOException {
+    /**
+     * wait参数（毫秒）大于0时为长轮询：没有变化就等到下一个变化事件或超时再返回
+     */
+    private void handleIsUiChangeRequest(HttpResponse os, Map<String, String> params) throws IOException {
+        long wait;
+        long since;
+        try {
+            wait = Long.parseLong(params.getOrDefault("wait", "0"));
+            since = Long.parseLong(params.getOrDefault("since", "-1"));
+        } catch (NumberFormatException e) {
+            sendResponse(os, 400, "text/plain", "Invalid is_ui_change parameters");
+            return;
+        }
+        if (params.containsKey("since")) {
+            handleUiChangesSince(os, since, wait);
+            return;
+        }
+        // 先取序号再检查，检查之后到达的事件不会错过
+        long seen = eventMonitor.getSequence();
         String result = is_ui_change();
-        sendResponse(os, 200, "text/plain", result);
+        if ("true".equals(result) || wait <= 0) {
+            sendResponse(os, 200, "text/plain", result);
+            return;
+        }
+        // 等待期间不占用工作线程：事件到达时在等待线程上重新检查（检查点可能已被其他客户端取走）
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(wait);
+        os.startAsync();
+        eventMonitor.park(seen, (changed, now) -> {
+            String current = changed ? is_ui_change() : "false";
+            if ("false".equals(current) && now - deadline < 0) return deadline;
+            completeResponse(os, 200, "text/plain", current);
+            return -1;
+        });
+    }
+
+    /**
+     * /is_ui_change?since=N：返回序号N之后的事件（JSON），不影响其他客户端；
+     * 客户端以返回的seq作为下次的since，since=0表示读取缓冲区中的全部事件
+     */
+    private void handleUiChangesSince(HttpResponse os, long since, long wait) throws IOException {
+        if (wait <= 0 || eventMonitor.getSequence() > since) {
+            sendResponse(os, 200, "application/json", eventMonitor.since(since).toJson());
+            return;
+        }
+        os.startAsync();
+        eventMonitor.parkEvent(since, wait, changed ->
+                completeResponse(os, 200, "application/json", eventMonitor.since(since).toJson()));
+    }
+
+    /**
+     * /wait_idle：等待连续quiet毫秒（默认300）没有界面变化事件，最多等待timeout毫秒（默认5000）；
+     * package参数只计入该应用的事件。返回界面稳定所用的时间（settle_ms）
+     */
+    private void handleWaitIdleRequest(HttpResponse os, Map<String, String> params) throws IOException {
+        long quiet;
+        long timeout;
+        try {
+            quiet = Long.parseLong(params.getOrDefault("quiet", "300"));
+            timeout = Long.parseLong(params.getOrDefault("timeout", "5000"));
+        } catch (NumberFormatException e) {
+            sendResponse(os, 400, "text/plain", "Invalid wait_idle parameters: quiet and timeout must be numbers");
+            return;
+        }
+        os.startAsync();
+        eventMonitor.parkIdle(quiet, timeout, params.get("package"),
+                result -> completeResponse(os, 200, "application/json", result.toJson()));
+    }
+
+    /**
+     * /events：Server-Sent Events流，界面变化时推送事件类型、包名、窗口id和时间。
+     * coalesce（毫秒，默认50）内的连续事件合并为一条；断线重连时按Last-Event-ID（或since参数）续传。
+     * 推送期间不占用工作线程，duration（默认及最长30分钟）到期后结束，由客户端重连
+     */
+    private void handleEventsRequest(HttpRequest request, HttpResponse os, Map<String, String> params) throws IOException {
+        long coalesce;
+        long heartbeat;
+        long duration;
+        long since;
+        try {
+            coalesce = Long.parseLong(params.getOrDefault("coalesce", "50"));
+            heartbeat = Long.parseLong(params.getOrDefault("heartbeat", "15000"));
+            duration = Long.parseLong(params.getOrDefault("duration", String.valueOf(UiEventStream.MAX_DURATION_MILLIS)));
+            String lastEventId = request.getHeader("Last-Event-ID");
+            since = Long.parseLong(lastEventId != null ? lastEventId.trim() : params.getOrDefault("since", "-1"));
+        } catch (NumberFormatException e) {
+            sendResponse(os, 400, "text/plain", "Invalid events parameters");
+            return;
+        }
+        new UiEventStream(eventMonitor, coalesce, heartbeat).start(os, since, duration);
     }
 
     /**
-     * 执行单个动作
-     * @param actionType 动作类型：click/find_and_click/find_and_input/swipe_sequence
+     * 执行单个动作，结果字段（success/message及各动作的附加字段）写入writer当前所在的JSON对象。
+     * 动作执行完（或抛出异常）后才开始写，每个字段只写一次
+     * @param actionType 动作类型：click/find_and_click/find_and_input/swipe_sequence/gesture/multi_gesture
      * @param params 动作参数
      * @param elementCache 元素缓存（供动作间共享）
-     * @return 执行结果（JSON字符串）
+     * @return 是否执行成功
      */
-    private String executeAction(String actionType, Map<String, Object> params, Map<String, UiObject2> elementCache) {
-        Gson gson = new Gson();
-        Map<String, Object> result = new HashMap<>();
-
+    private boolean executeAction(String actionType, Map<String, Object> params, Map<String, UiObject2> elementCache,
+                                  JsonStreamWriter writer) throws IOException {
+        ActionResult result;
         try {
-            switch (actionType) {
-                // 1. 坐标点击（直接按x,y点击）
-                case "click":
-                    // 参数校验：必须包含x和y
-                    if (!params.containsKey("x") || !params.containsKey("y")) {
-                        result.put("success", false);
-                        result.put("message", "click动作缺少参数x或y");
-                        return gson.toJson(result);
-                    }
-
-                    float x = ((Number) params.get("x")).floatValue();
-                    float y = ((Number) params.get("y")).floatValue();
-
-                    // 执行点击（按下→延迟→抬起）
-                    boolean clickSuccess = touchController.touchDown(x, y);
-                    SystemClock.sleep(50); // 模拟按下时长
-                    clickSuccess &= touchController.touchUp(x, y);
-
-                    result.put("success", clickSuccess);
-                    result.put("message", clickSuccess ? "坐标点击成功" : "坐标点击失败");
-                    result.put("x", x);
-                    result.put("y", y);
-                    return gson.toJson(result);
-
-                // 2. 查找并点击（先找元素，再点击中心）
-                case "find_and_click":
-                    // 参数校验：必须包含type和value
-                    if (!params.containsKey("type") || !params.containsKey("value")) {
-                        result.put("success", false);
-                        result.put("message", "find_and_click缺少参数type或value");
-                        return gson.toJson(result);
-                    }
-
-                    String findType = (String) params.get("type");
-                    String findValue = (String) params.get("value");
-                    int findTimeout = params.containsKey("timeout") ?
-                            ((Number) params.get("timeout")).intValue() : 5000;
-
-                    // 查找元素
-                    UiObject2 element = findElementWithTimeout(findType, findValue, findTimeout);
-                    if (element == null) {
-                        result.put("success", false);
-                        result.put("message", "未找到元素：" + findType + "=" + findValue);
-                        return gson.toJson(result);
-                    }
-
-                    // 点击元素中心
-                    Rect bounds = element.getVisibleBounds();
-                    float centerX = bounds.centerX();
-                    float centerY = bounds.centerY();
-                    boolean findClickSuccess = touchController.touchDown(centerX, centerY);
-                    SystemClock.sleep(50);
-                    findClickSuccess &= touchController.touchUp(centerX, centerY);
-
-                    // 缓存元素供后续动作使用
-                    elementCache.put("last_found", element);
-
-                    result.put("success", findClickSuccess);
-                    result.put("message", findClickSuccess ? "查找并点击成功" : "查找成功但点击失败");
-                    result.put("element_bounds", bounds.toShortString());
-                    result.put("click_x", centerX);
-                    result.put("click_y", centerY);
-                    return gson.toJson(result);
-
-                // 3. 查找并输入（先找元素，再输入文本）
-                case "find_and_input":
-                    // 参数校验：必须包含type、value、text
-                    if (!params.containsKey("type") || !params.containsKey("value") || !params.containsKey("text")) {
-                        result.put("success", false);
-                        result.put("message", "find_and_input缺少参数type/value/text");
-                        return gson.toJson(result);
-                    }
-
-                    String inputType = (String) params.get("type");
-                    String inputValue = (String) params.get("value");
-                    String inputText = (String) params.get("text");
-                    boolean clear = params.containsKey("clear") ?
-                            (boolean) params.get("clear") : true; // 默认清空
-                    int inputTimeout = params.containsKey("timeout") ?
-                            ((Number) params.get("timeout")).intValue() : 5000;
-
-                    // 查找输入框元素
-                    UiObject2 inputElement = findElementWithTimeout(inputType, inputValue, inputTimeout);
-                    if (inputElement == null) {
-                        result.put("success", false);
-                        result.put("message", "未找到输入元素：" + inputType + "=" + inputValue);
-                        return gson.toJson(result);
-                    }
-
-                    // 执行输入
-                    if (clear) inputElement.clear();
-                    SystemClock.sleep(200); // 等待清空
-                    inputElement.setText(inputText);
-                    SystemClock.sleep(300); // 等待输入完成
-
-                    // 验证输入结果
-                    String actualText = inputElement.getText();
-                    boolean inputSuccess = inputText.equals(actualText);
-
-                    result.put("success", inputSuccess);
-                    result.put("message", inputSuccess ? "输入成功" : "输入失败（实际值：" + actualText + "）");
-                    result.put("input_text", inputText);
-                    result.put("actual_text", actualText);
-                    return gson.toJson(result);
-
-                // 4. 滑动序列（按下→多步滑动→抬起）
-                case "swipe_sequence":
-                    // 参数校验：必须包含startX、startY和steps（滑动步骤数组）
-                    if (!params.containsKey("startX") || !params.containsKey("startY") || !params.containsKey("steps")) {
-                        result.put("success", false);
-                        result.put("message", "swipe_sequence缺少参数startX/startY/steps");
-                        return gson.toJson(result);
-                    }
-
-                    float startX = ((Number) params.get("startX")).floatValue();
-                    float startY = ((Number) params.get("startY")).floatValue();
-                    List<Map<String, Number>> steps = (List<Map<String, Number>>) params.get("steps");
-
-                    if (steps.isEmpty()) {
-                        result.put("success", false);
-                        result.put("message", "steps数组不能为空（至少需要1步滑动）");
-                        return gson.toJson(result);
-                    }
-
-                    // 执行滑动序列：按下起点→分步滑动→抬起终点
-                    boolean swipeSuccess = touchController.touchDown(startX, startY);
-                    SystemClock.sleep(50); // 按下延迟
-
-                    // 总滑动时长（默认500ms，可通过参数自定义）
-                    int totalDuration = params.containsKey("duration") ?
-                            ((Number) params.get("duration")).intValue() : 500;
-                    int stepDelay = totalDuration / steps.size();
-
-                    // 执行每步滑动
-                    for (Map<String, Number> step : steps) {
-                        float stepX = step.get("x").floatValue();
-                        float stepY = step.get("y").floatValue();
-                        swipeSuccess &= touchController.touchMove(stepX, stepY);
-                        SystemClock.sleep(stepDelay); // 每步间隔
-                    }
-
-                    // 抬起（终点为最后一步的坐标）
-                    Map<String, Number> lastStep = steps.get(steps.size() - 1);
-                    float endX = lastStep.get("x").floatValue();
-                    float endY = lastStep.get("y").floatValue();
-                    swipeSuccess &= touchController.touchUp(endX, endY);
-
-                    result.put("success", swipeSuccess);
-                    result.put("message", swipeSuccess ? "滑动序列执行成功" : "滑动序列执行失败");
-                    result.put("start", Map.of("x", startX, "y", startY));
-                    result.put("end", Map.of("x", endX, "y", endY));
-                    result.put("step_count", steps.size());
-                    return gson.toJson(result);
-
-                default:
-                    result.put("success", false);
-                    result.put("message", "未知动作类型：" + actionType);
-                    return gson.toJson(result);
-            }
+            result = performAction(actionType, params, elementCache);
         } catch (ClassCastException e) {
-            result.put("success", false);
-            result.put("message", "参数类型错误：" + e.getMessage());
-            return gson.toJson(result);
+            result = ActionResult.failure("参数类型错误：" + e.getMessage());
         } catch (Exception e) {
-            result.put("success", false);
-            result.put("message", "动作执行失败：" + e.getMessage());
-            return gson.toJson(result);
+            result = ActionResult.failure("动作执行失败：" + e.getMessage());
         }
+        writeStatus(writer, result.success, result.message);
+        if (result.fields != null) result.fields.write(writer);
+        return result.success;
     }
 
-    private void handleExecuteJsonScript(OutputStream os, String jsonContent) throws IOException {
-        Gson gson = new Gson();
-        try {
-            // 解析JSON脚本为动作列表：[{type: "...", params: {...}}, ...]
-            Type actionListType = new TypeToken<List<Map<String, Object>>>(){}.getType();
-            List<Map<String, Object>> actions = gson.fromJson(jsonContent, actionListType);
+    private ActionResult performAction(String actionType, Map<String, Object> params,
+                                       Map<String, UiObject2> elementCache) throws Exception {
+        switch (actionType) {
+            // 1. 坐标点击（直接按x,y点击）
+            case "click":
+                // 参数校验：必须包含x和y
+                if (!params.containsKey("x") || !params.containsKey("y")) {
+                    return ActionResult.failure("click动作缺少参数x或y");
+                }
 
-            if (actions == null || actions.isEmpty()) {
-                sendResponse(os, 400, "application/json",
-                        "{\"success\":false, \"message\":\"JSON脚本为空或格式错误\"}");
-                return;
-            }
+                float x = ((Number) params.get("x")).floatValue();
+                float y = ((Number) params.get("y")).floatValue();
+
+                // 执行点击（按下→按下时长→抬起）
+                long clickSeen = clickMonitor.getSequence();
+                boolean clickSuccess = tap(x, y, getLongParam(params, "press", DEFAULT_PRESS_MILLIS));
+                Boolean clickEvent = clickSuccess && params.containsKey("wait_click")
+                        ? awaitClickEvent(clickSeen, getLongParam(params, "wait_click", 0)) : null;
+
+                return new ActionResult(clickSuccess, clickSuccess ? "坐标点击成功" : "坐标点击失败", writer -> {
+                    if (clickEvent != null) writer.name("click_event").value(clickEvent);
+                    writer.name("x").value(x);
+                    writer.name("y").value(y);
+                });
+
+            // 2. 查找并点击（先找元素，再点击中心）
+            case "find_and_click":
+                // 参数校验：必须包含type和value
+                if (!params.containsKey("type") || !params.containsKey("value")) {
+                    return ActionResult.failure("find_and_click缺少参数type或value");
+                }
 
-            // 元素缓存：存储查找的元素供后续动作复用
-            Map<String, UiObject2> elementCache = new HashMap<>();
-            // 执行结果列表：记录每个动作的详细执行情况
-            List<Map<String, Object>> executionResults = new ArrayList<>();
-            boolean allSuccess = true;
+                String findType = (String) params.get("type");
+                String findValue = (String) params.get("value");
+                int findTimeout = params.containsKey("timeout") ?
+                        ((Number) params.get("timeout")).intValue() : 5000;
 
-            // 按顺序执行每个动作
-            for (int i = 0; i < actions.size(); i++) {
-                Map<String, Object> action = actions.get(i);
-                Map<String, Object> result = new HashMap<>();
-                result.put("actionIndex", i);
-                result.put("actionType", action.getOrDefault("type", "unknown"));
+                // 查找元素
+                UiObject2 element = findElementWithTimeout(findType, findValue, findTimeout);
+                if (element == null) {
+                    return ActionResult.failure("未找到元素：" + findType + "=" + findValue);
+                }
 
-                try {
-                    // 基础校验：动作必须包含type和params
-                    if (!action.containsKey("type") || !action.containsKey("params")) {
-                        result.put("success", false);
-                        result.put("message", "动作缺少type或params字段");
-                        executionResults.add(result);
-                        allSuccess = false;
-                        continue;
-                    }
-
-                    // 执行动作并获取结果
-                    String actionType = (String) action.get("type");
-                    Map<String, Object> params = (Map<String, Object>) action.get("params");
-                    String actionResultJson = executeAction(actionType, params, elementCache);
+                // 点击元素中心
+                Rect bounds = element.getVisibleBounds();
+                float centerX = bounds.centerX();
+                float centerY = bounds.centerY();
+                long findClickSeen = clickMonitor.getSequence();
+                boolean findClickSuccess = tap(centerX, centerY, getLongParam(params, "press", DEFAULT_PRESS_MILLIS));
+                Boolean findClickEvent = findClickSuccess && params.containsKey("wait_click")
+                        ? awaitClickEvent(findClickSeen, getLongParam(params, "wait_click", 0)) : null;
+
+                // 缓存元素供后续动作使用
+                elementCache.put("last_found", element);
+
+                String elementBounds = bounds.toShortString();
+                return new ActionResult(findClickSuccess, findClickSuccess ? "查找并点击成功" : "查找成功但点击失败", writer -> {
+                    if (findClickEvent != null) writer.name("click_event").value(findClickEvent);
+                    writer.name("element_bounds").value(elementBounds);
+                    writer.name("click_x").value(centerX);
+                    writer.name("click_y").value(centerY);
+                });
+
+            // 3. 查找并输入（先找元素，再输入文本）
+            case "find_and_input":
+                // 参数校验：必须包含type、value、text
+                if (!params.containsKey("type") || !params.containsKey("value") || !params.containsKey("text")) {
+                    return ActionResult.failure("find_and_input缺少参数type/value/text");
+                }
 
-                    // 解析动作结果并记录
-                    Map<String, Object> actionResult = gson.fromJson(actionResultJson, new TypeToken<Map<String, Object>>(){}.getType());
-                    result.putAll(actionResult);
-                    executionResults.add(result);
+                String inputType = (String) params.get("type");
+                String inputValue = (String) params.get("value");
+                String inputText = (String) params.get("text");
+                boolean clear = params.containsKey("clear") ?
+                        (boolean) params.get("clear") : true; // 默认清空
+                int inputTimeout = params.containsKey("timeout") ?
+                        ((Number) params.get("timeout")).intValue() : 5000;
+
+                // 查找输入框元素
+                UiObject2 inputElement = findElementWithTimeout(inputType, inputValue, inputTimeout);
+                if (inputElement == null) {
+                    return ActionResult.failure("未找到输入元素：" + inputType + "=" + inputValue);
+                }
 
-                    // 若当前动作失败，标记整体失败
-                    if (!(boolean) actionResult.getOrDefault("success", false)) {
-                        allSuccess = false;
-                        // 可根据需求改为break（停止后续动作）或continue（继续执行）
-                        // break;
-                    }
+                // 执行输入，等到输入框内容变为目标文本（或超时）
+                String actualText = inputText(inputElement, inputText, clear,
+                        getLongParam(params, "input_timeout", DEFAULT_INPUT_TIMEOUT));
+                boolean inputSuccess = inputText.equals(actualText);
+
+                return new ActionResult(inputSuccess, inputSuccess ? "输入成功" : "输入失败（实际值：" + actualText + "）", writer -> {
+                    writer.name("input_text").value(inputText);
+                    writer.name("actual_text").value(actualText);
+                });
+
+            // 4. 滑动序列（按下→多步滑动→抬起）
+            case "swipe_sequence":
+                // 参数校验：必须包含startX、startY和steps（滑动步骤数组）
+                if (!params.containsKey("startX") || !params.containsKey("startY") || !params.containsKey("steps")) {
+                    return ActionResult.failure("swipe_sequence缺少参数startX/startY/steps");
+                }
 
-                } catch (Exception e) {
-                    result.put("success", false);
-                    result.put("message", "动作执行异常：" + e.getMessage());
-                    executionResults.add(result);
-                    allSuccess = false;
+                float startX = ((Number) params.get("startX")).floatValue();
+                float startY = ((Number) params.get("startY")).floatValue();
+                List<Map<String, Number>> steps = (List<Map<String, Number>>) params.get("steps");
+
+                if (steps.isEmpty()) {
+                    return ActionResult.failure("steps数组不能为空（至少需要1步滑动）");
+                }
+
+                // 总滑动时长（默认500ms，可通过参数自定义）
+                int totalDuration = params.containsKey("duration") ?
+                        ((Number) params.get("duration")).intValue() : 500;
+                int stepDelay = totalDuration / steps.size();
+
+                // 滑动序列的时间线：按下起点→50ms后第一步→每步间隔stepDelay→最后一步后stepDelay抬起
+                float[][] swipePoints = new float[steps.size() + 1][];
+                long[] swipeTimes = new long[steps.size() + 1];
+                swipePoints[0] = new float[]{startX, startY};
+                for (int i = 0; i < steps.size(); i++) {
+                    Map<String, Number> step = steps.get(i);
+                    swipePoints[i + 1] = new float[]{step.get("x").floatValue(), step.get("y").floatValue()};
+                    swipeTimes[i + 1] = 50 + (long) i * stepDelay;
+                }
+                GestureExecutor.Result swipeResult = gestureExecutor.execute(Gesture.fromTimedPoints(
+                        swipePoints, swipeTimes, 50 + (long) steps.size() * stepDelay));
+                boolean swipeSuccess = swipeResult.isSuccess();
+                float[] swipeEnd = swipePoints[steps.size()];
+
+                int stepCount = steps.size();
+                return new ActionResult(swipeSuccess, swipeSuccess ? "滑动序列执行成功" : "滑动序列执行失败", writer -> {
+                    writePoint(writer, "start", startX, startY);
+                    writePoint(writer, "end", swipeEnd[0], swipeEnd[1]);
+                    writer.name("step_count").value(stepCount);
+                    swipeResult.writeFields(writer);
+                });
+
+            // 5. 手势（参数同/gesture的请求体）
+            case "gesture":
+                Gesture gesture = Gesture.parse(GSON.toJsonTree(params).getAsJsonObject());
+                boolean gestureAsync = Boolean.TRUE.equals(params.get("async"));
+                GestureExecutor.Result gestureResult =
+                        (gestureAsync ? asyncGestureExecutor : gestureExecutor).execute(gesture);
+                Gesture.Event gestureStart = gesture.getStart();
+                Gesture.Event gestureEnd = gesture.getEnd();
+                return new ActionResult(gestureResult.isSuccess(),
+                        gestureResult.isSuccess() ? "手势执行成功" : "手势执行失败", writer -> {
+                    writePoint(writer, "start", gestureStart.getX(), gestureStart.getY());
+                    writePoint(writer, "end", gestureEnd.getX(), gestureEnd.getY());
+                    gestureResult.writeFields(writer);
+                });
+
+            // 6. 多指手势（参数同/multi_gesture的请求体）
+            case "multi_gesture":
+                MultiGesture multiGesture = MultiGesture.parse(GSON.toJsonTree(params).getAsJsonObject());
+                GestureExecutor.Result multiResult = performMultiGesture(multiGesture);
+                int pointerCount = multiGesture.getPointerCount();
+                return new ActionResult(multiResult.isSuccess(),
+                        multiResult.isSuccess() ? "多指手势执行成功" : "多指手势执行失败", writer -> {
+                    writer.name("pointers").value(pointerCount);
+                    multiResult.writeFields(writer);
+                });
+
+            default:
+                return ActionResult.failure("未知动作类型：" + actionType);
+        }
+    }
+
+    /**
+     * 单个动作的结果：success/message和写在其后的附加字段
+     */
+    private static class ActionResult {
+        final boolean success;
+        final String message;
+        // 附加字段，动作执行完后由executeAction写出；为null表示没有
+        final Fields fields;
+
+        ActionResult(boolean success, String message, Fields fields) {
+            this.success = success;
+            this.message = message;
+            this.fields = fields;
+        }
+
+        static ActionResult failure(String message) {
+            return new ActionResult(false, message, null);
+        }
+
+        interface Fields {
+            void write(JsonStreamWriter writer) throws IOException;
+        }
+    }
+
+    private static boolean writeStatus(JsonStreamWriter writer, boolean success, String message) throws IOException {
+        writer.name("success").value(success);
+        writer.name("message").value(message);
+        return success;
+    }
+
+    private static void writePoint(JsonStreamWriter writer, String name, float x, float y) throws IOException {
+        writer.name(name).beginObject();
+        writer.name("x").value(x);
+        writer.name("y").value(y);
+        writer.endObject();
+    }
+
+    private void handleExecuteJsonScript(HttpResponse os, String jsonContent) throws IOException {
+        List<Map<String, Object>> actions;
+        RequestTiming timing = RequestTiming.current();
+        long parseStart = RequestTiming.now();
+        try {
+            // 解析JSON脚本为动作列表：[{type: "...", params: {...}}, ...]
+            Type actionListType = new TypeToken<List<Map<String, Object>>>(){}.getType();
+            actions = GSON.fromJson(jsonContent, actionListType);
+        } catch (RuntimeException e) {
+            sendJsonError(os, 400, "解析JSON脚本失败：" + e.getMessage());
+            return;
+        } finally {
+            timing.stop(RequestTiming.PARSE, parseStart);
+        }
+        if (actions == null || actions.isEmpty()) {
+            sendJsonError(os, 400, "JSON脚本为空或格式错误");
+            return;
+        }
+
+        // 元素缓存：存储查找的元素供后续动作复用
+        Map<String, UiObject2> elementCache = new HashMap<>();
+        boolean allSuccess = true;
+
+        // 每个动作的结果直接写进响应缓冲区，整体是否成功在所有动作执行完后写在末尾
+        ResponseBuffer buffer = ResponseBuffer.obtain();
+        JsonStreamWriter writer = new JsonStreamWriter(buffer);
+        writer.beginObject();
+        writer.name("totalActions").value(actions.size());
+        writer.name("results").beginArray();
+
+        // 按顺序执行每个动作
+        for (int i = 0; i < actions.size(); i++) {
+            Map<String, Object> action = actions.get(i);
+            writer.beginObject();
+            writer.name("actionIndex").value(i);
+            writer.name("actionType").value(String.valueOf(action.getOrDefault("type", "unknown")));
+
+            boolean success;
+            // 基础校验：动作必须包含type和params
+            if (!action.containsKey("type") || !action.containsKey("params")) {
+                success = writeStatus(writer, false, "动作缺少type或params字段");
+            } else {
+                try {
+                    String actionType = (String) action.get("type");
+                    Map<String, Object> params = (Map<String, Object>) action.get("params");
+                    success = executeAction(actionType, params, elementCache, writer);
+                } catch (ClassCastException e) {
+                    success = writeStatus(writer, false, "动作执行异常：" + e.getMessage());
                 }
             }
+            writer.endObject();
 
-            // 构建总响应
-            Map<String, Object> totalResponse = new HashMap<>();
-            totalResponse.put("success", allSuccess);
-            totalResponse.put("totalActions", actions.size());
-            totalResponse.put("results", executionResults);
-            sendResponse(os, 200, "application/json", gson.toJson(totalResponse));
+            // 若当前动作失败，标记整体失败（继续执行后续动作）
+            if (!success) allSuccess = false;
+        }
 
-        } catch (Exception e) {
-            sendResponse(os, 400, "application/json",
-                    "{\"success\":false, \"message\":\"解析JSON脚本失败：" + e.getMessage() + "\"}");
+        writer.endArray();
+        // server_timing开启时附带各阶段耗时（毫秒）
+        if (timing.isReported()) {
+            writer.name("timing");
+            timing.writeJson(writer);
         }
+        writer.name("success").value(allSuccess);
+        writer.endObject();
+        writer.flush();
+        os.send(200, "application/json; charset=UTF-8", buffer.getBuffer(), 0, buffer.size());
     }
 
-    private void handleInputRequest(OutputStream os, Map<String, String> params) throws IOException {
+    private void handleInputRequest(HttpResponse os, Map<String, String> params) throws IOException {
         try {
             // 解析元素查找参数
             String type = params.get("type");
@@ -704,61 +1033,176 @@ public class HierarchyTest extends AccessibilityService {
                 return;
             }
 
-            // 执行输入操作
-            if (clearBeforeInput) {
-                inputElement.clear(); // 清空
-                SystemClock.sleep(200); // 等待清空完成
-            }
-            inputElement.setText(inputText); // 输入文本
-            SystemClock.sleep(300); // 等待输入完成
-
-            // 验证结果
-            String actualText = inputElement.getText();
+            // 执行输入操作，等到输入框内容变为目标文本（或超时）
+            String actualText = inputText(inputElement, inputText, clearBeforeInput,
+                    parseTimeout(params.get("input_timeout"), DEFAULT_INPUT_TIMEOUT));
             boolean success = inputText.equals(actualText);
 
             // 返回结果
-            sendResponse(os, 200, "application/json",
-                    String.format("{\"success\":%b, \"message\":\"%s\", \"actual_text\":\"%s\"}",
-                            success,
-                            success ? "输入成功" : "输入失败",
-                            actualText)
-            );
+            ResponseBuffer buffer = ResponseBuffer.obtain();
+            JsonStreamWriter writer = new JsonStreamWriter(buffer, 256);
+            writer.beginObject();
+            writeStatus(writer, success, success ? "输入成功" : "输入失败");
+            writer.name("actual_text").value(actualText);
+            writer.endObject();
+            writer.flush();
+            os.send(200, "application/json; charset=UTF-8", buffer.getBuffer(), 0, buffer.size());
 
         } catch (Exception e) {
-            sendResponse(os, 500, "application/json",
-                    String.format("{\"success\":false, \"message\":\"输入操作异常：%s\"}", e.getMessage()));
+            sendJsonError(os, 500, "输入操作异常：" + e.getMessage());
         }
     }
 
+    // 输入后等待输入框内容更新的默认超时（毫秒）
+    private static final int DEFAULT_INPUT_TIMEOUT = 1000;
+    // 输入框内容检查不需要遍历层级树，漏掉事件时较快地兜底检查
+    private static final int INPUT_POLL_CEILING = 50;
+
+    // 点击的默认按下时长（毫秒）
+    private static final int DEFAULT_PRESS_MILLIS = 50;
+
+    /**
+     * 单击：按下→按下时长→抬起。pressMillis为0时立即抬起（与adb shell input tap相同）
+     */
+    private boolean tap(float x, float y, long pressMillis) {
+        boolean success = touchController.touchDown(x, y);
+        if (pressMillis > 0) SystemClock.sleep(pressMillis);
+        return success & touchController.touchUp(x, y);
+    }
+
+    /**
+     * 点击后等待TYPE_VIEW_CLICKED事件（目标控件响应了点击），seen为点击前clickMonitor的序号
+     */
+    private boolean awaitClickEvent(long seen, long timeoutMillis) throws IOException {
+        try {
+            return clickMonitor.awaitEventOfType(seen, TYPE_VIEW_CLICKED, timeoutMillis) != null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for click event", e);
+        }
+    }
+
+    /**
+     * 清空（可选）并输入文本，不再固定sleep：在文本变化事件到达时检查输入框内容，
+     * 内容变为目标文本即返回，最多等待timeoutMillis。返回输入框最终的文本
+     */
+    private String inputText(UiObject2 element, String text, boolean clear, long timeoutMillis) throws IOException {
+        if (clear) {
+            String before = element.getText();
+            element.clear();
+            if (before != null && !before.isEmpty()) {
+                awaitCondition(timeoutMillis, INPUT_POLL_CEILING, fresh -> {
+                    String current = element.getText();
+                    return current == null || !current.equals(before) ? Boolean.TRUE : null;
+                });
+            }
+        }
+        element.setText(text);
+        String actual = awaitCondition(timeoutMillis, INPUT_POLL_CEILING, fresh -> {
+            String current = element.getText();
+            return text.equals(current) ? current : null;
+        });
+        return actual != null ? actual : element.getText();
+    }
+
+    /**
+     * 从脚本动作参数中读取非负整数（毫秒），缺省或格式不对时返回默认值
+     */
+    private static long getLongParam(Map<String, Object> params, String key, long defaultValue) {
+        Object value = params.get(key);
+        return value instanceof Number ? Math.max(0, ((Number) value).longValue()) : defaultValue;
+    }
+
     private UiObject2 findElementWithTimeout(String type, String value, int timeout) throws IOException {
         UiDevice device = UiDevice.getInstance(InstrumentationRegistry.getInstrumentation());
         BySelector selector = buildBySelector(type, value);
-        // 使用 UiAutomator 的超时等待机制（等待元素出现，最多等待 timeout 毫秒）
-        return device.wait(Until.findObject(selector), timeout);
+        SnapshotQuery query = SnapshotQuery.parse(type, value);
+        // 在快照上确认元素出现后再取UiObject2；快照上没有时等待界面变化事件再检查
+        return awaitUi(timeout, fresh -> {
+            HierarchySnapshot snapshot = getWaitSnapshot(fresh);
+            long start = RequestTiming.now();
+            try {
+                return query.findFirst(snapshot) != null ? device.findObject(selector) : null;
+            } finally {
+                RequestTiming.current().stop(RequestTiming.MATCH, start);
+            }
+        });
     }
 
     // 带超时的多个元素查找
     private List<UiObject2> findElementsWithTimeout(String type, String value, int timeout) throws IOException {
         UiDevice device = UiDevice.getInstance(InstrumentationRegistry.getInstrumentation());
         BySelector selector = buildBySelector(type, value);
-        // 等待元素出现后再查找（最多等待 timeout 毫秒）
-        if (device.wait(Until.hasObject(selector), timeout)) {
-            return device.findObjects(selector);
+        SnapshotQuery query = SnapshotQuery.parse(type, value);
+        List<UiObject2> elements = awaitUi(timeout, fresh -> {
+            HierarchySnapshot snapshot = getWaitSnapshot(fresh);
+            long start = RequestTiming.now();
+            try {
+                if (query.findFirst(snapshot) == null) return null;
+                List<UiObject2> found = device.findObjects(selector);
+                return found.isEmpty() ? null : found;
+            } finally {
+                RequestTiming.current().stop(RequestTiming.MATCH, start);
+            }
+        });
+        return elements != null ? elements : Collections.<UiObject2>emptyList(); // 超时返回空列表
+    }
+
+    /**
+     * 在快照上查找节点，找不到时等待界面变化事件后重新检查，最多等待timeout毫秒
+     */
+    private List<UiNode> findNodesWithTimeout(SnapshotQuery query, int limit, int timeout, boolean fresh)
+            throws IOException {
+        // fresh=true只对第一次检查生效，之后的检查由事件和兜底轮询决定是否重新采集
+        boolean[] first = {fresh};
+        List<UiNode> nodes = awaitUi(timeout, pollFresh -> {
+            HierarchySnapshot snapshot = first[0] ? getSnapshot(true) : getWaitSnapshot(pollFresh);
+            first[0] = false;
+            long start = RequestTiming.now();
+            List<UiNode> found = query.findAll(snapshot, limit);
+            RequestTiming.current().stop(RequestTiming.MATCH, start);
+            return found.isEmpty() ? null : found;
+        });
+        return nodes != null ? nodes : Collections.<UiNode>emptyList();
+    }
+
+    /**
+     * 事件驱动的等待：只在收到界面变化事件（或达到兜底轮询间隔）时重新检查条件，超时返回null
+     */
+    private <T> T awaitUi(int timeout, UiEventMonitor.Condition<T> condition) throws IOException {
+        return awaitCondition(timeout, waitPollCeilingMillis, condition);
+    }
+
+    private <T> T awaitCondition(long timeout, long pollCeiling, UiEventMonitor.Condition<T> condition) throws IOException {
+        // 等待时间扣除期间条件检查里已计入的tree/match
+        RequestTiming timing = RequestTiming.current();
+        long start = RequestTiming.now();
+        long accounted = timing.getAccountedNanos();
+        try {
+            return eventMonitor.await(timeout, pollCeiling, condition);
+        } catch (IOException | RuntimeException e) {
+            throw e;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for UI", e);
+        } catch (Exception e) {
+            throw new IOException(e.getMessage(), e);
+        } finally {
+            timing.add(RequestTiming.WAIT,
+                    RequestTiming.now() - start - (timing.getAccountedNanos() - accounted));
         }
-        return Arrays.asList(); // 超时返回空列表
     }
 
-    private void handleFindElementRequest(OutputStream os, Map<String, String> params) throws IOException {
+    private void handleFindElementRequest(HttpResponse os, Map<String, String> params) throws IOException {
         String type = params.get("type");
         String value = params.get("value");
         // 获取超时参数（默认5000毫秒）
         int timeout = parseTimeout(params.get("timeout"), 5000);
 
         try {
-            UiObject2 element = findElementWithTimeout(type, value, timeout);
-            if (element != null) {
-                String json = String.format("{%s}", getElementAttributes(element));
-                sendResponse(os, 200, "application/json", json);
+            List<UiNode> nodes = findNodesWithTimeout(SnapshotQuery.parse(type, value), 1, timeout, isFresh(params));
+            if (!nodes.isEmpty()) {
+                sendElements(os, nodes, false);
             } else {
                 sendResponse(os, 404, "text/plain", "Element not found within timeout");
             }
@@ -767,22 +1211,16 @@ public class HierarchyTest extends AccessibilityService {
         }
     }
 
-    private void handleFindElementsRequest(OutputStream os, Map<String, String> params) throws IOException {
+    private void handleFindElementsRequest(HttpResponse os, Map<String, String> params) throws IOException {
         String type = params.get("type");
         String value = params.get("value");
         // 获取超时参数（默认5000毫秒）
         int timeout = parseTimeout(params.get("timeout"), 5000);
 
         try {
-            List<UiObject2> elements = findElementsWithTimeout(type, value, timeout);
-            if (!elements.isEmpty()) {
-                StringBuilder json = new StringBuilder("[");
-                for (int i = 0; i < elements.size(); i++) {
-                    json.append("{").append(getElementAttributes(elements.get(i))).append("}");
-                    if (i < elements.size() - 1) json.append(",");
-                }
-                json.append("]");
-                sendResponse(os, 200, "application/json", json.toString());
+            List<UiNode> nodes = findNodesWithTimeout(SnapshotQuery.parse(type, value), 0, timeout, isFresh(params));
+            if (!nodes.isEmpty()) {
+                sendElements(os, nodes, true);
             } else {
                 sendResponse(os, 404, "text/plain", "Elements not found within timeout");
             }
@@ -791,6 +1229,26 @@ public class HierarchyTest extends AccessibilityService {
         }
     }
 
+    /**
+     * 批量查找：所有选择器在同一个快照上通过索引执行，N次往返和N次遍历合并为一次
+     */
+    private void handleFindBatchRequest(HttpResponse os, String body, Map<String, String> params) throws Exception {
+        List<FindBatch.Selector> selectors;
+        try {
+            selectors = FindBatch.parse(body);
+        } catch (IllegalArgumentException e) {
+            sendJsonError(os, 400, e.getMessage());
+            return;
+        }
+        HierarchySnapshot snapshot = getSnapshot(isFresh(params));
+        // 选择器在索引上执行，结果边匹配边写出，一起计入match
+        long start = RequestTiming.now();
+        ResponseBuffer buffer = ResponseBuffer.obtain();
+        FindBatch.evaluate(snapshot, selectors, buffer);
+        RequestTiming.current().stop(RequestTiming.MATCH, start);
+        os.send(200, "application/json; charset=UTF-8", buffer.getBuffer(), 0, buffer.size());
+    }
+
     private int parseTimeout(String timeoutStr, int defaultValue) {
         if (timeoutStr == null || timeoutStr.isEmpty()) {
             return defaultValue;
@@ -803,69 +1261,61 @@ public class HierarchyTest extends AccessibilityService {
         }
     }
 
-    private void handleGetRootRequest(OutputStream os) throws IOException, ClassNotFoundException, NoSuchMethodException, InvocationTargetException, IllegalAccessException {
+    private void handleGetRootRequest(HttpResponse os) throws IOException, ClassNotFoundException, NoSuchMethodException, InvocationTargetException, IllegalAccessException {
         String rst = getWindowRoots();
         sendResponse(os, 200, "text/plain", rst);
     }
 
-    private void sendResponse(OutputStream os, int statusCode, String contentType, String content) throws IOException {
+    private void sendResponse(HttpResponse os, int statusCode, String contentType, String content) throws IOException {
         byte[] contentBytes = content.getBytes("UTF-8"); // 明确指定编码（如UTF-8）
-        String header = String.format("HTTP/1.1 %d %s\r\n" +
-                        "Content-Type: %s; charset=UTF-8\r\n" + // 补充字符集说明
-                        "Content-Length: %d\r\n" +
-                        "\r\n",
-                statusCode, getStatusMessage(statusCode), contentType, contentBytes.length); // 使用字节数组长度
-
-        os.write(header.getBytes("UTF-8"));
-        os.write(contentBytes);
-        os.flush();
-    }
-
-    private void sendFileResponse(OutputStream os, String contentType, File file) throws IOException {
-        long contentLength = file.length();
-        String header = String.format("HTTP/1.1 200 OK\r\n" +
-                "Content-Type: %s\r\n" +
-                "Content-Length: %d\r\n" +
-                "\r\n", contentType, contentLength);
-
-        os.write(header.getBytes());
-
-        try (FileInputStream fis = new FileInputStream(file)) {
-            byte[] buffer = new byte[1024];
-            int length;
-            while ((length = fis.read(buffer)) != -1) {
-                os.write(buffer, 0, length);
+        os.send(statusCode, contentType + "; charset=UTF-8", contentBytes); // 补充字符集说明
+    }
+
+    /**
+     * 写出异步响应（startAsync之后）并结束请求。在UiEventMonitor的等待线程上调用，
+     * 写出交给工作线程，客户端不读时不会卡住等待线程
+     */
+    private void completeResponse(HttpResponse os, int statusCode, String contentType, String content) {
+        os.dispatch(() -> {
+            try {
+                sendResponse(os, statusCode, contentType, content);
+            } catch (IOException e) {
+                // 客户端已断开
+            } finally {
+                os.complete();
             }
-        }
-        os.flush();
+        });
     }
 
-    private String getStatusMessage(int statusCode) {
-        switch (statusCode) {
-            case 200: return "OK";
-            case 400: return "Bad Request";
-            case 404: return "Not Found";
-            case 500: return "Internal Server Error";
-            default: return "Unknown";
-        }
+    /**
+     * {"success":false,"message":...}，message按JSON转义
+     */
+    private void sendJsonError(HttpResponse os, int statusCode, String message) throws IOException {
+        ResponseBuffer buffer = ResponseBuffer.obtain();
+        JsonStreamWriter writer = new JsonStreamWriter(buffer, 256);
+        writer.beginObject();
+        writeStatus(writer, false, message);
+        writer.endObject();
+        writer.flush();
+        os.send(statusCode, "application/json; charset=UTF-8", buffer.getBuffer(), 0, buffer.size());
     }
 
-    private File dumpWindowHierarchy(boolean compressed, String fileName) {
-        UiDevice mDevice = UiDevice.getInstance(InstrumentationRegistry.getInstrumentation());
-        mDevice.setCompressedLayoutHeirarchy(compressed);
+    private void sendFileResponse(HttpResponse os, String contentType, File file) throws IOException {
+        // 支持HEAD/Range，底层socket支持时通过FileChannel.transferTo零拷贝发送
+        os.sendFile(contentType, file);
+    }
 
-        File file = new File(path, fileName);
-        try {
-            if (!file.exists()) file.createNewFile();
-            mDevice.dumpWindowHierarchy(file);
-        } catch (IOException e) {
-            e.printStackTrace();
+    private void dumpWindowHierarchy(boolean compressed, OutputStream out) throws IOException {
+        UiDevice mDevice = UiDevice.getInstance(InstrumentationRegistry.getInstrumentation());
+        // compressed是UiDevice的全局设置，设置和dump需要原子执行，避免并发请求互相影响
+        synchronized (mDevice) {
+            mDevice.setCompressedLayoutHeirarchy(compressed);
+            mDevice.dumpWindowHierarchy(out);
         }
-        return file;
     }
 
     private File takeScreenshot(int quality) throws IOException {
-        File screenshotFile = new File(path, "screenshot.png");
+        File screenshotFile = File.createTempFile("screenshot", ".png", new File(path));
         UiDevice mDevice = UiDevice.getInstance(InstrumentationRegistry.getInstrumentation());
         mDevice.takeScreenshot(screenshotFile, 0.1f, quality);
         return screenshotFile;
@@ -929,22 +1379,24 @@ public class HierarchyTest extends AccessibilityService {
         return bySelector;
     }
 
-    private String getElementAttributes(UiObject2 uiObject) {
-        return  "\"text\": \"" + (uiObject.getText() != null ? uiObject.getText() : "") + "\", " +
-                "\"id\": \"" + (uiObject.getResourceName() != null ? uiObject.getResourceName() : "") + "\", " +
-                "\"class_name\": \"" + (uiObject.getClassName() != null ? uiObject.getClassName() : "") + "\", " +
-                "\"package\": \"" + (uiObject.getApplicationPackage() != null ? uiObject.getApplicationPackage() : "") + "\", " +
-                "\"content_desc\": \"" + (uiObject.getContentDescription() != null ? uiObject.getContentDescription() : "") + "\", " +
-                "\"checkable\": \"" + uiObject.isCheckable() + "\", " +
-                "\"checked\": \"" + uiObject.isChecked() + "\", " +
-                "\"clickable\": \"" + uiObject.isClickable() + "\", " +
-                "\"enabled\": \"" + uiObject.isEnabled() + "\", " +
-                "\"focusable\": \"" + uiObject.isFocusable() + "\", " +
-                "\"focused\": \"" + uiObject.isFocused() + "\", " +
-                "\"scrollable\": \"" + uiObject.isScrollable() + "\", " +
-                "\"long_clickable\": \"" + uiObject.isLongClickable() + "\", " +
-                "\"selected\": \"" + uiObject.isSelected() + "\", " +
-                "\"bounds\": \"" + uiObject.getVisibleBounds().toShortString() + "\"";
+    /**
+     * 快照节点的元素字段直接写入响应缓冲区，array为false时只输出第一个节点
+     */
+    private void sendElements(HttpResponse os, List<UiNode> nodes, boolean array) throws IOException {
+        long start = RequestTiming.now();
+        ResponseBuffer buffer = ResponseBuffer.obtain();
+        JsonStreamWriter writer = new JsonStreamWriter(buffer);
+        if (array) writer.beginArray();
+        for (UiNode node : nodes) {
+            writer.beginObject();
+            SnapshotQuery.writeAttributes(writer, node);
+            writer.endObject();
+            if (!array) break;
+        }
+        if (array) writer.endArray();
+        writer.flush();
+        RequestTiming.current().stop(RequestTiming.SERIALIZE, start);
+        os.send(200, "application/json; charset=UTF-8", buffer.getBuffer(), 0, buffer.size());
     }
 
     private UiObject2 findElement(String type, String value) throws IOException {
@@ -966,12 +1418,21 @@ public class HierarchyTest extends AccessibilityService {
 
 
     public String getWindowRoots() throws ClassNotFoundException, NoSuchMethodException, InvocationTargetException, IllegalAccessException {
+        return Arrays.toString(getWindowRootNodes());
+    }
+
+    /**
+     * 通过反射调用UiDevice.getWindowRoots()获取所有窗口的根节点
+     */
+    private AccessibilityNodeInfo[] getWindowRootNodes() throws ClassNotFoundException, NoSuchMethodException, InvocationTargetException, IllegalAccessException {
         UiDevice mDevice = UiDevice.getInstance(InstrumentationRegistry.getInstrumentation());
-        Class<?> clazz = Class.forName("androidx.test.uiautomator.UiDevice");
-        Method method = clazz.getDeclaredMethod("getWindowRoots");
-        method.setAccessible(true);
-        AccessibilityNodeInfo[] roots = (AccessibilityNodeInfo[]) method.invoke(mDevice);
-        return Arrays.toString(roots);
+        if (getWindowRootsMethod == null) {
+            Class<?> clazz = Class.forName("androidx.test.uiautomator.UiDevice");
+            Method method = clazz.getDeclaredMethod("getWindowRoots");
+            method.setAccessible(true);
+            getWindowRootsMethod = method;
+        }
+        return (AccessibilityNodeInfo[]) getWindowRootsMethod.invoke(mDevice);
     }
 
     private void startWatchingUiChanges() {
@@ -987,14 +1448,10 @@ public class HierarchyTest extends AccessibilityService {
                             checkWindowUpdate, // 事件条件
                             15000 // 超时时间延长至15000ms
                     );
-                    // 只有收到符合条件的事件时，才标记UI变化
-                    uiChanged.set(true);
                     Log.d("WatcherThread", "检测到UI变化");
                 } catch (TimeoutException e) {
                     // 仅打印超时日志，不抛出异常，让线程继续循环
                     Log.w("WatcherThread", "超时未检测到UI事件，继续等待...");
-                    // 可选：超时后也可以标记UI变化（根据业务需求）
-                    // uiChanged.set(false);
                 } catch (Exception e) {
                     // 捕获其他异常（如UiAutomation被销毁），终止循环
                     Log.e("WatcherThread", "监听线程发生错误，停止监听", e);
@@ -1006,21 +1463,21 @@ public class HierarchyTest extends AccessibilityService {
     }
 
 
+    /**
+     * 自上次（任一客户端）调用以来是否有界面变化事件。多个客户端需要各自的检查点时使用since参数
+     */
     private String is_ui_change() {
-        if (lastWindowChangeEvent != null && uiChanged.getAndSet(false)) {
-            lastWindowChangeEvent = null;
-            return "true";
-        } else {
-            return "false";
+        long sequence = eventMonitor.getSequence();
+        while (true) {
+            long checked = lastUiChangeCheck.get();
+            if (sequence <= checked) return "false";
+            if (lastUiChangeCheck.compareAndSet(checked, sequence)) return "true";
         }
     }
 
     @Override
     public void onAccessibilityEvent(AccessibilityEvent event) {
-        if (event.getEventType() == AccessibilityEvent.TYPE_WINDOW_CONTENT_CHANGED) {
-            lastWindowChangeEvent = event;
-            uiChanged.set(true);
-        }
+        recordEvent(event);
     }
 
     @Override
@@ -0,0 +1,97 @@
+package nico.dump_hierarchy;
+
+import android.graphics.Rect;
+import android.view.accessibility.AccessibilityNodeInfo;
+
+import java.io.IOException;
+
+/**
+ * 单次先序遍历无障碍树，把节点交给NodeSink输出。
+ * 只读取请求的属性；超过最大深度或不可见的子树不会再通过binder获取子节点。
+ */
+public class HierarchyWalker {
+    private final int fields;
+    private final int maxDepth;
+    private final boolean visibleOnly;
+    private final Rect bounds = new Rect();
+
+    /**
+     * @param fields      HierarchyFields位掩码
+     * @param maxDepth    最大深度（根节点为0），小于0表示不限制
+     * @param visibleOnly 是否跳过对用户不可见的节点（UiAutomator默认行为）
+     */
+    public HierarchyWalker(int fields, int maxDepth, boolean visibleOnly) {
+        this.fields = fields;
+        this.maxDepth = maxDepth;
+        this.visibleOnly = visibleOnly;
+    }
+
+    public void walk(AccessibilityNodeInfo[] roots, int rotation, NodeSink sink) throws IOException {
+        sink.startHierarchy(rotation);
+        for (int i = 0; i < roots.length; i++) {
+            if (roots[i] != null) {
+                walkNode(roots[i], i, 0, sink);
+            }
+        }
+        sink.endHierarchy();
+    }
+
+    private void walkNode(AccessibilityNodeInfo info, int index, int depth, NodeSink sink) throws IOException {
+        UiNode node = toUiNode(info, index, depth);
+        sink.startNode(node, fields);
+        if (maxDepth < 0 || depth < maxDepth) {
+            int childCount = info.getChildCount();
+            for (int i = 0; i < childCount; i++) {
+                AccessibilityNodeInfo child = info.getChild(i);
+                if (child == null) continue;
+                try {
+                    if (visibleOnly && !child.isVisibleToUser()) continue;
+                    walkNode(child, i, depth + 1, sink);
+                } finally {
+                    child.recycle();
+                }
+            }
+        }
+        sink.endNode(node);
+    }
+
+    private UiNode toUiNode(AccessibilityNodeInfo info, int index, int depth) {
+        UiNode node = new UiNode();
+        node.index = index;
+        node.depth = depth;
+        if (has(HierarchyFields.TEXT)) node.text = safeString(info.getText());
+        if (has(HierarchyFields.RESOURCE_ID)) node.resourceId = safeString(info.getViewIdResourceName());
+        if (has(HierarchyFields.CLASS)) node.className = safeString(info.getClassName());
+        if (has(HierarchyFields.PACKAGE)) node.packageName = safeString(info.getPackageName());
+        if (has(HierarchyFields.CONTENT_DESC)) node.contentDesc = safeString(info.getContentDescription());
+        if ((fields & HierarchyFields.FLAGS) != 0) {
+            if (has(HierarchyFields.CHECKABLE)) node.setFlag(UiNode.CHECKABLE, info.isCheckable());
+            if (has(HierarchyFields.CHECKED)) node.setFlag(UiNode.CHECKED, info.isChecked());
+            if (has(HierarchyFields.CLICKABLE)) node.setFlag(UiNode.CLICKABLE, info.isClickable());
+            if (has(HierarchyFields.ENABLED)) node.setFlag(UiNode.ENABLED, info.isEnabled());
+            if (has(HierarchyFields.FOCUSABLE)) node.setFlag(UiNode.FOCUSABLE, info.isFocusable());
+            if (has(HierarchyFields.FOCUSED)) node.setFlag(UiNode.FOCUSED, info.isFocused());
+            if (has(HierarchyFields.SCROLLABLE)) node.setFlag(UiNode.SCROLLABLE, info.isScrollable());
+            if (has(HierarchyFields.LONG_CLICKABLE)) node.setFlag(UiNode.LONG_CLICKABLE, info.isLongClickable());
+            if (has(HierarchyFields.PASSWORD)) node.setFlag(UiNode.PASSWORD, info.isPassword());
+            if (has(HierarchyFields.SELECTED)) node.setFlag(UiNode.SELECTED, info.isSelected());
+            if (has(HierarchyFields.VISIBLE)) node.setFlag(UiNode.VISIBLE, info.isVisibleToUser());
+        }
+        if (has(HierarchyFields.BOUNDS)) {
+            info.getBoundsInScreen(bounds);
+            node.left = bounds.left;
+            node.top = bounds.top;
+            node.right = bounds.right;
+            node.bottom = bounds.bottom;
+        }
+        return node;
+    }
+
+    private boolean has(int field) {
+        return (fields & field) != 0;
+    }
+
+    private static String safeString(CharSequence value) {
+        return value != null ? value.toString() : "";
+    }
+}
@@ -16,9 +16,21 @@ public class TouchController {
     private static final boolean DEBUG;
     private static final String LOG_TAG;
     private static final int MOTION_EVENT_INJECTION_DELAY_MILLIS = 5;
+    // 异步注入队列长度（120Hz下约2秒的事件）与队列满时提交方最长等待时间
+    private static final int ASYNC_QUEUE_SIZE = 256;
+    private static final long ASYNC_SUBMIT_TIMEOUT_MILLIS = 1000;
+    // 排在异步事件之后的同步注入最长等待时间
+    private static final long ASYNC_SYNC_TIMEOUT_MILLIS = 5000;
+    private volatile AsyncInjector<InputEvent> mAsyncInjector;
     private long mDownTime;
     private final Instrumentation mInstrumentation;
     private final KeyCharacterMap mKeyCharacterMap = KeyCharacterMap.load(-1);
+    // 工具类型在创建时读取一次，不再每个事件查询Configurator
+    private final int mToolType;
+    // 单指事件复用的指针属性/坐标数组：MotionEvent.obtain会复制其中的数据，注入后事件recycle回系统的事件池，
+    // 连续的移动事件不再产生Java对象分配
+    private final MotionEvent.PointerProperties[] mSingleProperties = {new MotionEvent.PointerProperties()};
+    private final MotionEvent.PointerCoords[] mSingleCoords = {new MotionEvent.PointerCoords()};
 
     static {
         String simpleName = TouchController.class.getSimpleName();
@@ -28,6 +40,11 @@ public class TouchController {
 
     public TouchController(Instrumentation instrumentation) {
         this.mInstrumentation = instrumentation;
+        this.mToolType = Configurator.getInstance().getToolType();
+        this.mSingleProperties[0].id = 0;
+        this.mSingleProperties[0].toolType = this.mToolType;
+        this.mSingleCoords[0].pressure = 1.0f;
+        this.mSingleCoords[0].size = 1.0f;
     }
 
     public boolean isScreenOn() {
@@ -35,18 +52,95 @@ public class TouchController {
         return pm.isScreenOn();
     }
 
+    /**
+     * 同步注入并回收事件（调用方不能再使用event）
+     */
     private boolean injectEventSync(InputEvent event) {
-        return getUiAutomation().injectInputEvent(event, true);
+        AsyncInjector<InputEvent> asyncInjector = this.mAsyncInjector;
+        if (asyncInjector != null && asyncInjector.hasPending()) {
+            // 异步队列里还有事件：排到队尾同步注入，保持事件顺序（由注入线程回收）
+            try {
+                return asyncInjector.submitSync(event, ASYNC_SYNC_TIMEOUT_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        try {
+            return getUiAutomation().injectInputEvent(event, true);
+        } finally {
+            recycle(event);
+        }
+    }
+
+    private static void recycle(InputEvent event) {
+        if (event instanceof MotionEvent) {
+            ((MotionEvent) event).recycle();
+        }
+    }
+
+    /**
+     * 异步注入：事件交给注入线程以sync=false注入，不等待输入分发确认；队列满时最多等待1秒
+     */
+    private boolean injectEventAsync(InputEvent event) {
+        try {
+            return getAsyncInjector().submit(event, ASYNC_SUBMIT_TIMEOUT_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * 异步注入线程，第一次使用时创建
+     */
+    public AsyncInjector<InputEvent> getAsyncInjector() {
+        AsyncInjector<InputEvent> asyncInjector = this.mAsyncInjector;
+        if (asyncInjector == null) {
+            synchronized (this) {
+                asyncInjector = this.mAsyncInjector;
+                if (asyncInjector == null) {
+                    asyncInjector = new AsyncInjector<>(new AsyncInjector.Sink<InputEvent>() {
+                        @Override
+                        public boolean inject(InputEvent event, boolean sync) {
+                            return getUiAutomation().injectInputEvent(event, sync);
+                        }
+
+                        @Override
+                        public void release(InputEvent event) {
+                            recycle(event);
+                        }
+                    }, ASYNC_QUEUE_SIZE);
+                    this.mAsyncInjector = asyncInjector;
+                }
+            }
+        }
+        return asyncInjector;
+    }
+
+    /**
+     * 异步注入的统计（未使用过异步注入时为null）
+     */
+    public String getAsyncInjectorStats() {
+        AsyncInjector<InputEvent> asyncInjector = this.mAsyncInjector;
+        return asyncInjector == null ? "null" : asyncInjector.toJson();
     }
 
     public boolean touchDown(float x, float y) {
+        return touchDown(x, y, false);
+    }
+
+    /**
+     * @param async 为true时异步注入（之后的touchUp会等待队列中的事件注入完）
+     */
+    public boolean touchDown(float x, float y, boolean async) {
         if (DEBUG) {
             android.util.Log.d(LOG_TAG, "touchDown (" + x + ", " + y + ")");
         }
         long jUptimeMillis = SystemClock.uptimeMillis();
         this.mDownTime = jUptimeMillis;
         MotionEvent event = getMotionEvent(jUptimeMillis, jUptimeMillis, 0, x, y);
-        return injectEventSync(event);
+        return async ? injectEventAsync(event) : injectEventSync(event);
     }
 
     public boolean touchUp(float x, float y) {
@@ -60,28 +154,70 @@ public class TouchController {
     }
 
     public boolean touchMove(float x, float y) {
+        return touchMove(x, y, false);
+    }
+
+    /**
+     * @param async 为true时异步注入，不等待输入分发确认
+     */
+    public boolean touchMove(float x, float y, boolean async) {
         if (DEBUG) {
             android.util.Log.d(LOG_TAG, "touchMove (" + x + ", " + y + ")");
         }
         long eventTime = SystemClock.uptimeMillis();
         MotionEvent event = getMotionEvent(this.mDownTime, eventTime, 2, x, y);
-        return injectEventSync(event);
+        return async ? injectEventAsync(event) : injectEventSync(event);
+    }
+
+    /**
+     * 以指定的downTime/eventTime注入单指事件（手势引擎按截止时间调度时使用）
+     */
+    public boolean touch(int action, float x, float y, long downTime, long eventTime) {
+        return touch(action, x, y, downTime, eventTime, false);
     }
 
-    private static MotionEvent getMotionEvent(long downTime, long eventTime, int action, float x, float y) {
-        MotionEvent.PointerProperties properties = new MotionEvent.PointerProperties();
-        properties.id = 0;
-        properties.toolType = Configurator.getInstance().getToolType();
-        MotionEvent.PointerCoords coords = new MotionEvent.PointerCoords();
-        coords.pressure = 1.0f;
-        coords.size = 1.0f;
-        coords.x = x;
-        coords.y = y;
-        MotionEvent event = MotionEvent.obtain(downTime, eventTime, action, 1, new MotionEvent.PointerProperties[]{properties}, new MotionEvent.PointerCoords[]{coords}, 0, 0, 1.0f, 1.0f, 0, 0, InputDeviceCompat.SOURCE_TOUCHSCREEN, 0);
-        return event;
+    /**
+     * @param async 为true时按下/移动异步注入；抬起总是同步注入，作为整个手势的屏障
+     */
+    public boolean touch(int action, float x, float y, long downTime, long eventTime, boolean async) {
+        if (DEBUG) {
+            android.util.Log.d(LOG_TAG, "touch " + action + " (" + x + ", " + y + ") at " + eventTime);
+        }
+        MotionEvent event = getMotionEvent(downTime, eventTime, action, x, y);
+        this.mDownTime = action == 1 ? 0L : downTime;
+        return async && action != 1 ? injectEventAsync(event) : injectEventSync(event);
+    }
+
+    /**
+     * 构造单指事件：复用指针数组，事件本身从MotionEvent池中取（注入后recycle放回）
+     */
+    MotionEvent getMotionEvent(long downTime, long eventTime, int action, float x, float y) {
+        synchronized (this.mSingleCoords) {
+            MotionEvent.PointerCoords coords = this.mSingleCoords[0];
+            coords.x = x;
+            coords.y = y;
+            return MotionEvent.obtain(downTime, eventTime, action, 1, this.mSingleProperties, this.mSingleCoords, 0, 0, 1.0f, 1.0f, 0, 0, InputDeviceCompat.SOURCE_TOUCHSCREEN, 0);
+        }
     }
 
     public boolean performMultiPointerGesture(MotionEvent.PointerCoords[]... touches) {
+        int maxSteps = 0;
+        for (MotionEvent.PointerCoords[] touch : touches) {
+            maxSteps = Math.max(maxSteps, touch.length);
+        }
+        long[] times = new long[maxSteps];
+        for (int i = 0; i < maxSteps; i++) {
+            times[i] = (long) i * MOTION_EVENT_INJECTION_DELAY_MILLIS;
+        }
+        return performMultiPointerGesture(times, touches).isSuccess();
+    }
+
+    /**
+     * 按截止时间注入多指手势：第i步安排在 按下时刻 + times[i]，事件的eventTime取截止时间，
+     * 注入耗时不会累积到后续步骤上。第0步依次按下所有手指，最后一步依次抬起，中间每步一个移动事件；
+     * 轨迹较短的手指停在自己的最后一个点
+     */
+    public GestureExecutor.Result performMultiPointerGesture(long[] times, MotionEvent.PointerCoords[]... touches) {
         if (touches.length < 2) {
             throw new IllegalArgumentException("Must provide coordinates for at least 2 pointers");
         }
@@ -89,21 +225,27 @@ public class TouchController {
         for (int x = 0; x < touches.length; x++) {
             maxSteps = maxSteps < touches[x].length ? touches[x].length : maxSteps;
         }
+        if (times.length < maxSteps) {
+            throw new IllegalArgumentException("Must provide a time for every step");
+        }
         int x2 = touches.length;
         MotionEvent.PointerProperties[] properties = new MotionEvent.PointerProperties[x2];
         MotionEvent.PointerCoords[] pointerCoords = new MotionEvent.PointerCoords[touches.length];
         for (int x3 = 0; x3 < touches.length; x3++) {
             MotionEvent.PointerProperties prop = new MotionEvent.PointerProperties();
             prop.id = x3;
-            prop.toolType = Configurator.getInstance().getToolType();
+            prop.toolType = this.mToolType;
             properties[x3] = prop;
             pointerCoords[x3] = touches[x3][0];
         }
         long downTime = SystemClock.uptimeMillis();
-        MotionEvent event = MotionEvent.obtain(downTime, SystemClock.uptimeMillis(), 0, 1, properties, pointerCoords, 0, 0, 1.0f, 1.0f, 0, 0, InputDeviceCompat.SOURCE_TOUCHSCREEN, 0);
+        GestureExecutor.LagStats stats = new GestureExecutor.LagStats(downTime);
+        stats.record(downTime, SystemClock.uptimeMillis());
+        MotionEvent event = MotionEvent.obtain(downTime, downTime, 0, 1, properties, pointerCoords, 0, 0, 1.0f, 1.0f, 0, 0, InputDeviceCompat.SOURCE_TOUCHSCREEN, 0);
         boolean ret = true & injectEventSync(event);
         for (int x4 = 1; x4 < touches.length; x4++) {
-            MotionEvent event2 = MotionEvent.obtain(downTime, SystemClock.uptimeMillis(), getPointerAction(5, x4), x4 + 1, properties, pointerCoords, 0, 0, 1.0f, 1.0f, 0, 0, InputDeviceCompat.SOURCE_TOUCHSCREEN, 0);
+            stats.record(downTime, SystemClock.uptimeMillis());
+            MotionEvent event2 = MotionEvent.obtain(downTime, downTime, getPointerAction(5, x4), x4 + 1, properties, pointerCoords, 0, 0, 1.0f, 1.0f, 0, 0, InputDeviceCompat.SOURCE_TOUCHSCREEN, 0);
             ret &= injectEventSync(event2);
         }
         for (int i = 1; i < maxSteps - 1; i++) {
@@ -114,20 +256,33 @@ public class TouchController {
                     pointerCoords[x5] = touches[x5][touches[x5].length - 1];
                 }
             }
-            MotionEvent event3 = MotionEvent.obtain(downTime, SystemClock.uptimeMillis(), 2, touches.length, properties, pointerCoords, 0, 0, 1.0f, 1.0f, 0, 0, InputDeviceCompat.SOURCE_TOUCHSCREEN, 0);
+            long deadline = downTime + times[i];
+            sleepUntil(deadline);
+            stats.record(deadline, SystemClock.uptimeMillis());
+            MotionEvent event3 = MotionEvent.obtain(downTime, deadline, 2, touches.length, properties, pointerCoords, 0, 0, 1.0f, 1.0f, 0, 0, InputDeviceCompat.SOURCE_TOUCHSCREEN, 0);
             ret &= injectEventSync(event3);
-            SystemClock.sleep(5L);
         }
         for (int x6 = 0; x6 < touches.length; x6++) {
             pointerCoords[x6] = touches[x6][touches[x6].length - 1];
         }
+        long upTime = downTime + times[maxSteps - 1];
+        sleepUntil(upTime);
         for (int x7 = 1; x7 < touches.length; x7++) {
-            MotionEvent event4 = MotionEvent.obtain(downTime, SystemClock.uptimeMillis(), getPointerAction(6, x7), x7 + 1, properties, pointerCoords, 0, 0, 1.0f, 1.0f, 0, 0, InputDeviceCompat.SOURCE_TOUCHSCREEN, 0);
+            stats.record(upTime, SystemClock.uptimeMillis());
+            MotionEvent event4 = MotionEvent.obtain(downTime, upTime, getPointerAction(6, x7), x7 + 1, properties, pointerCoords, 0, 0, 1.0f, 1.0f, 0, 0, InputDeviceCompat.SOURCE_TOUCHSCREEN, 0);
             ret &= injectEventSync(event4);
         }
-        android.util.Log.i(LOG_TAG, "x " + pointerCoords[0].x);
-        MotionEvent event5 = MotionEvent.obtain(downTime, SystemClock.uptimeMillis(), 1, 1, properties, pointerCoords, 0, 0, 1.0f, 1.0f, 0, 0, InputDeviceCompat.SOURCE_TOUCHSCREEN, 0);
-        return ret & injectEventSync(event5);
+        stats.record(upTime, SystemClock.uptimeMillis());
+        MotionEvent event5 = MotionEvent.obtain(downTime, upTime, 1, 1, properties, pointerCoords, 0, 0, 1.0f, 1.0f, 0, 0, InputDeviceCompat.SOURCE_TOUCHSCREEN, 0);
+        ret &= injectEventSync(event5);
+        return stats.toResult(ret, times[maxSteps - 1], SystemClock.uptimeMillis());
+    }
+
+    private static void sleepUntil(long deadline) {
+        long remaining = deadline - SystemClock.uptimeMillis();
+        if (remaining > 0) {
+            SystemClock.sleep(remaining);
+        }
     }
 
     private int getPointerAction(int motionEnvent, int index) {
@@ -0,0 +1,94 @@
+package nico.dump_hierarchy;
+
+import android.os.Debug;
+import android.util.Log;
+import android.view.MotionEvent;
+
+import androidx.core.view.InputDeviceCompat;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+import androidx.test.uiautomator.Configurator;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.*;
+
+/**
+ * 移动事件构造路径的对象分配：复用指针数组 + recycle后，10000次移动几乎不再分配Java对象；
+ * 对照组为原来每个事件新建PointerProperties/PointerCoords及数组、不回收的写法
+ */
+@RunWith(AndroidJUnit4.class)
+public class TouchControllerAllocationTest {
+    private static final String TAG = "hank_auto";
+    private static final int MOVES = 10_000;
+
+    @Test
+    public void pooledMoves_allocationFree() {
+        TouchController controller = new TouchController(InstrumentationRegistry.getInstrumentation());
+        long downTime = 1000;
+        // 预热：类加载、填充MotionEvent池
+        for (int i = 0; i < 100; i++) {
+            controller.getMotionEvent(downTime, downTime + i, MotionEvent.ACTION_MOVE, i, i).recycle();
+        }
+
+        int pooled = countAllocations(() -> {
+            for (int i = 0; i < MOVES; i++) {
+                MotionEvent event = controller.getMotionEvent(downTime, downTime + i, MotionEvent.ACTION_MOVE, i, i * 2);
+                event.recycle();
+            }
+        });
+        int legacy = countAllocations(() -> {
+            for (int i = 0; i < MOVES; i++) {
+                legacyMotionEvent(downTime, downTime + i, MotionEvent.ACTION_MOVE, i, i * 2);
+            }
+        });
+        Log.i(TAG, MOVES + " moves: pooled " + pooled + " allocations, legacy " + legacy + " allocations");
+
+        assertTrue("pooled path allocated " + pooled + " objects", pooled < MOVES / 100);
+        assertTrue("legacy path allocated only " + legacy + " objects", legacy >= MOVES * 4);
+    }
+
+    @Test
+    public void reusedArrays_doNotLeakIntoEarlierEvents() {
+        TouchController controller = new TouchController(InstrumentationRegistry.getInstrumentation());
+        MotionEvent first = controller.getMotionEvent(1000, 1000, MotionEvent.ACTION_DOWN, 10, 20);
+        MotionEvent second = controller.getMotionEvent(1000, 1016, MotionEvent.ACTION_MOVE, 30, 40);
+        try {
+            assertEquals(10, first.getX(), 0);
+            assertEquals(20, first.getY(), 0);
+            assertEquals(30, second.getX(), 0);
+            assertEquals(MotionEvent.ACTION_MOVE, second.getAction());
+            assertEquals(1016, second.getEventTime());
+            assertEquals(Configurator.getInstance().getToolType(), second.getToolType(0));
+        } finally {
+            first.recycle();
+            second.recycle();
+        }
+    }
+
+    @SuppressWarnings("deprecation")
+    private static int countAllocations(Runnable work) {
+        Debug.resetThreadAllocCount();
+        Debug.startAllocCounting();
+        try {
+            work.run();
+        } finally {
+            Debug.stopAllocCounting();
+        }
+        return Debug.getThreadAllocCount();
+    }
+
+    private static MotionEvent legacyMotionEvent(long downTime, long eventTime, int action, float x, float y) {
+        MotionEvent.PointerProperties properties = new MotionEvent.PointerProperties();
+        properties.id = 0;
+        properties.toolType = Configurator.getInstance().getToolType();
+        MotionEvent.PointerCoords coords = new MotionEvent.PointerCoords();
+        coords.pressure = 1.0f;
+        coords.size = 1.0f;
+        coords.x = x;
+        coords.y = y;
+        return MotionEvent.obtain(downTime, eventTime, action, 1, new MotionEvent.PointerProperties[]{properties},
+                new MotionEvent.PointerCoords[]{coords}, 0, 0, 1.0f, 1.0f, 0, 0, InputDeviceCompat.SOURCE_TOUCHSCREEN, 0);
+    }
+}
@@ -0,0 +1,234 @@
+package nico.dump_hierarchy;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 异步事件注入：单个注入线程按提交顺序消费有界队列，以sync=false注入，请求线程只负责构造事件入队，
+ * 不再等待输入分发确认每个事件。队列满时提交方最多阻塞submitTimeout（背压），
+ * 手势结束时用submitSync注入最后一个事件（sync=true），返回时之前的事件都已分发。
+ *
+ * @param <E> 事件类型（Android上为InputEvent）
+ */
+public class AsyncInjector<E> {
+
+    /**
+     * 实际注入（Android上为UiAutomation.injectInputEvent）
+     */
+    public interface Sink<E> {
+        boolean inject(E event, boolean sync);
+
+        /**
+         * 注入后释放事件（MotionEvent.recycle），默认不处理
+         */
+        default void release(E event) {
+        }
+    }
+
+    private static final class Entry<E> {
+        final E event;
+        final boolean sync;
+        final long enqueuedNanos;
+        // 同步提交/屏障：注入完成后计数
+        final CountDownLatch done;
+        volatile boolean result;
+
+        Entry(E event, boolean sync, CountDownLatch done) {
+            this.event = event;
+            this.sync = sync;
+            this.done = done;
+            this.enqueuedNanos = System.nanoTime();
+        }
+    }
+
+    private final Sink<E> sink;
+    private final BlockingQueue<Entry<E>> queue;
+    private final int capacity;
+    private final Thread thread;
+    private final AtomicBoolean running = new AtomicBoolean(true);
+
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong injected = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicInteger maxQueueDepth = new AtomicInteger();
+    // 已入队、尚未注入完成的条目数（包括注入线程正在处理的一个）
+    private final AtomicInteger pending = new AtomicInteger();
+    // 入队到开始注入的等待时间
+    private final LatencyHistogram queueLatency = new LatencyHistogram();
+    // 单次注入调用的耗时
+    private final LatencyHistogram injectLatency = new LatencyHistogram();
+
+    public AsyncInjector(Sink<E> sink, int capacity) {
+        this.sink = sink;
+        this.capacity = Math.max(1, capacity);
+        this.queue = new ArrayBlockingQueue<>(this.capacity);
+        this.thread = new Thread(this::drain, "input-injector");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * 异步注入：入队后立即返回。队列满时最多等待timeoutMillis，仍满或已停止返回false（事件被丢弃）
+     */
+    public boolean submit(E event, long timeoutMillis) throws InterruptedException {
+        return enqueue(new Entry<>(event, false, null), timeoutMillis);
+    }
+
+    /**
+     * 同步注入（屏障）：排在之前提交的事件之后以sync=true注入，等待注入完成并返回结果。
+     * 入队或等待超时（或被中断）时从队列中撤回该事件，不会在返回后才注入；
+     * 此时注入线程若已取出该事件，注入仍会完成，但同样返回false
+     */
+    public boolean submitSync(E event, long timeoutMillis) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        Entry<E> entry = new Entry<>(event, true, new CountDownLatch(1));
+        if (!enqueue(entry, timeoutMillis)) return false;
+        return await(entry, deadline) && entry.result;
+    }
+
+    /**
+     * 等待之前提交的事件都注入完（不注入新事件）
+     */
+    public boolean barrier(long timeoutMillis) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        Entry<E> entry = new Entry<>(null, true, new CountDownLatch(1));
+        if (!enqueue(entry, timeoutMillis)) return false;
+        return await(entry, deadline);
+    }
+
+    /**
+     * 等待条目注入完成，超时或被中断时撤回还在队列中的条目
+     */
+    private boolean await(Entry<E> entry, long deadline) throws InterruptedException {
+        boolean done = false;
+        try {
+            done = entry.done.await(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            return done;
+        } finally {
+            if (!done && queue.remove(entry)) {
+                pending.decrementAndGet();
+                if (entry.event != null) {
+                    submitted.decrementAndGet();
+                    rejected.incrementAndGet();
+                    sink.release(entry.event);
+                }
+            }
+        }
+    }
+
+    private boolean enqueue(Entry<E> entry, long timeoutMillis) throws InterruptedException {
+        pending.incrementAndGet();
+        boolean queued = false;
+        try {
+            queued = running.get() && queue.offer(entry, timeoutMillis, TimeUnit.MILLISECONDS);
+        } finally {
+            // 队列满、已停止或等待时被中断
+            if (!queued) {
+                pending.decrementAndGet();
+                rejected.incrementAndGet();
+                if (entry.event != null) sink.release(entry.event);
+            }
+        }
+        if (!queued) return false;
+        if (entry.event != null) submitted.incrementAndGet();
+        int depth = queue.size();
+        int max;
+        while (depth > (max = maxQueueDepth.get()) && !maxQueueDepth.compareAndSet(max, depth)) {
+            // 重试
+        }
+        return true;
+    }
+
+    private void drain() {
+        while (running.get() || !queue.isEmpty()) {
+            Entry<E> entry;
+            try {
+                entry = queue.take();
+            } catch (InterruptedException e) {
+                continue;
+            }
+            if (entry.event != null) {
+                long start = System.nanoTime();
+                queueLatency.recordNanos(start - entry.enqueuedNanos);
+                boolean ok;
+                try {
+                    ok = sink.inject(entry.event, entry.sync);
+                } catch (RuntimeException e) {
+                    ok = false;
+                }
+                injectLatency.recordNanos(System.nanoTime() - start);
+                (ok ? injected : failed).incrementAndGet();
+                sink.release(entry.event);
+                entry.result = ok;
+            }
+            pending.decrementAndGet();
+            if (entry.done != null) entry.done.countDown();
+        }
+    }
+
+    /**
+     * 是否还有未注入完的事件（同步注入前用于判断是否需要排到队尾以保持顺序）
+     */
+    public boolean hasPending() {
+        return pending.get() > 0;
+    }
+
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    public int getMaxQueueDepth() {
+        return maxQueueDepth.get();
+    }
+
+    public long getSubmittedCount() {
+        return submitted.get();
+    }
+
+    public long getInjectedCount() {
+        return injected.get();
+    }
+
+    public long getFailedCount() {
+        return failed.get();
+    }
+
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    public LatencyHistogram getQueueLatency() {
+        return queueLatency;
+    }
+
+    public LatencyHistogram getInjectLatency() {
+        return injectLatency;
+    }
+
+    /**
+     * 停止接受新事件，已入队的事件注入完后线程退出
+     */
+    public void shutdown() {
+        if (running.compareAndSet(true, false)) {
+            thread.interrupt();
+        }
+    }
+
+    public String toJson() {
+        return "{\"queue_capacity\":" + capacity +
+                ",\"queue_depth\":" + getQueueDepth() +
+                ",\"max_queue_depth\":" + getMaxQueueDepth() +
+                ",\"submitted\":" + getSubmittedCount() +
+                ",\"injected\":" + getInjectedCount() +
+                ",\"failed\":" + getFailedCount() +
+                ",\"rejected\":" + getRejectedCount() +
+                ",\"queue_latency_us\":" + queueLatency.toJson() +
+                ",\"inject_latency_us\":" + injectLatency.toJson() + "}";
+    }
+}
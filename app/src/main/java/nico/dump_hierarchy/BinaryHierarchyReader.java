@@ -0,0 +1,115 @@
+package nico.dump_hierarchy;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * BinaryHierarchyWriter格式的参考解码器（纯Java，不依赖Android），
+ * 解码结果按先序回调给NodeSink，可组装成树或转换回XML
+ */
+public class BinaryHierarchyReader {
+    private final byte[] data;
+    private int position;
+    private final List<String> stringTable = new ArrayList<>();
+
+    public BinaryHierarchyReader(byte[] data) {
+        this.data = data;
+    }
+
+    /**
+     * 解码为UiNode树
+     */
+    public static UiTreeBuilder readTree(byte[] data) throws IOException {
+        UiTreeBuilder builder = new UiTreeBuilder();
+        new BinaryHierarchyReader(data).read(builder);
+        return builder;
+    }
+
+    public void read(NodeSink sink) throws IOException {
+        for (byte b : BinaryHierarchyWriter.MAGIC) {
+            if (readByte() != b) throw new IOException("Not a binary hierarchy");
+        }
+        int version = readByte();
+        if (version != BinaryHierarchyWriter.VERSION) throw new IOException("Unsupported version: " + version);
+        int rotation = readVarint();
+        int fields = readVarint();
+        int flagMask = BinaryHierarchyWriter.nodeFlagMask(fields);
+
+        sink.startHierarchy(rotation);
+        List<UiNode> stack = new ArrayList<>();
+        while (true) {
+            int tag = readByte();
+            if (tag == BinaryHierarchyWriter.TAG_START) {
+                UiNode node = readNode(fields, flagMask);
+                node.depth = stack.size();
+                stack.add(node);
+                sink.startNode(node, fields);
+            } else if (tag == BinaryHierarchyWriter.TAG_END) {
+                if (stack.isEmpty()) throw new IOException("Unbalanced node end");
+                sink.endNode(stack.remove(stack.size() - 1));
+            } else if (tag == BinaryHierarchyWriter.TAG_EOF) {
+                if (!stack.isEmpty()) throw new IOException("Unexpected end of hierarchy");
+                break;
+            } else {
+                throw new IOException("Unknown tag: " + tag);
+            }
+        }
+        sink.endHierarchy();
+    }
+
+    private UiNode readNode(int fields, int flagMask) throws IOException {
+        UiNode node = new UiNode();
+        if ((fields & HierarchyFields.INDEX) != 0) node.index = readVarint();
+        if ((fields & HierarchyFields.TEXT) != 0) node.text = readString();
+        if ((fields & HierarchyFields.RESOURCE_ID) != 0) node.resourceId = readString();
+        if ((fields & HierarchyFields.CLASS) != 0) node.className = readString();
+        if ((fields & HierarchyFields.PACKAGE) != 0) node.packageName = readString();
+        if ((fields & HierarchyFields.CONTENT_DESC) != 0) node.contentDesc = readString();
+        if ((fields & HierarchyFields.FLAGS) != 0) node.flags = readVarint() & flagMask;
+        if ((fields & HierarchyFields.BOUNDS) != 0) {
+            node.left = unzigzag(readVarint());
+            node.top = unzigzag(readVarint());
+            node.right = node.left + unzigzag(readVarint());
+            node.bottom = node.top + unzigzag(readVarint());
+        }
+        return node;
+    }
+
+    private String readString() throws IOException {
+        int ref = readVarint();
+        if (ref == 0) return "";
+        int index = (ref >>> 1) - 1;
+        if ((ref & 1) == 0) {
+            if (index >= stringTable.size()) throw new IOException("Bad string reference: " + index);
+            return stringTable.get(index);
+        }
+        if (index != stringTable.size()) throw new IOException("Out of order string definition: " + index);
+        int length = readVarint();
+        if (length < 0 || position + length > data.length) throw new IOException("Truncated string");
+        String value = new String(data, position, length, StandardCharsets.UTF_8);
+        position += length;
+        stringTable.add(value);
+        return value;
+    }
+
+    private int readByte() throws IOException {
+        if (position >= data.length) throw new IOException("Unexpected end of data");
+        return data[position++] & 0xFF;
+    }
+
+    private int readVarint() throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = readByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    static int unzigzag(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
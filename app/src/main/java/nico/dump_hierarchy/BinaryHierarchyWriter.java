@@ -0,0 +1,120 @@
+package nico.dump_hierarchy;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 紧凑的二进制层级格式（/dump?format=binary），解码见BinaryHierarchyReader。
+ *
+ * <pre>
+ * 头部：   "UIH" + 版本(1字节) + varint(rotation) + varint(fields)
+ * 节点流： TAG_START 节点数据 [子节点...] TAG_END ... TAG_EOF
+ * 节点数据（只包含fields中的属性，按HierarchyFields位序）：
+ *   index           varint
+ *   字符串属性      字符串引用：0=空；(序号+1)<<1|1 表示新字符串，后跟varint长度+UTF-8字节；
+ *                   (序号+1)<<1 表示引用之前出现过的字符串（隐式字符串表，单次遍历即可编码）
+ *   布尔属性        合并为一个varint（UiNode.flags中被请求的位）
+ *   bounds          zigzag varint：left, top, width, height
+ * </pre>
+ */
+public class BinaryHierarchyWriter implements NodeSink {
+    static final byte[] MAGIC = {'U', 'I', 'H'};
+    static final int VERSION = 1;
+    static final int TAG_END = 0;
+    static final int TAG_START = 1;
+    static final int TAG_EOF = 2;
+
+    private final OutputStream out;
+    private final int fields;
+    private final Map<String, Integer> stringTable = new HashMap<>();
+
+    public BinaryHierarchyWriter(OutputStream out, int fields) {
+        this.out = new BufferedOutputStream(out, 8 * 1024);
+        this.fields = fields;
+    }
+
+    @Override
+    public void startHierarchy(int rotation) throws IOException {
+        out.write(MAGIC);
+        out.write(VERSION);
+        writeVarint(rotation);
+        writeVarint(fields);
+    }
+
+    @Override
+    public void startNode(UiNode node, int nodeFields) throws IOException {
+        out.write(TAG_START);
+        if (has(HierarchyFields.INDEX)) writeVarint(node.index);
+        if (has(HierarchyFields.TEXT)) writeString(node.text);
+        if (has(HierarchyFields.RESOURCE_ID)) writeString(node.resourceId);
+        if (has(HierarchyFields.CLASS)) writeString(node.className);
+        if (has(HierarchyFields.PACKAGE)) writeString(node.packageName);
+        if (has(HierarchyFields.CONTENT_DESC)) writeString(node.contentDesc);
+        if ((fields & HierarchyFields.FLAGS) != 0) writeVarint(node.flags & nodeFlagMask(fields));
+        if (has(HierarchyFields.BOUNDS)) {
+            writeVarint(zigzag(node.left));
+            writeVarint(zigzag(node.top));
+            writeVarint(zigzag(node.right - node.left));
+            writeVarint(zigzag(node.bottom - node.top));
+        }
+    }
+
+    @Override
+    public void endNode(UiNode node) throws IOException {
+        out.write(TAG_END);
+    }
+
+    @Override
+    public void endHierarchy() throws IOException {
+        out.write(TAG_EOF);
+        out.flush();
+    }
+
+    private boolean has(int field) {
+        return (fields & field) != 0;
+    }
+
+    private void writeString(String value) throws IOException {
+        if (value == null || value.isEmpty()) {
+            writeVarint(0);
+            return;
+        }
+        Integer index = stringTable.get(value);
+        if (index != null) {
+            writeVarint((index + 1) << 1);
+            return;
+        }
+        index = stringTable.size();
+        stringTable.put(value, index);
+        byte[] bytes = value.getBytes("UTF-8");
+        writeVarint(((index + 1) << 1) | 1);
+        writeVarint(bytes.length);
+        out.write(bytes);
+    }
+
+    private void writeVarint(int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    static int zigzag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    /**
+     * fields中请求的布尔属性对应的UiNode标志位
+     */
+    static int nodeFlagMask(int fields) {
+        int mask = 0;
+        for (int bit = 0; bit < HierarchyFields.NODE_FLAGS.length; bit++) {
+            if ((fields & (1 << bit)) != 0) mask |= HierarchyFields.NODE_FLAGS[bit];
+        }
+        return mask;
+    }
+}
@@ -0,0 +1,111 @@
+package nico.dump_hierarchy;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * /find_batch：一次请求在同一个快照上执行多个选择器。
+ * 请求体为JSON数组：[{"type":"id","value":"...","all":false}, ...]，
+ * type/value与/find_element相同，all为true时返回全部匹配（否则只返回第一个）。
+ */
+public class FindBatch {
+
+    public static class Selector {
+        final String type;
+        final String value;
+        final boolean all;
+
+        Selector(String type, String value, boolean all) {
+            this.type = type;
+            this.value = value;
+            this.all = all;
+        }
+    }
+
+    private FindBatch() {
+    }
+
+    /**
+     * @throws IllegalArgumentException 请求体不是选择器数组，或选择器字段的类型不对
+     */
+    public static List<Selector> parse(String json) {
+        JsonElement root;
+        try {
+            root = JsonParser.parseString(json == null ? "" : json);
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Invalid JSON: " + e.getMessage());
+        }
+        if (!root.isJsonArray() || root.getAsJsonArray().size() == 0) {
+            throw new IllegalArgumentException("Expected a non-empty array of selectors");
+        }
+        JsonArray array = root.getAsJsonArray();
+        List<Selector> selectors = new ArrayList<>(array.size());
+        for (JsonElement element : array) {
+            if (!element.isJsonObject()) throw new IllegalArgumentException("Selector must be an object");
+            JsonObject object = element.getAsJsonObject();
+            selectors.add(new Selector(JsonFields.getString(object, "type", null),
+                    JsonFields.getString(object, "value", null), JsonFields.getBoolean(object, "all", false)));
+        }
+        return selectors;
+    }
+
+    /**
+     * 在快照上执行所有选择器并写出结果：
+     * {"success":true,"found":n,"results":[{"type":..,"value":..,"count":..,"elements":[..]}]}；
+     * 不支持的选择器在对应结果中带error，不影响其他选择器。
+     * 不输出快照版本：版本只在/dump?since=登记快照时分配，这里的快照没有版本
+     */
+    public static void evaluate(HierarchySnapshot snapshot, List<Selector> selectors, OutputStream out)
+            throws IOException {
+        List<List<UiNode>> matches = new ArrayList<>(selectors.size());
+        List<String> errors = new ArrayList<>(selectors.size());
+        int found = 0;
+        for (Selector selector : selectors) {
+            try {
+                List<UiNode> nodes = SnapshotQuery.parse(selector.type, selector.value)
+                        .findAll(snapshot, selector.all ? 0 : 1);
+                matches.add(nodes);
+                errors.add(null);
+                if (!nodes.isEmpty()) found++;
+            } catch (IllegalArgumentException e) {
+                matches.add(null);
+                errors.add(e.getMessage());
+            }
+        }
+
+        JsonStreamWriter writer = new JsonStreamWriter(out);
+        writer.beginObject();
+        writer.name("success").value(true);
+        writer.name("found").value(found);
+        writer.name("results").beginArray();
+        for (int i = 0; i < selectors.size(); i++) {
+            writer.beginObject();
+            writer.name("type").value(selectors.get(i).type);
+            writer.name("value").value(selectors.get(i).value);
+            if (errors.get(i) != null) {
+                writer.name("error").value(errors.get(i));
+            } else {
+                List<UiNode> nodes = matches.get(i);
+                writer.name("count").value(nodes.size());
+                writer.name("elements").beginArray();
+                for (UiNode node : nodes) {
+                    writer.beginObject();
+                    SnapshotQuery.writeAttributes(writer, node);
+                    writer.endObject();
+                }
+                writer.endArray();
+            }
+            writer.endObject();
+        }
+        writer.endArray();
+        writer.endObject();
+        writer.flush();
+    }
+}
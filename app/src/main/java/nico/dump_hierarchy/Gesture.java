@@ -0,0 +1,304 @@
+package nico.dump_hierarchy;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 单指手势的时间线：按下、若干移动、抬起，每个事件带相对按下时刻的时间（毫秒）。
+ * 由GestureExecutor按SystemClock.uptimeMillis()的截止时间注入。
+ *
+ * JSON格式：
+ * <pre>
+ * {"points":[{"x":100,"y":800,"t":0},{"x":100,"y":300,"t":250}]}           每个点都带t：按给定时间注入
+ * {"points":[{"x":..,"y":..},...],"duration":300,"curve":"linear","easing":"ease_out",
+ *  "interval":10,"hold":0,"hold_end":0}                                      没有t：按时长插值
+ * </pre>
+ * curve：linear（折线，按长度均匀分配）、bezier（points为控制点）、fling（直线，默认ease_in，抬起时速度最大）；
+ * easing：linear、ease_in、ease_out、ease_in_out；interval为移动事件间隔；hold为按下后、hold_end为抬起前的停留时间。
+ */
+public class Gesture {
+    public static final int ACTION_DOWN = 0;
+    public static final int ACTION_UP = 1;
+    public static final int ACTION_MOVE = 2;
+
+    static final long DEFAULT_DURATION = 300;
+    static final long DEFAULT_INTERVAL = 10;
+    private static final int MAX_EVENTS = 10000;
+
+    /**
+     * 时间线上的一个触摸事件
+     */
+    public static class Event {
+        final int action;
+        final float x;
+        final float y;
+        final long time;
+
+        Event(int action, float x, float y, long time) {
+            this.action = action;
+            this.x = x;
+            this.y = y;
+            this.time = time;
+        }
+
+        public int getAction() {
+            return action;
+        }
+
+        public float getX() {
+            return x;
+        }
+
+        public float getY() {
+            return y;
+        }
+
+        /**
+         * 相对按下时刻的时间（毫秒）
+         */
+        public long getTime() {
+            return time;
+        }
+    }
+
+    private final List<Event> events;
+
+    Gesture(List<Event> events) {
+        this.events = Collections.unmodifiableList(events);
+    }
+
+    public List<Event> getEvents() {
+        return events;
+    }
+
+    /**
+     * 整个手势的计划时长（最后一个事件的时间）
+     */
+    public long getDuration() {
+        return events.get(events.size() - 1).time;
+    }
+
+    public Event getStart() {
+        return events.get(0);
+    }
+
+    public Event getEnd() {
+        return events.get(events.size() - 1);
+    }
+
+    /**
+     * @throws IllegalArgumentException 格式错误
+     */
+    public static Gesture parse(String json) {
+        JsonElement root;
+        try {
+            root = JsonParser.parseString(json == null ? "" : json);
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Invalid JSON: " + e.getMessage());
+        }
+        if (!root.isJsonObject()) throw new IllegalArgumentException("Expected a gesture object");
+        return parse(root.getAsJsonObject());
+    }
+
+    /**
+     * @throws IllegalArgumentException 格式错误
+     */
+    public static Gesture parse(JsonObject spec) {
+        float[][] points = parsePoints(spec.get("points"));
+        long[] times = parseTimes(spec.get("points"));
+        if (times != null) return fromTimedPoints(points, times, times[times.length - 1]);
+
+        String curve = JsonFields.getString(spec, "curve", "linear");
+        String easing = JsonFields.getString(spec, "easing", "fling".equals(curve) ? "ease_in" : "linear");
+        long duration = JsonFields.getNonNegativeLong(spec, "duration", DEFAULT_DURATION);
+        long interval = Math.max(1, JsonFields.getNonNegativeLong(spec, "interval", DEFAULT_INTERVAL));
+        long hold = JsonFields.getNonNegativeLong(spec, "hold", 0);
+        long holdEnd = JsonFields.getNonNegativeLong(spec, "hold_end", 0);
+        if (duration / interval > MAX_EVENTS) throw new IllegalArgumentException("Too many events, increase interval");
+
+        Path path;
+        switch (curve) {
+            case "linear":
+            case "fling":
+                path = new Polyline(points);
+                break;
+            case "bezier":
+                path = new Bezier(points);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown curve: " + curve);
+        }
+        return interpolate(path, parseEasing(easing), duration, interval, hold, holdEnd);
+    }
+
+    /**
+     * 每个点带时间：第一个点按下，之后每个点移动，upTime时在最后一个点抬起
+     */
+    static Gesture fromTimedPoints(float[][] points, long[] times, long upTime) {
+        List<Event> events = new ArrayList<>(points.length + 1);
+        long origin = times[0];
+        events.add(new Event(ACTION_DOWN, points[0][0], points[0][1], 0));
+        for (int i = 1; i < points.length; i++) {
+            if (times[i] < times[i - 1]) throw new IllegalArgumentException("Point times must not decrease");
+            events.add(new Event(ACTION_MOVE, points[i][0], points[i][1], times[i] - origin));
+        }
+        float[] last = points[points.length - 1];
+        if (upTime < times[times.length - 1]) throw new IllegalArgumentException("Up must not precede the last move");
+        events.add(new Event(ACTION_UP, last[0], last[1], upTime - origin));
+        return new Gesture(events);
+    }
+
+    /**
+     * 按时长插值：hold后开始移动，每interval毫秒一个移动事件，最后一个移动正好落在终点
+     */
+    static Gesture interpolate(Path path, Easing easing, long duration, long interval, long hold, long holdEnd) {
+        List<Event> events = new ArrayList<>();
+        float[] point = path.at(0);
+        events.add(new Event(ACTION_DOWN, point[0], point[1], 0));
+        if (duration > 0) {
+            for (long t = interval; ; t += interval) {
+                long time = Math.min(t, duration);
+                point = path.at(easing.apply((double) time / duration));
+                events.add(new Event(ACTION_MOVE, point[0], point[1], hold + time));
+                if (time == duration) break;
+            }
+        }
+        point = path.at(1);
+        events.add(new Event(ACTION_UP, point[0], point[1], hold + duration + holdEnd));
+        return new Gesture(events);
+    }
+
+    /**
+     * 路径：参数s从0到1对应起点到终点
+     */
+    interface Path {
+        float[] at(double s);
+    }
+
+    /**
+     * 折线：按长度均匀分配，各段速度相同
+     */
+    static class Polyline implements Path {
+        private final float[][] points;
+        private final double[] cumulative;
+
+        Polyline(float[][] points) {
+            this.points = points;
+            cumulative = new double[points.length];
+            for (int i = 1; i < points.length; i++) {
+                cumulative[i] = cumulative[i - 1]
+                        + Math.hypot(points[i][0] - points[i - 1][0], points[i][1] - points[i - 1][1]);
+            }
+        }
+
+        @Override
+        public float[] at(double s) {
+            double total = cumulative[cumulative.length - 1];
+            if (points.length == 1 || total == 0) return points[points.length - 1].clone();
+            double target = Math.max(0, Math.min(1, s)) * total;
+            int i = 1;
+            while (i < points.length - 1 && cumulative[i] < target) i++;
+            double segment = cumulative[i] - cumulative[i - 1];
+            double f = segment == 0 ? 1 : (target - cumulative[i - 1]) / segment;
+            return new float[]{
+                    (float) (points[i - 1][0] + (points[i][0] - points[i - 1][0]) * f),
+                    (float) (points[i - 1][1] + (points[i][1] - points[i - 1][1]) * f)};
+        }
+    }
+
+    /**
+     * 贝塞尔曲线（任意阶，points为控制点），de Casteljau求值
+     */
+    static class Bezier implements Path {
+        private final float[][] points;
+
+        Bezier(float[][] points) {
+            this.points = points;
+        }
+
+        @Override
+        public float[] at(double s) {
+            double u = Math.max(0, Math.min(1, s));
+            int n = points.length;
+            double[] xs = new double[n];
+            double[] ys = new double[n];
+            for (int i = 0; i < n; i++) {
+                xs[i] = points[i][0];
+                ys[i] = points[i][1];
+            }
+            for (int level = n - 1; level > 0; level--) {
+                for (int i = 0; i < level; i++) {
+                    xs[i] += (xs[i + 1] - xs[i]) * u;
+                    ys[i] += (ys[i + 1] - ys[i]) * u;
+                }
+            }
+            return new float[]{(float) xs[0], (float) ys[0]};
+        }
+    }
+
+    /**
+     * 时间进度到路径进度的映射
+     */
+    interface Easing {
+        double apply(double t);
+    }
+
+    static Easing parseEasing(String name) {
+        switch (name) {
+            case "linear":
+                return t -> t;
+            case "ease_in":
+                return t -> t * t;
+            case "ease_out":
+                return t -> 1 - (1 - t) * (1 - t);
+            case "ease_in_out":
+                return t -> t < 0.5 ? 2 * t * t : 1 - 2 * (1 - t) * (1 - t);
+            default:
+                throw new IllegalArgumentException("Unknown easing: " + name);
+        }
+    }
+
+    private static float[][] parsePoints(JsonElement element) {
+        if (element == null || !element.isJsonArray() || element.getAsJsonArray().size() == 0) {
+            throw new IllegalArgumentException("points must be a non-empty array");
+        }
+        JsonArray array = element.getAsJsonArray();
+        float[][] points = new float[array.size()][];
+        for (int i = 0; i < points.length; i++) {
+            JsonElement point = array.get(i);
+            if (!point.isJsonObject() || !point.getAsJsonObject().has("x") || !point.getAsJsonObject().has("y")) {
+                throw new IllegalArgumentException("Each point needs x and y");
+            }
+            JsonObject object = point.getAsJsonObject();
+            points[i] = new float[]{JsonFields.getFloat(object, "x"), JsonFields.getFloat(object, "y")};
+        }
+        return points;
+    }
+
+    /**
+     * 所有点都带t时返回时间数组，都不带时返回null
+     */
+    private static long[] parseTimes(JsonElement element) {
+        JsonArray array = element.getAsJsonArray();
+        long[] times = new long[array.size()];
+        int timed = 0;
+        for (int i = 0; i < times.length; i++) {
+            JsonElement point = array.get(i);
+            if (!point.isJsonObject()) throw new IllegalArgumentException("Each point needs x and y");
+            JsonObject object = point.getAsJsonObject();
+            if (object.has("t")) {
+                times[i] = JsonFields.getLong(object, "t", 0);
+                timed++;
+            }
+        }
+        if (timed == 0) return null;
+        if (timed != times.length) throw new IllegalArgumentException("Either all points or none must have t");
+        return times;
+    }
+}
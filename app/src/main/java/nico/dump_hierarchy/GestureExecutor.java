@@ -0,0 +1,168 @@
+package nico.dump_hierarchy;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * 按截止时间注入手势：第i个事件安排在 按下时刻 + event.time，睡到截止时间再注入，
+ * 事件的eventTime也取截止时间。注入本身的耗时不会累积到后续事件上（逐步sleep(stepDelay)会越拖越长），
+ * 某个事件迟到时后面的事件立即补上，应用看到的速度与请求一致。
+ */
+public class GestureExecutor {
+
+    /**
+     * 注入单个触摸事件（Android上由TouchController实现）
+     */
+    public interface Injector {
+        /**
+         * @param action Gesture.ACTION_DOWN/ACTION_MOVE/ACTION_UP
+         */
+        boolean inject(int action, float x, float y, long downTime, long eventTime);
+    }
+
+    /**
+     * 时钟（Android上为SystemClock.uptimeMillis()时基）
+     */
+    public interface Clock {
+        long uptimeMillis();
+
+        /**
+         * 睡到指定时刻，已经过了则立即返回
+         */
+        void sleepUntil(long deadline);
+    }
+
+    /**
+     * 执行结果：计划时长与实际时长、每个事件相对截止时间的延迟
+     */
+    public static class Result {
+        private final boolean success;
+        private final int events;
+        private final long requestedMillis;
+        private final long actualMillis;
+        private final long maxLagMillis;
+        private final double avgLagMillis;
+
+        Result(boolean success, int events, long requestedMillis, long actualMillis,
+               long maxLagMillis, double avgLagMillis) {
+            this.success = success;
+            this.events = events;
+            this.requestedMillis = requestedMillis;
+            this.actualMillis = actualMillis;
+            this.maxLagMillis = maxLagMillis;
+            this.avgLagMillis = avgLagMillis;
+        }
+
+        /**
+         * 所有事件都注入成功
+         */
+        public boolean isSuccess() {
+            return success;
+        }
+
+        public int getEvents() {
+            return events;
+        }
+
+        /**
+         * 计划时长：按下到抬起
+         */
+        public long getRequestedMillis() {
+            return requestedMillis;
+        }
+
+        /**
+         * 实际时长：开始注入按下到抬起注入完成
+         */
+        public long getActualMillis() {
+            return actualMillis;
+        }
+
+        /**
+         * 事件实际注入时刻晚于截止时间的最大值
+         */
+        public long getMaxLagMillis() {
+            return maxLagMillis;
+        }
+
+        public double getAvgLagMillis() {
+            return avgLagMillis;
+        }
+
+        /**
+         * 在当前JSON对象中写出events/requested_ms/actual_ms/max_lag_ms/avg_lag_ms字段
+         */
+        public void writeFields(JsonStreamWriter writer) throws IOException {
+            writer.name("events").value(events);
+            writer.name("requested_ms").value(requestedMillis);
+            writer.name("actual_ms").value(actualMillis);
+            writer.name("max_lag_ms").value(maxLagMillis);
+            writer.name("avg_lag_ms").value(Math.round(avgLagMillis * 100) / 100.0);
+        }
+
+        public String toJson() throws IOException {
+            return JsonStreamWriter.toJson(writer -> {
+                writer.beginObject();
+                writer.name("success").value(success);
+                writeFields(writer);
+                writer.endObject();
+            });
+        }
+    }
+
+    /**
+     * 累计各事件相对截止时间的延迟（多指手势在TouchController里按同样方式调度）
+     */
+    static class LagStats {
+        private final long start;
+        private int events;
+        private long maxLag;
+        private long totalLag;
+
+        LagStats(long start) {
+            this.start = start;
+        }
+
+        /**
+         * 记录一个事件：deadline为计划时刻，now为开始注入时刻
+         */
+        void record(long deadline, long now) {
+            long lag = Math.max(0, now - deadline);
+            maxLag = Math.max(maxLag, lag);
+            totalLag += lag;
+            events++;
+        }
+
+        Result toResult(boolean success, long requestedMillis, long end) {
+            return new Result(success, events, requestedMillis, end - start, maxLag,
+                    events == 0 ? 0 : (double) totalLag / events);
+        }
+    }
+
+    private final Injector injector;
+    private final Clock clock;
+
+    public GestureExecutor(Injector injector, Clock clock) {
+        this.injector = injector;
+        this.clock = clock;
+    }
+
+    /**
+     * 注入整个手势，阻塞到抬起事件注入完成。按下失败时不再继续
+     */
+    public Result execute(Gesture gesture) {
+        List<Gesture.Event> events = gesture.getEvents();
+        long downTime = clock.uptimeMillis();
+        LagStats stats = new LagStats(downTime);
+        boolean success = true;
+        for (Gesture.Event event : events) {
+            long deadline = downTime + event.getTime();
+            clock.sleepUntil(deadline);
+            stats.record(deadline, clock.uptimeMillis());
+            boolean ok = injector.inject(event.getAction(), event.getX(), event.getY(), downTime, deadline);
+            success &= ok;
+            if (!ok && event.getAction() == Gesture.ACTION_DOWN) break;
+        }
+        return stats.toResult(success, gesture.getDuration(), clock.uptimeMillis());
+    }
+}
@@ -0,0 +1,160 @@
+package nico.dump_hierarchy;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 两个快照之间的结构化差异：新增节点（带全部属性）、删除节点（只有路径）、
+ * 属性变化的节点（只带变化的属性）
+ */
+public class HierarchyDiff {
+    private final HierarchySnapshot base;
+    private final HierarchySnapshot target;
+    private final List<String> added = new ArrayList<>();
+    private final List<String> removed = new ArrayList<>();
+    private final List<String> changed = new ArrayList<>();
+
+    private HierarchyDiff(HierarchySnapshot base, HierarchySnapshot target) {
+        this.base = base;
+        this.target = target;
+    }
+
+    /**
+     * base为null时结果为完整快照（所有节点都作为新增）
+     */
+    public static HierarchyDiff compute(HierarchySnapshot base, HierarchySnapshot target) {
+        HierarchyDiff diff = new HierarchyDiff(base, target);
+        Map<String, UiNode> after = target.getNodesByPath();
+        if (base == null) {
+            diff.added.addAll(after.keySet());
+            return diff;
+        }
+        Map<String, UiNode> before = base.getNodesByPath();
+        for (Map.Entry<String, UiNode> entry : after.entrySet()) {
+            UiNode old = before.get(entry.getKey());
+            if (old == null) {
+                diff.added.add(entry.getKey());
+            } else if (changedFields(old, entry.getValue()) != 0) {
+                diff.changed.add(entry.getKey());
+            }
+        }
+        for (String path : before.keySet()) {
+            if (!after.containsKey(path)) diff.removed.add(path);
+        }
+        return diff;
+    }
+
+    public boolean isEmpty() {
+        return added.isEmpty() && removed.isEmpty() && changed.isEmpty();
+    }
+
+    public List<String> getAdded() {
+        return added;
+    }
+
+    public List<String> getRemoved() {
+        return removed;
+    }
+
+    public List<String> getChanged() {
+        return changed;
+    }
+
+    /**
+     * 返回两个节点间不同的属性（HierarchyFields位掩码），不比较子节点
+     */
+    static int changedFields(UiNode a, UiNode b) {
+        int fields = 0;
+        if (a.index != b.index) fields |= HierarchyFields.INDEX;
+        if (!equal(a.text, b.text)) fields |= HierarchyFields.TEXT;
+        if (!equal(a.resourceId, b.resourceId)) fields |= HierarchyFields.RESOURCE_ID;
+        if (!equal(a.className, b.className)) fields |= HierarchyFields.CLASS;
+        if (!equal(a.packageName, b.packageName)) fields |= HierarchyFields.PACKAGE;
+        if (!equal(a.contentDesc, b.contentDesc)) fields |= HierarchyFields.CONTENT_DESC;
+        int flagDiff = a.flags ^ b.flags;
+        for (int bit = 0; bit < HierarchyFields.NODE_FLAGS.length; bit++) {
+            if ((flagDiff & HierarchyFields.NODE_FLAGS[bit]) != 0) fields |= 1 << bit;
+        }
+        if (a.left != b.left || a.top != b.top || a.right != b.right || a.bottom != b.bottom) {
+            fields |= HierarchyFields.BOUNDS;
+        }
+        return fields;
+    }
+
+    /**
+     * 输出JSON：{"version":..,"since":..,"full":..,"rotation":..,"added":[..],"removed":[..],"changed":[..]}
+     */
+    public void writeJson(OutputStream out) throws IOException {
+        JsonStreamWriter writer = new JsonStreamWriter(out);
+        writer.beginObject();
+        writer.name("version").value(target.getVersion());
+        writer.name("since").value(base != null ? base.getVersion() : 0);
+        writer.name("full").value(base == null);
+        writer.name("rotation").value(target.getRotation());
+
+        Map<String, UiNode> after = target.getNodesByPath();
+        writer.name("added").beginArray();
+        for (String path : added) {
+            writeNode(writer, path, after.get(path), HierarchyFields.ALL);
+        }
+        writer.endArray();
+
+        writer.name("removed").beginArray();
+        for (String path : removed) {
+            writer.value(path);
+        }
+        writer.endArray();
+
+        writer.name("changed").beginArray();
+        if (base != null) {
+            Map<String, UiNode> before = base.getNodesByPath();
+            for (String path : changed) {
+                UiNode node = after.get(path);
+                writeNode(writer, path, node, changedFields(before.get(path), node));
+            }
+        }
+        writer.endArray();
+        writer.endObject();
+        writer.flush();
+    }
+
+    private static void writeNode(JsonStreamWriter writer, String path, UiNode node, int fields) throws IOException {
+        writer.beginObject();
+        writer.name("path").value(path);
+        for (int bit = 0; bit < HierarchyFields.NAMES.length; bit++) {
+            int field = 1 << bit;
+            if ((fields & field) == 0) continue;
+            writer.name(HierarchyFields.NAMES[bit]);
+            int flag = HierarchyFields.NODE_FLAGS[bit];
+            if (flag != 0) {
+                writer.value(node.hasFlag(flag));
+            } else if (field == HierarchyFields.INDEX) {
+                writer.value(node.index);
+            } else if (field == HierarchyFields.TEXT) {
+                writer.value(nullToEmpty(node.text));
+            } else if (field == HierarchyFields.RESOURCE_ID) {
+                writer.value(nullToEmpty(node.resourceId));
+            } else if (field == HierarchyFields.CLASS) {
+                writer.value(nullToEmpty(node.className));
+            } else if (field == HierarchyFields.PACKAGE) {
+                writer.value(nullToEmpty(node.packageName));
+            } else if (field == HierarchyFields.CONTENT_DESC) {
+                writer.value(nullToEmpty(node.contentDesc));
+            } else {
+                writer.value(node.boundsString());
+            }
+        }
+        writer.endObject();
+    }
+
+    private static boolean equal(String a, String b) {
+        return nullToEmpty(a).equals(nullToEmpty(b));
+    }
+
+    private static String nullToEmpty(String value) {
+        return value != null ? value : "";
+    }
+}
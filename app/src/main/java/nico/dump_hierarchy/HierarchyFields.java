@@ -0,0 +1,81 @@
+package nico.dump_hierarchy;
+
+/**
+ * dump时可选的节点属性集合（位掩码），名称与UiAutomator的XML属性名一致，
+ * 例如 fields=bounds,text,resource-id
+ */
+public final class HierarchyFields {
+    public static final int INDEX = 1;
+    public static final int TEXT = 1 << 1;
+    public static final int RESOURCE_ID = 1 << 2;
+    public static final int CLASS = 1 << 3;
+    public static final int PACKAGE = 1 << 4;
+    public static final int CONTENT_DESC = 1 << 5;
+    public static final int CHECKABLE = 1 << 6;
+    public static final int CHECKED = 1 << 7;
+    public static final int CLICKABLE = 1 << 8;
+    public static final int ENABLED = 1 << 9;
+    public static final int FOCUSABLE = 1 << 10;
+    public static final int FOCUSED = 1 << 11;
+    public static final int SCROLLABLE = 1 << 12;
+    public static final int LONG_CLICKABLE = 1 << 13;
+    public static final int PASSWORD = 1 << 14;
+    public static final int SELECTED = 1 << 15;
+    public static final int VISIBLE = 1 << 16;
+    public static final int BOUNDS = 1 << 17;
+
+    public static final int ALL = (1 << 18) - 1;
+    // 所有布尔属性
+    public static final int FLAGS = CHECKABLE | CHECKED | CLICKABLE | ENABLED | FOCUSABLE | FOCUSED
+            | SCROLLABLE | LONG_CLICKABLE | PASSWORD | SELECTED | VISIBLE;
+
+    // 属性名，下标与位序号一致
+    static final String[] NAMES = {
+            "index", "text", "resource-id", "class", "package", "content-desc",
+            "checkable", "checked", "clickable", "enabled", "focusable", "focused",
+            "scrollable", "long-clickable", "password", "selected", "visible-to-user", "bounds"
+    };
+
+    // 布尔属性对应的UiNode标志位，下标与位序号一致（非布尔属性为0）
+    static final int[] NODE_FLAGS = {
+            0, 0, 0, 0, 0, 0,
+            UiNode.CHECKABLE, UiNode.CHECKED, UiNode.CLICKABLE, UiNode.ENABLED, UiNode.FOCUSABLE, UiNode.FOCUSED,
+            UiNode.SCROLLABLE, UiNode.LONG_CLICKABLE, UiNode.PASSWORD, UiNode.SELECTED, UiNode.VISIBLE, 0
+    };
+
+    private HierarchyFields() {
+    }
+
+    /**
+     * 解析逗号分隔的属性名，为空时返回ALL
+     */
+    public static int parse(String spec) {
+        if (spec == null || spec.trim().isEmpty()) return ALL;
+        int fields = 0;
+        for (String name : spec.split(",")) {
+            String trimmed = name.trim();
+            if (trimmed.isEmpty()) continue;
+            int bit = indexOf(trimmed);
+            if (bit == -1) {
+                throw new IllegalArgumentException("Unknown field: " + trimmed);
+            }
+            fields |= 1 << bit;
+        }
+        return fields;
+    }
+
+    private static int indexOf(String name) {
+        for (int i = 0; i < NAMES.length; i++) {
+            if (NAMES[i].equals(name)) return i;
+        }
+        // 兼容find_element返回中的命名
+        switch (name) {
+            case "id": return indexOf("resource-id");
+            case "class_name": return indexOf("class");
+            case "content_desc": return indexOf("content-desc");
+            case "long_clickable": return indexOf("long-clickable");
+            case "visible": return indexOf("visible-to-user");
+            default: return -1;
+        }
+    }
+}
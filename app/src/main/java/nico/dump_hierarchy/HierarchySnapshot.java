@@ -0,0 +1,118 @@
+package nico.dump_hierarchy;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 某一版本的层级快照（只读），节点按稳定路径索引用于计算diff。
+ * 采集得到的快照没有版本号，/dump?since=需要时才由HierarchySnapshotStore登记并分配
+ */
+public class HierarchySnapshot {
+    private volatile long version;
+    private final int rotation;
+    private final List<UiNode> roots;
+    private final long createdAt;
+    private Map<String, UiNode> nodesByPath;
+    private SnapshotIndex index;
+
+    public HierarchySnapshot(int rotation, List<UiNode> roots) {
+        this(0, rotation, roots);
+    }
+
+    public HierarchySnapshot(long version, int rotation, List<UiNode> roots) {
+        this.version = version;
+        this.rotation = rotation;
+        this.roots = roots;
+        this.createdAt = System.currentTimeMillis();
+    }
+
+    /**
+     * 版本号，还没有登记到HierarchySnapshotStore时为0
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    void assignVersion(long version) {
+        this.version = version;
+    }
+
+    public int getRotation() {
+        return rotation;
+    }
+
+    public List<UiNode> getRoots() {
+        return roots;
+    }
+
+    public long getCreatedAt() {
+        return createdAt;
+    }
+
+    /**
+     * 查询索引，首次使用时构建，之后同一快照上的查询都复用
+     */
+    public synchronized SnapshotIndex getIndex() {
+        if (index == null) {
+            index = new SnapshotIndex(roots);
+        }
+        return index;
+    }
+
+    /**
+     * 按先序把快照重放给NodeSink，效果与用相同参数遍历无障碍树一致
+     *
+     * @param maxDepth 最大深度（根节点为0），小于0表示不限制
+     */
+    public void replay(int fields, int maxDepth, NodeSink sink) throws IOException {
+        sink.startHierarchy(rotation);
+        for (UiNode root : roots) {
+            replayNode(root, fields, maxDepth, sink);
+        }
+        sink.endHierarchy();
+    }
+
+    private static void replayNode(UiNode node, int fields, int maxDepth, NodeSink sink) throws IOException {
+        sink.startNode(node, fields);
+        if (maxDepth < 0 || node.depth < maxDepth) {
+            for (UiNode child : node.children) {
+                replayNode(child, fields, maxDepth, sink);
+            }
+        }
+        sink.endNode(node);
+    }
+
+    /**
+     * 路径 -> 节点（先序）。路径由每层的 class#resource-id[序号] 组成，序号只在同class同id的兄弟间计数，
+     * 所以插入或删除其他类型的兄弟节点不会改变已有节点的路径
+     */
+    public synchronized Map<String, UiNode> getNodesByPath() {
+        if (nodesByPath == null) {
+            nodesByPath = new LinkedHashMap<>();
+            indexChildren("", roots, nodesByPath);
+        }
+        return nodesByPath;
+    }
+
+    private static void indexChildren(String parentPath, List<UiNode> children, Map<String, UiNode> out) {
+        Map<String, Integer> occurrences = new HashMap<>();
+        for (UiNode child : children) {
+            String key = segmentKey(child);
+            Integer count = occurrences.get(key);
+            int occurrence = count == null ? 0 : count;
+            occurrences.put(key, occurrence + 1);
+            String path = parentPath + "/" + key + "[" + occurrence + "]";
+            out.put(path, child);
+            indexChildren(path, child.children, out);
+        }
+    }
+
+    private static String segmentKey(UiNode node) {
+        String className = node.className != null ? node.className : "";
+        if (node.resourceId == null || node.resourceId.isEmpty()) return className;
+        return className + "#" + node.resourceId;
+    }
+}
@@ -0,0 +1,150 @@
+package nico.dump_hierarchy;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 层级快照缓存：首次读取时采集，收到界面变化事件（TYPE_WINDOW_CONTENT_CHANGED等）后失效，
+ * 界面静止时连续的 /dump、/find_element 请求直接从内存返回。
+ * <p>
+ * 除快照本身外，也可以按key缓存由同一界面状态生成的结果（如序列化后的dump），随快照一起失效。
+ * 事件监听可能漏掉事件，maxAgeMillis作为兜底：超过该时间的缓存不再使用。
+ */
+public class HierarchySnapshotCache {
+
+    public interface Loader<T> {
+        T load() throws Exception;
+    }
+
+    // 不同dump参数组合的缓存条数上限
+    private static final int MAX_ENTRIES = 16;
+
+    private final long maxAgeMillis;
+    private final Object loadLock = new Object();
+    private final Map<String, Entry> entries = new HashMap<>();
+    // 每次失效加一；加载开始时记录，加载期间发生的失效会让结果在下次读取时被丢弃
+    private final AtomicLong generation = new AtomicLong();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong bypasses = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+
+    private static class Entry {
+        final Object value;
+        final long generation;
+        final long createdAt;
+
+        Entry(Object value, long generation, long createdAt) {
+            this.value = value;
+            this.generation = generation;
+            this.createdAt = createdAt;
+        }
+    }
+
+    /**
+     * @param maxAgeMillis 缓存最长有效时间，0表示不缓存
+     */
+    public HierarchySnapshotCache(long maxAgeMillis) {
+        this.maxAgeMillis = maxAgeMillis;
+    }
+
+    /**
+     * 读取key对应的缓存；未命中、已失效或fresh为true时调用loader重新生成。
+     * 同一时间只有一个加载在进行，并发的相同请求等待后直接复用结果。
+     */
+    public <T> T get(String key, boolean fresh, Loader<T> loader) throws Exception {
+        if (fresh || maxAgeMillis <= 0) {
+            bypasses.incrementAndGet();
+            long startGeneration = generation.get();
+            T value = loader.load();
+            if (maxAgeMillis > 0) put(key, value, startGeneration);
+            return value;
+        }
+        return getNotOlderThan(key, maxAgeMillis, loader);
+    }
+
+    /**
+     * 与get相同，但只使用maxAgeMillis内采集的缓存。用于兜底轮询：多个等待方同时轮询时
+     * 只有第一个重新采集，其余复用它的结果
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T getNotOlderThan(String key, long maxAgeMillis, Loader<T> loader) throws Exception {
+        T cached = (T) lookup(key, maxAgeMillis);
+        if (cached != null) {
+            hits.incrementAndGet();
+            return cached;
+        }
+        synchronized (loadLock) {
+            cached = (T) lookup(key, maxAgeMillis);
+            if (cached != null) {
+                hits.incrementAndGet();
+                return cached;
+            }
+            misses.incrementAndGet();
+            long startGeneration = generation.get();
+            T value = loader.load();
+            put(key, value, startGeneration);
+            return value;
+        }
+    }
+
+    /**
+     * 界面发生变化：丢弃所有缓存
+     */
+    public void invalidate() {
+        generation.incrementAndGet();
+        synchronized (entries) {
+            if (entries.isEmpty()) return;
+            entries.clear();
+        }
+        invalidations.incrementAndGet();
+    }
+
+    private Object lookup(String key, long maxAge) {
+        synchronized (entries) {
+            Entry entry = entries.get(key);
+            if (entry == null) return null;
+            long age = System.currentTimeMillis() - entry.createdAt;
+            if (entry.generation != generation.get() || age > maxAgeMillis) {
+                entries.remove(key);
+                return null;
+            }
+            if (age > maxAge) return null;
+            return entry.value;
+        }
+    }
+
+    private void put(String key, Object value, long loadGeneration) {
+        if (value == null || loadGeneration != generation.get()) return;
+        synchronized (entries) {
+            if (entries.size() >= MAX_ENTRIES && !entries.containsKey(key)) entries.clear();
+            entries.put(key, new Entry(value, loadGeneration, System.currentTimeMillis()));
+        }
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    public long getBypassCount() {
+        return bypasses.get();
+    }
+
+    public long getInvalidationCount() {
+        return invalidations.get();
+    }
+
+    public String toJson() {
+        return "{\"max_age_ms\":" + maxAgeMillis +
+                ",\"hits\":" + getHitCount() +
+                ",\"misses\":" + getMissCount() +
+                ",\"bypasses\":" + getBypassCount() +
+                ",\"invalidations\":" + getInvalidationCount() + "}";
+    }
+}
@@ -0,0 +1,73 @@
+package nico.dump_hierarchy;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * 保存最近几个版本的层级快照，供 /dump?since=<version> 计算增量。
+ * 新快照与最新版本没有差异时不产生新版本，客户端据此判断界面是否真的变化。
+ * 快照只在/dump?since=请求时登记，其他路由采集快照不需要做diff。
+ */
+public class HierarchySnapshotStore {
+    private final int capacity;
+    private final Deque<HierarchySnapshot> snapshots = new ArrayDeque<>();
+    private long nextVersion = 1;
+    // 最近一次登记的采集结果及其对应的版本
+    private HierarchySnapshot lastCandidate;
+    private HierarchySnapshot lastResolved;
+
+    public HierarchySnapshotStore(int capacity) {
+        this.capacity = Math.max(1, capacity);
+    }
+
+    /**
+     * 记录新采集的树，返回对应的快照（内容未变化时返回最新的已有快照）
+     */
+    public HierarchySnapshot publish(int rotation, List<UiNode> roots) {
+        return publish(new HierarchySnapshot(rotation, roots));
+    }
+
+    /**
+     * 登记采集到的快照并返回对应的版本：与最新版本没有差异时返回最新版本（不产生新版本），否则为它分配版本号。
+     * 判断需要与最新版本做一次完整diff，所以只在/dump?since=需要版本号时调用，普通dump和等待轮询采集的快照不登记；
+     * 同一份快照（如来自缓存）重复登记时不再比较
+     */
+    public synchronized HierarchySnapshot publish(HierarchySnapshot snapshot) {
+        if (snapshot.getVersion() != 0) return snapshot;
+        if (snapshot == lastCandidate) return lastResolved;
+        HierarchySnapshot latest = snapshots.peekLast();
+        HierarchySnapshot resolved;
+        if (latest != null && latest.getRotation() == snapshot.getRotation()
+                && HierarchyDiff.compute(latest, snapshot).isEmpty()) {
+            resolved = latest;
+        } else {
+            snapshot.assignVersion(nextVersion++);
+            snapshots.addLast(snapshot);
+            while (snapshots.size() > capacity) {
+                snapshots.removeFirst();
+            }
+            resolved = snapshot;
+        }
+        lastCandidate = snapshot;
+        lastResolved = resolved;
+        return resolved;
+    }
+
+    /**
+     * 查找指定版本；已被淘汰或从未存在时返回null
+     */
+    public synchronized HierarchySnapshot get(long version) {
+        Iterator<HierarchySnapshot> it = snapshots.descendingIterator();
+        while (it.hasNext()) {
+            HierarchySnapshot snapshot = it.next();
+            if (snapshot.getVersion() == version) return snapshot;
+        }
+        return null;
+    }
+
+    public synchronized HierarchySnapshot getLatest() {
+        return snapshots.peekLast();
+    }
+}
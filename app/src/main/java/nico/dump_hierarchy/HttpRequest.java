@@ -0,0 +1,68 @@
+package nico.dump_hierarchy;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * 解析后的HTTP请求（请求行、头部、查询参数和请求体）
+ */
+public class HttpRequest {
+    private final String method;
+    private final String path;
+    private final String query;
+    private final String protocol;
+    private final Map<String, String> headers;
+    private final Map<String, String> params;
+    private final String body;
+    // RequestTiming使用的时间戳（System.nanoTime）：第一个字节到达、解析完成，以及解析前已排队的时间
+    long receivedNanos;
+    long parsedNanos;
+    long queuedNanos;
+
+    public HttpRequest(String method, String path, String query, String protocol,
+                       Map<String, String> headers, Map<String, String> params, String body) {
+        this.method = method;
+        this.path = path;
+        this.query = query;
+        this.protocol = protocol;
+        this.headers = headers != null ? headers : new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        this.params = params != null ? params : new HashMap<>();
+        this.body = body != null ? body : "";
+    }
+
+    public String getMethod() {
+        return method;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public String getQuery() {
+        return query;
+    }
+
+    public String getProtocol() {
+        return protocol;
+    }
+
+    /**
+     * 获取请求头（头部名称不区分大小写，headers需为String.CASE_INSENSITIVE_ORDER的TreeMap）
+     */
+    public String getHeader(String name) {
+        return headers.get(name);
+    }
+
+    public Map<String, String> getHeaders() {
+        return headers;
+    }
+
+    public Map<String, String> getParams() {
+        return params;
+    }
+
+    public String getBody() {
+        return body;
+    }
+}
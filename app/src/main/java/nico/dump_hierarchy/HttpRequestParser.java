@@ -0,0 +1,370 @@
+package nico.dump_hierarchy;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * 增量HTTP请求解析：按字节处理输入，可以分多次喂入任意切分的数据（NIO读缓冲区或阻塞读到的块），
+ * 请求完整后取出HttpRequest，同一个解析器继续解析连接上的下一个请求，行缓冲区和请求体缓冲区复用。
+ * 支持Content-Length和chunked请求体、Expect: 100-continue，头部和请求体有大小上限。
+ */
+public class HttpRequestParser {
+    public static final int DEFAULT_MAX_HEADER_SIZE = 64 * 1024;
+    public static final int DEFAULT_MAX_BODY_SIZE = 16 * 1024 * 1024;
+    // chunk大小行（含扩展）的长度上限
+    private static final int MAX_CHUNK_LINE = 1024;
+    // 超过该大小的请求体缓冲区用完后不再保留
+    private static final int MAX_RETAINED_BODY = 1024 * 1024;
+    private static final int READ_BUFFER_SIZE = 8 * 1024;
+    static final byte[] CONTINUE = "HTTP/1.1 100 Continue\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1);
+
+    private static final int REQUEST_LINE = 0;
+    private static final int HEADERS = 1;
+    private static final int BODY = 2;
+    private static final int CHUNK_SIZE = 3;
+    private static final int CHUNK_DATA = 4;
+    private static final int CHUNK_DATA_END = 5;
+    private static final int TRAILERS = 6;
+    private static final int COMPLETE = 7;
+
+    /**
+     * 请求不合法或超出限制，statusCode为应返回给客户端的状态码（400/413/431/501）
+     */
+    public static class ParseException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        private final int statusCode;
+
+        public ParseException(int statusCode, String message) {
+            super(message);
+            this.statusCode = statusCode;
+        }
+
+        public int getStatusCode() {
+            return statusCode;
+        }
+    }
+
+    private final int maxHeaderSize;
+    private final int maxBodySize;
+
+    private int state = REQUEST_LINE;
+    private byte[] line = new byte[256];
+    private int lineLength;
+    // 请求行+头部（含chunked尾部字段）已读的字节数
+    private int headerBytes;
+    private byte[] body = new byte[0];
+    private int bodyLength;
+    // 当前Content-Length请求体或chunk剩余的字节数
+    private long remaining;
+    private boolean continuePending;
+    // 当前请求第一个字节到达的时间
+    private long receivedNanos;
+
+    private String method;
+    private String target;
+    private String protocol;
+    private Map<String, String> headers;
+
+    // read(InputStream)使用的输入缓冲区，流水线请求的剩余字节留到下一次
+    private byte[] input;
+    private int inputPos;
+    private int inputLimit;
+
+    public HttpRequestParser() {
+        this(DEFAULT_MAX_HEADER_SIZE, DEFAULT_MAX_BODY_SIZE);
+    }
+
+    public HttpRequestParser(int maxHeaderSize, int maxBodySize) {
+        this.maxHeaderSize = maxHeaderSize;
+        this.maxBodySize = maxBodySize;
+    }
+
+    /**
+     * 喂入数据，返回消耗的字节数。请求完整后停止消耗（剩余字节属于下一个请求），isComplete()为true
+     */
+    public int feed(byte[] data, int offset, int length) throws ParseException {
+        int pos = offset;
+        int end = offset + length;
+        if (length > 0 && !isStarted()) receivedNanos = System.nanoTime();
+        while (pos < end && state != COMPLETE) {
+            if (state == BODY || state == CHUNK_DATA) {
+                int n = (int) Math.min(end - pos, remaining);
+                System.arraycopy(data, pos, body, bodyLength, n);
+                bodyLength += n;
+                remaining -= n;
+                pos += n;
+                if (remaining == 0) state = state == BODY ? COMPLETE : CHUNK_DATA_END;
+                continue;
+            }
+            int lineEnd = pos;
+            while (lineEnd < end && data[lineEnd] != '\n') lineEnd++;
+            appendLine(data, pos, lineEnd - pos);
+            if (lineEnd == end) return end - offset;
+            pos = lineEnd + 1;
+            onLine();
+            lineLength = 0;
+        }
+        return pos - offset;
+    }
+
+    public boolean isComplete() {
+        return state == COMPLETE;
+    }
+
+    /**
+     * 是否已经读到当前请求的部分内容（请求之间的空行不算），连接此时断开说明请求被截断
+     */
+    public boolean isStarted() {
+        return state != REQUEST_LINE || lineLength > 0;
+    }
+
+    /**
+     * 头部带Expect: 100-continue且请求体尚未读完时返回true（只返回一次），调用方应回复100 Continue
+     */
+    public boolean takeContinue() {
+        boolean pending = continuePending;
+        continuePending = false;
+        return pending;
+    }
+
+    /**
+     * 取出已完整解析的请求并重置状态，准备解析下一个请求
+     */
+    public HttpRequest takeRequest() {
+        if (state != COMPLETE) throw new IllegalStateException("Request not complete");
+        String path = target;
+        String query = "";
+        int qIndex = path.indexOf('?');
+        if (qIndex != -1) {
+            query = path.substring(qIndex + 1);
+            path = path.substring(0, qIndex);
+        }
+        String bodyText = bodyLength > 0 ? new String(body, 0, bodyLength, StandardCharsets.UTF_8) : "";
+        HttpRequest request = new HttpRequest(method, path, query, protocol, headers,
+                HttpServer.parseQueryParams(query), bodyText);
+        request.receivedNanos = receivedNanos;
+        request.parsedNanos = System.nanoTime();
+
+        state = REQUEST_LINE;
+        headerBytes = 0;
+        bodyLength = 0;
+        remaining = 0;
+        continuePending = false;
+        headers = null;
+        if (body.length > MAX_RETAINED_BODY) body = new byte[0];
+        return request;
+    }
+
+    /**
+     * 阻塞读取一个请求；连接在请求之间正常关闭返回null，请求中途断开抛EOFException。
+     * continueOut不为null时在需要时写出100 Continue
+     */
+    public HttpRequest read(InputStream in, OutputStream continueOut) throws IOException {
+        if (input == null) input = new byte[READ_BUFFER_SIZE];
+        while (true) {
+            if (inputPos < inputLimit) {
+                inputPos += feed(input, inputPos, inputLimit - inputPos);
+                if (isComplete()) return takeRequest();
+                if (takeContinue() && continueOut != null) {
+                    continueOut.write(CONTINUE);
+                    continueOut.flush();
+                }
+            }
+            int read = in.read(input, 0, input.length);
+            if (read == -1) {
+                if (isStarted()) throw new EOFException("Unexpected end of request");
+                return null;
+            }
+            inputPos = 0;
+            inputLimit = read;
+        }
+    }
+
+    private void appendLine(byte[] data, int offset, int length) throws ParseException {
+        if (length == 0) return;
+        boolean inHeader = state == REQUEST_LINE || state == HEADERS || state == TRAILERS;
+        if (inHeader) {
+            // 请求之间多余的空行不计入头部大小
+            if (state != REQUEST_LINE || lineLength > 0 || !isBlank(data, offset, length)) {
+                headerBytes += length + 1;
+                if (headerBytes > maxHeaderSize) throw new ParseException(431, "Request header too large");
+            }
+        } else if (lineLength + length > MAX_CHUNK_LINE) {
+            throw new ParseException(400, "Chunk size line too long");
+        }
+        if (lineLength + length > line.length) {
+            byte[] larger = new byte[Math.max(line.length * 2, lineLength + length)];
+            System.arraycopy(line, 0, larger, 0, lineLength);
+            line = larger;
+        }
+        System.arraycopy(data, offset, line, lineLength, length);
+        lineLength += length;
+    }
+
+    private static boolean isBlank(byte[] data, int offset, int length) {
+        return length == 1 && data[offset] == '\r';
+    }
+
+    private void onLine() throws ParseException {
+        int length = lineLength;
+        if (length > 0 && line[length - 1] == '\r') length--;
+        switch (state) {
+            case REQUEST_LINE:
+                if (length > 0) parseRequestLine(length);
+                break;
+            case HEADERS:
+                if (length == 0) {
+                    endHeaders();
+                } else {
+                    parseHeader(length);
+                }
+                break;
+            case CHUNK_SIZE:
+                long size = parseChunkSize(length);
+                if (size == 0) {
+                    state = TRAILERS;
+                } else {
+                    if (bodyLength + size > maxBodySize) throw new ParseException(413, "Request body too large");
+                    ensureBody(bodyLength + (int) size);
+                    remaining = size;
+                    state = CHUNK_DATA;
+                }
+                break;
+            case CHUNK_DATA_END:
+                if (length != 0) throw new ParseException(400, "Missing CRLF after chunk data");
+                state = CHUNK_SIZE;
+                break;
+            case TRAILERS:
+                // 尾部字段不使用，空行表示请求结束
+                if (length == 0) state = COMPLETE;
+                break;
+            default:
+                throw new IllegalStateException();
+        }
+    }
+
+    private void parseRequestLine(int length) throws ParseException {
+        int firstSpace = indexOf(' ', 0, length);
+        if (firstSpace <= 0) throw new ParseException(400, "Malformed request line");
+        int secondSpace = indexOf(' ', firstSpace + 1, length);
+        int targetEnd = secondSpace == -1 ? length : secondSpace;
+        if (targetEnd == firstSpace + 1) throw new ParseException(400, "Malformed request line");
+        method = ascii(0, firstSpace);
+        target = new String(line, firstSpace + 1, targetEnd - firstSpace - 1, StandardCharsets.UTF_8);
+        protocol = secondSpace == -1 ? "" : ascii(secondSpace + 1, length);
+        headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        state = HEADERS;
+    }
+
+    private void parseHeader(int length) throws ParseException {
+        int colon = indexOf(':', 0, length);
+        // 没有冒号的行忽略
+        if (colon <= 0) return;
+        int nameEnd = colon;
+        while (nameEnd > 0 && isWhitespace(line[nameEnd - 1])) nameEnd--;
+        if (nameEnd == 0) return;
+        int valueStart = colon + 1;
+        int valueEnd = length;
+        while (valueStart < valueEnd && isWhitespace(line[valueStart])) valueStart++;
+        while (valueEnd > valueStart && isWhitespace(line[valueEnd - 1])) valueEnd--;
+        String name = ascii(0, nameEnd);
+        String value = new String(line, valueStart, valueEnd - valueStart, StandardCharsets.UTF_8);
+        String previous = headers.put(name, value);
+        // 多个不一致的Content-Length无法确定请求边界
+        if (previous != null && name.equalsIgnoreCase("Content-Length") && !previous.equals(value)) {
+            throw new ParseException(400, "Conflicting Content-Length");
+        }
+    }
+
+    private void endHeaders() throws ParseException {
+        String transferEncoding = headers.get("Transfer-Encoding");
+        String contentLength = headers.get("Content-Length");
+        if (transferEncoding != null) {
+            // 同时带Content-Length时以chunked为准
+            if (!transferEncoding.equalsIgnoreCase("chunked")) {
+                throw new ParseException(501, "Unsupported Transfer-Encoding: " + transferEncoding);
+            }
+            state = CHUNK_SIZE;
+        } else if (contentLength != null) {
+            long length = parseContentLength(contentLength);
+            if (length > maxBodySize) throw new ParseException(413, "Request body too large");
+            if (length == 0) {
+                state = COMPLETE;
+            } else {
+                ensureBody((int) length);
+                remaining = length;
+                state = BODY;
+            }
+        } else {
+            state = COMPLETE;
+        }
+        continuePending = state != COMPLETE && "100-continue".equalsIgnoreCase(headers.get("Expect"));
+    }
+
+    private static long parseContentLength(String value) throws ParseException {
+        if (value.isEmpty() || value.length() > 18) throw new ParseException(400, "Invalid Content-Length");
+        long length = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < '0' || c > '9') throw new ParseException(400, "Invalid Content-Length");
+            length = length * 10 + (c - '0');
+        }
+        return length;
+    }
+
+    private long parseChunkSize(int length) throws ParseException {
+        long size = 0;
+        int digits = 0;
+        for (int i = 0; i < length; i++) {
+            byte b = line[i];
+            int digit = Character.digit(b, 16);
+            if (digit < 0) {
+                // 忽略chunk扩展（;name=value）
+                if (b == ';' || isWhitespace(b)) break;
+                throw new ParseException(400, "Invalid chunk size");
+            }
+            if (++digits > 8) throw new ParseException(413, "Request body too large");
+            size = size * 16 + digit;
+        }
+        if (digits == 0) throw new ParseException(400, "Invalid chunk size");
+        return size;
+    }
+
+    private void ensureBody(int capacity) {
+        if (body.length >= capacity) return;
+        byte[] larger = new byte[Math.max(capacity, Math.min(body.length * 2, maxBodySize))];
+        System.arraycopy(body, 0, larger, 0, bodyLength);
+        body = larger;
+    }
+
+    private int indexOf(char c, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (line[i] == c) return i;
+        }
+        return -1;
+    }
+
+    private String ascii(int from, int to) {
+        // 常见的方法名和协议直接返回常量
+        int length = to - from;
+        if (length == 3 && line[from] == 'G' && line[from + 1] == 'E' && line[from + 2] == 'T') return "GET";
+        if (length == 4 && line[from] == 'P' && line[from + 1] == 'O' && line[from + 2] == 'S'
+                && line[from + 3] == 'T') return "POST";
+        if (length == 8 && line[from] == 'H' && line[from + 4] == '/' && line[from + 5] == '1'
+                && line[from + 6] == '.' && line[from + 1] == 'T' && line[from + 2] == 'T' && line[from + 3] == 'P') {
+            if (line[from + 7] == '1') return "HTTP/1.1";
+            if (line[from + 7] == '0') return "HTTP/1.0";
+        }
+        return new String(line, from, length, StandardCharsets.ISO_8859_1);
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\t';
+    }
+}
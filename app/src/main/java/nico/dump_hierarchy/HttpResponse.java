@@ -0,0 +1,417 @@
+package nico.dump_hierarchy;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 单个请求的响应输出流：负责写状态行和头部，并统计写出的字节数
+ */
+public class HttpResponse extends OutputStream {
+    // 无法零拷贝时的文件复制缓冲区大小
+    private static final int FILE_COPY_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * 支持把文件内容直接交给socket发送（FileChannel.transferTo）的底层输出流。
+     * 实现方负责在发送完成后关闭channel。
+     */
+    public interface FileTransport {
+        void transferFile(FileChannel channel, long position, long count) throws IOException;
+    }
+
+    private final OutputStream out;
+    private final HttpRequest request;
+    private final List<String> extraHeaders = new ArrayList<>();
+    private boolean committed = false;
+    private int statusCode = 0;
+    private long bytesWritten = 0;
+    private boolean keepAlive = false;
+    private ResponseCompression compression;
+    // 当前请求的阶段耗时，压缩计入serialize、写出计入write
+    private RequestTiming timing;
+    // startAsync的时间及当时已计入的阶段耗时之和
+    private long asyncStartNanos;
+    private long asyncAccountedNanos;
+    // 异步完成（startAsync）的状态和完成时的回调，由this保护
+    private boolean async = false;
+    private boolean completed = false;
+    private List<Runnable> completionListeners;
+    // 异步响应的写出在工作线程上执行；abortAction从其他线程强制关闭连接。由服务端在处理前设置
+    private WorkerPool workerPool;
+    private Runnable abortAction;
+
+    public HttpResponse(OutputStream out) {
+        this(out, null);
+    }
+
+    public HttpResponse(OutputStream out, HttpRequest request) {
+        this.out = out;
+        this.request = request;
+    }
+
+    /**
+     * 添加额外的响应头部，需在writeHead之前调用
+     */
+    public void addHeader(String name, String value) {
+        extraHeaders.add(name + ": " + value);
+    }
+
+    /**
+     * 写出状态行和头部（每个响应只能调用一次）
+     */
+    public void writeHead(int statusCode, String contentType, long contentLength) throws IOException {
+        writeHead(statusCode, contentType, contentLength, false);
+    }
+
+    /**
+     * 写出流式响应（如text/event-stream）的头部：不带Content-Length，由关闭连接表示响应结束
+     */
+    public void writeStreamHead(int statusCode, String contentType) throws IOException {
+        keepAlive = false;
+        addHeader("Cache-Control", "no-cache");
+        writeHead(statusCode, contentType, -1, true);
+        flush();
+    }
+
+    private void writeHead(int statusCode, String contentType, long contentLength, boolean stream) throws IOException {
+        if (committed) {
+            throw new IllegalStateException("Response already committed");
+        }
+        committed = true;
+        this.statusCode = statusCode;
+        StringBuilder header = new StringBuilder(256);
+        header.append(String.format("HTTP/1.1 %d %s\r\n" +
+                        "Content-Type: %s\r\n",
+                statusCode, getStatusMessage(statusCode), contentType));
+        if (!stream) {
+            header.append("Content-Length: ").append(contentLength).append("\r\n");
+        }
+        header.append("Connection: ").append(keepAlive ? "keep-alive" : "close").append("\r\n");
+        if (timing != null && timing.isReported()) {
+            header.append("Server-Timing: ").append(timing.toHeaderValue()).append("\r\n");
+        }
+        for (String extraHeader : extraHeaders) {
+            header.append(extraHeader).append("\r\n");
+        }
+        header.append("\r\n");
+        byte[] headerBytes = header.toString().getBytes("UTF-8");
+        out.write(headerBytes);
+        bytesWritten += headerBytes.length;
+    }
+
+    /**
+     * 一次性发送完整响应
+     */
+    public void send(int statusCode, String contentType, byte[] body) throws IOException {
+        send(statusCode, contentType, body, 0, body.length);
+    }
+
+    public void send(int statusCode, String contentType, byte[] body, int offset, int length) throws IOException {
+        String encoding = compression != null ? compression.selectEncoding(request, contentType, length) : null;
+        if (encoding != null) {
+            long start = RequestTiming.now();
+            ResponseBuffer compressed = compression.compress(encoding, body, offset, length);
+            addHeader("Content-Encoding", encoding);
+            addHeader("Vary", "Accept-Encoding");
+            body = compressed.getBuffer();
+            offset = 0;
+            length = compressed.size();
+            if (timing != null) timing.stop(RequestTiming.SERIALIZE, start);
+        }
+        long start = RequestTiming.now();
+        writeHead(statusCode, contentType, length);
+        write(body, offset, length);
+        flush();
+        if (timing != null) timing.stop(RequestTiming.WRITE, start);
+    }
+
+    /**
+     * 发送文件：支持HEAD和单区间Range请求，底层支持时用transferTo零拷贝发送
+     */
+    public void sendFile(String contentType, File file) throws IOException {
+        long length = file.length();
+        long start = 0;
+        long count = length;
+        int status = 200;
+        addHeader("Accept-Ranges", "bytes");
+
+        String range = request != null ? request.getHeader("Range") : null;
+        if (range != null) {
+            long[] bounds = parseRange(range, length);
+            if (bounds != null && bounds.length == 0) {
+                addHeader("Content-Range", "bytes */" + length);
+                send(416, "text/plain; charset=UTF-8", "Range Not Satisfiable".getBytes("UTF-8"));
+                return;
+            }
+            if (bounds != null) {
+                start = bounds[0];
+                count = bounds[1] - bounds[0] + 1;
+                status = 206;
+                addHeader("Content-Range", "bytes " + bounds[0] + "-" + bounds[1] + "/" + length);
+            }
+        }
+
+        long writeStart = RequestTiming.now();
+        writeHead(status, contentType, count);
+        if (isHeadRequest() || count == 0) {
+            flush();
+            if (timing != null) timing.stop(RequestTiming.WRITE, writeStart);
+            return;
+        }
+
+        FileChannel channel = new RandomAccessFile(file, "r").getChannel();
+        bytesWritten += count;
+        if (out instanceof FileTransport) {
+            ((FileTransport) out).transferFile(channel, start, count);
+        } else {
+            copyFile(channel, start, count, out);
+        }
+        flush();
+        if (timing != null) timing.stop(RequestTiming.WRITE, writeStart);
+    }
+
+    /**
+     * 不支持零拷贝时的回退：通过较大的缓冲区分块复制
+     */
+    static void copyFile(FileChannel channel, long position, long count, OutputStream os) throws IOException {
+        try {
+            ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(FILE_COPY_BUFFER_SIZE, count));
+            long end = position + count;
+            while (position < end) {
+                buffer.clear();
+                if (end - position < buffer.capacity()) buffer.limit((int) (end - position));
+                int read = channel.read(buffer, position);
+                if (read == -1) throw new IOException("File truncated while sending");
+                os.write(buffer.array(), 0, read);
+                position += read;
+            }
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * 解析单区间Range头部：返回[start, end]；语法不支持或多区间时返回null（按完整文件响应）；
+     * 区间无法满足时返回空数组（416）
+     */
+    static long[] parseRange(String range, long length) {
+        if (!range.startsWith("bytes=") || range.indexOf(',') != -1) return null;
+        String spec = range.substring(6).trim();
+        int dash = spec.indexOf('-');
+        if (dash == -1) return null;
+        try {
+            String first = spec.substring(0, dash).trim();
+            String last = spec.substring(dash + 1).trim();
+            long start;
+            long end;
+            if (first.isEmpty()) {
+                // bytes=-N：最后N个字节
+                if (last.isEmpty()) return null;
+                long suffix = Long.parseLong(last);
+                if (suffix <= 0) return new long[0];
+                start = Math.max(0, length - suffix);
+                end = length - 1;
+            } else {
+                start = Long.parseLong(first);
+                end = length - 1;
+                if (!last.isEmpty()) {
+                    end = Long.parseLong(last);
+                    if (end < start) return null;  // 语法无效，忽略Range
+                }
+            }
+            if (start >= length) return new long[0];
+            end = Math.min(end, length - 1);
+            return new long[]{start, end};
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private boolean isHeadRequest() {
+        return request != null && "HEAD".equals(request.getMethod());
+    }
+
+    public HttpRequest getRequest() {
+        return request;
+    }
+
+    /**
+     * 是否在响应后保持连接（决定Connection头部）
+     */
+    public void setKeepAlive(boolean keepAlive) {
+        this.keepAlive = keepAlive;
+    }
+
+    public boolean isKeepAlive() {
+        return keepAlive;
+    }
+
+    /**
+     * 设置send()使用的压缩配置，null表示不压缩（sendFile不压缩）
+     */
+    public void setCompression(ResponseCompression compression) {
+        this.compression = compression;
+    }
+
+    /**
+     * 设置当前请求的阶段耗时（由HttpServer在处理前设置）；开启输出时写头部时带上Server-Timing
+     */
+    public void setTiming(RequestTiming timing) {
+        this.timing = timing;
+    }
+
+    /**
+     * 处理器返回后不结束响应：由其他线程稍后写出（等待线程上通过dispatch交给工作线程）并调用complete()，
+     * 期间不占用工作线程。需在处理器返回前调用；之后的阶段耗时记在响应自己的副本上，
+     * 挂起的时间在complete()时计入wait
+     */
+    public void startAsync() {
+        synchronized (this) {
+            async = true;
+        }
+        // 处理线程上的实例在处理器返回后会被下一个请求复用
+        if (timing != null) {
+            timing = timing.detach();
+            asyncStartNanos = RequestTiming.now();
+            asyncAccountedNanos = timing.getAccountedNanos();
+        }
+    }
+
+    /**
+     * 当前请求的阶段耗时；startAsync之后为响应自己的副本，未设置时为null
+     */
+    public RequestTiming getTiming() {
+        return timing;
+    }
+
+    public synchronized boolean isAsync() {
+        return async;
+    }
+
+    /**
+     * 响应已写完：依次执行whenComplete登记的回调（释放路由名额、记录路由指标、继续处理连接上的下一个请求等）。
+     * 异步响应由写出的线程调用，同步响应出错时由HttpServer在写出500后调用。重复调用无效
+     */
+    public void complete() {
+        List<Runnable> listeners;
+        synchronized (this) {
+            if (completed) return;
+            completed = true;
+            listeners = completionListeners;
+            completionListeners = null;
+        }
+        if (async && timing != null) {
+            // 挂起期间除已单独计入的阶段（写出等）外都是等待
+            long accounted = timing.getAccountedNanos() - asyncAccountedNanos;
+            timing.add(RequestTiming.WAIT, RequestTiming.now() - asyncStartNanos - accounted);
+        }
+        if (listeners == null) return;
+        for (Runnable listener : listeners) {
+            listener.run();
+        }
+    }
+
+    /**
+     * 登记异步响应完成时的回调；已完成时立即在当前线程执行
+     */
+    public void whenComplete(Runnable listener) {
+        synchronized (this) {
+            if (!completed) {
+                if (completionListeners == null) completionListeners = new ArrayList<>(2);
+                completionListeners.add(listener);
+                return;
+            }
+        }
+        listener.run();
+    }
+
+    /**
+     * 设置异步响应写出用的线程池（由HttpServer在处理前设置）
+     */
+    public void setWorkerPool(WorkerPool workerPool) {
+        this.workerPool = workerPool;
+    }
+
+    /**
+     * 设置强制关闭连接的方式（由连接在处理前设置）
+     */
+    public void setAbortAction(Runnable abortAction) {
+        this.abortAction = abortAction;
+    }
+
+    /**
+     * 在工作线程上执行异步响应的写出：等待线程只做检查，客户端不读时写出会阻塞。
+     * 线程池已满时不执行task，直接关闭连接并结束响应，返回false；没有线程池（单元测试）时在当前线程执行
+     */
+    public boolean dispatch(Runnable task) {
+        if (workerPool == null) {
+            task.run();
+            return true;
+        }
+        return workerPool.dispatch(task, () -> {
+            setKeepAlive(false);
+            abort();
+            complete();
+        });
+    }
+
+    /**
+     * 强制关闭连接，正在阻塞的写出随即失败；用于断开不再读取的客户端。仍需调用complete()
+     */
+    public void abort() {
+        if (abortAction != null) abortAction.run();
+    }
+
+    public boolean isCommitted() {
+        return committed;
+    }
+
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (isHeadRequest()) return;  // HEAD请求只发送头部
+        out.write(b);
+        bytesWritten++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (isHeadRequest()) return;
+        out.write(b, off, len);
+        bytesWritten += len;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    public static String getStatusMessage(int statusCode) {
+        switch (statusCode) {
+            case 200: return "OK";
+            case 206: return "Partial Content";
+            case 400: return "Bad Request";
+            case 404: return "Not Found";
+            case 405: return "Method Not Allowed";
+            case 413: return "Payload Too Large";
+            case 416: return "Range Not Satisfiable";
+            case 431: return "Request Header Fields Too Large";
+            case 500: return "Internal Server Error";
+            case 501: return "Not Implemented";
+            case 503: return "Service Unavailable";
+            default: return "Unknown";
+        }
+    }
+}
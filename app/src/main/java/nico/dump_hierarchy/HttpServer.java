@@ -0,0 +1,388 @@
+package nico.dump_hierarchy;
+
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.URLDecoder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 内嵌HTTP服务：accept线程只负责接收连接，请求交给有界的WorkerPool处理。
+ * 支持HTTP/1.1持久连接，同一连接上的流水线请求按顺序处理和响应。
+ * 处理器可以把响应转为异步（HttpResponse.startAsync），等待期间连接不占用工作线程。
+ */
+public class HttpServer {
+    // 阻塞读的分段间隔：空闲的持久连接每隔这么久检查一次是否有连接在排队
+    static final int IDLE_CHECK_MILLIS = 50;
+    // 等待请求本身（新连接的第一个请求、已开始到达的请求的其余部分）的读超时；keep-alive超时只限制请求之间的空闲
+    static final int REQUEST_READ_TIMEOUT_MILLIS = 5000;
+
+    /**
+     * 路由处理器，由HierarchyTest实现
+     */
+    public interface Handler {
+        void handle(HttpRequest request, HttpResponse response) throws Exception;
+    }
+
+    protected final InetAddress address;
+    protected final int port;
+    protected final Handler handler;
+    protected final WorkerPool workerPool;
+    private ServerSocket serverSocket;
+    // 持久连接的空闲超时和单连接最大请求数
+    protected int keepAliveTimeoutMillis = 5000;
+    protected int maxRequestsPerConnection = 1000;
+    // 文本响应的压缩配置，null表示不压缩
+    protected ResponseCompression compression =
+            new ResponseCompression(ResponseCompression.DEFAULT_LEVEL, ResponseCompression.DEFAULT_MIN_SIZE);
+    // 是否在响应中输出各阶段耗时（Server-Timing头部）
+    protected volatile boolean serverTiming = false;
+
+    public HttpServer(InetAddress address, int port, WorkerPool.Config config, Handler handler) {
+        this.address = address;
+        this.port = port;
+        this.handler = handler;
+        this.workerPool = new WorkerPool(config);
+    }
+
+    /**
+     * 设置持久连接参数；timeout为0或max为1时等同于关闭keep-alive。
+     * timeout只限制两个请求之间的空闲，新连接的第一个请求按REQUEST_READ_TIMEOUT_MILLIS等待
+     */
+    public void setKeepAlive(int timeoutMillis, int maxRequests) {
+        this.keepAliveTimeoutMillis = timeoutMillis;
+        this.maxRequestsPerConnection = maxRequests;
+    }
+
+    /**
+     * 设置响应压缩（按Accept-Encoding协商），传null关闭
+     */
+    public void setCompression(ResponseCompression compression) {
+        this.compression = compression;
+    }
+
+    /**
+     * 开启后每个响应带Server-Timing头部（parse/queue/tree/match/wait/serialize及total，毫秒）；
+     * 不开启时仍会打点，只用于/metrics
+     */
+    public void setServerTiming(boolean enabled) {
+        this.serverTiming = enabled;
+    }
+
+    public boolean isServerTimingEnabled() {
+        return serverTiming;
+    }
+
+    /**
+     * 绑定端口并在后台线程中开始接收连接
+     */
+    public void start() throws IOException {
+        // 通过ServerSocketChannel创建，accept得到的socket带有channel，文件可用transferTo零拷贝发送
+        ServerSocketChannel serverChannel = ServerSocketChannel.open();
+        serverSocket = serverChannel.socket();
+        serverSocket.bind(new InetSocketAddress(address, port));
+        Thread acceptThread = new Thread(this::acceptLoop, "http-accept");
+        acceptThread.start();
+    }
+
+    public void stop() {
+        try {
+            if (serverSocket != null) serverSocket.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        workerPool.shutdown();
+    }
+
+    public int getLocalPort() {
+        return serverSocket != null ? serverSocket.getLocalPort() : port;
+    }
+
+    public WorkerPool getWorkerPool() {
+        return workerPool;
+    }
+
+    private void acceptLoop() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket clientSocket = serverSocket.accept();
+                long acceptedNanos = RequestTiming.now();
+                workerPool.execute(new ClientConnection(clientSocket, acceptedNanos),
+                        () -> rejectClient(clientSocket));
+            } catch (IOException e) {
+                if (!serverSocket.isClosed()) e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * 队列已满：直接返回503并关闭连接
+     */
+    private void rejectClient(Socket socket) {
+        try (Socket s = socket) {
+            sendServiceUnavailable(new HttpResponse(s.getOutputStream()));
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    protected void sendServiceUnavailable(HttpResponse response) throws IOException {
+        response.send(503, "text/plain; charset=UTF-8", "Server busy, retry later".getBytes("UTF-8"));
+    }
+
+    /**
+     * 阻塞模式下的一个连接：在工作线程中按顺序处理请求，直到客户端要求关闭、达到上限或空闲超时。
+     * 响应异步完成（等待类路由）时线程先回到线程池，响应写完后连接重新提交到线程池继续处理后续请求
+     */
+    private class ClientConnection implements Runnable {
+        private final Socket socket;
+        // 解析器自带输入缓冲区，流水线中下一个请求的字节留在里面
+        private final HttpRequestParser parser = new HttpRequestParser();
+        private InputStream is;
+        private OutputStream os;
+        // 提交到线程池的时间，在队列中等待的时间计入之后第一个请求的queue
+        private long submittedNanos;
+        private int handled = 0;
+
+        ClientConnection(Socket socket, long submittedNanos) {
+            this.socket = socket;
+            this.submittedNanos = submittedNanos;
+        }
+
+        @Override
+        public void run() {
+            boolean parked = false;
+            try {
+                if (os == null) {
+                    socket.setTcpNoDelay(true);
+                    socket.setSoTimeout(readSliceMillis());
+                    is = socket.getInputStream();
+                    os = new SocketOutputStream(socket.getOutputStream(), socket.getChannel());
+                }
+                parked = serve();
+            } catch (IOException e) {
+                // 处理socket读写异常（服务停止时中断的连接不再打印）
+                if (!serverSocket.isClosed()) e.printStackTrace();
+            } finally {
+                if (!parked) close();
+            }
+        }
+
+        /**
+         * 处理连接上的请求；遇到异步响应时返回true，连接保持打开，由响应完成时继续
+         */
+        private boolean serve() throws IOException {
+            long queuedNanos = RequestTiming.now() - submittedNanos;
+            boolean first = true;
+            while (true) {
+                HttpRequest request;
+                try {
+                    request = readRequest(parser, is, os, handled > 0);
+                } catch (EOFException e) {
+                    return false;
+                } catch (HttpRequestParser.ParseException e) {
+                    sendParseError(new HttpResponse(os), e);
+                    os.flush();
+                    return false;
+                }
+                if (request == null) return false;
+                handled++;
+                if (first) {
+                    request.queuedNanos = queuedNanos;
+                    first = false;
+                }
+
+                // 有连接在排队等待线程时不再保持空闲连接，把线程让出来
+                boolean keepAlive = isKeepAliveRequested(request)
+                        && keepAliveTimeoutMillis > 0
+                        && handled < maxRequestsPerConnection
+                        && workerPool.getQueueDepth() == 0;
+                HttpResponse response = new HttpResponse(os, request);
+                response.setKeepAlive(keepAlive);
+                // 关闭socket会让阻塞中的写出立即失败
+                response.setAbortAction(this::close);
+                handleRequest(request, response);
+                if (response.isAsync()) {
+                    response.whenComplete(() -> resume(response));
+                    return true;
+                }
+                os.flush();
+                if (!response.isKeepAlive()) return false;
+            }
+        }
+
+        /**
+         * 异步响应写完：保持连接时重新提交到线程池读取下一个请求，否则关闭。
+         * 调用方是完成响应的线程（通常是工作线程或等待线程），线程池已满时关闭连接，不在调用线程继续处理
+         */
+        private void resume(HttpResponse response) {
+            try {
+                os.flush();
+            } catch (IOException e) {
+                close();
+                return;
+            }
+            if (!response.isKeepAlive()) {
+                close();
+                return;
+            }
+            submittedNanos = RequestTiming.now();
+            workerPool.dispatch(this, this::close);
+        }
+
+        private void close() {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+    }
+
+    /**
+     * 阻塞读的分段长度：不超过IDLE_CHECK_MILLIS，也不超过keep-alive超时（为0时不用于分段）
+     */
+    private int readSliceMillis() {
+        return keepAliveTimeoutMillis > 0 ? Math.min(keepAliveTimeoutMillis, IDLE_CHECK_MILLIS) : IDLE_CHECK_MILLIS;
+    }
+
+    /**
+     * 读取下一个请求，超时或需要让出线程时返回null。阻塞读按readSliceMillis分段：
+     * 已处理过请求的空闲连接（还没收到下一个请求的字节）在有连接排队时立即关闭，不必等满keep-alive超时，
+     * 空闲累计超过keep-alive超时同样关闭；新连接的第一个请求和已开始到达的请求按REQUEST_READ_TIMEOUT_MILLIS等待
+     */
+    private HttpRequest readRequest(HttpRequestParser parser, InputStream is, OutputStream os,
+                                    boolean idle) throws IOException {
+        int slice = readSliceMillis();
+        long waited = 0;
+        while (true) {
+            try {
+                return parser.read(is, os);
+            } catch (SocketTimeoutException e) {
+                waited += slice;
+                boolean betweenRequests = idle && !parser.isStarted();
+                if (waited >= (betweenRequests ? keepAliveTimeoutMillis : REQUEST_READ_TIMEOUT_MILLIS)) return null;
+                if (betweenRequests && workerPool.getQueueDepth() > 0) return null;
+            }
+        }
+    }
+
+    /**
+     * 请求不合法或超出大小限制：返回对应状态码，之后关闭连接（请求边界已不可信）
+     */
+    private void sendParseError(HttpResponse response, HttpRequestParser.ParseException e) throws IOException {
+        response.setKeepAlive(false);
+        response.send(e.getStatusCode(), "text/plain; charset=UTF-8", e.getMessage().getBytes("UTF-8"));
+    }
+
+    protected void handleRequest(HttpRequest request, HttpResponse response) throws IOException {
+        String path = request.getPath();
+        RequestTiming timing = RequestTiming.begin(request, serverTiming);
+        response.setTiming(timing);
+
+        // 按路由限制并发（如/dump、/screenshot），超出则返回503
+        if (!workerPool.tryEnterRoute(path)) {
+            sendServiceUnavailable(response);
+            timing.end();
+            return;
+        }
+        response.setCompression(compression);
+        response.setWorkerPool(workerPool);
+        try {
+            handler.handle(request, response);
+        } catch (Exception e) {  // 捕获所有异常
+            if (!response.isCommitted()) {
+                response.send(500, "text/plain; charset=UTF-8", "Internal Server Error".getBytes("UTF-8"));
+            } else {
+                // 响应已写出一半，连接状态不可信，处理完后关闭
+                response.setKeepAlive(false);
+            }
+            // 处理器出错时不再等待异步完成
+            response.complete();
+            e.printStackTrace();
+        } finally {
+            // 异步响应（如/wait_idle）在完成时才释放路由名额，名额限制的是同时挂起的等待数
+            if (response.isAsync()) {
+                response.whenComplete(() -> workerPool.exitRoute(path));
+            } else {
+                workerPool.exitRoute(path);
+            }
+            timing.end();
+        }
+    }
+
+    /**
+     * 阻塞模式下的连接输出流：普通数据经缓冲写出，文件直接从FileChannel传给SocketChannel
+     */
+    private static class SocketOutputStream extends BufferedOutputStream implements HttpResponse.FileTransport {
+        private final SocketChannel channel;
+
+        SocketOutputStream(OutputStream out, SocketChannel channel) {
+            super(out, 8 * 1024);
+            this.channel = channel;
+        }
+
+        @Override
+        public void transferFile(FileChannel file, long position, long count) throws IOException {
+            try {
+                if (channel == null) {
+                    HttpResponse.copyFile(file, position, count, this);
+                    return;
+                }
+                flush();  // 先写出已缓冲的头部
+                long end = position + count;
+                while (position < end) {
+                    long sent = file.transferTo(position, end - position, channel);
+                    if (sent <= 0 && position >= file.size()) {
+                        throw new IOException("File truncated while sending");
+                    }
+                    position += sent;
+                }
+            } finally {
+                file.close();
+            }
+        }
+    }
+
+    /**
+     * HTTP/1.1默认保持连接，HTTP/1.0需显式声明keep-alive
+     */
+    static boolean isKeepAliveRequested(HttpRequest request) {
+        String connection = request.getHeader("Connection");
+        if ("HTTP/1.1".equals(request.getProtocol())) {
+            return connection == null || !connection.equalsIgnoreCase("close");
+        }
+        return connection != null && connection.equalsIgnoreCase("keep-alive");
+    }
+
+    static Map<String, String> parseQueryParams(String query) {
+        Map<String, String> params = new HashMap<>();
+        if (query == null) return params;
+
+        String[] pairs = query.split("&");
+        for (String pair : pairs) {
+            int idx = pair.indexOf('=');
+            if (idx != -1) {
+                try {
+                    String key = URLDecoder.decode(pair.substring(0, idx), "UTF-8");
+                    String value = URLDecoder.decode(pair.substring(idx + 1), "UTF-8");
+                    params.put(key, value);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+        return params;
+    }
+}
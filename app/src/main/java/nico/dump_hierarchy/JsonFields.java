@@ -0,0 +1,68 @@
+package nico.dump_hierarchy;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+
+/**
+ * 读取请求体JSON对象的字段。字段是对象或数组时gson抛出IllegalStateException/UnsupportedOperationException，
+ * 这里统一转为IllegalArgumentException，由路由返回400而不是500
+ */
+final class JsonFields {
+
+    private JsonFields() {
+    }
+
+    /**
+     * 字段的值；不存在或为null时返回null
+     *
+     * @throws IllegalArgumentException 字段是对象或数组
+     */
+    static JsonPrimitive getPrimitive(JsonObject object, String name) {
+        JsonElement value = object.get(name);
+        if (value == null || value.isJsonNull()) return null;
+        if (!value.isJsonPrimitive()) throw new IllegalArgumentException(name + " must be a string or number");
+        return value.getAsJsonPrimitive();
+    }
+
+    static String getString(JsonObject object, String name, String defaultValue) {
+        JsonPrimitive value = getPrimitive(object, name);
+        return value == null ? defaultValue : value.getAsString();
+    }
+
+    /**
+     * 数字字段；不是整数时抛出IllegalArgumentException（NumberFormatException）
+     */
+    static long getLong(JsonObject object, String name, long defaultValue) {
+        JsonPrimitive value = getPrimitive(object, name);
+        return value == null ? defaultValue : value.getAsLong();
+    }
+
+    /**
+     * 不能为负的数字字段（时长、间隔等）
+     */
+    static long getNonNegativeLong(JsonObject object, String name, long defaultValue) {
+        long result = getLong(object, name, defaultValue);
+        if (result < 0) throw new IllegalArgumentException(name + " must not be negative");
+        return result;
+    }
+
+    /**
+     * 必填的数字字段（坐标等）
+     */
+    static float getFloat(JsonObject object, String name) {
+        JsonPrimitive value = getPrimitive(object, name);
+        if (value == null) throw new IllegalArgumentException("Missing parameter: " + name);
+        return value.getAsFloat();
+    }
+
+    static double getDouble(JsonObject object, String name, double defaultValue) {
+        JsonPrimitive value = getPrimitive(object, name);
+        return value == null ? defaultValue : value.getAsDouble();
+    }
+
+    static boolean getBoolean(JsonObject object, String name, boolean defaultValue) {
+        JsonPrimitive value = getPrimitive(object, name);
+        return value == null ? defaultValue : value.getAsBoolean();
+    }
+}
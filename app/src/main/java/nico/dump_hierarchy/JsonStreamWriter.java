@@ -0,0 +1,335 @@
+package nico.dump_hierarchy;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * 流式JSON输出：直接把转义后的UTF-8字节写进输出流（通常是ResponseBuffer），
+ * 不经过Writer/String/Map等中间对象。逗号按嵌套层级自动补齐，方法名与gson的JsonWriter一致。
+ * 字符串按JSON规范转义（引号、反斜杠、控制字符，以及U+2028/U+2029和不成对的代理字符）。
+ */
+public class JsonStreamWriter {
+    private static final int DEFAULT_BUFFER_SIZE = 4096;
+    // 缓冲区至少能放下一个数字（Double.toString最长24个字符）
+    private static final int MIN_BUFFER_SIZE = 32;
+    // 写每个字符前保证的空间：一个\\uXXXX转义或一个4字节UTF-8字符
+    private static final int CHAR_RESERVE = 6;
+    private static final byte[] HEX = "0123456789abcdef".getBytes();
+    private static final byte[] TRUE = {'t', 'r', 'u', 'e'};
+    private static final byte[] FALSE = {'f', 'a', 'l', 's', 'e'};
+    private static final byte[] NULL = {'n', 'u', 'l', 'l'};
+
+    private static final int EMPTY_DOCUMENT = 0;
+    private static final int NONEMPTY_DOCUMENT = 1;
+    private static final int EMPTY_OBJECT = 2;
+    private static final int NONEMPTY_OBJECT = 3;
+    private static final int DANGLING_NAME = 4;
+    private static final int EMPTY_ARRAY = 5;
+    private static final int NONEMPTY_ARRAY = 6;
+
+    private final OutputStream out;
+    private final byte[] buf;
+    private int pos;
+    private int[] stack = new int[16];
+    private int depth;
+
+    public JsonStreamWriter(OutputStream out) {
+        this(out, DEFAULT_BUFFER_SIZE);
+    }
+
+    public JsonStreamWriter(OutputStream out, int bufferSize) {
+        this.out = out;
+        this.buf = new byte[Math.max(MIN_BUFFER_SIZE, bufferSize)];
+        stack[depth++] = EMPTY_DOCUMENT;
+    }
+
+    /**
+     * 写到内存并返回字符串，用于stats等拼接进其他响应的小对象
+     */
+    public static String toJson(Body body) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(256);
+        JsonStreamWriter writer = new JsonStreamWriter(out, 256);
+        body.write(writer);
+        writer.flush();
+        return out.toString("UTF-8");
+    }
+
+    /**
+     * 由toJson调用，写出一个完整的JSON值
+     */
+    public interface Body {
+        void write(JsonStreamWriter writer) throws IOException;
+    }
+
+    public JsonStreamWriter beginObject() throws IOException {
+        beforeValue();
+        push(EMPTY_OBJECT);
+        put('{');
+        return this;
+    }
+
+    public JsonStreamWriter endObject() throws IOException {
+        int context = stack[depth - 1];
+        if (context != EMPTY_OBJECT && context != NONEMPTY_OBJECT) {
+            throw new IllegalStateException("Nesting problem");
+        }
+        depth--;
+        put('}');
+        return this;
+    }
+
+    public JsonStreamWriter beginArray() throws IOException {
+        beforeValue();
+        push(EMPTY_ARRAY);
+        put('[');
+        return this;
+    }
+
+    public JsonStreamWriter endArray() throws IOException {
+        int context = stack[depth - 1];
+        if (context != EMPTY_ARRAY && context != NONEMPTY_ARRAY) {
+            throw new IllegalStateException("Nesting problem");
+        }
+        depth--;
+        put(']');
+        return this;
+    }
+
+    public JsonStreamWriter name(String name) throws IOException {
+        if (name == null) throw new NullPointerException("name == null");
+        int context = stack[depth - 1];
+        if (context == NONEMPTY_OBJECT) {
+            put(',');
+        } else if (context != EMPTY_OBJECT) {
+            throw new IllegalStateException("Nesting problem");
+        }
+        stack[depth - 1] = DANGLING_NAME;
+        string(name);
+        put(':');
+        return this;
+    }
+
+    /**
+     * 字符串值，null输出为null
+     */
+    public JsonStreamWriter value(String value) throws IOException {
+        if (value == null) return nullValue();
+        beforeValue();
+        string(value);
+        return this;
+    }
+
+    public JsonStreamWriter value(boolean value) throws IOException {
+        beforeValue();
+        put(value ? TRUE : FALSE);
+        return this;
+    }
+
+    public JsonStreamWriter value(long value) throws IOException {
+        beforeValue();
+        putLong(value);
+        return this;
+    }
+
+    /**
+     * 与gson写Double相同的格式（Double.toString），NaN和无穷大不是合法JSON
+     */
+    public JsonStreamWriter value(double value) throws IOException {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            throw new IllegalArgumentException("Numeric values must be finite, but was " + value);
+        }
+        beforeValue();
+        putAscii(Double.toString(value));
+        return this;
+    }
+
+    /**
+     * float按Float.toString输出（0.1f写成0.1而不是0.10000000149011612）
+     */
+    public JsonStreamWriter value(float value) throws IOException {
+        if (Float.isNaN(value) || Float.isInfinite(value)) {
+            throw new IllegalArgumentException("Numeric values must be finite, but was " + value);
+        }
+        beforeValue();
+        putAscii(Float.toString(value));
+        return this;
+    }
+
+    public JsonStreamWriter nullValue() throws IOException {
+        beforeValue();
+        put(NULL);
+        return this;
+    }
+
+    /**
+     * 原样写入已经序列化好的JSON值（调用方保证其合法），null输出为null
+     */
+    public JsonStreamWriter jsonValue(String json) throws IOException {
+        if (json == null) return nullValue();
+        beforeValue();
+        putChars(json, false);
+        return this;
+    }
+
+    /**
+     * 把缓冲的字节写到输出流
+     */
+    public void flush() throws IOException {
+        flushBuffer();
+        out.flush();
+    }
+
+    private void beforeValue() throws IOException {
+        int context = stack[depth - 1];
+        switch (context) {
+            case EMPTY_DOCUMENT:
+                stack[depth - 1] = NONEMPTY_DOCUMENT;
+                break;
+            case EMPTY_ARRAY:
+                stack[depth - 1] = NONEMPTY_ARRAY;
+                break;
+            case NONEMPTY_ARRAY:
+                ensure(1);
+                buf[pos++] = ',';
+                break;
+            case DANGLING_NAME:
+                stack[depth - 1] = NONEMPTY_OBJECT;
+                break;
+            case NONEMPTY_DOCUMENT:
+                throw new IllegalStateException("JSON must have only one top-level value");
+            default:
+                throw new IllegalStateException("Nesting problem");
+        }
+    }
+
+    private void push(int context) {
+        if (depth == stack.length) stack = Arrays.copyOf(stack, depth * 2);
+        stack[depth++] = context;
+    }
+
+    private void string(String value) throws IOException {
+        put('"');
+        putChars(value, true);
+        put('"');
+    }
+
+    /**
+     * 按UTF-8编码写出字符，escape为true时做JSON字符串转义
+     */
+    private void putChars(String value, boolean escape) throws IOException {
+        byte[] b = buf;
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            if (b.length - pos < CHAR_RESERVE) flushBuffer();
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                if (!escape || (c >= 0x20 && c != '"' && c != '\\')) {
+                    b[pos++] = (byte) c;
+                    continue;
+                }
+                b[pos++] = '\\';
+                switch (c) {
+                    case '"':
+                    case '\\':
+                        b[pos++] = (byte) c;
+                        break;
+                    case '\n':
+                        b[pos++] = 'n';
+                        break;
+                    case '\r':
+                        b[pos++] = 'r';
+                        break;
+                    case '\t':
+                        b[pos++] = 't';
+                        break;
+                    case '\b':
+                        b[pos++] = 'b';
+                        break;
+                    case '\f':
+                        b[pos++] = 'f';
+                        break;
+                    default:
+                        putUnicodeEscape(c);
+                }
+            } else if (c < 0x800) {
+                b[pos++] = (byte) (0xc0 | (c >> 6));
+                b[pos++] = (byte) (0x80 | (c & 0x3f));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                b[pos++] = (byte) (0xf0 | (codePoint >> 18));
+                b[pos++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+                b[pos++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+                b[pos++] = (byte) (0x80 | (codePoint & 0x3f));
+            } else if (escape && (Character.isSurrogate(c) || c == '\u2028' || c == '\u2029')) {
+                // 不成对的代理字符无法编码为UTF-8，转义后保留原值；U+2028/2029在JavaScript字符串里是换行
+                b[pos++] = '\\';
+                putUnicodeEscape(c);
+            } else {
+                b[pos++] = (byte) (0xe0 | (c >> 12));
+                b[pos++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+                b[pos++] = (byte) (0x80 | (c & 0x3f));
+            }
+        }
+    }
+
+    private void putUnicodeEscape(char c) {
+        byte[] b = buf;
+        b[pos++] = 'u';
+        b[pos++] = HEX[(c >> 12) & 0xf];
+        b[pos++] = HEX[(c >> 8) & 0xf];
+        b[pos++] = HEX[(c >> 4) & 0xf];
+        b[pos++] = HEX[c & 0xf];
+    }
+
+    private void putLong(long value) throws IOException {
+        if (value == Long.MIN_VALUE) {
+            putAscii(Long.toString(value));
+            return;
+        }
+        ensure(20);
+        if (value < 0) {
+            buf[pos++] = '-';
+            value = -value;
+        }
+        int digits = 1;
+        for (long v = value; v >= 10; v /= 10) digits++;
+        int end = pos + digits;
+        for (int i = end - 1; i >= pos; i--) {
+            buf[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        pos = end;
+    }
+
+    private void putAscii(String value) throws IOException {
+        ensure(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            buf[pos++] = (byte) value.charAt(i);
+        }
+    }
+
+    private void put(char c) throws IOException {
+        ensure(1);
+        buf[pos++] = (byte) c;
+    }
+
+    private void put(byte[] bytes) throws IOException {
+        ensure(bytes.length);
+        System.arraycopy(bytes, 0, buf, pos, bytes.length);
+        pos += bytes.length;
+    }
+
+    private void ensure(int n) throws IOException {
+        if (buf.length - pos < n) flushBuffer();
+    }
+
+    private void flushBuffer() throws IOException {
+        if (pos > 0) {
+            out.write(buf, 0, pos);
+            pos = 0;
+        }
+    }
+}
@@ -0,0 +1,234 @@
+package nico.dump_hierarchy;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+/**
+ * 多指手势：所有手指共用一条时间线，第k帧在times[k]时刻，tracks[手指][k]为该手指的坐标。
+ * 由TouchController.performMultiPointerGesture按截止时间注入（第0帧按下，最后一帧抬起）。
+ *
+ * JSON格式：
+ * <pre>
+ * {"pointers":[[{"x":..,"y":..},...],[...]],"duration":300,"interval":10,"easing":"linear"}   每根手指一条折线轨迹
+ * {"type":"pinch","x":540,"y":1200,"from":300,"to":60,"angle":0,"fingers":2}                  捏合（from/to为手指到中心的距离）
+ * {"type":"zoom","x":540,"y":1200,"from":60,"to":300}                                          张开
+ * {"type":"rotate","x":540,"y":1200,"radius":200,"degrees":90,"angle":0}                       绕中心旋转（正值为顺时针）
+ * {"type":"swipe","x1":540,"y1":1600,"x2":540,"y2":600,"fingers":2,"spacing":120}              多指平行滑动
+ * </pre>
+ * 所有格式都支持duration、interval、easing。
+ */
+public class MultiGesture {
+    static final int MAX_POINTERS = 10;
+    private static final int MAX_FRAMES = 10000;
+
+    private final float[][][] tracks;
+    private final long[] times;
+
+    MultiGesture(float[][][] tracks, long[] times) {
+        this.tracks = tracks;
+        this.times = times;
+    }
+
+    public int getPointerCount() {
+        return tracks.length;
+    }
+
+    /**
+     * 帧数（包括按下和抬起）
+     */
+    public int getFrameCount() {
+        return times.length;
+    }
+
+    /**
+     * 第k帧相对按下时刻的时间（毫秒）
+     */
+    public long[] getTimes() {
+        return times;
+    }
+
+    /**
+     * tracks[手指][帧] = {x, y}
+     */
+    public float[][][] getTracks() {
+        return tracks;
+    }
+
+    public long getDuration() {
+        return times[times.length - 1];
+    }
+
+    /**
+     * @throws IllegalArgumentException 格式错误
+     */
+    public static MultiGesture parse(String json) {
+        JsonElement root;
+        try {
+            root = JsonParser.parseString(json == null ? "" : json);
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Invalid JSON: " + e.getMessage());
+        }
+        if (!root.isJsonObject()) throw new IllegalArgumentException("Expected a gesture object");
+        return parse(root.getAsJsonObject());
+    }
+
+    /**
+     * @throws IllegalArgumentException 格式错误
+     */
+    public static MultiGesture parse(JsonObject spec) {
+        long duration = JsonFields.getNonNegativeLong(spec, "duration", Gesture.DEFAULT_DURATION);
+        long interval = Math.max(1, JsonFields.getNonNegativeLong(spec, "interval", Gesture.DEFAULT_INTERVAL));
+        Gesture.Easing easing = Gesture.parseEasing(JsonFields.getString(spec, "easing", "linear"));
+        if (duration / interval > MAX_FRAMES) throw new IllegalArgumentException("Too many events, increase interval");
+
+        Gesture.Path[] paths;
+        String type = JsonFields.getString(spec, "type", spec.has("pointers") ? "tracks" : null);
+        if (type == null) throw new IllegalArgumentException("Either pointers or type is required");
+        switch (type) {
+            case "tracks":
+                paths = parseTracks(spec.get("pointers"));
+                break;
+            case "pinch":
+                paths = pinch(spec, 300, 60);
+                break;
+            case "zoom":
+                paths = pinch(spec, 60, 300);
+                break;
+            case "rotate":
+                paths = rotate(spec);
+                break;
+            case "swipe":
+                paths = swipe(spec);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown gesture type: " + type);
+        }
+        return sample(paths, easing, duration, interval);
+    }
+
+    /**
+     * 按interval采样所有手指的路径，最后一帧正好落在duration
+     */
+    static MultiGesture sample(Gesture.Path[] paths, Gesture.Easing easing, long duration, long interval) {
+        int frames = duration == 0 ? 2 : (int) ((duration + interval - 1) / interval) + 1;
+        long[] times = new long[frames];
+        for (int k = 0; k < frames; k++) {
+            times[k] = Math.min(k * interval, duration);
+        }
+        float[][][] tracks = new float[paths.length][frames][];
+        for (int p = 0; p < paths.length; p++) {
+            for (int k = 0; k < frames; k++) {
+                double progress = duration == 0 ? k : easing.apply((double) times[k] / duration);
+                tracks[p][k] = paths[p].at(progress);
+            }
+        }
+        return new MultiGesture(tracks, times);
+    }
+
+    private static Gesture.Path[] parseTracks(JsonElement element) {
+        if (element == null || !element.isJsonArray()) throw new IllegalArgumentException("pointers must be an array");
+        JsonArray pointers = element.getAsJsonArray();
+        checkPointerCount(pointers.size());
+        Gesture.Path[] paths = new Gesture.Path[pointers.size()];
+        for (int p = 0; p < paths.length; p++) {
+            JsonElement track = pointers.get(p);
+            if (!track.isJsonArray() || track.getAsJsonArray().size() == 0) {
+                throw new IllegalArgumentException("Each pointer needs a non-empty array of points");
+            }
+            JsonArray points = track.getAsJsonArray();
+            float[][] coords = new float[points.size()][];
+            for (int i = 0; i < coords.length; i++) {
+                JsonElement point = points.get(i);
+                if (!point.isJsonObject() || !point.getAsJsonObject().has("x") || !point.getAsJsonObject().has("y")) {
+                    throw new IllegalArgumentException("Each point needs x and y");
+                }
+                JsonObject object = point.getAsJsonObject();
+                coords[i] = new float[]{JsonFields.getFloat(object, "x"), JsonFields.getFloat(object, "y")};
+            }
+            paths[p] = new Gesture.Polyline(coords);
+        }
+        return paths;
+    }
+
+    /**
+     * 手指均匀分布在以(x,y)为中心的圆上，沿半径从from移动到to
+     */
+    private static Gesture.Path[] pinch(JsonObject spec, double defaultFrom, double defaultTo) {
+        final float cx = JsonFields.getFloat(spec, "x");
+        final float cy = JsonFields.getFloat(spec, "y");
+        final double from = JsonFields.getDouble(spec, "from", defaultFrom);
+        final double to = JsonFields.getDouble(spec, "to", defaultTo);
+        int fingers = getFingers(spec);
+        double angle = Math.toRadians(JsonFields.getDouble(spec, "angle", 0));
+        Gesture.Path[] paths = new Gesture.Path[fingers];
+        for (int p = 0; p < fingers; p++) {
+            final double a = angle + 2 * Math.PI * p / fingers;
+            final double dx = Math.cos(a);
+            final double dy = Math.sin(a);
+            paths[p] = s -> {
+                double r = from + (to - from) * s;
+                return new float[]{(float) (cx + r * dx), (float) (cy + r * dy)};
+            };
+        }
+        return paths;
+    }
+
+    /**
+     * 手指均匀分布在半径radius的圆上，一起转过degrees度（屏幕坐标y向下，正值为顺时针）
+     */
+    private static Gesture.Path[] rotate(JsonObject spec) {
+        final float cx = JsonFields.getFloat(spec, "x");
+        final float cy = JsonFields.getFloat(spec, "y");
+        final double radius = JsonFields.getDouble(spec, "radius", 200);
+        final double sweep = Math.toRadians(JsonFields.getDouble(spec, "degrees", 90));
+        int fingers = getFingers(spec);
+        double angle = Math.toRadians(JsonFields.getDouble(spec, "angle", 0));
+        Gesture.Path[] paths = new Gesture.Path[fingers];
+        for (int p = 0; p < fingers; p++) {
+            final double start = angle + 2 * Math.PI * p / fingers;
+            paths[p] = s -> {
+                double a = start + sweep * s;
+                return new float[]{(float) (cx + radius * Math.cos(a)), (float) (cy + radius * Math.sin(a))};
+            };
+        }
+        return paths;
+    }
+
+    /**
+     * 多指平行滑动：手指沿垂直于滑动方向的直线排开，间距spacing，整体从(x1,y1)滑到(x2,y2)
+     */
+    private static Gesture.Path[] swipe(JsonObject spec) {
+        float x1 = JsonFields.getFloat(spec, "x1");
+        float y1 = JsonFields.getFloat(spec, "y1");
+        float x2 = JsonFields.getFloat(spec, "x2");
+        float y2 = JsonFields.getFloat(spec, "y2");
+        double spacing = JsonFields.getDouble(spec, "spacing", 120);
+        int fingers = getFingers(spec);
+        double length = Math.hypot(x2 - x1, y2 - y1);
+        // 法向量；起点终点重合时沿x轴排开
+        double nx = length == 0 ? 1 : -(y2 - y1) / length;
+        double ny = length == 0 ? 0 : (x2 - x1) / length;
+        Gesture.Path[] paths = new Gesture.Path[fingers];
+        for (int p = 0; p < fingers; p++) {
+            double offset = (p - (fingers - 1) / 2.0) * spacing;
+            float ox = (float) (nx * offset);
+            float oy = (float) (ny * offset);
+            paths[p] = new Gesture.Polyline(new float[][]{{x1 + ox, y1 + oy}, {x2 + ox, y2 + oy}});
+        }
+        return paths;
+    }
+
+    private static int getFingers(JsonObject spec) {
+        int fingers = (int) JsonFields.getNonNegativeLong(spec, "fingers", 2);
+        checkPointerCount(fingers);
+        return fingers;
+    }
+
+    private static void checkPointerCount(int count) {
+        if (count < 2 || count > MAX_POINTERS) {
+            throw new IllegalArgumentException("Pointer count must be between 2 and " + MAX_POINTERS);
+        }
+    }
+}
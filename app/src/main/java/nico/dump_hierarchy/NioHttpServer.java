@@ -0,0 +1,499 @@
+package nico.dump_hierarchy;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * 基于Selector的非阻塞HTTP服务（instrumentation参数 transport=nio 启用）。
+ * 一个selector线程负责所有连接的accept/读/写，空闲连接不占用线程；
+ * 解析出完整请求后才交给WorkerPool处理，处理结果再由selector线程写回。
+ * 等待类路由的响应是异步的（HttpResponse.startAsync），挂起期间同样不占用工作线程。
+ */
+public class NioHttpServer extends HttpServer {
+    private static final int INITIAL_BUFFER_SIZE = 8 * 1024;
+    // 单个连接待写出数据的上限，超过后处理线程的flush会等待selector写出
+    private static final long MAX_PENDING_OUTPUT = 1024 * 1024;
+
+    private Selector selector;
+    private ServerSocketChannel serverChannel;
+    private volatile boolean running;
+    // 处理线程产生了新的输出、需要selector线程更新关注事件的连接
+    private final Queue<Connection> pendingUpdates = new ConcurrentLinkedQueue<>();
+    private final List<Connection> connections = new ArrayList<>();
+
+    public NioHttpServer(InetAddress address, int port, WorkerPool.Config config, Handler handler) {
+        super(address, port, config, handler);
+        // 队列满时不能在selector线程里直接执行请求，否则会阻塞所有连接
+        config.rejectionPolicy = WorkerPool.RejectionPolicy.ABORT;
+    }
+
+    @Override
+    public void start() throws IOException {
+        selector = Selector.open();
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.socket().bind(new InetSocketAddress(address, port));
+        serverChannel.configureBlocking(false);
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        running = true;
+        Thread selectorThread = new Thread(this::selectLoop, "http-selector");
+        selectorThread.start();
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        if (selector != null) selector.wakeup();
+        workerPool.shutdown();
+    }
+
+    @Override
+    public int getLocalPort() {
+        return serverChannel != null ? serverChannel.socket().getLocalPort() : port;
+    }
+
+    private void selectLoop() {
+        try {
+            while (running) {
+                selector.select(1000);
+                applyPendingUpdates();
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) continue;
+                    try {
+                        if (key.isAcceptable()) {
+                            accept();
+                        } else {
+                            Connection connection = (Connection) key.attachment();
+                            if (key.isReadable()) connection.onReadable();
+                            if (key.isValid() && key.isWritable()) connection.onWritable();
+                        }
+                    } catch (IOException e) {
+                        if (key.attachment() instanceof Connection) {
+                            ((Connection) key.attachment()).close();
+                        }
+                    }
+                }
+                closeIdleConnections();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            for (Connection connection : new ArrayList<>(connections)) {
+                connection.close();
+            }
+            try {
+                serverChannel.close();
+                selector.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel;
+        while ((channel = serverChannel.accept()) != null) {
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            Connection connection = new Connection(channel);
+            connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+            connections.add(connection);
+        }
+    }
+
+    private void applyPendingUpdates() {
+        Connection connection;
+        while ((connection = pendingUpdates.poll()) != null) {
+            if (connection.closed) {
+                // 其他线程abort的连接
+                connection.close();
+                continue;
+            }
+            try {
+                connection.onWritable();
+            } catch (IOException e) {
+                connection.close();
+            }
+        }
+    }
+
+    private void closeIdleConnections() {
+        long now = System.currentTimeMillis();
+        for (Connection connection : new ArrayList<>(connections)) {
+            if (connection.busy) continue;
+            // keep-alive超时只限制请求之间的空闲，新连接的第一个请求和到达了一半的请求按读超时等待
+            boolean betweenRequests = connection.handled > 0 && !connection.parser.isStarted();
+            long timeout = betweenRequests ? keepAliveTimeoutMillis : REQUEST_READ_TIMEOUT_MILLIS;
+            if (now - connection.lastActivity > timeout) {
+                connection.close();
+            }
+        }
+    }
+
+    /**
+     * 单个连接的状态：可复用的读缓冲区和增量解析器、待写出的数据队列，以及是否有请求正在处理。
+     * 同一连接同一时间只处理一个请求，流水线中的后续请求留在读缓冲区里按顺序处理。
+     */
+    private class Connection {
+        final SocketChannel channel;
+        SelectionKey key;
+        // 读到的数据随时交给解析器（请求体复制进解析器的缓冲区），读缓冲区不需要容纳整个请求
+        final ByteBuffer readBuffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+        final HttpRequestParser parser = new HttpRequestParser();
+        // 以下字段由selector线程和处理线程共享，访问时对this加锁
+        final Queue<Outbound> outbound = new ArrayDeque<>();
+        long pendingOutput = 0;
+        boolean responseDone = false;
+        volatile boolean closed = false;
+        // 以下字段只在selector线程访问
+        volatile boolean busy = false;
+        boolean keepAlive = true;
+        int handled = 0;
+        long lastActivity = System.currentTimeMillis();
+
+        Connection(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        void onReadable() throws IOException {
+            int read = channel.read(readBuffer);
+            if (read == -1) {
+                if (!busy) close();
+                else key.interestOps(0);
+                return;
+            }
+            lastActivity = System.currentTimeMillis();
+            processBuffer();
+        }
+
+        /**
+         * 读缓冲区中有完整请求时交给处理线程；处理期间暂停读，保证响应顺序
+         */
+        void processBuffer() throws IOException {
+            if (busy || closed) return;
+            HttpRequest request;
+            try {
+                request = tryParseRequest();
+            } catch (HttpRequestParser.ParseException e) {
+                sendErrorAndClose(e.getStatusCode(), e.getMessage());
+                return;
+            } catch (RuntimeException e) {
+                sendErrorAndClose(400, "Bad Request");
+                return;
+            }
+            if (request == null) {
+                key.interestOps(SelectionKey.OP_READ);
+                return;
+            }
+            handled++;
+            keepAlive = isKeepAliveRequested(request)
+                    && keepAliveTimeoutMillis > 0
+                    && handled < maxRequestsPerConnection;
+            busy = true;
+            key.interestOps(0);
+
+            final boolean requestKeepAlive = keepAlive;
+            workerPool.execute(() -> {
+                HttpResponse response = new HttpResponse(new ConnectionOutputStream(this), request);
+                response.setKeepAlive(requestKeepAlive);
+                response.setAbortAction(this::abort);
+                try {
+                    handleRequest(request, response);
+                } catch (IOException e) {
+                    // 客户端已断开
+                }
+                // 异步响应（等待类路由）由写出响应的线程在完成时结束，工作线程直接返回
+                if (response.isAsync()) {
+                    response.whenComplete(() -> finish(response));
+                } else {
+                    finish(response);
+                }
+            }, () -> {
+                try {
+                    HttpResponse response = new HttpResponse(new ConnectionOutputStream(this));
+                    sendServiceUnavailable(response);
+                } catch (IOException e) {
+                    // 客户端已断开
+                }
+                complete(false);
+            });
+        }
+
+        /**
+         * 把读缓冲区中的数据交给解析器，请求完整时返回，否则返回null。
+         * 请求完整后解析器不再消耗，流水线中剩余的字节留在读缓冲区开头
+         */
+        HttpRequest tryParseRequest() throws IOException {
+            readBuffer.flip();
+            int consumed = parser.feed(readBuffer.array(), readBuffer.position(), readBuffer.remaining());
+            readBuffer.position(readBuffer.position() + consumed);
+            readBuffer.compact();
+            if (parser.takeContinue()) {
+                // 上一个响应已全部写出，socket发送缓冲区为空，直接写出不会阻塞
+                channel.write(ByteBuffer.wrap(HttpRequestParser.CONTINUE));
+            }
+            return parser.isComplete() ? parser.takeRequest() : null;
+        }
+
+        void finish(HttpResponse response) {
+            try {
+                response.flush();
+            } catch (IOException e) {
+                // 客户端已断开
+            }
+            complete(response.isKeepAlive());
+        }
+
+        /**
+         * 处理线程写完响应后调用
+         */
+        void complete(boolean keepAliveAfter) {
+            synchronized (this) {
+                responseDone = true;
+                if (!keepAliveAfter) keepAlive = false;
+            }
+            requestUpdate();
+        }
+
+        /**
+         * 处理线程追加待写数据；内存中积压过多时等待selector线程写出
+         */
+        void enqueue(Outbound item) throws IOException {
+            synchronized (this) {
+                while (pendingOutput > MAX_PENDING_OUTPUT && !closed) {
+                    try {
+                        wait(100);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new IOException("Interrupted while writing");
+                    }
+                }
+                if (closed) {
+                    item.release();
+                    throw new IOException("Connection closed");
+                }
+                outbound.add(item);
+                pendingOutput += item.bufferedBytes();
+            }
+            requestUpdate();
+        }
+
+        void requestUpdate() {
+            pendingUpdates.add(this);
+            selector.wakeup();
+        }
+
+        void onWritable() throws IOException {
+            // 同一连接可能被多次加入pendingUpdates，响应已结束时忽略多余的更新
+            if (closed || !busy) return;
+            boolean drained;
+            boolean done;
+            synchronized (this) {
+                Outbound item;
+                while ((item = outbound.peek()) != null) {
+                    long buffered = item.bufferedBytes();
+                    boolean finished = item.writeTo(channel);
+                    pendingOutput -= buffered - item.bufferedBytes();
+                    if (!finished) break;
+                    outbound.poll().release();
+                }
+                drained = outbound.isEmpty();
+                done = responseDone && drained;
+                notifyAll();
+            }
+            lastActivity = System.currentTimeMillis();
+            if (!drained) {
+                key.interestOps(SelectionKey.OP_WRITE);
+                return;
+            }
+            if (!done) {
+                // 流式响应还未结束，等待处理线程继续写
+                key.interestOps(0);
+                return;
+            }
+            if (!keepAlive) {
+                close();
+                return;
+            }
+            synchronized (this) {
+                responseDone = false;
+            }
+            busy = false;
+            // 继续处理缓冲区中的流水线请求
+            processBuffer();
+        }
+
+        void sendErrorAndClose(int statusCode, String message) throws IOException {
+            busy = true;
+            keepAlive = false;
+            HttpResponse response = new HttpResponse(new ConnectionOutputStream(this));
+            response.send(statusCode, "text/plain; charset=UTF-8", message.getBytes("UTF-8"));
+            complete(false);
+        }
+
+        /**
+         * 从其他线程强制关闭（异步响应的客户端不再读取）：唤醒等待背压的写出，由selector线程关闭channel
+         */
+        void abort() {
+            synchronized (this) {
+                closed = true;
+                notifyAll();
+            }
+            requestUpdate();
+        }
+
+        void close() {
+            synchronized (this) {
+                closed = true;
+                for (Outbound item : outbound) {
+                    item.release();
+                }
+                outbound.clear();
+                notifyAll();
+            }
+            connections.remove(this);
+            if (key != null) key.cancel();
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+    }
+
+    /**
+     * 待写出的数据：内存缓冲区或文件区间
+     */
+    private interface Outbound {
+        /**
+         * 尽量写出，全部写完返回true
+         */
+        boolean writeTo(SocketChannel channel) throws IOException;
+
+        /**
+         * 仍占用内存的字节数，用于背压
+         */
+        long bufferedBytes();
+
+        void release();
+    }
+
+    private static class BufferOutbound implements Outbound {
+        private final ByteBuffer buffer;
+
+        BufferOutbound(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public boolean writeTo(SocketChannel channel) throws IOException {
+            channel.write(buffer);
+            return !buffer.hasRemaining();
+        }
+
+        @Override
+        public long bufferedBytes() {
+            return buffer.remaining();
+        }
+
+        @Override
+        public void release() {
+        }
+    }
+
+    /**
+     * 文件区间：由selector线程用transferTo直接从文件写到socket，不经过用户态缓冲
+     */
+    private static class FileOutbound implements Outbound {
+        private final FileChannel file;
+        private long position;
+        private final long end;
+
+        FileOutbound(FileChannel file, long position, long count) {
+            this.file = file;
+            this.position = position;
+            this.end = position + count;
+        }
+
+        @Override
+        public boolean writeTo(SocketChannel channel) throws IOException {
+            while (position < end) {
+                long sent = file.transferTo(position, end - position, channel);
+                if (sent <= 0) {
+                    if (position >= file.size()) throw new IOException("File truncated while sending");
+                    return false;  // socket发送缓冲区已满，等待下次可写
+                }
+                position += sent;
+            }
+            return true;
+        }
+
+        @Override
+        public long bufferedBytes() {
+            return 0;
+        }
+
+        @Override
+        public void release() {
+            try {
+                file.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+    }
+
+    /**
+     * 处理线程写响应用的输出流：数据先写入本地缓冲，flush时交给selector线程写出
+     */
+    private static class ConnectionOutputStream extends OutputStream implements HttpResponse.FileTransport {
+        private final Connection connection;
+        private final ByteArrayOutputStream buffer = new ByteArrayOutputStream(INITIAL_BUFFER_SIZE);
+
+        ConnectionOutputStream(Connection connection) {
+            this.connection = connection;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            buffer.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            buffer.write(b, off, len);
+            if (buffer.size() >= MAX_PENDING_OUTPUT) flush();
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (buffer.size() == 0) return;
+            connection.enqueue(new BufferOutbound(ByteBuffer.wrap(buffer.toByteArray())));
+            buffer.reset();
+        }
+
+        @Override
+        public void transferFile(FileChannel file, long position, long count) throws IOException {
+            flush();
+            connection.enqueue(new FileOutbound(file, position, count));
+        }
+    }
+}
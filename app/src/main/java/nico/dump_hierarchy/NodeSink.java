@@ -0,0 +1,16 @@
+package nico.dump_hierarchy;
+
+import java.io.IOException;
+
+/**
+ * 层级遍历的输出端：遍历器按先序依次回调，startNode/endNode成对出现
+ */
+public interface NodeSink {
+    void startHierarchy(int rotation) throws IOException;
+
+    void startNode(UiNode node, int fields) throws IOException;
+
+    void endNode(UiNode node) throws IOException;
+
+    void endHierarchy() throws IOException;
+}
@@ -0,0 +1,181 @@
+package nico.dump_hierarchy;
+
+import java.io.IOException;
+
+/**
+ * 单个请求各阶段的耗时（纳秒，System.nanoTime即单调时钟）。每个线程复用一个实例，
+ * 打点只读时钟并累加到数组，不分配对象，可在生产环境常开。
+ * HttpServer开始处理请求时begin()，处理代码通过current()在各阶段前后打点：
+ * <pre>
+ * long start = RequestTiming.now();
+ * ...
+ * RequestTiming.current().stop(RequestTiming.TREE, start);
+ * </pre>
+ */
+public final class RequestTiming {
+    // 从请求第一个字节到请求体读完
+    public static final int PARSE = 0;
+    // 解析完成（阻塞模式下首个请求从accept起）到开始处理
+    public static final int QUEUE = 1;
+    // 获取层级快照或遍历无障碍树
+    public static final int TREE = 2;
+    // 在快照上执行选择器、取UiObject2
+    public static final int MATCH = 3;
+    // 等待界面变化事件（元素出现、输入生效等），不含期间的tree/match
+    public static final int WAIT = 4;
+    // 写JSON/XML和压缩
+    public static final int SERIALIZE = 5;
+    // 响应写出（NIO模式下为交给selector线程，缓冲区满时含等待）
+    public static final int WRITE = 6;
+    static final int PHASE_COUNT = 7;
+    static final String[] NAMES = {"parse", "queue", "tree", "match", "wait", "serialize", "write"};
+
+    private static final ThreadLocal<RequestTiming> CURRENT = new ThreadLocal<RequestTiming>() {
+        @Override
+        protected RequestTiming initialValue() {
+            return new RequestTiming();
+        }
+    };
+
+    private final long[] nanos = new long[PHASE_COUNT];
+    // 记录过的阶段（位掩码），没有经历的阶段不输出
+    private int recorded;
+    private long startNanos;
+    private boolean active;
+    private boolean reported;
+
+    RequestTiming() {
+    }
+
+    public static long now() {
+        return System.nanoTime();
+    }
+
+    /**
+     * 当前线程的实例；不在请求处理中时打点也是安全的，下次begin时清空
+     */
+    public static RequestTiming current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * 开始处理请求：由请求上的时间戳得到parse和queue，reported为true时输出Server-Timing
+     */
+    static RequestTiming begin(HttpRequest request, boolean reported) {
+        RequestTiming timing = CURRENT.get();
+        long now = now();
+        timing.reset(request.receivedNanos != 0 ? request.receivedNanos : now);
+        timing.reported = reported;
+        timing.active = true;
+        if (request.receivedNanos != 0) {
+            timing.add(PARSE, request.parsedNanos - request.receivedNanos);
+            timing.add(QUEUE, now - request.parsedNanos + request.queuedNanos);
+        }
+        return timing;
+    }
+
+    /**
+     * 异步响应用的副本：处理器返回后本线程的实例会被下一个请求复用，挂起期间和之后的打点记在副本上
+     */
+    RequestTiming detach() {
+        RequestTiming copy = new RequestTiming();
+        System.arraycopy(nanos, 0, copy.nanos, 0, PHASE_COUNT);
+        copy.recorded = recorded;
+        copy.startNanos = startNanos;
+        copy.active = active;
+        copy.reported = reported;
+        return copy;
+    }
+
+    void end() {
+        active = false;
+    }
+
+    void reset(long startNanos) {
+        for (int i = 0; i < PHASE_COUNT; i++) nanos[i] = 0;
+        recorded = 0;
+        this.startNanos = startNanos;
+        active = false;
+        reported = false;
+    }
+
+    /**
+     * 把从start（now()的返回值）到现在的时间计入phase
+     */
+    public void stop(int phase, long start) {
+        add(phase, now() - start);
+    }
+
+    public void add(int phase, long durationNanos) {
+        nanos[phase] += Math.max(0, durationNanos);
+        recorded |= 1 << phase;
+    }
+
+    public long get(int phase) {
+        return nanos[phase];
+    }
+
+    public boolean isRecorded(int phase) {
+        return (recorded & (1 << phase)) != 0;
+    }
+
+    /**
+     * 各阶段耗时之和，用于从一段时间中扣除其中已单独计入的部分
+     */
+    public long getAccountedNanos() {
+        long sum = 0;
+        for (int i = 0; i < PHASE_COUNT; i++) sum += nanos[i];
+        return sum;
+    }
+
+    /**
+     * 从请求第一个字节到现在
+     */
+    public long getTotalNanos() {
+        return now() - startNanos;
+    }
+
+    public boolean isActive() {
+        return active;
+    }
+
+    /**
+     * 是否在响应中输出（Server-Timing头部、脚本结果的timing字段）
+     */
+    public boolean isReported() {
+        return active && reported;
+    }
+
+    /**
+     * Server-Timing头部的值：parse;dur=0.052, queue;dur=0.011, tree;dur=12.3, total;dur=14.9（毫秒）。
+     * 写出头部时响应还没写，不含write
+     */
+    public String toHeaderValue() {
+        StringBuilder sb = new StringBuilder(128);
+        for (int i = 0; i < PHASE_COUNT; i++) {
+            if (i == WRITE || !isRecorded(i)) continue;
+            sb.append(NAMES[i]).append(";dur=");
+            sb.append(toMillis(nanos[i]));
+            sb.append(", ");
+        }
+        sb.append("total;dur=");
+        sb.append(toMillis(getTotalNanos()));
+        return sb.toString();
+    }
+
+    /**
+     * {"parse":0.052,"queue":0.011,...,"total":14.9}（毫秒），写在脚本结果里
+     */
+    public void writeJson(JsonStreamWriter writer) throws IOException {
+        writer.beginObject();
+        for (int i = 0; i < PHASE_COUNT; i++) {
+            if (isRecorded(i)) writer.name(NAMES[i]).value(toMillis(nanos[i]));
+        }
+        writer.name("total").value(toMillis(getTotalNanos()));
+        writer.endObject();
+    }
+
+    private static double toMillis(long nanos) {
+        return Math.round(nanos / 1000.0) / 1000.0;
+    }
+}
@@ -0,0 +1,62 @@
+package nico.dump_hierarchy;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * 按线程复用的响应缓冲区：dump等较大的响应先序列化到内存，再一次性写出，
+ * 避免每次请求重新分配数组或落盘。
+ */
+public class ResponseBuffer extends ByteArrayOutputStream {
+    private static final int INITIAL_SIZE = 64 * 1024;
+    // 超过该大小的缓冲区用完后不再保留，避免偶发的超大页面长期占用内存
+    private static final int MAX_RETAINED_SIZE = 4 * 1024 * 1024;
+
+    private static final ThreadLocal<ResponseBuffer> POOL = new ThreadLocal<ResponseBuffer>() {
+        @Override
+        protected ResponseBuffer initialValue() {
+            return new ResponseBuffer();
+        }
+    };
+    // 压缩输出单独一个缓冲区：压缩时原始内容通常还在POOL的缓冲区里
+    private static final ThreadLocal<ResponseBuffer> COMPRESSED_POOL = new ThreadLocal<ResponseBuffer>() {
+        @Override
+        protected ResponseBuffer initialValue() {
+            return new ResponseBuffer();
+        }
+    };
+
+    private ResponseBuffer() {
+        super(INITIAL_SIZE);
+    }
+
+    /**
+     * 获取当前线程的缓冲区（已清空）；同一线程内用完前不要再次获取
+     */
+    public static ResponseBuffer obtain() {
+        return obtain(POOL);
+    }
+
+    /**
+     * 获取当前线程用于存放压缩结果的缓冲区，与obtain()返回的缓冲区互不影响
+     */
+    static ResponseBuffer obtainCompressed() {
+        return obtain(COMPRESSED_POOL);
+    }
+
+    private static ResponseBuffer obtain(ThreadLocal<ResponseBuffer> pool) {
+        ResponseBuffer buffer = pool.get();
+        if (buffer.buf.length > MAX_RETAINED_SIZE) {
+            buffer = new ResponseBuffer();
+            pool.set(buffer);
+        }
+        buffer.reset();
+        return buffer;
+    }
+
+    /**
+     * 内部数组（有效数据为前size()个字节），省去toByteArray的复制
+     */
+    public byte[] getBuffer() {
+        return buf;
+    }
+}
@@ -0,0 +1,154 @@
+package nico.dump_hierarchy;
+
+import java.io.IOException;
+import java.util.Locale;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * 响应压缩：按Accept-Encoding协商gzip/deflate，只压缩超过阈值的文本类响应（XML、JSON等），
+ * 图片等已压缩的内容原样发送。Deflater按线程复用，避免每次请求分配本地内存。
+ */
+public class ResponseCompression {
+    public static final int DEFAULT_LEVEL = 6;
+    public static final int DEFAULT_MIN_SIZE = 1024;
+
+    private static final int GZIP_MAGIC = 0x8b1f;
+
+    private final int level;
+    private final int minSize;
+    private final ThreadLocal<Deflater> gzipDeflater;
+    private final ThreadLocal<Deflater> zlibDeflater;
+
+    /**
+     * @param level   压缩级别1-9（0表示不压缩）
+     * @param minSize 小于该字节数的响应不压缩
+     */
+    public ResponseCompression(final int level, int minSize) {
+        this.level = Math.max(0, Math.min(9, level));
+        this.minSize = Math.max(0, minSize);
+        // gzip使用原始deflate流+自己写的头尾，deflate编码使用zlib格式
+        this.gzipDeflater = new ThreadLocal<Deflater>() {
+            @Override
+            protected Deflater initialValue() {
+                return new Deflater(ResponseCompression.this.level, true);
+            }
+        };
+        this.zlibDeflater = new ThreadLocal<Deflater>() {
+            @Override
+            protected Deflater initialValue() {
+                return new Deflater(ResponseCompression.this.level, false);
+            }
+        };
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    public int getMinSize() {
+        return minSize;
+    }
+
+    /**
+     * 选择本次响应使用的编码，不压缩时返回null
+     */
+    public String selectEncoding(HttpRequest request, String contentType, int length) {
+        if (level == 0 || request == null || length < minSize || !isCompressible(contentType)) return null;
+        return negotiate(request.getHeader("Accept-Encoding"));
+    }
+
+    /**
+     * 按Accept-Encoding选择gzip或deflate（q值相同时优先gzip），都不接受时返回null
+     */
+    static String negotiate(String acceptEncoding) {
+        if (acceptEncoding == null) return null;
+        float gzip = 0;
+        float deflate = 0;
+        float wildcard = -1;
+        boolean gzipListed = false;
+        boolean deflateListed = false;
+        for (String part : acceptEncoding.split(",")) {
+            String[] tokens = part.trim().split(";");
+            String coding = tokens[0].trim().toLowerCase(Locale.ROOT);
+            float q = 1;
+            for (int i = 1; i < tokens.length; i++) {
+                String param = tokens[i].trim();
+                if (param.startsWith("q=")) {
+                    try {
+                        q = Float.parseFloat(param.substring(2));
+                    } catch (NumberFormatException e) {
+                        q = 0;
+                    }
+                }
+            }
+            if (coding.equals("gzip") || coding.equals("x-gzip")) {
+                gzip = q;
+                gzipListed = true;
+            } else if (coding.equals("deflate")) {
+                deflate = q;
+                deflateListed = true;
+            } else if (coding.equals("*")) {
+                wildcard = q;
+            }
+        }
+        if (!gzipListed && wildcard >= 0) gzip = wildcard;
+        if (!deflateListed && wildcard >= 0) deflate = wildcard;
+        if (gzip > 0 && gzip >= deflate) return "gzip";
+        if (deflate > 0) return "deflate";
+        return null;
+    }
+
+    /**
+     * 文本类内容才压缩；图片、octet-stream等按已压缩或不可压缩处理
+     */
+    static boolean isCompressible(String contentType) {
+        if (contentType == null) return false;
+        String type = contentType.toLowerCase(Locale.ROOT);
+        return type.startsWith("text/")
+                || type.startsWith("application/json")
+                || type.startsWith("application/xml")
+                || type.startsWith("application/javascript")
+                || type.contains("+xml")
+                || type.contains("+json");
+    }
+
+    /**
+     * 压缩body到当前线程的压缩缓冲区并返回该缓冲区
+     */
+    public ResponseBuffer compress(String encoding, byte[] body, int offset, int length) throws IOException {
+        ResponseBuffer out = ResponseBuffer.obtainCompressed();
+        boolean gzip = encoding.equals("gzip");
+        Deflater deflater = gzip ? gzipDeflater.get() : zlibDeflater.get();
+        deflater.reset();
+        if (gzip) {
+            // 10字节gzip头：magic、CM=8（deflate），无额外字段，mtime=0，OS未知
+            out.write(GZIP_MAGIC & 0xFF);
+            out.write(GZIP_MAGIC >> 8);
+            out.write(Deflater.DEFLATED);
+            for (int i = 0; i < 6; i++) out.write(0);
+            out.write(0xFF);
+        }
+        deflater.setInput(body, offset, length);
+        deflater.finish();
+        byte[] chunk = new byte[Math.min(64 * 1024, Math.max(512, length / 2))];
+        while (!deflater.finished()) {
+            int count = deflater.deflate(chunk);
+            out.write(chunk, 0, count);
+        }
+        if (gzip) {
+            CRC32 crc = new CRC32();
+            crc.update(body, offset, length);
+            writeIntLE(out, (int) crc.getValue());
+            writeIntLE(out, length);
+        }
+        return out;
+    }
+
+    private static void writeIntLE(ResponseBuffer out, int value) {
+        out.write(value & 0xFF);
+        out.write((value >> 8) & 0xFF);
+        out.write((value >> 16) & 0xFF);
+        out.write((value >> 24) & 0xFF);
+    }
+}
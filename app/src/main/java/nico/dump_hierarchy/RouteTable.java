@@ -0,0 +1,240 @@
+package nico.dump_hierarchy;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 路由表：路径 → 处理器（一次HashMap查找）并限制允许的方法，不匹配返回405/404。
+ * 每个路由记录处理延迟直方图、正在处理的请求数、错误数（5xx或抛出异常）和响应字节数（含头部），
+ * 以及所有请求按阶段（RequestTiming）汇总的耗时，由/metrics以Prometheus文本格式输出。
+ * 路由在服务启动前注册完，之后只读。
+ */
+public class RouteTable implements HttpServer.Handler {
+    static final String METRIC_PREFIX = "dump_hierarchy_";
+    // 未注册路径的计数汇总到这一条，避免按任意路径产生标签
+    static final String UNMATCHED = "unmatched";
+    // Prometheus直方图的桶边界：微秒及对应的le标签（秒），边界按LatencyHistogram的精度（12.5%）近似
+    private static final long[] BUCKET_MICROS = {1_000, 2_500, 5_000, 10_000, 25_000, 50_000, 100_000, 250_000,
+            500_000, 1_000_000, 2_500_000, 5_000_000, 10_000_000, 30_000_000};
+    private static final String[] BUCKET_LABELS = {"0.001", "0.0025", "0.005", "0.01", "0.025", "0.05", "0.1",
+            "0.25", "0.5", "1", "2.5", "5", "10", "30"};
+
+    // 按注册顺序输出指标
+    private final Map<String, Route> routes = new LinkedHashMap<>();
+    private final LatencyHistogram[] phases = new LatencyHistogram[RequestTiming.PHASE_COUNT];
+    private final Route unmatched = new Route(UNMATCHED, null, (request, response) ->
+            response.send(404, "text/plain; charset=UTF-8", "Not Found".getBytes("UTF-8")));
+
+    public RouteTable() {
+        for (int i = 0; i < phases.length; i++) phases[i] = new LatencyHistogram();
+    }
+
+    /**
+     * 注册路由；methods为空表示不限制方法
+     */
+    public RouteTable add(String path, HttpServer.Handler handler, String... methods) {
+        if (routes.containsKey(path)) {
+            throw new IllegalArgumentException("Duplicate route: " + path);
+        }
+        Route route = new Route(path, methods.length > 0 ? methods : null, handler);
+        routes.put(path, route);
+        return this;
+    }
+
+    /**
+     * 路径对应的路由，未注册时为null
+     */
+    public Route get(String path) {
+        return routes.get(path);
+    }
+
+    public Route getUnmatched() {
+        return unmatched;
+    }
+
+    public Collection<Route> getRoutes() {
+        return routes.values();
+    }
+
+    @Override
+    public void handle(HttpRequest request, HttpResponse response) throws Exception {
+        Route route = routes.get(request.getPath());
+        if (route == null) route = unmatched;
+
+        long start = System.nanoTime();
+        route.inFlight.incrementAndGet();
+        boolean failed = true;
+        try {
+            if (route.allows(request.getMethod())) {
+                route.handler.handle(request, response);
+            } else {
+                sendMethodNotAllowed(response, route.methods);
+            }
+            failed = false;
+        } finally {
+            if (response.isAsync() || failed) {
+                // 异步响应在complete()时才写完；处理器抛出异常时HttpServer写出500后同样调用complete()。
+                // 延迟、字节数和阶段耗时到那时再记录
+                Route finishedRoute = route;
+                boolean routeFailed = failed;
+                RequestTiming timing = response.isAsync() ? response.getTiming() : RequestTiming.current();
+                response.whenComplete(() -> {
+                    finishedRoute.finish(response, start, routeFailed);
+                    recordPhases(timing);
+                });
+            } else {
+                route.finish(response, start, false);
+                recordPhases(RequestTiming.current());
+            }
+        }
+    }
+
+    /**
+     * 汇总请求经历过的阶段；没有经历的阶段（如/click没有tree）不计入，避免0值拉低分位数
+     */
+    private void recordPhases(RequestTiming timing) {
+        if (timing == null || !timing.isActive()) return;
+        for (int i = 0; i < phases.length; i++) {
+            if (timing.isRecorded(i)) phases[i].recordNanos(timing.get(i));
+        }
+    }
+
+    /**
+     * 某个阶段（RequestTiming.PARSE等）的耗时直方图（微秒）
+     */
+    public LatencyHistogram getPhaseLatency(int phase) {
+        return phases[phase];
+    }
+
+    private static void sendMethodNotAllowed(HttpResponse response, String[] methods) throws IOException {
+        String allowed = String.join("/", methods);
+        response.addHeader("Allow", String.join(", ", methods));
+        response.send(405, "application/json; charset=UTF-8",
+                ("{\"success\":false,\"message\":\"仅支持" + allowed + "方法\"}").getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 以Prometheus文本格式（0.0.4）输出各路由的指标
+     */
+    public void sendMetrics(HttpResponse response) throws IOException {
+        byte[] body = toPrometheus().getBytes(StandardCharsets.UTF_8);
+        response.send(200, "text/plain; version=0.0.4; charset=UTF-8", body);
+    }
+
+    String toPrometheus() {
+        StringBuilder sb = new StringBuilder(8 * 1024);
+        String duration = METRIC_PREFIX + "request_duration_seconds";
+        header(sb, duration, "histogram", "Request handling time per route.");
+        for (Route route : allRoutes()) histogram(sb, duration, "route", route.path, route.latency);
+
+        String phase = METRIC_PREFIX + "phase_duration_seconds";
+        header(sb, phase, "histogram", "Time spent in each request phase across all routes.");
+        for (int i = 0; i < phases.length; i++) histogram(sb, phase, "phase", RequestTiming.NAMES[i], phases[i]);
+
+        String inFlight = METRIC_PREFIX + "requests_in_flight";
+        header(sb, inFlight, "gauge", "Requests currently being handled per route.");
+        for (Route route : allRoutes()) sample(sb, inFlight, "route", route.path, null, route.getInFlight());
+
+        String errors = METRIC_PREFIX + "request_errors_total";
+        header(sb, errors, "counter", "Requests that threw or answered with a 5xx status.");
+        for (Route route : allRoutes()) sample(sb, errors, "route", route.path, null, route.getErrorCount());
+
+        String bytes = METRIC_PREFIX + "response_bytes_total";
+        header(sb, bytes, "counter", "Response bytes written per route, headers included.");
+        for (Route route : allRoutes()) sample(sb, bytes, "route", route.path, null, route.getBytesOut());
+        return sb.toString();
+    }
+
+    private Iterable<Route> allRoutes() {
+        List<Route> all = new ArrayList<>(routes.values());
+        all.add(unmatched);
+        return all;
+    }
+
+    private static void header(StringBuilder sb, String name, String type, String help) {
+        sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        sb.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void histogram(StringBuilder sb, String name, String label, String value,
+                                  LatencyHistogram latency) {
+        long previous = 0;
+        for (int i = 0; i < BUCKET_MICROS.length; i++) {
+            // 并发记录时读数可能交错，保证累计桶单调
+            previous = Math.max(previous, latency.getCountAtOrBelow(BUCKET_MICROS[i]));
+            sample(sb, name + "_bucket", label, value, BUCKET_LABELS[i], previous);
+        }
+        long count = Math.max(previous, latency.getCount());
+        sample(sb, name + "_bucket", label, value, "+Inf", count);
+        sb.append(name).append("_sum{").append(label).append("=\"").append(value).append("\"} ")
+                .append(latency.getSum() / 1e6).append('\n');
+        sample(sb, name + "_count", label, value, null, count);
+    }
+
+    private static void sample(StringBuilder sb, String name, String label, String value, String le, long count) {
+        sb.append(name).append('{').append(label).append("=\"").append(value).append('"');
+        if (le != null) sb.append(",le=\"").append(le).append('"');
+        sb.append("} ").append(count).append('\n');
+    }
+
+    /**
+     * 一条路由及其计数器（延迟单位为微秒）
+     */
+    public static class Route {
+        private final String path;
+        private final String[] methods;
+        private final HttpServer.Handler handler;
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private final AtomicLong errors = new AtomicLong();
+        private final AtomicLong bytesOut = new AtomicLong();
+
+        Route(String path, String[] methods, HttpServer.Handler handler) {
+            this.path = path;
+            this.methods = methods;
+            this.handler = handler;
+        }
+
+        void finish(HttpResponse response, long start, boolean failed) {
+            inFlight.decrementAndGet();
+            latency.recordNanos(System.nanoTime() - start);
+            bytesOut.addAndGet(response.getBytesWritten());
+            if (failed || response.getStatusCode() >= 500) errors.incrementAndGet();
+        }
+
+        boolean allows(String method) {
+            if (methods == null) return true;
+            for (String allowed : methods) {
+                if (allowed.equals(method)) return true;
+            }
+            return false;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public LatencyHistogram getLatency() {
+            return latency;
+        }
+
+        public int getInFlight() {
+            return inFlight.get();
+        }
+
+        public long getErrorCount() {
+            return errors.get();
+        }
+
+        public long getBytesOut() {
+            return bytesOut.get();
+        }
+    }
+}
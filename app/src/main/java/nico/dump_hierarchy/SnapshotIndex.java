@@ -0,0 +1,239 @@
+package nico.dump_hierarchy;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 快照上的查询索引：resource-id/text/content-desc/class/package的哈希索引，
+ * 文本前缀用排序数组二分查找，包含查询用去重后文本的二元组索引缩小候选范围。
+ * 节点以先序序号存储，结果顺序与遍历查找一致。
+ */
+public class SnapshotIndex {
+    private final UiNode[] nodes;
+    private final Map<String, int[]> byResourceId;
+    private final Map<String, int[]> byText;
+    private final Map<String, int[]> byContentDesc;
+    private final Map<String, int[]> byClass;
+    private final Map<String, int[]> byPackage;
+    private final int[][] byFlag = new int[Integer.SIZE][];
+    private final String[] sortedTexts;
+    private final ContainsIndex textContains;
+    private final ContainsIndex descContains;
+
+    public SnapshotIndex(List<UiNode> roots) {
+        List<UiNode> ordered = new ArrayList<>();
+        collect(roots, ordered);
+        nodes = ordered.toArray(new UiNode[0]);
+
+        Map<String, IntList> resourceIds = new HashMap<>();
+        Map<String, IntList> texts = new HashMap<>();
+        Map<String, IntList> descs = new HashMap<>();
+        Map<String, IntList> classes = new HashMap<>();
+        Map<String, IntList> packages = new HashMap<>();
+        IntList[] flags = new IntList[Integer.SIZE];
+        for (int i = 0; i < nodes.length; i++) {
+            UiNode node = nodes[i];
+            add(resourceIds, node.resourceId, i);
+            add(texts, node.text, i);
+            add(descs, node.contentDesc, i);
+            add(classes, node.className, i);
+            add(packages, node.packageName, i);
+            for (int bit = 0; bit < Integer.SIZE; bit++) {
+                if ((node.flags & (1 << bit)) == 0) continue;
+                if (flags[bit] == null) flags[bit] = new IntList();
+                flags[bit].add(i);
+            }
+        }
+        byResourceId = freeze(resourceIds);
+        byText = freeze(texts);
+        byContentDesc = freeze(descs);
+        byClass = freeze(classes);
+        byPackage = freeze(packages);
+        for (int bit = 0; bit < Integer.SIZE; bit++) {
+            byFlag[bit] = flags[bit] != null ? flags[bit].toArray() : new int[0];
+        }
+        sortedTexts = byText.keySet().toArray(new String[0]);
+        Arrays.sort(sortedTexts);
+        textContains = new ContainsIndex(byText);
+        descContains = new ContainsIndex(byContentDesc);
+    }
+
+    public int size() {
+        return nodes.length;
+    }
+
+    /**
+     * 执行查询，limit小于等于0表示不限制
+     */
+    public List<UiNode> find(SnapshotQuery query, int limit) {
+        String value = query.getValue();
+        switch (query.getType()) {
+            case "text": return toNodes(lookup(byText, value), limit);
+            case "id": return toNodes(lookup(byResourceId, value), limit);
+            case "class": return toNodes(lookup(byClass, value), limit);
+            case "content_desc": return toNodes(lookup(byContentDesc, value), limit);
+            case "pkg": return toNodes(lookup(byPackage, value), limit);
+            case "textStartsWith": return toNodes(startsWith(value), limit);
+            case "textContains": return toNodes(textContains.find(value), limit);
+            case "content_descContains": return toNodes(descContains.find(value), limit);
+            default: return findByFlag(query, limit);
+        }
+    }
+
+    private List<UiNode> findByFlag(SnapshotQuery query, int limit) {
+        int flag = query.getFlag();
+        int[] withFlag = byFlag[Integer.numberOfTrailingZeros(flag)];
+        if (query.getFlagValue()) return toNodes(withFlag, limit);
+        // 取反：所有节点中去掉有该标志的
+        List<UiNode> result = new ArrayList<>();
+        int next = 0;
+        for (int i = 0; i < nodes.length; i++) {
+            if (next < withFlag.length && withFlag[next] == i) {
+                next++;
+                continue;
+            }
+            result.add(nodes[i]);
+            if (limit > 0 && result.size() >= limit) break;
+        }
+        return result;
+    }
+
+    private int[] startsWith(String prefix) {
+        int from = Arrays.binarySearch(sortedTexts, prefix);
+        if (from < 0) from = -from - 1;
+        List<int[]> matches = new ArrayList<>();
+        for (int i = from; i < sortedTexts.length && sortedTexts[i].startsWith(prefix); i++) {
+            matches.add(byText.get(sortedTexts[i]));
+        }
+        return merge(matches);
+    }
+
+    private List<UiNode> toNodes(int[] ordinals, int limit) {
+        int count = limit > 0 ? Math.min(limit, ordinals.length) : ordinals.length;
+        List<UiNode> result = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            result.add(nodes[ordinals[i]]);
+        }
+        return result;
+    }
+
+    private static final int[] EMPTY = new int[0];
+
+    private static int[] lookup(Map<String, int[]> index, String value) {
+        int[] ordinals = index.get(value);
+        return ordinals != null ? ordinals : EMPTY;
+    }
+
+    /**
+     * 合并多个各自有序的序号数组，保持先序
+     */
+    private static int[] merge(List<int[]> lists) {
+        if (lists.isEmpty()) return EMPTY;
+        if (lists.size() == 1) return lists.get(0);
+        int total = 0;
+        for (int[] list : lists) total += list.length;
+        int[] merged = new int[total];
+        int offset = 0;
+        for (int[] list : lists) {
+            System.arraycopy(list, 0, merged, offset, list.length);
+            offset += list.length;
+        }
+        Arrays.sort(merged);
+        return merged;
+    }
+
+    private static void collect(List<UiNode> children, List<UiNode> out) {
+        for (UiNode child : children) {
+            out.add(child);
+            collect(child.children, out);
+        }
+    }
+
+    private static void add(Map<String, IntList> index, String value, int ordinal) {
+        if (value == null) value = "";
+        IntList list = index.get(value);
+        if (list == null) {
+            list = new IntList();
+            index.put(value, list);
+        }
+        list.add(ordinal);
+    }
+
+    private static Map<String, int[]> freeze(Map<String, IntList> index) {
+        Map<String, int[]> frozen = new HashMap<>(index.size() * 2);
+        for (Map.Entry<String, IntList> entry : index.entrySet()) {
+            frozen.put(entry.getKey(), entry.getValue().toArray());
+        }
+        return frozen;
+    }
+
+    /**
+     * 子串查询：对去重后的取值建立二元组（相邻两个字符）-> 取值编号的索引，
+     * 用查询串中候选最少的二元组过滤，再逐个确认contains
+     */
+    private static class ContainsIndex {
+        private final String[] values;
+        private final int[][] ordinals;
+        private final Map<String, int[]> byBigram;
+
+        ContainsIndex(Map<String, int[]> index) {
+            values = index.keySet().toArray(new String[0]);
+            ordinals = new int[values.length][];
+            Map<String, IntList> bigrams = new HashMap<>();
+            for (int v = 0; v < values.length; v++) {
+                ordinals[v] = index.get(values[v]);
+                String value = values[v];
+                for (int i = 0; i + 2 <= value.length(); i++) {
+                    String bigram = value.substring(i, i + 2);
+                    IntList list = bigrams.get(bigram);
+                    if (list == null) {
+                        list = new IntList();
+                        bigrams.put(bigram, list);
+                    }
+                    // 同一取值中重复出现的二元组只记录一次
+                    if (list.size == 0 || list.values[list.size - 1] != v) list.add(v);
+                }
+            }
+            byBigram = freeze(bigrams);
+        }
+
+        int[] find(String query) {
+            int[] candidates = null;
+            if (query.length() >= 2) {
+                for (int i = 0; i + 2 <= query.length(); i++) {
+                    int[] list = byBigram.get(query.substring(i, i + 2));
+                    if (list == null) return EMPTY;
+                    if (candidates == null || list.length < candidates.length) candidates = list;
+                }
+            }
+            List<int[]> matches = new ArrayList<>();
+            if (candidates != null) {
+                for (int v : candidates) {
+                    if (values[v].contains(query)) matches.add(ordinals[v]);
+                }
+            } else {
+                for (int v = 0; v < values.length; v++) {
+                    if (values[v].contains(query)) matches.add(ordinals[v]);
+                }
+            }
+            return merge(matches);
+        }
+    }
+
+    private static class IntList {
+        int[] values = new int[4];
+        int size;
+
+        void add(int value) {
+            if (size == values.length) values = Arrays.copyOf(values, size * 2);
+            values[size++] = value;
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(values, size);
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package nico.dump_hierarchy;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 在层级快照上执行的选择器，type/value与buildBySelector支持的完全一致，
+ * 匹配规则与对应的By.xxx相同（text/id/class等为完整匹配）
+ */
+public class SnapshotQuery {
+    private final String type;
+    private final String value;
+    private final int flag;
+    private final boolean flagValue;
+
+    private SnapshotQuery(String type, String value, int flag) {
+        this.type = type;
+        this.value = value;
+        this.flag = flag;
+        this.flagValue = flag != 0 && Boolean.parseBoolean(value);
+    }
+
+    /**
+     * @throws IllegalArgumentException 不支持的选择器类型
+     */
+    public static SnapshotQuery parse(String type, String value) {
+        if (type == null) throw new IllegalArgumentException("Unknown selector type");
+        if (value == null) value = "";
+        switch (type) {
+            case "text":
+            case "textContains":
+            case "textStartsWith":
+            case "id":
+            case "content_desc":
+            case "content_descContains":
+            case "pkg":
+                return new SnapshotQuery(type, value, 0);
+            case "class":
+                // 与By.clazz一致：以"."开头时视为android.widget包下的类
+                return new SnapshotQuery(type, value.startsWith(".") ? "android.widget" + value : value, 0);
+            case "checkable": return new SnapshotQuery(type, value, UiNode.CHECKABLE);
+            case "checked": return new SnapshotQuery(type, value, UiNode.CHECKED);
+            case "clickable": return new SnapshotQuery(type, value, UiNode.CLICKABLE);
+            case "enabled": return new SnapshotQuery(type, value, UiNode.ENABLED);
+            case "focusable": return new SnapshotQuery(type, value, UiNode.FOCUSABLE);
+            case "focused": return new SnapshotQuery(type, value, UiNode.FOCUSED);
+            case "scrollable": return new SnapshotQuery(type, value, UiNode.SCROLLABLE);
+            case "selected": return new SnapshotQuery(type, value, UiNode.SELECTED);
+            default:
+                throw new IllegalArgumentException("Unknown selector type");
+        }
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public String getValue() {
+        return value;
+    }
+
+    /**
+     * 布尔选择器对应的UiNode标志位，非布尔选择器为0
+     */
+    int getFlag() {
+        return flag;
+    }
+
+    boolean getFlagValue() {
+        return flagValue;
+    }
+
+    /**
+     * 属性为null时按""匹配，与SnapshotIndex的取值一致
+     */
+    public boolean matches(UiNode node) {
+        if (flag != 0) return node.hasFlag(flag) == flagValue;
+        switch (type) {
+            case "text": return value.equals(nullToEmpty(node.text));
+            case "textContains": return nullToEmpty(node.text).contains(value);
+            case "textStartsWith": return nullToEmpty(node.text).startsWith(value);
+            case "id": return value.equals(nullToEmpty(node.resourceId));
+            case "class": return value.equals(nullToEmpty(node.className));
+            case "content_desc": return value.equals(nullToEmpty(node.contentDesc));
+            case "content_descContains": return nullToEmpty(node.contentDesc).contains(value);
+            case "pkg": return value.equals(nullToEmpty(node.packageName));
+            default: return false;
+        }
+    }
+
+    /**
+     * 按先序返回匹配的节点（与UiDevice.findObjects的顺序一致），limit小于等于0表示不限制。
+     * 通过快照的索引查找，不遍历整棵树
+     */
+    public List<UiNode> findAll(HierarchySnapshot snapshot, int limit) {
+        return snapshot.getIndex().find(this, limit);
+    }
+
+    /**
+     * 逐个节点匹配的遍历查找（不建索引），结果与findAll一致
+     */
+    List<UiNode> scan(List<UiNode> roots, int limit) {
+        List<UiNode> result = new ArrayList<>();
+        collect(roots, limit, result);
+        return result;
+    }
+
+    public UiNode findFirst(HierarchySnapshot snapshot) {
+        List<UiNode> result = findAll(snapshot, 1);
+        return result.isEmpty() ? null : result.get(0);
+    }
+
+    private boolean collect(List<UiNode> nodes, int limit, List<UiNode> result) {
+        for (UiNode node : nodes) {
+            if (matches(node)) {
+                result.add(node);
+                if (limit > 0 && result.size() >= limit) return true;
+            }
+            if (collect(node.children, limit, result)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * 写出元素字段（与UiObject2的属性对应，布尔值沿用以字符串表示的格式），bounds为可见区域
+     */
+    public static void writeAttributes(JsonStreamWriter writer, UiNode node) throws IOException {
+        writer.name("text").value(nullToEmpty(node.text));
+        writer.name("id").value(nullToEmpty(node.resourceId));
+        writer.name("class_name").value(nullToEmpty(node.className));
+        writer.name("package").value(nullToEmpty(node.packageName));
+        writer.name("content_desc").value(nullToEmpty(node.contentDesc));
+        writer.name("checkable").value(String.valueOf(node.hasFlag(UiNode.CHECKABLE)));
+        writer.name("checked").value(String.valueOf(node.hasFlag(UiNode.CHECKED)));
+        writer.name("clickable").value(String.valueOf(node.hasFlag(UiNode.CLICKABLE)));
+        writer.name("enabled").value(String.valueOf(node.hasFlag(UiNode.ENABLED)));
+        writer.name("focusable").value(String.valueOf(node.hasFlag(UiNode.FOCUSABLE)));
+        writer.name("focused").value(String.valueOf(node.hasFlag(UiNode.FOCUSED)));
+        writer.name("scrollable").value(String.valueOf(node.hasFlag(UiNode.SCROLLABLE)));
+        writer.name("long_clickable").value(String.valueOf(node.hasFlag(UiNode.LONG_CLICKABLE)));
+        writer.name("selected").value(String.valueOf(node.hasFlag(UiNode.SELECTED)));
+        writer.name("bounds").value(visibleBounds(node));
+    }
+
+    /**
+     * 与UiObject2.getVisibleBounds相近：节点区域与可滚动祖先、窗口根节点的交集
+     */
+    static String visibleBounds(UiNode node) {
+        int left = node.left;
+        int top = node.top;
+        int right = node.right;
+        int bottom = node.bottom;
+        for (UiNode ancestor = node.parent; ancestor != null; ancestor = ancestor.parent) {
+            if (ancestor.parent != null && !ancestor.hasFlag(UiNode.SCROLLABLE)) continue;
+            left = Math.max(left, ancestor.left);
+            top = Math.max(top, ancestor.top);
+            right = Math.min(right, ancestor.right);
+            bottom = Math.min(bottom, ancestor.bottom);
+        }
+        if (right < left) right = left;
+        if (bottom < top) bottom = top;
+        return "[" + left + "," + top + "][" + right + "," + bottom + "]";
+    }
+
+    private static String nullToEmpty(String value) {
+        return value != null ? value : "";
+    }
+}
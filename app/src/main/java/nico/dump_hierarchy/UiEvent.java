@@ -0,0 +1,55 @@
+package nico.dump_hierarchy;
+
+import java.io.IOException;
+
+/**
+ * 一次界面变化事件的记录（从AccessibilityEvent中取出的字段，事件对象本身会被系统回收复用）
+ */
+public class UiEvent {
+    private final String type;
+    private final String packageName;
+    private final int windowId;
+    private final long uptimeMillis;
+
+    public UiEvent(String type, String packageName, int windowId, long uptimeMillis) {
+        this.type = type;
+        this.packageName = packageName;
+        this.windowId = windowId;
+        this.uptimeMillis = uptimeMillis;
+    }
+
+    /**
+     * 事件类型名称，如TYPE_WINDOW_CONTENT_CHANGED
+     */
+    public String getType() {
+        return type;
+    }
+
+    /**
+     * 事件来源的包名，可能为null
+     */
+    public String getPackageName() {
+        return packageName;
+    }
+
+    public int getWindowId() {
+        return windowId;
+    }
+
+    /**
+     * 事件发生时的开机时长（毫秒，SystemClock.uptimeMillis时基）
+     */
+    public long getUptimeMillis() {
+        return uptimeMillis;
+    }
+
+    /**
+     * 在当前JSON对象中写出type/package/window_id/time字段
+     */
+    public void writeFields(JsonStreamWriter writer) throws IOException {
+        writer.name("type").value(type);
+        writer.name("package").value(packageName);
+        writer.name("window_id").value(windowId);
+        writer.name("time").value(uptimeMillis);
+    }
+}
@@ -0,0 +1,186 @@
+package nico.dump_hierarchy;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * 最近界面变化事件的定长环形缓冲区（无锁）：每个事件分配一个单调递增的序号，
+ * 客户端各自记住读到的序号，通过since(n)获取之后的变化，互不影响。
+ * 写入只有一次原子自增和一次数组写；读取不加锁，槽位被覆盖或尚未写完时通过记录里的序号识别。
+ */
+public class UiEventLog {
+
+    /**
+     * 缓冲区中的一条记录
+     */
+    public static class Record {
+        private final long sequence;
+        private final UiEvent event;
+
+        Record(long sequence, UiEvent event) {
+            this.sequence = sequence;
+            this.event = event;
+        }
+
+        public long getSequence() {
+            return sequence;
+        }
+
+        /**
+         * 事件内容，调用方没有提供时为null
+         */
+        public UiEvent getEvent() {
+            return event;
+        }
+    }
+
+    /**
+     * since(n)的结果
+     */
+    public static class Changes {
+        private final long since;
+        private final long sequence;
+        private final boolean truncated;
+        private final List<Record> records;
+
+        Changes(long since, long sequence, boolean truncated, List<Record> records) {
+            this.since = since;
+            this.sequence = sequence;
+            this.truncated = truncated;
+            this.records = records;
+        }
+
+        /**
+         * 读到的最后一个序号，客户端下次以它作为since
+         */
+        public long getSequence() {
+            return sequence;
+        }
+
+        /**
+         * since之后发生的事件数（包括已被覆盖、不在records里的）
+         */
+        public long getCount() {
+            return sequence - since;
+        }
+
+        public boolean isChanged() {
+            return sequence > since;
+        }
+
+        /**
+         * 部分事件已被新事件覆盖（客户端落后超过缓冲区容量）
+         */
+        public boolean isTruncated() {
+            return truncated;
+        }
+
+        public List<Record> getRecords() {
+            return records;
+        }
+
+        public String toJson() throws IOException {
+            return JsonStreamWriter.toJson(writer -> {
+                writer.beginObject();
+                writer.name("changed").value(isChanged());
+                writer.name("seq").value(sequence);
+                writer.name("count").value(getCount());
+                writer.name("truncated").value(truncated);
+                writer.name("events").beginArray();
+                for (Record record : records) {
+                    writer.beginObject();
+                    writer.name("seq").value(record.sequence);
+                    if (record.event != null) record.event.writeFields(writer);
+                    writer.endObject();
+                }
+                writer.endArray();
+                writer.endObject();
+            });
+        }
+    }
+
+    private final AtomicReferenceArray<Record> slots;
+    private final int mask;
+    // 最后分配的序号；序号n的记录写在slots[n & mask]
+    private final AtomicLong head = new AtomicLong();
+
+    /**
+     * @param capacity 保留的最近事件数，向上取整为2的幂
+     */
+    public UiEventLog(int capacity) {
+        int size = capacity <= 2 ? 2 : Integer.highestOneBit(capacity - 1) << 1;
+        slots = new AtomicReferenceArray<>(size);
+        mask = size - 1;
+    }
+
+    public int getCapacity() {
+        return mask + 1;
+    }
+
+    /**
+     * 追加一个事件，返回分配的序号（可被多个线程同时调用）
+     */
+    public long append(UiEvent event) {
+        long sequence = head.incrementAndGet();
+        slots.set((int) (sequence & mask), new Record(sequence, event));
+        return sequence;
+    }
+
+    /**
+     * 最后分配的序号（对应的记录可能正在写入）
+     */
+    public long getSequence() {
+        return head.get();
+    }
+
+    /**
+     * 最近一个已写入的事件，没有时为null
+     */
+    public UiEvent getLatest() {
+        long last = head.get();
+        for (long sequence = last; sequence > 0 && sequence > last - slots.length(); sequence--) {
+            Record record = slots.get((int) (sequence & mask));
+            if (record != null && record.sequence == sequence) return record.event;
+        }
+        return null;
+    }
+
+    /**
+     * 序号大于since的事件。只返回连续写完的部分：某个序号还在写入时停在它之前，
+     * 返回的getSequence()不会越过它，下次调用不会漏掉
+     */
+    public Changes since(long since) {
+        long last = head.get();
+        if (since < 0 || since > last) since = last;
+        if (last == since) return new Changes(since, since, false, Collections.<Record>emptyList());
+
+        long first = Math.max(since + 1, last - slots.length() + 1);
+        boolean truncated = first > since + 1;
+        List<Record> records = new ArrayList<>((int) (last - first + 1));
+        long sequence = first;
+        for (; sequence <= last; sequence++) {
+            Record record = slots.get((int) (sequence & mask));
+            if (record == null || record.sequence < sequence) {
+                break;  // 还未写入
+            }
+            if (record.sequence > sequence) {
+                // 读取期间被更新的事件覆盖：丢掉已读的部分，从仍在缓冲区里的最早序号重新读
+                return since(Math.max(since, record.sequence - slots.length()), since);
+            }
+            records.add(record);
+        }
+        return new Changes(since, sequence - 1, truncated, records);
+    }
+
+    /**
+     * 覆盖发生后的重读：结果按原始since计算count，并标记为truncated
+     */
+    private Changes since(long from, long originalSince) {
+        Changes changes = since(from);
+        return new Changes(originalSince, changes.getSequence(), true, changes.getRecords());
+    }
+}
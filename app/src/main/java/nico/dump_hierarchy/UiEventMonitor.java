@@ -0,0 +1,448 @@
+package nico.dump_hierarchy;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 界面变化通知：监听线程收到变化事件时调用onEvent，等待方只在事件到达时重新检查条件，
+ * 不再按固定间隔轮询。事件可能被漏掉，所以等待时仍有一个兜底的最长轮询间隔。
+ * 事件记录在UiEventLog中，客户端按序号各自读取"某个序号之后的变化"。
+ * HTTP的等待类路由通过park登记，由一个共用的等待线程在事件到达或到期时推进，不占用工作线程。
+ */
+public class UiEventMonitor {
+
+    /**
+     * 等待的条件：满足时返回非null结果。fresh为true表示是兜底轮询触发的检查，
+     * 此时不应信任超过一个轮询间隔的缓存（可能漏掉了让缓存失效的事件）
+     */
+    public interface Condition<T> {
+        T evaluate(boolean fresh) throws Exception;
+    }
+
+    /**
+     * 不占用调用线程的等待：登记后由等待线程在新事件到达或到期时调用poll，所有登记的等待共用这一个线程，
+     * poll里只做检查，不能阻塞：写出响应交给工作线程（HttpResponse.dispatch）
+     */
+    public interface Waiter {
+        /**
+         * @param changed 上次调用（第一次为登记时的序号）之后是否有新事件
+         * @param now     System.nanoTime()
+         * @return 没有新事件时下一次调用的时间（System.nanoTime()），小于0表示等待结束
+         */
+        long poll(boolean changed, long now) throws Exception;
+    }
+
+    /**
+     * 异步等待的结果回调，在等待线程上执行，同样不能阻塞
+     */
+    public interface Callback<T> {
+        void onResult(T result) throws Exception;
+    }
+
+    public static final int DEFAULT_CAPACITY = 256;
+
+    private final UiEventLog log;
+    // 只用于等待/唤醒；事件写入和读取都不经过这个锁
+    private final Object lock = new Object();
+    private final AtomicInteger waiters = new AtomicInteger();
+    // park登记的等待和推进它们的线程（没有等待时退出），由lock保护
+    private final List<Parked> parked = new ArrayList<>();
+    private Thread waitThread;
+
+    private final AtomicLong eventWakeups = new AtomicLong();
+    private final AtomicLong pollWakeups = new AtomicLong();
+    private final AtomicLong evaluations = new AtomicLong();
+
+    public UiEventMonitor() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity 保留的最近事件数
+     */
+    public UiEventMonitor(int capacity) {
+        log = new UiEventLog(capacity);
+    }
+
+    /**
+     * 收到界面变化事件
+     */
+    public void onEvent() {
+        onEvent(null);
+    }
+
+    /**
+     * 收到界面变化事件，记录事件内容供/events和/is_ui_change?since=读取
+     */
+    public void onEvent(UiEvent event) {
+        log.append(event);
+        // 没有等待方时不加锁。等待方先登记再检查序号，这里先写入再检查登记数，两边至少有一方能看到对方
+        if (waiters.get() > 0) {
+            synchronized (lock) {
+                lock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * 最近一次事件的内容，还没有事件时为null
+     */
+    public UiEvent getLatestEvent() {
+        return log.getLatest();
+    }
+
+    /**
+     * 当前的事件序号，每个事件加一
+     */
+    public long getSequence() {
+        return log.getSequence();
+    }
+
+    /**
+     * 序号since之后的事件
+     */
+    public UiEventLog.Changes since(long since) {
+        return log.since(since);
+    }
+
+    /**
+     * 等待序号超过since的事件，返回是否在超时前等到
+     */
+    public boolean awaitEvent(long since, long timeoutMillis) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        if (log.getSequence() > since) return true;
+        synchronized (lock) {
+            waiters.incrementAndGet();
+            try {
+                while (log.getSequence() <= since) {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) return false;
+                    TimeUnit.NANOSECONDS.timedWait(lock, remaining);
+                }
+                return true;
+            } finally {
+                waiters.decrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * 检查条件，不满足时等待下一个事件（最多pollCeilingMillis）后再检查，直到满足或超时。
+     * 超时返回null；timeoutMillis为0时只检查一次。
+     */
+    public <T> T await(long timeoutMillis, long pollCeilingMillis, Condition<T> condition) throws Exception {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        boolean fresh = false;
+        while (true) {
+            // 先取序号再检查：检查期间到达的事件会让下面的等待立即返回，不会丢失唤醒
+            long seen = getSequence();
+            evaluations.incrementAndGet();
+            T result = condition.evaluate(fresh);
+            if (result != null) return result;
+            long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if (remaining <= 0) return null;
+            boolean woken = awaitEvent(seen, Math.min(remaining, Math.max(1, pollCeilingMillis)));
+            (woken ? eventWakeups : pollWakeups).incrementAndGet();
+            fresh = !woken;
+        }
+    }
+
+    /**
+     * 等待序号since之后出现指定类型（如TYPE_VIEW_CLICKED）的事件，返回该事件；超时返回null
+     */
+    public UiEvent awaitEventOfType(long since, String type, long timeoutMillis) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        while (true) {
+            UiEventLog.Changes changes = log.since(since);
+            for (UiEventLog.Record record : changes.getRecords()) {
+                UiEvent event = record.getEvent();
+                if (event != null && type.equals(event.getType())) return event;
+            }
+            since = changes.getSequence();
+            long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if (remaining <= 0 || !awaitEvent(since, remaining)) return null;
+        }
+    }
+
+    /**
+     * awaitIdle的结果
+     */
+    public static class IdleResult {
+        private final boolean idle;
+        private final long settleMillis;
+        private final long waitedMillis;
+        private final int events;
+        private final long sequence;
+
+        IdleResult(boolean idle, long settleMillis, long waitedMillis, int events, long sequence) {
+            this.idle = idle;
+            this.settleMillis = settleMillis;
+            this.waitedMillis = waitedMillis;
+            this.events = events;
+            this.sequence = sequence;
+        }
+
+        /**
+         * 是否在超时前等到了静止窗口
+         */
+        public boolean isIdle() {
+            return idle;
+        }
+
+        /**
+         * 从开始等待到最后一个变化事件的时间（毫秒），即界面实际稳定下来的时间；等待期间没有事件时为0
+         */
+        public long getSettleMillis() {
+            return settleMillis;
+        }
+
+        /**
+         * 总等待时间（毫秒），静止时约为settle + quiet
+         */
+        public long getWaitedMillis() {
+            return waitedMillis;
+        }
+
+        /**
+         * 等待期间计入的事件数
+         */
+        public int getEvents() {
+            return events;
+        }
+
+        public long getSequence() {
+            return sequence;
+        }
+
+        public String toJson() {
+            return "{\"success\":true,\"idle\":" + idle +
+                    ",\"settle_ms\":" + settleMillis +
+                    ",\"waited_ms\":" + waitedMillis +
+                    ",\"events\":" + events +
+                    ",\"seq\":" + sequence + "}";
+        }
+    }
+
+    /**
+     * 等待界面静止：连续quietMillis没有变化事件时返回。packageName不为null时只计入该包的事件
+     * （忽略状态栏时钟、通知等其他窗口的变化）。超时返回idle=false的结果
+     */
+    public IdleResult awaitIdle(long quietMillis, long timeoutMillis, String packageName) throws InterruptedException {
+        IdleTracker tracker = new IdleTracker(quietMillis, timeoutMillis, packageName);
+        while (true) {
+            long now = System.nanoTime();
+            IdleResult result = tracker.check(now);
+            if (result != null) return result;
+            long waitNanos = tracker.nextCheck() - now;
+            if (awaitEvent(tracker.seen, Math.max(1, TimeUnit.NANOSECONDS.toMillis(waitNanos + 999_999)))) {
+                tracker.consume();
+            }
+        }
+    }
+
+    /**
+     * 与awaitIdle相同，但不占用调用线程：结果在等待线程上交给callback
+     */
+    public void parkIdle(long quietMillis, long timeoutMillis, String packageName, Callback<IdleResult> callback) {
+        IdleTracker tracker = new IdleTracker(quietMillis, timeoutMillis, packageName);
+        park(tracker.seen, (changed, now) -> {
+            if (changed) tracker.consume();
+            IdleResult result = tracker.check(System.nanoTime());
+            if (result == null) return tracker.nextCheck();
+            callback.onResult(result);
+            return -1;
+        });
+    }
+
+    /**
+     * 等待序号超过since的事件（与awaitEvent相同），不占用调用线程：在等待线程上把是否等到交给callback
+     */
+    public void parkEvent(long since, long timeoutMillis, Callback<Boolean> callback) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        park(since, (changed, now) -> {
+            if (!changed && now < deadline) return deadline;
+            callback.onResult(changed);
+            return -1;
+        });
+    }
+
+    /**
+     * 登记一个等待：马上在等待线程上调用一次poll（changed表示序号since之后是否已有事件），
+     * 之后在每批新事件到达时和poll返回的时间调用，直到poll返回负数。poll抛出的异常会结束该等待
+     */
+    public void park(long since, Waiter waiter) {
+        synchronized (lock) {
+            parked.add(new Parked(waiter, since, System.nanoTime()));
+            waiters.incrementAndGet();
+            if (waitThread == null) {
+                waitThread = new Thread(this::waitLoop, "ui-wait");
+                waitThread.setDaemon(true);
+                waitThread.start();
+            }
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * 当前登记（park）的等待数
+     */
+    public int getParkedCount() {
+        synchronized (lock) {
+            return parked.size();
+        }
+    }
+
+    private void waitLoop() {
+        List<Parked> due = new ArrayList<>();
+        while (true) {
+            synchronized (lock) {
+                try {
+                    while (!collectDue(due)) {
+                        if (parked.isEmpty()) {
+                            waitThread = null;
+                            return;
+                        }
+                        long next = Long.MAX_VALUE;
+                        for (Parked entry : parked) next = Math.min(next, entry.nextPoll);
+                        TimeUnit.NANOSECONDS.timedWait(lock, Math.max(1, next - System.nanoTime()));
+                    }
+                } catch (InterruptedException e) {
+                    waitThread = null;
+                    return;
+                }
+            }
+            for (Parked entry : due) {
+                // 先取序号再检查，检查期间到达的事件会在下一轮触发
+                long sequence = log.getSequence();
+                boolean changed = sequence > entry.seen;
+                entry.seen = sequence;
+                long next;
+                try {
+                    next = entry.waiter.poll(changed, System.nanoTime());
+                } catch (Exception e) {
+                    e.printStackTrace();
+                    next = -1;
+                }
+                (changed ? eventWakeups : pollWakeups).incrementAndGet();
+                synchronized (lock) {
+                    if (next < 0) {
+                        parked.remove(entry);
+                        waiters.decrementAndGet();
+                    } else {
+                        entry.nextPoll = next;
+                    }
+                }
+            }
+            due.clear();
+        }
+    }
+
+    /**
+     * 收集有新事件或已到时间的等待，调用方持有lock
+     */
+    private boolean collectDue(List<Parked> due) {
+        long sequence = log.getSequence();
+        long now = System.nanoTime();
+        for (Parked entry : parked) {
+            if (sequence > entry.seen || now - entry.nextPoll >= 0) due.add(entry);
+        }
+        return !due.isEmpty();
+    }
+
+    private static class Parked {
+        final Waiter waiter;
+        // 以下字段只在等待线程访问（nextPoll的读写都持有lock）
+        long seen;
+        long nextPoll;
+
+        Parked(Waiter waiter, long seen, long nextPoll) {
+            this.waiter = waiter;
+            this.seen = seen;
+            this.nextPoll = nextPoll;
+        }
+    }
+
+    /**
+     * awaitIdle和parkIdle共用的状态：计入的事件数和最后一次变化的时间
+     */
+    private class IdleTracker {
+        final long start = System.nanoTime();
+        final long deadline;
+        final long quietNanos;
+        final String packageName;
+        long lastChange = start;
+        long seen = log.getSequence();
+        int events = 0;
+
+        IdleTracker(long quietMillis, long timeoutMillis, String packageName) {
+            this.deadline = start + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+            this.quietNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, quietMillis));
+            this.packageName = packageName;
+        }
+
+        /**
+         * 计入序号seen之后的事件
+         */
+        void consume() {
+            UiEventLog.Changes changes = log.since(seen);
+            seen = changes.getSequence();
+            int matched = 0;
+            if (packageName == null || changes.isTruncated()) {
+                matched = (int) changes.getCount();
+            } else {
+                for (UiEventLog.Record record : changes.getRecords()) {
+                    UiEvent event = record.getEvent();
+                    if (event == null || packageName.equals(event.getPackageName())) matched++;
+                }
+            }
+            if (matched > 0) {
+                events += matched;
+                lastChange = System.nanoTime();
+            }
+        }
+
+        /**
+         * 已静止或已超时时返回结果，否则返回null
+         */
+        IdleResult check(long now) {
+            if (now - (lastChange + quietNanos) >= 0) return result(true, now);
+            if (now - deadline >= 0) return result(false, now);
+            return null;
+        }
+
+        /**
+         * 没有事件时下一次检查的时间：静止窗口结束或超时
+         */
+        long nextCheck() {
+            return Math.min(lastChange + quietNanos, deadline);
+        }
+
+        private IdleResult result(boolean idle, long now) {
+            return new IdleResult(idle, TimeUnit.NANOSECONDS.toMillis(lastChange - start),
+                    TimeUnit.NANOSECONDS.toMillis(now - start), events, seen);
+        }
+    }
+
+    public long getEventWakeupCount() {
+        return eventWakeups.get();
+    }
+
+    public long getPollWakeupCount() {
+        return pollWakeups.get();
+    }
+
+    public long getEvaluationCount() {
+        return evaluations.get();
+    }
+
+    public String toJson() {
+        return "{\"sequence\":" + getSequence() +
+                ",\"evaluations\":" + getEvaluationCount() +
+                ",\"event_wakeups\":" + getEventWakeupCount() +
+                ",\"poll_wakeups\":" + getPollWakeupCount() +
+                ",\"parked\":" + getParkedCount() + "}";
+    }
+}
@@ -0,0 +1,186 @@
+package nico.dump_hierarchy;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * /events 的Server-Sent Events推送：界面变化事件到达时向客户端发送一条消息。
+ * 一个事件到达后再等待coalesceMillis，期间的事件合并成同一条消息（count为合并的事件数），
+ * 动画、列表滚动等连续事件不会刷屏；没有事件时每隔heartbeatMillis发送一次注释行，用于发现已断开的客户端。
+ * 何时推送由UiEventMonitor的等待线程决定（与长轮询共用），每条消息交给工作线程写出，推送期间连接不占用工作线程。
+ */
+public class UiEventStream {
+    public static final String CONTENT_TYPE = "text/event-stream; charset=UTF-8";
+    // 推送时长上限，到期后结束；SSE客户端按retry自动重连并通过Last-Event-ID续传
+    public static final long MAX_DURATION_MILLIS = 30 * 60 * 1000;
+    // 上一条消息还在写出时，积压事件的重新检查间隔
+    private static final long WRITE_RECHECK_MILLIS = 10;
+
+    private final UiEventMonitor monitor;
+    private final long coalesceMillis;
+    private final long heartbeatMillis;
+
+    public UiEventStream(UiEventMonitor monitor, long coalesceMillis, long heartbeatMillis) {
+        this.monitor = monitor;
+        this.coalesceMillis = Math.max(0, coalesceMillis);
+        this.heartbeatMillis = Math.max(1, heartbeatMillis);
+    }
+
+    /**
+     * 写出头部后转为异步响应，推送序号大于since的事件（since小于0表示只推送之后的新事件），
+     * 直到客户端断开或推送满durationMillis（小于等于0或超过MAX_DURATION_MILLIS时取MAX_DURATION_MILLIS），
+     * 然后调用response.complete()。本方法写完头部即返回
+     */
+    public void start(HttpResponse response, long since, long durationMillis) throws IOException {
+        long current = monitor.getSequence();
+        // since比当前序号还大说明服务重启过，客户端持有的序号已无意义
+        long sent = since < 0 || since > current ? current : since;
+        if (durationMillis <= 0 || durationMillis > MAX_DURATION_MILLIS) durationMillis = MAX_DURATION_MILLIS;
+
+        response.writeStreamHead(200, CONTENT_TYPE);
+        write(response, "retry: 1000\n\n");
+        response.startAsync();
+        monitor.park(sent, new Pusher(response, sent, System.nanoTime(), durationMillis));
+    }
+
+    /**
+     * 一条推送连接的状态。等待线程只决定何时发什么，写出交给工作线程（HttpResponse.dispatch），
+     * 同一时间最多一条写出；一条写出超过一个心跳间隔还没完成说明客户端已不再读取，断开连接
+     */
+    private class Pusher implements UiEventMonitor.Waiter {
+        private final HttpResponse response;
+        private final long deadline;
+        private final long heartbeatNanos;
+        // 以下字段只在等待线程访问
+        private long sent;
+        // 合并窗口内有待发送的事件
+        private boolean pending;
+        private long flushAt;
+        private long heartbeatAt;
+        // 以下字段由this保护：正在写出及其开始时间，写出失败或已断开
+        private boolean writing;
+        private long writeStarted;
+        private boolean closed;
+
+        Pusher(HttpResponse response, long sent, long now, long durationMillis) {
+            this.response = response;
+            this.sent = sent;
+            this.deadline = now + TimeUnit.MILLISECONDS.toNanos(durationMillis);
+            this.heartbeatNanos = TimeUnit.MILLISECONDS.toNanos(heartbeatMillis);
+            this.heartbeatAt = now + heartbeatNanos;
+        }
+
+        @Override
+        public long poll(boolean changed, long now) {
+            if (changed && !pending) {
+                pending = true;
+                flushAt = now + TimeUnit.MILLISECONDS.toNanos(coalesceMillis);
+            }
+            boolean stalled = false;
+            synchronized (this) {
+                if (closed) return -1;
+                if (writing) {
+                    if (now - writeStarted < heartbeatNanos) {
+                        long stalledAt = writeStarted + heartbeatNanos;
+                        // 写完后还有积压的事件要发或已到期：稍后再检查
+                        if (!pending && now - deadline < 0) return stalledAt;
+                        long recheck = now + TimeUnit.MILLISECONDS.toNanos(WRITE_RECHECK_MILLIS);
+                        return recheck - stalledAt < 0 ? recheck : stalledAt;
+                    }
+                    closed = true;
+                    stalled = true;
+                } else if (now - deadline >= 0) {
+                    closed = true;
+                    send(null, now);
+                    return -1;
+                }
+            }
+            if (stalled) {
+                // 写出卡住：关闭连接让写出失败，由写出线程结束响应
+                response.abort();
+                return -1;
+            }
+            String message = null;
+            try {
+                if (pending && now - flushAt >= 0) {
+                    pending = false;
+                    UiEventLog.Changes changes = monitor.since(sent);
+                    if (changes.isChanged()) {
+                        List<UiEventLog.Record> records = changes.getRecords();
+                        UiEvent latest = records.isEmpty() ? null : records.get(records.size() - 1).getEvent();
+                        message = formatMessage(changes.getSequence(), changes.getCount(), latest);
+                        sent = changes.getSequence();
+                    }
+                }
+            } catch (IOException e) {
+                synchronized (this) {
+                    closed = true;
+                    send(null, now);
+                }
+                return -1;
+            }
+            if (message == null && !pending && now - heartbeatAt >= 0) message = ": keepalive\n\n";
+            if (message != null) {
+                // 写完之前不会再写，下一次心跳时仍未写完即视为卡住
+                heartbeatAt = now + heartbeatNanos;
+                synchronized (this) {
+                    send(message, now);
+                }
+            }
+            long next = pending ? flushAt : heartbeatAt;
+            return next - deadline < 0 ? next : deadline;
+        }
+
+        /**
+         * 在工作线程上写出message，message为null时结束响应；写出失败或期间已断开时同样结束。调用方持有this
+         */
+        private void send(String message, long now) {
+            writing = true;
+            writeStarted = now;
+            boolean dispatched = response.dispatch(() -> {
+                boolean ok = false;
+                try {
+                    if (message != null) {
+                        write(response, message);
+                        ok = true;
+                    }
+                } catch (IOException e) {
+                    // 客户端已断开或连接被abort
+                }
+                boolean done;
+                synchronized (this) {
+                    writing = false;
+                    if (!ok) closed = true;
+                    done = closed;
+                }
+                if (done) response.complete();
+            });
+            if (!dispatched) {
+                // 线程池已满，连接已关闭
+                writing = false;
+                closed = true;
+            }
+        }
+    }
+
+    private static void write(HttpResponse response, String text) throws IOException {
+        response.write(text.getBytes(StandardCharsets.UTF_8));
+        response.flush();
+    }
+
+    /**
+     * 一条ui_change消息：id为事件序号（断线重连时通过Last-Event-ID续传），data为最后一个事件的内容
+     */
+    static String formatMessage(long sequence, long count, UiEvent event) throws IOException {
+        String data = JsonStreamWriter.toJson(writer -> {
+            writer.beginObject();
+            writer.name("seq").value(sequence);
+            writer.name("count").value(count);
+            if (event != null) event.writeFields(writer);
+            writer.endObject();
+        });
+        return "id: " + sequence + "\nevent: ui_change\ndata: " + data + "\n\n";
+    }
+}
@@ -0,0 +1,69 @@
+package nico.dump_hierarchy;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 与平台无关的UI节点：遍历无障碍树时按需填充的属性，也可组成快照树
+ */
+public class UiNode {
+    public static final int CHECKABLE = 1;
+    public static final int CHECKED = 1 << 1;
+    public static final int CLICKABLE = 1 << 2;
+    public static final int ENABLED = 1 << 3;
+    public static final int FOCUSABLE = 1 << 4;
+    public static final int FOCUSED = 1 << 5;
+    public static final int SCROLLABLE = 1 << 6;
+    public static final int LONG_CLICKABLE = 1 << 7;
+    public static final int PASSWORD = 1 << 8;
+    public static final int SELECTED = 1 << 9;
+    public static final int VISIBLE = 1 << 10;
+
+    public int index;
+    public int depth;
+    public String text;
+    public String resourceId;
+    public String className;
+    public String packageName;
+    public String contentDesc;
+    public int flags;
+    public int left;
+    public int top;
+    public int right;
+    public int bottom;
+
+    public UiNode parent;
+    public final List<UiNode> children = new ArrayList<>();
+
+    public boolean hasFlag(int flag) {
+        return (flags & flag) != 0;
+    }
+
+    public void setFlag(int flag, boolean value) {
+        if (value) {
+            flags |= flag;
+        } else {
+            flags &= ~flag;
+        }
+    }
+
+    public void addChild(UiNode child) {
+        child.parent = this;
+        children.add(child);
+    }
+
+    public int centerX() {
+        return (left + right) / 2;
+    }
+
+    public int centerY() {
+        return (top + bottom) / 2;
+    }
+
+    /**
+     * 与Rect.toShortString()一致的边界格式：[l,t][r,b]
+     */
+    public String boundsString() {
+        return "[" + left + "," + top + "][" + right + "," + bottom + "]";
+    }
+}
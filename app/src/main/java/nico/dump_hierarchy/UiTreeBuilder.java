@@ -0,0 +1,54 @@
+package nico.dump_hierarchy;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 把遍历回调组装成UiNode树（每个窗口一个根节点）
+ */
+public class UiTreeBuilder implements NodeSink {
+    private final List<UiNode> roots = new ArrayList<>();
+    private UiNode current;
+    private int rotation;
+    private int fields;
+
+    @Override
+    public void startHierarchy(int rotation) {
+        this.rotation = rotation;
+    }
+
+    @Override
+    public void startNode(UiNode node, int fields) {
+        this.fields = fields;
+        if (current == null) {
+            roots.add(node);
+        } else {
+            current.addChild(node);
+        }
+        current = node;
+    }
+
+    @Override
+    public void endNode(UiNode node) {
+        current = current.parent;
+    }
+
+    @Override
+    public void endHierarchy() {
+    }
+
+    public List<UiNode> getRoots() {
+        return roots;
+    }
+
+    public int getRotation() {
+        return rotation;
+    }
+
+    /**
+     * 节点携带的属性集合（最后一个节点的fields）
+     */
+    public int getFields() {
+        return fields;
+    }
+}
@@ -0,0 +1,192 @@
+package nico.dump_hierarchy;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 有界工作线程池：固定线程数 + 有界请求队列 + 按路由的并发限制。
+ * 队列满或路由并发已满时由调用方返回503，避免截图/dump等重请求拖垮其他路由。
+ */
+public class WorkerPool {
+
+    /**
+     * 队列满时的处理策略
+     */
+    public enum RejectionPolicy {
+        ABORT,       // 立即拒绝（返回503）
+        CALLER_RUNS  // 在提交线程（accept线程）中直接执行，形成背压
+    }
+
+    public static class Config {
+        public int poolSize = 4;
+        public int queueSize = 32;
+        public RejectionPolicy rejectionPolicy = RejectionPolicy.ABORT;
+        // 路由 -> 最大并发数，未配置的路由不限制
+        public final Map<String, Integer> routeLimits = new HashMap<>();
+
+        public Config() {
+            routeLimits.put("/dump", 2);
+            routeLimits.put("/screenshot", 1);
+            // 推送连接长时间挂起，限制同时订阅的数量
+            routeLimits.put("/events", 4);
+        }
+
+        /**
+         * 解析形如 "/dump=1,/screenshot=2" 的路由并发配置，覆盖默认值
+         */
+        public void parseRouteLimits(String spec) {
+            if (spec == null || spec.isEmpty()) return;
+            for (String pair : spec.split(",")) {
+                int idx = pair.indexOf('=');
+                if (idx <= 0) continue;
+                try {
+                    routeLimits.put(pair.substring(0, idx).trim(),
+                            Integer.parseInt(pair.substring(idx + 1).trim()));
+                } catch (NumberFormatException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    private final Config config;
+    private final ThreadPoolExecutor executor;
+    private final Map<String, Semaphore> routePermits = new HashMap<>();
+
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong routeRejected = new AtomicLong();
+    private final AtomicInteger maxQueueDepth = new AtomicInteger();
+
+    public WorkerPool(Config config) {
+        this.config = config;
+        AtomicInteger threadIndex = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(config.poolSize, config.poolSize,
+                60L, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, config.queueSize)),
+                r -> {
+                    Thread t = new Thread(r, "http-worker-" + threadIndex.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+        for (Map.Entry<String, Integer> entry : config.routeLimits.entrySet()) {
+            if (entry.getValue() > 0) {
+                routePermits.put(entry.getKey(), new Semaphore(entry.getValue()));
+            }
+        }
+    }
+
+    /**
+     * 提交任务；队列已满且策略为ABORT时执行onRejected并返回false
+     */
+    public boolean execute(Runnable task, Runnable onRejected) {
+        return execute(task, onRejected, config.rejectionPolicy == RejectionPolicy.CALLER_RUNS);
+    }
+
+    /**
+     * 从accept线程以外的线程（等待线程、完成异步响应的线程）提交：队列已满时总是执行onRejected，
+     * 不按CALLER_RUNS在调用线程执行，否则会占住等待线程
+     */
+    public boolean dispatch(Runnable task, Runnable onRejected) {
+        return execute(task, onRejected, false);
+    }
+
+    private boolean execute(Runnable task, Runnable onRejected, boolean callerRuns) {
+        submitted.incrementAndGet();
+        try {
+            executor.execute(task);
+            recordQueueDepth(executor.getQueue().size());
+            return true;
+        } catch (RejectedExecutionException e) {
+            if (callerRuns && !executor.isShutdown()) {
+                task.run();
+                return true;
+            }
+            rejected.incrementAndGet();
+            onRejected.run();
+            return false;
+        }
+    }
+
+    private void recordQueueDepth(int depth) {
+        int max;
+        while (depth > (max = maxQueueDepth.get())) {
+            if (maxQueueDepth.compareAndSet(max, depth)) break;
+        }
+    }
+
+    /**
+     * 尝试占用路由的并发名额，未配置限制的路由总是成功
+     */
+    public boolean tryEnterRoute(String path) {
+        Semaphore permits = routePermits.get(path);
+        if (permits == null || permits.tryAcquire()) {
+            return true;
+        }
+        routeRejected.incrementAndGet();
+        return false;
+    }
+
+    public void exitRoute(String path) {
+        Semaphore permits = routePermits.get(path);
+        if (permits != null) {
+            permits.release();
+        }
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    public Config getConfig() {
+        return config;
+    }
+
+    public int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    public int getMaxQueueDepth() {
+        return maxQueueDepth.get();
+    }
+
+    public int getActiveCount() {
+        return executor.getActiveCount();
+    }
+
+    public long getSubmittedCount() {
+        return submitted.get();
+    }
+
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    public long getRouteRejectedCount() {
+        return routeRejected.get();
+    }
+
+    /**
+     * 以JSON形式输出当前计数器，用于按设备档位调整线程数和队列长度
+     */
+    public String toJson() {
+        return "{\"pool_size\":" + config.poolSize +
+                ",\"queue_size\":" + config.queueSize +
+                ",\"rejection_policy\":\"" + config.rejectionPolicy.name().toLowerCase() + "\"" +
+                ",\"active\":" + getActiveCount() +
+                ",\"queue_depth\":" + getQueueDepth() +
+                ",\"max_queue_depth\":" + getMaxQueueDepth() +
+                ",\"submitted\":" + getSubmittedCount() +
+                ",\"completed\":" + executor.getCompletedTaskCount() +
+                ",\"rejected\":" + getRejectedCount() +
+                ",\"route_rejected\":" + getRouteRejectedCount() + "}";
+    }
+}
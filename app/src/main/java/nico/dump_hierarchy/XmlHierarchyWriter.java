@@ -0,0 +1,134 @@
+package nico.dump_hierarchy;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+/**
+ * 以UiAutomator兼容的XML格式输出层级，只写出请求的属性
+ */
+public class XmlHierarchyWriter implements NodeSink {
+    private final Writer writer;
+    private int depth = 0;
+    // 当前节点的开始标签还没闭合（尚不知道是否有子节点）
+    private boolean tagOpen = false;
+
+    public XmlHierarchyWriter(OutputStream out) throws IOException {
+        this.writer = new BufferedWriter(new OutputStreamWriter(out, "UTF-8"), 8 * 1024);
+    }
+
+    @Override
+    public void startHierarchy(int rotation) throws IOException {
+        writer.write("<?xml version='1.0' encoding='UTF-8' standalone='yes' ?>\r\n<hierarchy rotation=\"");
+        writer.write(Integer.toString(rotation));
+        writer.write("\">");
+    }
+
+    @Override
+    public void startNode(UiNode node, int fields) throws IOException {
+        if (tagOpen) {
+            writer.write('>');
+        }
+        depth++;
+        newLine();
+        writer.write("<node");
+        for (int bit = 0; bit < HierarchyFields.NAMES.length; bit++) {
+            if ((fields & (1 << bit)) == 0) continue;
+            writer.write(' ');
+            writer.write(HierarchyFields.NAMES[bit]);
+            writer.write("=\"");
+            writeValue(node, bit);
+            writer.write('"');
+        }
+        tagOpen = true;
+    }
+
+    private void writeValue(UiNode node, int bit) throws IOException {
+        int flag = HierarchyFields.NODE_FLAGS[bit];
+        if (flag != 0) {
+            writer.write(node.hasFlag(flag) ? "true" : "false");
+            return;
+        }
+        switch (1 << bit) {
+            case HierarchyFields.INDEX:
+                writer.write(Integer.toString(node.index));
+                break;
+            case HierarchyFields.TEXT:
+                writeEscaped(node.text);
+                break;
+            case HierarchyFields.RESOURCE_ID:
+                writeEscaped(node.resourceId);
+                break;
+            case HierarchyFields.CLASS:
+                writeEscaped(node.className);
+                break;
+            case HierarchyFields.PACKAGE:
+                writeEscaped(node.packageName);
+                break;
+            case HierarchyFields.CONTENT_DESC:
+                writeEscaped(node.contentDesc);
+                break;
+            case HierarchyFields.BOUNDS:
+                writer.write(node.boundsString());
+                break;
+            default:
+                break;
+        }
+    }
+
+    @Override
+    public void endNode(UiNode node) throws IOException {
+        if (tagOpen) {
+            writer.write(" />");
+            tagOpen = false;
+        } else {
+            newLine();
+            writer.write("</node>");
+        }
+        depth--;
+    }
+
+    @Override
+    public void endHierarchy() throws IOException {
+        if (tagOpen) {
+            writer.write('>');
+            tagOpen = false;
+        }
+        writer.write("\r\n</hierarchy>");
+        writer.flush();
+    }
+
+    private void newLine() throws IOException {
+        writer.write("\r\n");
+        for (int i = 0; i < depth; i++) {
+            writer.write("  ");
+        }
+    }
+
+    /**
+     * 转义XML特殊字符；XML不允许的控制字符替换为?（与UiAutomator一致）
+     */
+    private void writeEscaped(String value) throws IOException {
+        if (value == null) return;
+        for (int i = 0, length = value.length(); i < length; i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '&': writer.write("&amp;"); break;
+                case '<': writer.write("&lt;"); break;
+                case '>': writer.write("&gt;"); break;
+                case '"': writer.write("&quot;"); break;
+                case '\n': writer.write("&#10;"); break;
+                case '\r': writer.write("&#13;"); break;
+                case '\t': writer.write("&#9;"); break;
+                default:
+                    if (c < 0x20 || c == 0xFFFE || c == 0xFFFF) {
+                        writer.write('?');
+                    } else {
+                        writer.write(c);
+                    }
+            }
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package nico.dump_hierarchy;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * 异步注入线程：提交顺序、背压、同步屏障、超时撤回和事件释放
+ */
+public class AsyncInjectorTest {
+    private AsyncInjector<Integer> injector;
+
+    @After
+    public void tearDown() {
+        if (injector != null) injector.shutdown();
+    }
+
+    /**
+     * 记录注入顺序和sync标记；sync注入耗时syncMicros（模拟等待输入分发确认），异步注入耗时asyncMicros
+     */
+    static class RecordingSink implements AsyncInjector.Sink<Integer> {
+        final List<Integer> events = Collections.synchronizedList(new ArrayList<>());
+        final List<Boolean> syncFlags = Collections.synchronizedList(new ArrayList<>());
+        final AtomicInteger released = new AtomicInteger();
+        final long syncMicros;
+        final long asyncMicros;
+        volatile CountDownLatch gate;
+
+        RecordingSink(long syncMicros, long asyncMicros) {
+            this.syncMicros = syncMicros;
+            this.asyncMicros = asyncMicros;
+        }
+
+        @Override
+        public boolean inject(Integer event, boolean sync) {
+            CountDownLatch g = gate;
+            if (g != null) {
+                try {
+                    g.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            busyWait(sync ? syncMicros : asyncMicros);
+            events.add(event);
+            syncFlags.add(sync);
+            return event >= 0;
+        }
+
+        @Override
+        public void release(Integer event) {
+            released.incrementAndGet();
+        }
+    }
+
+    private static void busyWait(long micros) {
+        if (micros <= 0) return;
+        long until = System.nanoTime() + micros * 1000;
+        while (System.nanoTime() < until) {
+            if (micros > 1000) {
+                try {
+                    Thread.sleep(0, 200_000);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    @Test
+    public void submitSync_injectsAfterQueuedEventsInOrder() throws Exception {
+        RecordingSink sink = new RecordingSink(0, 0);
+        injector = new AsyncInjector<>(sink, 256);
+        for (int i = 0; i < 100; i++) {
+            assertTrue(injector.submit(i, 1000));
+        }
+        assertTrue(injector.submitSync(100, 1000));
+
+        assertEquals(101, sink.events.size());
+        for (int i = 0; i <= 100; i++) {
+            assertEquals(i, (int) sink.events.get(i));
+            assertEquals(i == 100, sink.syncFlags.get(i));
+        }
+        assertFalse(injector.hasPending());
+        assertEquals(101, injector.getSubmittedCount());
+        assertEquals(101, injector.getInjectedCount());
+        assertEquals(101, sink.released.get());
+        assertEquals(101, injector.getQueueLatency().getCount());
+    }
+
+    @Test
+    public void submit_blocksWhenFullThenRejects() throws Exception {
+        RecordingSink sink = new RecordingSink(0, 0);
+        sink.gate = new CountDownLatch(1);
+        injector = new AsyncInjector<>(sink, 4);
+        // 第一个事件被注入线程取走并卡住，之后4个填满队列
+        assertTrue(injector.submit(0, 100));
+        while (injector.getQueueDepth() > 0) Thread.yield();
+        for (int i = 1; i <= 4; i++) {
+            assertTrue(injector.submit(i, 100));
+        }
+        assertFalse(injector.submit(5, 0));
+        assertEquals(1, injector.getRejectedCount());
+        assertEquals(4, injector.getMaxQueueDepth());
+        // 被拒绝的事件也会释放
+        assertEquals(1, sink.released.get());
+        assertTrue(injector.hasPending());
+
+        // 队列有空位前提交方一直等待
+        CountDownLatch accepted = new CountDownLatch(1);
+        Thread producer = new Thread(() -> {
+            try {
+                if (injector.submit(6, 10_000)) accepted.countDown();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        producer.start();
+        assertFalse(accepted.await(50, TimeUnit.MILLISECONDS));
+        assertEquals(4, injector.getQueueDepth());
+
+        sink.gate.countDown();
+        assertTrue(accepted.await(5, TimeUnit.SECONDS));
+        producer.join();
+        assertTrue(injector.barrier(1000));
+        assertEquals(Arrays.asList(0, 1, 2, 3, 4, 6), sink.events);
+        assertEquals(7, sink.released.get());
+        assertFalse(injector.hasPending());
+    }
+
+    @Test
+    public void submitSync_timeoutWithdrawsEvent() throws Exception {
+        RecordingSink sink = new RecordingSink(0, 0);
+        sink.gate = new CountDownLatch(1);
+        injector = new AsyncInjector<>(sink, 8);
+        assertTrue(injector.submit(0, 100));
+        while (injector.getQueueDepth() > 0) Thread.yield();
+        // 前一个事件卡住：同步注入超时，事件从队列撤回
+        assertFalse(injector.submitSync(1, 50));
+        assertEquals(0, injector.getQueueDepth());
+        assertEquals(1, injector.getRejectedCount());
+        assertEquals(1, injector.getSubmittedCount());
+        assertEquals(1, sink.released.get());
+
+        sink.gate.countDown();
+        assertTrue(injector.barrier(1000));
+        // 超时的事件之后不会再被注入
+        assertEquals(Collections.singletonList(0), sink.events);
+        assertEquals(2, sink.released.get());
+        assertFalse(injector.hasPending());
+    }
+
+    @Test
+    public void submit_interruptedWhileQueueFull_releasesEvent() throws Exception {
+        RecordingSink sink = new RecordingSink(0, 0);
+        sink.gate = new CountDownLatch(1);
+        injector = new AsyncInjector<>(sink, 1);
+        assertTrue(injector.submit(0, 100));
+        while (injector.getQueueDepth() > 0) Thread.yield();
+        assertTrue(injector.submit(1, 100));
+
+        Thread.currentThread().interrupt();
+        try {
+            injector.submit(2, 10_000);
+            fail();
+        } catch (InterruptedException expected) {
+            // 中断标志已清除
+        }
+        assertEquals(1, injector.getRejectedCount());
+        assertEquals(1, sink.released.get());
+
+        sink.gate.countDown();
+        assertTrue(injector.barrier(1000));
+        assertEquals(Arrays.asList(0, 1), sink.events);
+        assertFalse(injector.hasPending());
+    }
+
+    @Test
+    public void submitSync_reportsFailedInjection() throws Exception {
+        RecordingSink sink = new RecordingSink(0, 0);
+        injector = new AsyncInjector<>(sink, 8);
+        assertTrue(injector.submit(-1, 100));
+        assertFalse(injector.submitSync(-2, 1000));
+        assertEquals(2, injector.getFailedCount());
+        assertTrue(injector.toJson().contains("\"failed\":2"));
+    }
+
+    @Test
+    public void shutdown_rejectsNewEvents() throws Exception {
+        RecordingSink sink = new RecordingSink(0, 0);
+        injector = new AsyncInjector<>(sink, 8);
+        injector.shutdown();
+        assertFalse(injector.submit(1, 10));
+        assertEquals(1, injector.getRejectedCount());
+    }
+}
@@ -0,0 +1,894 @@
+package nico.dump_hierarchy;
+
+import org.junit.Test;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 性能对比：计时并打印结果，不做断言。耗时且依赖机器负载，默认不随单元测试运行（build.gradle中排除），
+ * 需要时执行 ./gradlew testDebugUnitTest -Pbenchmarks --tests '*Benchmarks*'
+ */
+public class Benchmarks {
+
+    /**
+     * 1000次顺序/click：每次新建连接 vs 单个持久连接（阻塞和NIO两种传输层）
+     */
+    @Test
+    public void sequentialClicks_newConnectionVsKeepAlive() throws IOException {
+        sequentialClicks("blocking", new HttpServerTest());
+        sequentialClicks("nio", new NioHttpServerTest());
+    }
+
+    private static void sequentialClicks(String transport, HttpServerTest test) throws IOException {
+        final int requests = 1000;
+        test.startServer(5000, requests + 1);
+        try {
+            // 预热
+            test.runOnNewConnections(100);
+            test.runOnOneConnection(100);
+
+            long start = System.nanoTime();
+            test.runOnNewConnections(requests);
+            long perConnectionNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            test.runOnOneConnection(requests);
+            long keepAliveNanos = System.nanoTime() - start;
+
+            System.out.printf("%s, 1000 sequential /click: new connection each %.1f ms (%.1f us/req), "
+                            + "keep-alive %.1f ms (%.1f us/req)%n", transport,
+                    perConnectionNanos / 1e6, perConnectionNanos / 1e3 / requests,
+                    keepAliveNanos / 1e6, keepAliveNanos / 1e3 / requests);
+        } finally {
+            test.tearDown();
+        }
+    }
+
+    /**
+     * 1MB/5MB/20MB文件：原1KB缓冲循环 vs sendFile（阻塞transferTo / NIO transferTo）
+     */
+    @Test
+    public void fileThroughput() throws IOException {
+        for (int sizeMb : new int[]{1, 5, 20}) {
+            byte[] data = new byte[sizeMb * 1024 * 1024];
+            new Random(sizeMb).nextBytes(data);
+            File file = FileResponseTest.writeTempFile(data);
+            try {
+                double legacy = fileThroughput(false, true, file);
+                double blocking = fileThroughput(false, false, file);
+                double nio = fileThroughput(true, false, file);
+                System.out.printf("%2d MB: 1KB copy %.1f MB/s, transferTo %.1f MB/s, nio transferTo %.1f MB/s%n",
+                        sizeMb, legacy, blocking, nio);
+            } finally {
+                file.delete();
+            }
+        }
+    }
+
+    private static double fileThroughput(boolean nio, boolean legacyCopy, File file) throws IOException {
+        HttpServer.Handler handler = (request, response) -> {
+            if (!legacyCopy) {
+                response.sendFile("application/octet-stream", file);
+                return;
+            }
+            // 改动前的实现：1KB缓冲区循环复制
+            response.writeHead(200, "application/octet-stream", file.length());
+            try (FileInputStream fis = new FileInputStream(file)) {
+                byte[] buffer = new byte[1024];
+                int length;
+                while ((length = fis.read(buffer)) != -1) {
+                    response.write(buffer, 0, length);
+                }
+            }
+            response.flush();
+        };
+        HttpServer server = startServer(nio, handler);
+        try (Socket socket = connect(server)) {
+            InputStream in = new BufferedInputStream(socket.getInputStream(), 64 * 1024);
+            // 预热一次
+            socket.getOutputStream().write("GET /file HTTP/1.1\r\n\r\n".getBytes("UTF-8"));
+            HttpServerTest.readResponse(in);
+
+            int rounds = 5;
+            long start = System.nanoTime();
+            for (int i = 0; i < rounds; i++) {
+                socket.getOutputStream().write("GET /file HTTP/1.1\r\n\r\n".getBytes("UTF-8"));
+                HttpServerTest.readResponse(in);
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            return (double) file.length() * rounds / (1024 * 1024) / seconds;
+        } finally {
+            server.stop();
+        }
+    }
+
+    private static HttpServer startServer(boolean nio, HttpServer.Handler handler) throws IOException {
+        InetAddress address = InetAddress.getByName("127.0.0.1");
+        HttpServer server = nio ? new NioHttpServer(address, 0, new WorkerPool.Config(), handler)
+                : new HttpServer(address, 0, new WorkerPool.Config(), handler);
+        server.start();
+        return server;
+    }
+
+    private static Socket connect(HttpServer server) throws IOException {
+        Socket socket = new Socket(InetAddress.getByName("127.0.0.1"), server.getLocalPort());
+        socket.setTcpNoDelay(true);
+        socket.setSoTimeout(10000);
+        return socket;
+    }
+
+    /**
+     * 录制的设置页和2k/10k节点合成树：二进制格式与XML的体积、编码和解码耗时（XML解码用SAX）
+     */
+    @Test
+    public void binaryHierarchyVsXml() throws Exception {
+        binaryVsXml("settings.xml", HierarchyFixtures.loadXml("settings.xml").getRoots());
+        binaryVsXml("synthetic 2k", HierarchyFixtures.generate(2000, 2));
+        binaryVsXml("synthetic 10k", HierarchyFixtures.generate(10000, 10));
+    }
+
+    private static void binaryVsXml(String name, List<UiNode> roots) throws Exception {
+        int rounds = 20;
+        byte[] xml = BinaryHierarchyTest.encodeXml(roots);
+        byte[] binary = BinaryHierarchyTest.encode(roots, HierarchyFields.ALL);
+        for (int i = 0; i < 5; i++) {  // 预热
+            BinaryHierarchyTest.encodeXml(roots);
+            BinaryHierarchyTest.encode(roots, HierarchyFields.ALL);
+            HierarchyFixtures.parseXml(new ByteArrayInputStream(xml));
+            BinaryHierarchyReader.readTree(binary);
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) BinaryHierarchyTest.encodeXml(roots);
+        double xmlEncode = (System.nanoTime() - start) / 1e6 / rounds;
+        start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) BinaryHierarchyTest.encode(roots, HierarchyFields.ALL);
+        double binaryEncode = (System.nanoTime() - start) / 1e6 / rounds;
+        start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) HierarchyFixtures.parseXml(new ByteArrayInputStream(xml));
+        double xmlDecode = (System.nanoTime() - start) / 1e6 / rounds;
+        start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) BinaryHierarchyReader.readTree(binary);
+        double binaryDecode = (System.nanoTime() - start) / 1e6 / rounds;
+
+        System.out.printf("%s (%d nodes): size xml %d B, binary %d B (%.1f%%); "
+                        + "encode xml %.2f ms, binary %.2f ms; decode xml %.2f ms, binary %.2f ms%n",
+                name, HierarchyFixtures.countNodes(roots), xml.length, binary.length,
+                100.0 * binary.length / xml.length, xmlEncode, binaryEncode, xmlDecode, binaryDecode);
+    }
+
+    /**
+     * 爬虫场景：2000个节点只有一个计数文本变化，增量dump与完整XML的字节数和耗时
+     */
+    @Test
+    public void diffBytesVsFullXml() throws Exception {
+        List<UiNode> roots = HierarchyFixtures.generate(2000, 5);
+        HierarchySnapshotStore store = new HierarchySnapshotStore(8);
+        HierarchySnapshot base = store.publish(0, roots);
+
+        List<UiNode> next = HierarchyFixtures.generate(2000, 5);
+        HierarchyDiffTest.findFirstWithText(next).text = "购物车 (3)";
+        long start = System.nanoTime();
+        HierarchySnapshot current = store.publish(0, next);
+        ByteArrayOutputStream diff = new ByteArrayOutputStream();
+        HierarchyDiff.compute(base, current).writeJson(diff);
+        double millis = (System.nanoTime() - start) / 1e6;
+
+        ByteArrayOutputStream xml = new ByteArrayOutputStream();
+        HierarchyFixtures.replay(next, 0, HierarchyFields.ALL, new XmlHierarchyWriter(xml));
+        System.out.printf("2000 nodes, one text changed: full xml %d B, diff %d B (%.1f ms incl. publish)%n",
+                xml.size(), diff.size(), millis);
+    }
+
+    /**
+     * 2000节点的dump经过限速代理（模拟USB上的adb forward）：不压缩 vs 各压缩级别
+     */
+    @Test
+    public void dumpOverThrottledLink() throws Exception {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        HierarchyFixtures.replay(HierarchyFixtures.generate(2000, 9), 0, HierarchyFields.ALL,
+                new XmlHierarchyWriter(buffer));
+        byte[] xml = buffer.toByteArray();
+        int bytesPerSecond = 4 * 1024 * 1024;
+        for (int level : new int[]{0, 1, 6, 9}) {
+            HttpServer server = startServer(false, (request, response) ->
+                    response.send(200, "application/xml; charset=UTF-8", xml));
+            server.setCompression(level > 0 ? new ResponseCompression(level, 1024) : null);
+            try (ThrottledProxy proxy = new ThrottledProxy(server.getLocalPort(), bytesPerSecond);
+                 Socket socket = new Socket(InetAddress.getByName("127.0.0.1"), proxy.getPort())) {
+                socket.setSoTimeout(30000);
+                OutputStream out = socket.getOutputStream();
+                InputStream in = new BufferedInputStream(socket.getInputStream());
+                byte[] request = "GET /dump HTTP/1.1\r\nAccept-Encoding: gzip\r\n\r\n".getBytes("UTF-8");
+                out.write(request);
+                HttpServerTest.readResponse(in);  // 预热
+
+                int rounds = 5;
+                int size = 0;
+                long start = System.nanoTime();
+                for (int i = 0; i < rounds; i++) {
+                    out.write(request);
+                    size = HttpServerTest.readResponse(in).bytes.length;
+                }
+                double millis = (System.nanoTime() - start) / 1e6 / rounds;
+                System.out.printf("/dump %d B xml over %d MB/s link, level %d: %d B on the wire, %.1f ms%n",
+                        xml.length, bytesPerSecond / (1024 * 1024), level, size, millis);
+            } finally {
+                server.stop();
+            }
+        }
+    }
+
+    /**
+     * 每种选择器：建索引耗时、索引查询 vs 遍历查询的单次耗时
+     */
+    @Test
+    public void snapshotIndexVsScan() throws Exception {
+        for (int size : new int[]{5000, 20000}) {
+            List<UiNode> roots = HierarchyFixtures.generate(size, size);
+            List<String[]> specs = SnapshotIndexTest.selectors(roots);
+
+            long start = System.nanoTime();
+            for (int i = 0; i < 10; i++) new SnapshotIndex(roots);
+            double buildMillis = (System.nanoTime() - start) / 1e6 / 10;
+            HierarchySnapshot snapshot = new HierarchySnapshot(1, 0, roots);
+            snapshot.getIndex();
+
+            System.out.printf("%d nodes: index build %.2f ms%n", size, buildMillis);
+            for (String[] spec : specs) {
+                SnapshotQuery query = SnapshotQuery.parse(spec[0], spec[1]);
+                int rounds = 200;
+                for (int i = 0; i < rounds; i++) {  // 预热
+                    query.scan(roots, 0);
+                    query.findAll(snapshot, 0);
+                }
+                start = System.nanoTime();
+                for (int i = 0; i < rounds; i++) query.scan(roots, 0);
+                double scanMicros = (System.nanoTime() - start) / 1e3 / rounds;
+                start = System.nanoTime();
+                int matches = 0;
+                for (int i = 0; i < rounds; i++) matches = query.findAll(snapshot, 0).size();
+                double indexMicros = (System.nanoTime() - start) / 1e3 / rounds;
+                System.out.printf("  %-22s %5d matches: scan %8.1f us, index %7.1f us%n",
+                        spec[0] + "=" + spec[1], matches, scanMicros, indexMicros);
+            }
+        }
+    }
+
+    /**
+     * 20个选择器：逐个/find_element（每次重新采集快照，模拟遍历无障碍树） vs 一次/find_batch
+     */
+    @Test
+    public void findBatchVsSeparateRequests() throws Exception {
+        List<UiNode> roots = HierarchyFixtures.generate(3000, 4);
+        HttpServer server = startServer(false, (request, response) -> {
+            HierarchySnapshot snapshot = new HierarchySnapshot(1, 0, roots);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            String body = request.getPath().equals("/find_batch") ? request.getBody()
+                    : "[{\"type\":\"" + request.getParams().get("type")
+                    + "\",\"value\":\"" + request.getParams().get("value") + "\"}]";
+            FindBatch.evaluate(snapshot, FindBatch.parse(body), out);
+            response.send(200, "application/json; charset=UTF-8", out.toByteArray());
+        });
+
+        StringBuilder batch = new StringBuilder("[");
+        for (int i = 0; i < 20; i++) {
+            if (i > 0) batch.append(',');
+            batch.append("{\"type\":\"id\",\"value\":\"com.example.shop:id/item_").append(i).append("\"}");
+        }
+        byte[] batchBody = batch.append(']').toString().getBytes("UTF-8");
+
+        try (Socket socket = connect(server)) {
+            OutputStream out = socket.getOutputStream();
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            for (int round = 0; round < 3; round++) {
+                long start = System.nanoTime();
+                for (int i = 0; i < 20; i++) {
+                    out.write(("GET /find_element?type=id&value=com.example.shop:id/item_" + i
+                            + " HTTP/1.1\r\n\r\n").getBytes("UTF-8"));
+                    HttpServerTest.readResponse(in);
+                }
+                double separate = (System.nanoTime() - start) / 1e6;
+
+                start = System.nanoTime();
+                out.write(("POST /find_batch HTTP/1.1\r\nContent-Length: " + batchBody.length + "\r\n\r\n")
+                        .getBytes("UTF-8"));
+                out.write(batchBody);
+                HttpServerTest.readResponse(in);
+                double batched = (System.nanoTime() - start) / 1e6;
+                if (round == 2) {
+                    System.out.printf("20 selectors on 3000 nodes: 20 x /find_element %.2f ms, /find_batch %.2f ms%n",
+                            separate, batched);
+                }
+            }
+        } finally {
+            server.stop();
+        }
+    }
+
+    /**
+     * 50个并发等待、每个等待1秒、期间界面只变化5次：固定100ms轮询（每次检查都遍历一次树）
+     * vs 事件驱动（检查共享缓存的快照，只有事件后才重新采集）
+     */
+    @Test
+    public void manyWaiters_evaluationsVsFixedPolling() throws Exception {
+        int waiters = 50;
+        UiEventMonitor monitor = new UiEventMonitor();
+        HierarchySnapshotCache cache = new HierarchySnapshotCache(60000);
+        AtomicInteger walks = new AtomicInteger();
+        AtomicInteger polled = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(waiters * 2 + 1);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < waiters; i++) {
+                futures.add(executor.submit(() -> monitor.await(1000, 1000, fresh -> {
+                    if (fresh) {
+                        cache.getNotOlderThan("snapshot", 1000, walks::incrementAndGet);
+                    } else {
+                        cache.get("snapshot", false, walks::incrementAndGet);
+                    }
+                    return null;
+                })));
+                futures.add(executor.submit(() -> {
+                    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(1000);
+                    while (System.nanoTime() < deadline) {  // UiDevice.wait式的固定间隔轮询
+                        polled.incrementAndGet();
+                        UiEventMonitorTest.sleep(100);
+                    }
+                    return null;
+                }));
+            }
+            futures.add(executor.submit(() -> {
+                for (int i = 0; i < 5; i++) {
+                    UiEventMonitorTest.sleep(150);
+                    cache.invalidate();
+                    monitor.onEvent();
+                }
+                return null;
+            }));
+            for (Future<?> future : futures) future.get(10, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdownNow();
+        }
+        System.out.printf("%d waiters x 1 s, 5 UI changes: fixed 100 ms polling %d checks / %d tree walks, "
+                        + "event-driven %d checks / %d tree walks%n",
+                waiters, polled.get(), polled.get(), monitor.getEvaluationCount(), walks.get());
+    }
+
+    /**
+     * 2秒内5次界面变化：每100ms轮询一次 vs 一条/events连接
+     */
+    @Test
+    public void uiChanges_pollingVsEventStream() throws Exception {
+        UiEventStreamTest test = new UiEventStreamTest();
+        test.startServer(false);
+        try {
+            pollingVsEventStream(test);
+        } finally {
+            test.tearDown();
+        }
+    }
+
+    private static void pollingVsEventStream(UiEventStreamTest test) throws Exception {
+        UiEventMonitor monitor = test.monitor;
+
+        // 轮询：每100ms一次请求，记录发现变化的延迟
+        int polls = 0;
+        long pollLatencyNanos = 0;
+        long lastSeen = monitor.getSequence();
+        Thread producer = startProducer(monitor);
+        long end = System.currentTimeMillis() + 2100;
+        try (Socket socket = test.connect()) {
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            while (System.currentTimeMillis() < end) {
+                socket.getOutputStream().write("GET /is_ui_change HTTP/1.1\r\n\r\n".getBytes("UTF-8"));
+                HttpServerTest.Response response = HttpServerTest.readResponse(in);
+                polls++;
+                long sequence = Long.parseLong(response.body);
+                if (sequence > lastSeen) {
+                    pollLatencyNanos += System.nanoTime() - monitor.getLatestEvent().getUptimeMillis();
+                    lastSeen = sequence;
+                }
+                Thread.sleep(100);
+            }
+        }
+        producer.join();
+
+        // 事件流：同样的5次变化
+        int messages = 0;
+        long streamLatencyNanos = 0;
+        try (Socket socket = test.connect()) {
+            socket.getOutputStream().write("GET /events HTTP/1.1\r\n\r\n".getBytes("UTF-8"));
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            UiEventStreamTest.readHeaders(in);
+            UiEventStreamTest.readLine(in);
+            UiEventStreamTest.readLine(in);
+            producer = startProducer(monitor);
+            while (messages < 5) {
+                UiEventStreamTest.readMessage(in);
+                streamLatencyNanos += System.nanoTime() - monitor.getLatestEvent().getUptimeMillis();
+                messages++;
+            }
+        }
+        producer.join();
+
+        System.out.printf("2 s, 5 UI changes: 100 ms polling %d requests (avg detect %.1f ms), "
+                        + "/events 1 request / %d messages (avg detect %.1f ms incl. 50 ms coalescing)%n",
+                polls, pollLatencyNanos / 5 / 1e6, messages, streamLatencyNanos / 5 / 1e6);
+    }
+
+    /**
+     * 每400ms产生一次界面变化，共5次；事件时间记录System.nanoTime()，用于计算发现延迟
+     */
+    private static Thread startProducer(UiEventMonitor monitor) {
+        Thread producer = new Thread(() -> {
+            try {
+                for (int i = 0; i < 5; i++) {
+                    Thread.sleep(400);
+                    monitor.onEvent(new UiEvent("TYPE_WINDOW_CONTENT_CHANGED", "com.android.settings", 3,
+                            System.nanoTime()));
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        producer.start();
+        return producer;
+    }
+
+    /**
+     * 10个动作，每个动作后界面在50~150ms内稳定：固定sleep 500ms vs wait_idle(quiet=100)
+     */
+    @Test
+    public void actions_fixedSleepVsWaitIdle() throws Exception {
+        UiEventMonitor monitor = new UiEventMonitor();
+        long fixedNanos = 0;
+        long idleNanos = 0;
+        for (int i = 0; i < 10; i++) {
+            int settleEvents = 5 + (i % 3) * 5;  // 50/100/150ms的界面变化
+            long start = System.nanoTime();
+            Thread producer = UiEventMonitorTest.startEvents(monitor, "com.android.settings", settleEvents, 10);
+            UiEventMonitorTest.sleep(500);
+            producer.join();
+            fixedNanos += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            producer = UiEventMonitorTest.startEvents(monitor, "com.android.settings", settleEvents, 10);
+            monitor.awaitIdle(100, 5000, null);
+            producer.join();
+            idleNanos += System.nanoTime() - start;
+        }
+        System.out.printf("10 actions settling in 50-150 ms: fixed 500 ms sleeps %.0f ms, wait_idle(quiet=100) %.0f ms%n",
+                fixedNanos / 1e6, idleNanos / 1e6);
+    }
+
+    /**
+     * 20次输入，输入框在5~25ms内更新并发出TYPE_VIEW_TEXT_CHANGED：
+     * 固定sleep(200)+sleep(300) vs 文本变化事件到达时检查内容
+     */
+    @Test
+    public void inputs_fixedSleepVsTextChangedEvent() throws Exception {
+        UiEventMonitor monitor = new UiEventMonitor();
+        long fixedNanos = 0;
+        long eventNanos = 0;
+        for (int i = 0; i < 20; i++) {
+            long start = System.nanoTime();
+            setTextLater(monitor, new AtomicReference<>(), "user" + i, 5 + i);
+            UiEventMonitorTest.sleep(200 + 300);
+            fixedNanos += System.nanoTime() - start;
+
+            AtomicReference<String> field = new AtomicReference<>();
+            String expected = "user" + i;
+            start = System.nanoTime();
+            Thread input = setTextLater(monitor, field, expected, 5 + i);
+            monitor.await(1000, 50, fresh -> expected.equals(field.get()) ? field.get() : null);
+            eventNanos += System.nanoTime() - start;
+            input.join();
+        }
+        System.out.printf("20 inputs applied in 5-25 ms: fixed sleeps %.0f ms, text-changed wait %.0f ms%n",
+                fixedNanos / 1e6, eventNanos / 1e6);
+    }
+
+    /**
+     * 模拟输入框在delayMillis后更新内容并发出文本变化事件
+     */
+    private static Thread setTextLater(UiEventMonitor monitor, AtomicReference<String> field, String text, long delayMillis) {
+        Thread input = new Thread(() -> {
+            UiEventMonitorTest.sleep(delayMillis);
+            field.set(text);
+            monitor.onEvent(new UiEvent("TYPE_VIEW_TEXT_CHANGED", "com.android.settings", 1, delayMillis));
+        });
+        input.start();
+        return input;
+    }
+
+    /**
+     * swipe_sequence的旧实现：注入后再sleep(stepDelay)，每步的注入耗时都累加到总时长上；
+     * 按截止时间调度时注入耗时被间隔吸收，总时长只多出最后一次注入
+     */
+    @Test
+    public void swipe_relativeSleepVsDeadlines() {
+        final int steps = 20;
+        final long stepDelay = 25;
+        final long injectMillis = 4;
+        RealClock clock = new RealClock();
+
+        GestureTest.RecordingInjector relative = new GestureTest.RecordingInjector(clock, injectMillis);
+        long start = clock.uptimeMillis();
+        relative.inject(Gesture.ACTION_DOWN, 0, 0, start, clock.uptimeMillis());
+        clock.sleepUntil(clock.uptimeMillis() + 50);
+        for (int i = 1; i <= steps; i++) {
+            relative.inject(Gesture.ACTION_MOVE, 0, i * 10, start, clock.uptimeMillis());
+            clock.sleepUntil(clock.uptimeMillis() + stepDelay);
+        }
+        relative.inject(Gesture.ACTION_UP, 0, steps * 10, start, clock.uptimeMillis());
+        long relativeMillis = clock.uptimeMillis() - start;
+
+        float[][] points = new float[steps + 1][];
+        long[] times = new long[steps + 1];
+        points[0] = new float[]{0, 0};
+        for (int i = 1; i <= steps; i++) {
+            points[i] = new float[]{0, i * 10};
+            times[i] = 50 + (i - 1) * stepDelay;
+        }
+        Gesture gesture = Gesture.fromTimedPoints(points, times, 50 + steps * stepDelay);
+        GestureTest.RecordingInjector scheduled = new GestureTest.RecordingInjector(clock, injectMillis);
+        GestureExecutor.Result result = new GestureExecutor(scheduled, clock).execute(gesture);
+
+        long requested = 50 + steps * stepDelay;
+        System.out.printf("%d-step swipe, requested %d ms, %d ms per injection: relative sleeps %d ms, "
+                        + "deadlines %d ms (max lag %d ms)%n",
+                steps, requested, injectMillis, relativeMillis, result.getActualMillis(), result.getMaxLagMillis());
+    }
+
+    /**
+     * 真实时钟（单调），按截止时间sleep
+     */
+    private static class RealClock implements GestureExecutor.Clock {
+        @Override
+        public long uptimeMillis() {
+            return System.nanoTime() / 1_000_000;
+        }
+
+        @Override
+        public void sleepUntil(long deadline) {
+            long remaining = deadline - uptimeMillis();
+            if (remaining <= 0) return;
+            try {
+                Thread.sleep(remaining);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * 120Hz移动流：同步注入时每个事件都要等分发确认（这里按12ms计），请求线程跟不上8.3ms的节拍；
+     * 异步注入时提交几乎不阻塞，注入线程在后台跟上节拍，最后一个事件同步注入作为屏障
+     */
+    @Test
+    public void injection_syncVsAsyncAt120Hz() throws Exception {
+        final int events = 120;
+        final long periodNanos = 1_000_000_000L / 120;
+        final long syncMicros = 12_000;
+        final long asyncMicros = 300;
+
+        AsyncInjectorTest.RecordingSink syncSink = new AsyncInjectorTest.RecordingSink(syncMicros, asyncMicros);
+        long start = System.nanoTime();
+        long blockedSync = 0;
+        for (int i = 0; i < events; i++) {
+            sleepUntil(start + i * periodNanos);
+            long before = System.nanoTime();
+            syncSink.inject(i, true);
+            blockedSync += System.nanoTime() - before;
+        }
+        long syncTotal = System.nanoTime() - start;
+
+        AsyncInjectorTest.RecordingSink asyncSink = new AsyncInjectorTest.RecordingSink(syncMicros, asyncMicros);
+        AsyncInjector<Integer> injector = new AsyncInjector<>(asyncSink, 256);
+        start = System.nanoTime();
+        long blockedAsync = 0;
+        for (int i = 0; i < events - 1; i++) {
+            sleepUntil(start + i * periodNanos);
+            long before = System.nanoTime();
+            injector.submit(i, 1000);
+            blockedAsync += System.nanoTime() - before;
+        }
+        sleepUntil(start + (events - 1) * periodNanos);
+        injector.submitSync(events - 1, 5000);
+        long asyncTotal = System.nanoTime() - start;
+        injector.shutdown();
+
+        LatencyHistogram latency = injector.getQueueLatency();
+        System.out.printf("%d moves at 120 Hz (requested %d ms): sync %d ms total, %.2f ms blocked per event; "
+                        + "async %d ms total, %.3f ms blocked per event, queue latency p50 %d us p99 %d us%n",
+                events, (events - 1) * periodNanos / 1_000_000,
+                syncTotal / 1_000_000, blockedSync / 1e6 / events,
+                asyncTotal / 1_000_000, blockedAsync / 1e6 / events,
+                latency.getPercentile(0.5), latency.getPercentile(0.99));
+    }
+
+    private static void sleepUntil(long deadlineNanos) throws InterruptedException {
+        long remaining = deadlineNanos - System.nanoTime();
+        if (remaining > 0) TimeUnit.NANOSECONDS.sleep(remaining);
+    }
+
+    /**
+     * 500个元素的find_elements响应：gson JsonWriter写StringWriter再getBytes，对比直接写入复用的ResponseBuffer
+     */
+    @Test
+    public void findElements500_gsonVsStream() throws Exception {
+        List<UiNode> nodes = new ArrayList<>();
+        JsonStreamWriterTest.collect(HierarchyFixtures.generate(500, 7), nodes);
+        int length = JsonStreamWriterTest.gsonElements(nodes).length;
+
+        final int iterations = 400;
+        for (int i = 0; i < iterations; i++) {
+            JsonStreamWriterTest.gsonElements(nodes);
+            JsonStreamWriterTest.streamElements(nodes);
+        }
+        long gsonAllocated = allocatedBytes();
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) JsonStreamWriterTest.gsonElements(nodes);
+        long gsonNanos = System.nanoTime() - start;
+        gsonAllocated = allocatedBytes() - gsonAllocated;
+
+        long streamAllocated = allocatedBytes();
+        start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) JsonStreamWriterTest.streamElements(nodes);
+        long streamNanos = System.nanoTime() - start;
+        streamAllocated = allocatedBytes() - streamAllocated;
+
+        System.out.printf("find_elements, 500 elements (%d bytes): gson+String %.3f ms / %d KB per response, "
+                        + "stream to ResponseBuffer %.3f ms / %d KB per response%n",
+                length, gsonNanos / 1e6 / iterations, gsonAllocated / 1024 / iterations,
+                streamNanos / 1e6 / iterations, streamAllocated / 1024 / iterations);
+    }
+
+    /**
+     * 当前线程累计分配的字节数（HotSpot），不支持时返回0
+     */
+    private static long allocatedBytes() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0;
+    }
+
+    /**
+     * 10000个流水线请求（GET点击 + 2KB的POST脚本交替）：原来逐字节readLine + String.split的解析 vs 增量解析
+     */
+    @Test
+    public void pipelinedRequests_legacyVsIncremental() throws Exception {
+        final int requests = 10_000;
+        StringBuilder script = new StringBuilder("[");
+        while (script.length() < 2048) script.append("{\"type\":\"click\",\"params\":{\"x\":100,\"y\":200}},");
+        script.setCharAt(script.length() - 1, ']');
+        byte[] scriptBytes = script.toString().getBytes(StandardCharsets.UTF_8);
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        for (int i = 0; i < requests; i++) {
+            if (i % 2 == 0) {
+                stream.write(("GET /click?x=" + i + "&y=200 HTTP/1.1\r\nHost: 127.0.0.1:9008\r\n"
+                        + "User-Agent: python-requests/2.31.0\r\nAccept-Encoding: gzip, deflate\r\nAccept: */*\r\n"
+                        + "Connection: keep-alive\r\n\r\n").getBytes(StandardCharsets.UTF_8));
+            } else {
+                stream.write(("POST /execute_json_script HTTP/1.1\r\nHost: 127.0.0.1:9008\r\n"
+                        + "Content-Type: application/json\r\nContent-Length: " + scriptBytes.length + "\r\n\r\n").getBytes(StandardCharsets.UTF_8));
+                stream.write(scriptBytes);
+            }
+        }
+        byte[] data = stream.toByteArray();
+
+        for (int warmup = 0; warmup < 3; warmup++) {
+            parseAllLegacy(data);
+            parseAllIncremental(data);
+        }
+        long legacyAllocated = allocatedBytes();
+        long start = System.nanoTime();
+        parseAllLegacy(data);
+        long legacyNanos = System.nanoTime() - start;
+        legacyAllocated = allocatedBytes() - legacyAllocated;
+
+        long incrementalAllocated = allocatedBytes();
+        start = System.nanoTime();
+        parseAllIncremental(data);
+        long incrementalNanos = System.nanoTime() - start;
+        incrementalAllocated = allocatedBytes() - incrementalAllocated;
+
+        System.out.printf("%d pipelined requests (%d KB): readLine parser %.1f ms / %d B per request, "
+                        + "incremental parser %.1f ms / %d B per request%n",
+                requests, data.length / 1024, legacyNanos / 1e6, legacyAllocated / requests,
+                incrementalNanos / 1e6, incrementalAllocated / requests);
+    }
+
+    private static void parseAllIncremental(byte[] data) throws IOException {
+        HttpRequestParser parser = new HttpRequestParser();
+        InputStream in = new ByteArrayInputStream(data);
+        while (parser.read(in, null) != null) {
+            // 只计耗时
+        }
+    }
+
+    private static void parseAllLegacy(byte[] data) throws IOException {
+        InputStream in = new BufferedInputStream(new ByteArrayInputStream(data));
+        while (legacyParse(in) != null) {
+            // 只计耗时
+        }
+    }
+
+    /**
+     * 改动前HttpServer.parseHttpRequest的实现（逐字节读行、split、每行一个ByteArrayOutputStream）
+     */
+    private static HttpRequest legacyParse(InputStream is) throws IOException {
+        String requestLine = legacyReadLine(is);
+        while (requestLine != null && requestLine.isEmpty()) requestLine = legacyReadLine(is);
+        if (requestLine == null) return null;
+        String[] parts = requestLine.split(" ");
+        if (parts.length < 2) return null;
+        String path = parts[1];
+        String protocol = parts.length >= 3 ? parts[2] : "";
+        String query = "";
+        int qIndex = path.indexOf('?');
+        if (qIndex != -1) {
+            query = path.substring(qIndex + 1);
+            path = path.substring(0, qIndex);
+        }
+        Map<String, String> headers = new HashMap<>();
+        int contentLength = 0;
+        while (true) {
+            String line = legacyReadLine(is);
+            if (line == null || line.isEmpty()) break;
+            int idx = line.indexOf(':');
+            if (idx <= 0) continue;
+            String name = line.substring(0, idx).trim().toLowerCase();
+            String value = line.substring(idx + 1).trim();
+            headers.put(name, value);
+            if (name.equals("content-length")) contentLength = Integer.parseInt(value);
+        }
+        String body = "";
+        if (contentLength > 0) {
+            byte[] bodyBytes = new byte[contentLength];
+            int offset = 0;
+            while (offset < contentLength) {
+                int read = is.read(bodyBytes, offset, contentLength - offset);
+                if (read == -1) throw new EOFException("Unexpected end of request body");
+                offset += read;
+            }
+            body = new String(bodyBytes, "UTF-8");
+        }
+        Map<String, String> params = new HashMap<>();
+        for (String pair : query.split("&")) {
+            int idx = pair.indexOf('=');
+            if (idx != -1) {
+                params.put(URLDecoder.decode(pair.substring(0, idx), "UTF-8"),
+                        URLDecoder.decode(pair.substring(idx + 1), "UTF-8"));
+            }
+        }
+        return new HttpRequest(parts[0], path, query, protocol, headers, params, body);
+    }
+
+    private static String legacyReadLine(InputStream is) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream(128);
+        int b;
+        while ((b = is.read()) != -1) {
+            if (b == '\n') break;
+            line.write(b);
+        }
+        if (b == -1 && line.size() == 0) return null;
+        byte[] bytes = line.toByteArray();
+        int length = bytes.length;
+        if (length > 0 && bytes[length - 1] == '\r') length--;
+        return new String(bytes, 0, length, "UTF-8");
+    }
+
+    /**
+     * 打点只读时钟和累加数组：100万次打点的单次开销和分配的字节数
+     */
+    @Test
+    public void requestTiming_stamps() {
+        final int stamps = 1_000_000;
+        for (int i = 0; i < stamps; i++) RequestTiming.current().stop(RequestTiming.MATCH, RequestTiming.now());
+
+        long allocated = allocatedBytes();
+        long start = System.nanoTime();
+        for (int i = 0; i < stamps; i++) {
+            long stamp = RequestTiming.now();
+            RequestTiming.current().stop(i % RequestTiming.PHASE_COUNT, stamp);
+        }
+        long elapsed = System.nanoTime() - start;
+        allocated = allocatedBytes() - allocated;
+        System.out.printf("%d phase stamps: %.1f ns per stamp, %d bytes allocated%n",
+                stamps, (double) elapsed / stamps, allocated);
+    }
+
+    /**
+     * 单连接的本地限速代理：服务端到客户端方向按固定速率转发，模拟带宽受限的链路
+     */
+    private static class ThrottledProxy implements AutoCloseable {
+        private final ServerSocket listener;
+        private final int upstreamPort;
+        private final int bytesPerSecond;
+
+        ThrottledProxy(int upstreamPort, int bytesPerSecond) throws IOException {
+            this.listener = new ServerSocket(0, 1, InetAddress.getByName("127.0.0.1"));
+            this.upstreamPort = upstreamPort;
+            this.bytesPerSecond = bytesPerSecond;
+            Thread thread = new Thread(this::run, "throttled-proxy");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        int getPort() {
+            return listener.getLocalPort();
+        }
+
+        private void run() {
+            try (Socket client = listener.accept();
+                 Socket upstream = new Socket(InetAddress.getByName("127.0.0.1"), upstreamPort)) {
+                Thread requests = new Thread(() -> pump(client, upstream, Integer.MAX_VALUE), "proxy-requests");
+                requests.setDaemon(true);
+                requests.start();
+                pump(upstream, client, bytesPerSecond);
+            } catch (IOException e) {
+                // 测试结束时关闭
+            }
+        }
+
+        private static void pump(Socket from, Socket to, int bytesPerSecond) {
+            try {
+                InputStream in = from.getInputStream();
+                OutputStream out = to.getOutputStream();
+                byte[] buffer = new byte[16 * 1024];
+                long start = System.nanoTime();
+                long sent = 0;
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, read);
+                    sent += read;
+                    long due = start + sent * 1_000_000_000L / bytesPerSecond;
+                    long wait = due - System.nanoTime();
+                    if (wait > 0) Thread.sleep(wait / 1_000_000, (int) (wait % 1_000_000));
+                    // 空闲后重新计时，不把空闲时间当作可用带宽
+                    if (wait < -50_000_000L) {
+                        start = System.nanoTime();
+                        sent = 0;
+                    }
+                }
+            } catch (IOException | InterruptedException e) {
+                // 连接关闭
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            listener.close();
+        }
+    }
+}
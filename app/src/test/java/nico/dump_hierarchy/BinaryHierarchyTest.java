@@ -0,0 +1,116 @@
+package nico.dump_hierarchy;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * 二进制层级格式：编解码往返一致性、损坏数据的检测，以及体积小于XML
+ */
+public class BinaryHierarchyTest {
+
+    @Test
+    public void roundTrip_recordedFixture() throws Exception {
+        UiTreeBuilder fixture = HierarchyFixtures.loadXml("settings.xml");
+        byte[] data = encode(fixture.getRoots(), HierarchyFields.ALL);
+
+        UiTreeBuilder decoded = BinaryHierarchyReader.readTree(data);
+        assertEquals(fixture.getRotation(), decoded.getRotation());
+        assertTreesEqual(fixture.getRoots(), decoded.getRoots(), HierarchyFields.ALL);
+    }
+
+    @Test
+    public void roundTrip_selectedFieldsAndNegativeBounds() throws Exception {
+        List<UiNode> roots = HierarchyFixtures.generate(300, 3);
+        UiNode offscreen = roots.get(0).children.get(0);
+        offscreen.left = -1080;
+        offscreen.right = -10;
+
+        int fields = HierarchyFields.parse("bounds,text,clickable,scrollable");
+        UiTreeBuilder decoded = BinaryHierarchyReader.readTree(encode(roots, fields));
+        assertTreesEqual(roots, decoded.getRoots(), fields);
+        // 未请求的属性不编码
+        assertNull(decoded.getRoots().get(0).className);
+        assertFalse(decoded.getRoots().get(0).hasFlag(UiNode.ENABLED));
+    }
+
+    @Test
+    public void decode_toXmlMatchesDirectXml() throws Exception {
+        List<UiNode> roots = HierarchyFixtures.loadXml("settings.xml").getRoots();
+        ByteArrayOutputStream direct = new ByteArrayOutputStream();
+        HierarchyFixtures.replay(roots, 0, HierarchyFields.ALL, new XmlHierarchyWriter(direct));
+
+        ByteArrayOutputStream converted = new ByteArrayOutputStream();
+        new BinaryHierarchyReader(encode(roots, HierarchyFields.ALL)).read(new XmlHierarchyWriter(converted));
+        assertEquals(direct.toString("UTF-8"), converted.toString("UTF-8"));
+    }
+
+    @Test
+    public void decode_rejectsCorruptData() throws Exception {
+        byte[] data = encode(HierarchyFixtures.generate(50, 1), HierarchyFields.ALL);
+        assertThrows(() -> BinaryHierarchyReader.readTree(Arrays.copyOf(data, data.length - 3)));
+        byte[] badMagic = data.clone();
+        badMagic[0] = 'X';
+        assertThrows(() -> BinaryHierarchyReader.readTree(badMagic));
+    }
+
+    /**
+     * 录制的设置页和合成树的二进制编码都比XML小
+     */
+    @Test
+    public void binarySmallerThanXml() throws Exception {
+        for (List<UiNode> roots : Arrays.asList(HierarchyFixtures.loadXml("settings.xml").getRoots(),
+                HierarchyFixtures.generate(2000, 2))) {
+            assertTrue(encode(roots, HierarchyFields.ALL).length < encodeXml(roots).length);
+        }
+    }
+
+    static byte[] encode(List<UiNode> roots, int fields) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        HierarchyFixtures.replay(roots, 0, fields, new BinaryHierarchyWriter(out, fields));
+        return out.toByteArray();
+    }
+
+    static byte[] encodeXml(List<UiNode> roots) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        HierarchyFixtures.replay(roots, 0, HierarchyFields.ALL, new XmlHierarchyWriter(out));
+        return out.toByteArray();
+    }
+
+    private static void assertTreesEqual(List<UiNode> expected, List<UiNode> actual, int fields) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            UiNode e = expected.get(i);
+            UiNode a = actual.get(i);
+            if ((fields & HierarchyFields.INDEX) != 0) assertEquals(e.index, a.index);
+            if ((fields & HierarchyFields.TEXT) != 0) assertEquals(e.text, a.text);
+            if ((fields & HierarchyFields.RESOURCE_ID) != 0) assertEquals(e.resourceId, a.resourceId);
+            if ((fields & HierarchyFields.CLASS) != 0) assertEquals(e.className, a.className);
+            if ((fields & HierarchyFields.PACKAGE) != 0) assertEquals(e.packageName, a.packageName);
+            if ((fields & HierarchyFields.CONTENT_DESC) != 0) assertEquals(e.contentDesc, a.contentDesc);
+            assertEquals(e.flags & BinaryHierarchyWriter.nodeFlagMask(fields), a.flags);
+            if ((fields & HierarchyFields.BOUNDS) != 0) assertEquals(e.boundsString(), a.boundsString());
+            assertEquals(e.depth, a.depth);
+            assertTreesEqual(e.children, a.children, fields);
+        }
+    }
+
+    private interface Decode {
+        void run() throws Exception;
+    }
+
+    private static void assertThrows(Decode decode) throws Exception {
+        try {
+            decode.run();
+            fail("expected IOException");
+        } catch (IOException expected) {
+            // 截断或损坏的数据必须报错，而不是返回残缺的树
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package nico.dump_hierarchy;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * 响应压缩：Accept-Encoding协商、阈值和类型过滤、gzip/deflate往返，以及HEAD返回压缩后的长度
+ */
+public class CompressionTest {
+    private HttpServer server;
+    private byte[] xml;
+
+    @After
+    public void tearDown() throws IOException {
+        if (server != null) server.stop();
+    }
+
+    @Test
+    public void negotiate() {
+        assertEquals("gzip", ResponseCompression.negotiate("gzip, deflate, br"));
+        assertEquals("deflate", ResponseCompression.negotiate("deflate"));
+        assertEquals("deflate", ResponseCompression.negotiate("gzip;q=0.5, deflate"));
+        assertEquals("gzip", ResponseCompression.negotiate("*"));
+        assertNull(ResponseCompression.negotiate("gzip;q=0, deflate;q=0"));
+        assertNull(ResponseCompression.negotiate("identity"));
+        assertNull(ResponseCompression.negotiate("br"));
+        assertNull(ResponseCompression.negotiate(null));
+    }
+
+    @Test
+    public void compressible() {
+        assertTrue(ResponseCompression.isCompressible("application/xml; charset=UTF-8"));
+        assertTrue(ResponseCompression.isCompressible("application/json"));
+        assertTrue(ResponseCompression.isCompressible("text/plain; charset=UTF-8"));
+        assertFalse(ResponseCompression.isCompressible("image/png"));
+        assertFalse(ResponseCompression.isCompressible("application/octet-stream"));
+    }
+
+    @Test
+    public void gzipAndDeflate_roundTrip() throws Exception {
+        startServer(new ResponseCompression(6, 1024));
+        for (String encoding : new String[]{"gzip", "deflate"}) {
+            HttpServerTest.Response response = get("/dump", "Accept-Encoding: " + encoding + "\r\n");
+            assertEquals(encoding, response.headers.get("content-encoding"));
+            assertEquals("Accept-Encoding", response.headers.get("vary"));
+            assertTrue(response.bytes.length < xml.length / 4);
+            assertArrayEquals(xml, inflate(encoding, response.bytes));
+        }
+    }
+
+    @Test
+    public void smallImageOrNotAccepted_sentAsIs() throws Exception {
+        startServer(new ResponseCompression(6, 1024));
+        HttpServerTest.Response response = get("/small", "Accept-Encoding: gzip\r\n");
+        assertNull(response.headers.get("content-encoding"));
+        assertEquals("{\"success\":true}", response.body);
+
+        response = get("/image", "Accept-Encoding: gzip\r\n");
+        assertNull(response.headers.get("content-encoding"));
+        assertEquals(xml.length, response.bytes.length);
+
+        response = get("/dump", "");
+        assertNull(response.headers.get("content-encoding"));
+        assertArrayEquals(xml, response.bytes);
+    }
+
+    @Test
+    public void headRequest_reportsCompressedLength() throws Exception {
+        startServer(new ResponseCompression(6, 1024));
+        int compressedLength = get("/dump", "Accept-Encoding: gzip\r\n").bytes.length;
+        try (Socket socket = connect(server.getLocalPort())) {
+            socket.getOutputStream().write("HEAD /dump HTTP/1.1\r\nAccept-Encoding: gzip\r\nConnection: close\r\n\r\n"
+                    .getBytes("UTF-8"));
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            ByteArrayOutputStream head = new ByteArrayOutputStream();
+            int b;
+            while ((b = in.read()) != -1) head.write(b);
+            assertTrue(head.toString("UTF-8").contains("Content-Length: " + compressedLength + "\r\n"));
+        }
+    }
+
+    private void startServer(ResponseCompression compression) throws Exception {
+        if (xml == null) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            HierarchyFixtures.replay(HierarchyFixtures.generate(2000, 9), 0, HierarchyFields.ALL,
+                    new XmlHierarchyWriter(out));
+            xml = out.toByteArray();
+        }
+        server = new HttpServer(InetAddress.getByName("127.0.0.1"), 0, new WorkerPool.Config(),
+                (request, response) -> {
+                    switch (request.getPath()) {
+                        case "/dump":
+                            response.send(200, "application/xml; charset=UTF-8", xml);
+                            break;
+                        case "/image":
+                            response.send(200, "image/png", xml);
+                            break;
+                        default:
+                            response.send(200, "application/json; charset=UTF-8",
+                                    "{\"success\":true}".getBytes("UTF-8"));
+                    }
+                });
+        server.setCompression(compression);
+        server.start();
+    }
+
+    private HttpServerTest.Response get(String path, String headers) throws IOException {
+        try (Socket socket = connect(server.getLocalPort())) {
+            socket.getOutputStream().write(("GET " + path + " HTTP/1.1\r\n" + headers + "\r\n").getBytes("UTF-8"));
+            return HttpServerTest.readResponse(new BufferedInputStream(socket.getInputStream()));
+        }
+    }
+
+    private static Socket connect(int port) throws IOException {
+        Socket socket = new Socket(InetAddress.getByName("127.0.0.1"), port);
+        socket.setSoTimeout(30000);
+        return socket;
+    }
+
+    private static byte[] inflate(String encoding, byte[] data) throws IOException {
+        InputStream in = encoding.equals("gzip")
+                ? new GZIPInputStream(new ByteArrayInputStream(data))
+                : new InflaterInputStream(new ByteArrayInputStream(data));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) != -1) out.write(buffer, 0, read);
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,155 @@
+package nico.dump_hierarchy;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * 文件响应：完整发送（阻塞/NIO）、HEAD和Range语义
+ */
+public class FileResponseTest {
+    private HttpServer server;
+    private File file;
+    private byte[] content;
+
+    @Before
+    public void setUp() throws IOException {
+        content = new byte[300 * 1024];
+        new Random(1).nextBytes(content);
+        file = writeTempFile(content);
+    }
+
+    @After
+    public void tearDown() {
+        if (server != null) server.stop();
+        file.delete();
+    }
+
+    @Test
+    public void fullFile_blockingAndNio() throws IOException {
+        for (boolean nio : new boolean[]{false, true}) {
+            startServer(nio);
+            HttpServerTest.Response response = request("GET /file HTTP/1.1\r\n\r\n");
+            assertEquals(200, response.status);
+            assertEquals("bytes", response.headers.get("accept-ranges"));
+            assertArrayEquals(content, response.bytes);
+            server.stop();
+        }
+    }
+
+    @Test
+    public void head_sendsHeadersOnly() throws IOException {
+        startServer(false);
+        try (Socket socket = connect()) {
+            socket.getOutputStream().write("HEAD /file HTTP/1.1\r\n\r\nGET /file HTTP/1.1\r\nRange: bytes=0-3\r\n\r\n"
+                    .getBytes("UTF-8"));
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            // HEAD响应带真实Content-Length但没有响应体，紧跟着的是下一个响应
+            String head = readHead(in);
+            assertTrue(head.contains("Content-Length: " + content.length));
+            HttpServerTest.Response next = HttpServerTest.readResponse(in);
+            assertEquals(206, next.status);
+            assertArrayEquals(Arrays.copyOfRange(content, 0, 4), next.bytes);
+        }
+    }
+
+    @Test
+    public void range_partialContent() throws IOException {
+        for (boolean nio : new boolean[]{false, true}) {
+            startServer(nio);
+            HttpServerTest.Response response = request("GET /file HTTP/1.1\r\nRange: bytes=1000-1999\r\n\r\n");
+            assertEquals(206, response.status);
+            assertEquals("bytes 1000-1999/" + content.length, response.headers.get("content-range"));
+            assertArrayEquals(Arrays.copyOfRange(content, 1000, 2000), response.bytes);
+
+            response = request("GET /file HTTP/1.1\r\nRange: bytes=-10\r\n\r\n");
+            assertEquals(206, response.status);
+            assertArrayEquals(Arrays.copyOfRange(content, content.length - 10, content.length), response.bytes);
+
+            // 续传：从某个偏移读到结尾
+            response = request("GET /file HTTP/1.1\r\nRange: bytes=300000-\r\n\r\n");
+            assertArrayEquals(Arrays.copyOfRange(content, 300000, content.length), response.bytes);
+            server.stop();
+        }
+    }
+
+    @Test
+    public void range_unsatisfiableOrIgnored() throws IOException {
+        startServer(false);
+        HttpServerTest.Response response = request("GET /file HTTP/1.1\r\nRange: bytes=999999999-\r\n\r\n");
+        assertEquals(416, response.status);
+        assertEquals("bytes */" + content.length, response.headers.get("content-range"));
+
+        // 多区间不支持，按完整文件返回
+        response = request("GET /file HTTP/1.1\r\nRange: bytes=0-1,5-6\r\n\r\n");
+        assertEquals(200, response.status);
+        assertEquals(content.length, response.bytes.length);
+    }
+
+    @Test
+    public void parseRange() {
+        assertArrayEquals(new Object[]{0L, 99L}, box(HttpResponse.parseRange("bytes=0-", 100)));
+        assertArrayEquals(new Object[]{10L, 99L}, box(HttpResponse.parseRange("bytes=10-500", 100)));
+        assertArrayEquals(new Object[]{90L, 99L}, box(HttpResponse.parseRange("bytes=-10", 100)));
+        assertArrayEquals(new Object[]{0L, 99L}, box(HttpResponse.parseRange("bytes=-500", 100)));
+        assertEquals(0, HttpResponse.parseRange("bytes=100-", 100).length);
+        assertNull(HttpResponse.parseRange("bytes=5-1", 100));
+        assertNull(HttpResponse.parseRange("items=0-1", 100));
+        assertNull(HttpResponse.parseRange("bytes=a-b", 100));
+    }
+
+    private void startServer(boolean nio) throws IOException {
+        HttpServer.Handler handler = (request, response) -> response.sendFile("application/octet-stream", file);
+        InetAddress address = InetAddress.getByName("127.0.0.1");
+        server = nio ? new NioHttpServer(address, 0, new WorkerPool.Config(), handler)
+                : new HttpServer(address, 0, new WorkerPool.Config(), handler);
+        server.start();
+    }
+
+    private HttpServerTest.Response request(String raw) throws IOException {
+        try (Socket socket = connect()) {
+            socket.getOutputStream().write(raw.getBytes("UTF-8"));
+            return HttpServerTest.readResponse(new BufferedInputStream(socket.getInputStream()));
+        }
+    }
+
+    private Socket connect() throws IOException {
+        Socket socket = new Socket(InetAddress.getByName("127.0.0.1"), server.getLocalPort());
+        socket.setSoTimeout(10000);
+        return socket;
+    }
+
+    private static String readHead(InputStream in) throws IOException {
+        StringBuilder head = new StringBuilder();
+        while (!head.toString().endsWith("\r\n\r\n")) {
+            int b = in.read();
+            if (b == -1) break;
+            head.append((char) b);
+        }
+        return head.toString();
+    }
+
+    static File writeTempFile(byte[] data) throws IOException {
+        File temp = File.createTempFile("file-response", ".bin");
+        try (FileOutputStream fos = new FileOutputStream(temp)) {
+            fos.write(data);
+        }
+        return temp;
+    }
+
+    private static Object[] box(long[] values) {
+        return new Object[]{values[0], values[1]};
+    }
+}
@@ -0,0 +1,57 @@
+package nico.dump_hierarchy;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * /find_batch：请求解析和每个选择器的结果
+ */
+public class FindBatchTest {
+    @Test
+    public void evaluate_perSelectorResults() throws Exception {
+        // 与/find_batch的处理相同：采集的快照没有登记版本
+        HierarchySnapshot snapshot = new HierarchySnapshot(0, HierarchyFixtures.loadXml("settings.xml").getRoots());
+        List<FindBatch.Selector> selectors = FindBatch.parse("["
+                + "{\"type\":\"text\",\"value\":\"电池\"},"
+                + "{\"type\":\"id\",\"value\":\"android:id/title\",\"all\":true},"
+                + "{\"type\":\"text\",\"value\":\"不存在\"},"
+                + "{\"type\":\"xpath\",\"value\":\"//node\"}]");
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        FindBatch.evaluate(snapshot, selectors, out);
+        JsonObject json = JsonParser.parseString(out.toString("UTF-8")).getAsJsonObject();
+        assertFalse(json.has("version"));
+        assertEquals(2, json.get("found").getAsInt());
+
+        JsonArray results = json.getAsJsonArray("results");
+        assertEquals(4, results.size());
+        JsonObject battery = results.get(0).getAsJsonObject();
+        assertEquals(1, battery.get("count").getAsInt());
+        assertEquals("电池", battery.getAsJsonArray("elements").get(0).getAsJsonObject().get("text").getAsString());
+        assertEquals(16, results.get(1).getAsJsonObject().get("count").getAsInt());
+        assertEquals(0, results.get(2).getAsJsonObject().getAsJsonArray("elements").size());
+        assertEquals("Unknown selector type", results.get(3).getAsJsonObject().get("error").getAsString());
+    }
+
+    @Test
+    public void parse_rejectsMalformedBodies() {
+        for (String body : new String[]{null, "", "{}", "[]", "[1,2]", "[{\"type\":",
+                "[{\"type\":{},\"value\":\"a\"}]", "[{\"type\":\"id\",\"value\":[\"a\"]}]",
+                "[{\"type\":\"id\",\"value\":\"a\",\"all\":{}}]"}) {
+            try {
+                FindBatch.parse(body);
+                fail("accepted " + body);
+            } catch (IllegalArgumentException expected) {
+                // 400
+            }
+        }
+    }
+}
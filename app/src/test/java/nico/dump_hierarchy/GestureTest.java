@@ -0,0 +1,203 @@
+package nico.dump_hierarchy;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * 手势时间线的生成（带时间的点、按时长插值、贝塞尔、缓动）以及按截止时间注入
+ */
+public class GestureTest {
+
+    /**
+     * 记录注入的事件；每次注入耗时injectMillis（模拟injectInputEvent同步等待分发）
+     */
+    static class RecordingInjector implements GestureExecutor.Injector {
+        final List<long[]> events = new ArrayList<>();
+        final GestureExecutor.Clock clock;
+        final long injectMillis;
+
+        RecordingInjector(GestureExecutor.Clock clock, long injectMillis) {
+            this.clock = clock;
+            this.injectMillis = injectMillis;
+        }
+
+        @Override
+        public boolean inject(int action, float x, float y, long downTime, long eventTime) {
+            events.add(new long[]{action, (long) x, (long) y, downTime, eventTime, clock.uptimeMillis()});
+            if (injectMillis > 0) clock.sleepUntil(clock.uptimeMillis() + injectMillis);
+            return true;
+        }
+    }
+
+    /**
+     * 手动推进的时钟，sleepUntil直接跳到截止时间
+     */
+    private static class FakeClock implements GestureExecutor.Clock {
+        long now = 1000;
+
+        @Override
+        public long uptimeMillis() {
+            return now;
+        }
+
+        @Override
+        public void sleepUntil(long deadline) {
+            if (deadline > now) now = deadline;
+        }
+    }
+
+    @Test
+    public void parse_timedPoints() {
+        Gesture gesture = Gesture.parse("{\"points\":[{\"x\":100,\"y\":800,\"t\":0},"
+                + "{\"x\":100,\"y\":500,\"t\":120},{\"x\":100,\"y\":300,\"t\":250}]}");
+        List<Gesture.Event> events = gesture.getEvents();
+        assertEquals(4, events.size());
+        assertEquals(Gesture.ACTION_DOWN, events.get(0).getAction());
+        assertEquals(Gesture.ACTION_MOVE, events.get(1).getAction());
+        assertEquals(120, events.get(1).getTime());
+        assertEquals(Gesture.ACTION_MOVE, events.get(2).getAction());
+        assertEquals(Gesture.ACTION_UP, events.get(3).getAction());
+        assertEquals(250, events.get(3).getTime());
+        assertEquals(300, events.get(3).getY(), 0);
+        assertEquals(250, gesture.getDuration());
+    }
+
+    @Test
+    public void parse_interpolatedPolylineUniformSpeed() {
+        // 折线总长400，前100和后300按长度分配时间
+        Gesture gesture = Gesture.parse("{\"points\":[{\"x\":0,\"y\":0},{\"x\":100,\"y\":0},{\"x\":100,\"y\":300}],"
+                + "\"duration\":400,\"interval\":50,\"hold\":100,\"hold_end\":30}");
+        List<Gesture.Event> events = gesture.getEvents();
+        // 按下 + 8个移动 + 抬起
+        assertEquals(10, events.size());
+        assertEquals(0, events.get(0).getTime());
+        assertEquals(150, events.get(1).getTime());
+        assertEquals(50, events.get(1).getX(), 0.01);
+        Gesture.Event corner = events.get(2);
+        assertEquals(200, corner.getTime());
+        assertEquals(100, corner.getX(), 0.01);
+        assertEquals(0, corner.getY(), 0.01);
+        assertEquals(100, events.get(4).getY(), 0.01);
+        Gesture.Event lastMove = events.get(8);
+        assertEquals(500, lastMove.getTime());
+        assertEquals(300, lastMove.getY(), 0.01);
+        assertEquals(Gesture.ACTION_UP, events.get(9).getAction());
+        assertEquals(530, gesture.getDuration());
+    }
+
+    @Test
+    public void parse_lastMoveLandsOnDurationWhenIntervalDoesNotDivide() {
+        Gesture gesture = Gesture.parse("{\"points\":[{\"x\":0,\"y\":0},{\"x\":0,\"y\":100}],"
+                + "\"duration\":25,\"interval\":10}");
+        List<Gesture.Event> events = gesture.getEvents();
+        assertEquals(5, events.size());
+        assertEquals(20, events.get(2).getTime());
+        assertEquals(25, events.get(3).getTime());
+        assertEquals(100, events.get(3).getY(), 0);
+    }
+
+    @Test
+    public void parse_bezierPassesThroughEndpoints() {
+        Gesture gesture = Gesture.parse("{\"points\":[{\"x\":0,\"y\":0},{\"x\":100,\"y\":0},{\"x\":100,\"y\":100}],"
+                + "\"curve\":\"bezier\",\"duration\":100,\"interval\":50}");
+        List<Gesture.Event> events = gesture.getEvents();
+        assertEquals(0, events.get(0).getX(), 0);
+        // 二次贝塞尔在u=0.5处为 0.25*P0 + 0.5*P1 + 0.25*P2
+        assertEquals(75, events.get(1).getX(), 0.01);
+        assertEquals(25, events.get(1).getY(), 0.01);
+        assertEquals(100, gesture.getEnd().getX(), 0.01);
+        assertEquals(100, gesture.getEnd().getY(), 0.01);
+    }
+
+    @Test
+    public void parse_flingAcceleratesTowardsRelease() {
+        Gesture gesture = Gesture.parse("{\"points\":[{\"x\":0,\"y\":1000},{\"x\":0,\"y\":0}],"
+                + "\"curve\":\"fling\",\"duration\":100,\"interval\":10}");
+        List<Gesture.Event> events = gesture.getEvents();
+        float firstStep = events.get(0).getY() - events.get(1).getY();
+        float lastStep = events.get(events.size() - 3).getY() - events.get(events.size() - 2).getY();
+        assertTrue("fling should be fastest at release", lastStep > firstStep * 5);
+
+        Gesture eased = Gesture.parse("{\"points\":[{\"x\":0,\"y\":1000},{\"x\":0,\"y\":0}],"
+                + "\"easing\":\"ease_out\",\"duration\":100,\"interval\":10}");
+        List<Gesture.Event> easedEvents = eased.getEvents();
+        assertTrue(easedEvents.get(0).getY() - easedEvents.get(1).getY()
+                > easedEvents.get(9).getY() - easedEvents.get(10).getY());
+    }
+
+    @Test
+    public void parse_rejectsMalformedSpecs() {
+        String[] specs = {
+                null, "[]", "{}", "{\"points\":[]}", "{\"points\":[{\"x\":1}]}",
+                "{\"points\":[{\"x\":1,\"y\":1,\"t\":0},{\"x\":1,\"y\":2}]}",
+                "{\"points\":[{\"x\":1,\"y\":1,\"t\":50},{\"x\":1,\"y\":2,\"t\":10}]}",
+                "{\"points\":[{\"x\":1,\"y\":1}],\"curve\":\"spiral\"}",
+                "{\"points\":[{\"x\":1,\"y\":1}],\"easing\":\"bounce\"}",
+                "{\"points\":[{\"x\":1,\"y\":1}],\"duration\":-1}",
+                "{\"points\":[{\"x\":1,\"y\":1}],\"duration\":100000000,\"interval\":1}",
+                // 字段类型不对时同样是格式错误（400），不能抛出其他异常
+                "{\"points\":[{\"x\":{},\"y\":1}]}",
+                "{\"points\":[{\"x\":1,\"y\":[2]}]}",
+                "{\"points\":[{\"x\":1,\"y\":1,\"t\":[1]}]}",
+                "{\"points\":[{\"x\":1,\"y\":1,\"t\":\"soon\"}]}",
+                "{\"points\":[{\"x\":1,\"y\":1}],\"duration\":{}}",
+                "{\"points\":[{\"x\":1,\"y\":1}],\"curve\":[\"linear\"]}"};
+        for (String spec : specs) {
+            try {
+                Gesture.parse(spec);
+                fail("expected rejection: " + spec);
+            } catch (IllegalArgumentException expected) {
+                // ok
+            }
+        }
+    }
+
+    @Test
+    public void execute_eventTimesFollowDeadlinesDespiteInjectionCost() throws Exception {
+        FakeClock clock = new FakeClock();
+        // 每次注入耗时15ms，比10ms的间隔还长
+        RecordingInjector injector = new RecordingInjector(clock, 15);
+        Gesture gesture = Gesture.parse("{\"points\":[{\"x\":0,\"y\":0},{\"x\":0,\"y\":100}],"
+                + "\"duration\":100,\"interval\":10}");
+
+        GestureExecutor.Result result = new GestureExecutor(injector, clock).execute(gesture);
+        assertTrue(result.isSuccess());
+        assertEquals(12, result.getEvents());
+        for (int i = 0; i < injector.events.size(); i++) {
+            long[] event = injector.events.get(i);
+            assertEquals(1000, event[3]);
+            // eventTime始终是计划时刻，与实际注入时刻无关
+            assertEquals(1000 + gesture.getEvents().get(i).getTime(), event[4]);
+        }
+        assertEquals(100, result.getRequestedMillis());
+        // 注入跟不上时延迟有界（逐个补上），不会超过总的注入耗时
+        assertEquals(12 * 15, result.getActualMillis());
+        assertEquals(11 * 15 - 100, result.getMaxLagMillis());
+
+        JsonObject json = JsonParser.parseString(result.toJson()).getAsJsonObject();
+        assertTrue(json.get("success").getAsBoolean());
+        assertEquals(100, json.get("requested_ms").getAsLong());
+        assertEquals(180, json.get("actual_ms").getAsLong());
+    }
+
+    @Test
+    public void execute_stopsWhenDownFails() {
+        FakeClock clock = new FakeClock();
+        List<Integer> actions = new ArrayList<>();
+        GestureExecutor executor = new GestureExecutor((action, x, y, downTime, eventTime) -> {
+            actions.add(action);
+            return false;
+        }, clock);
+        GestureExecutor.Result result = executor.execute(Gesture.parse("{\"points\":[{\"x\":0,\"y\":0},{\"x\":5,\"y\":5}]}"));
+        assertFalse(result.isSuccess());
+        assertEquals(1, actions.size());
+        assertEquals(1000, clock.now);
+    }
+}
@@ -0,0 +1,169 @@
+package nico.dump_hierarchy;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * 快照版本和增量dump：稳定路径、新增/删除/变化节点，以及增量与完整XML的字节数
+ */
+public class HierarchyDiffTest {
+
+    @Test
+    public void unchangedTree_keepsVersionAndEmptyDiff() throws Exception {
+        HierarchySnapshotStore store = new HierarchySnapshotStore(4);
+        HierarchySnapshot first = store.publish(0, load());
+        HierarchySnapshot second = store.publish(0, load());
+        assertSame(first, second);
+        assertTrue(HierarchyDiff.compute(store.get(first.getVersion()), second).isEmpty());
+    }
+
+    /**
+     * 采集的快照在登记前没有版本、不进入存储；同一份快照重复登记返回同一版本
+     */
+    @Test
+    public void snapshotVersionedOnlyWhenPublished() throws Exception {
+        HierarchySnapshotStore store = new HierarchySnapshotStore(4);
+        HierarchySnapshot loaded = new HierarchySnapshot(0, load());
+        assertEquals(0, loaded.getVersion());
+        assertNull(store.getLatest());
+
+        HierarchySnapshot published = store.publish(loaded);
+        assertSame(loaded, published);
+        assertEquals(1, published.getVersion());
+        assertSame(published, store.publish(loaded));
+
+        // 内容未变化的新采集结果对应已有版本，自身仍没有版本号
+        HierarchySnapshot reloaded = new HierarchySnapshot(0, load());
+        assertSame(published, store.publish(reloaded));
+        assertSame(published, store.publish(reloaded));
+        assertEquals(0, reloaded.getVersion());
+        assertSame(published, store.getLatest());
+    }
+
+    @Test
+    public void textChange_reportsOnlyChangedAttribute() throws Exception {
+        HierarchySnapshotStore store = new HierarchySnapshotStore(4);
+        HierarchySnapshot base = store.publish(0, load());
+        List<UiNode> roots = load();
+        UiNode battery = findByText(roots, "剩余 86%");
+        battery.text = "剩余 85%";
+        HierarchySnapshot current = store.publish(0, roots);
+        assertEquals(base.getVersion() + 1, current.getVersion());
+
+        JsonObject json = toJson(HierarchyDiff.compute(base, current));
+        assertEquals(0, json.getAsJsonArray("added").size());
+        assertEquals(0, json.getAsJsonArray("removed").size());
+        JsonArray changed = json.getAsJsonArray("changed");
+        assertEquals(1, changed.size());
+        JsonObject node = changed.get(0).getAsJsonObject();
+        assertEquals("剩余 85%", node.get("text").getAsString());
+        assertEquals(2, node.size());  // path + text
+        assertTrue(node.get("path").getAsString().endsWith("/android.widget.TextView#android:id/summary[0]"));
+    }
+
+    @Test
+    public void insertedSibling_doesNotShiftOtherPaths() throws Exception {
+        HierarchySnapshot base = new HierarchySnapshot(1, 0, load());
+        List<UiNode> roots = load();
+        UiNode appBar = findByText(roots, "设置").parent;
+        UiNode banner = new UiNode();
+        banner.className = "android.widget.ProgressBar";
+        banner.resourceId = "com.android.settings:id/progress";
+        appBar.children.add(0, banner);
+        banner.parent = appBar;
+        // 插入后其余兄弟节点的index都变了
+        for (int i = 0; i < appBar.children.size(); i++) appBar.children.get(i).index = i;
+
+        HierarchyDiff diff = HierarchyDiff.compute(base, new HierarchySnapshot(2, 0, roots));
+        assertEquals(1, diff.getAdded().size());
+        assertTrue(diff.getAdded().get(0).endsWith("/android.widget.ProgressBar#com.android.settings:id/progress[0]"));
+        assertTrue(diff.getRemoved().isEmpty());
+        assertEquals(2, diff.getChanged().size());  // 只有index变化
+    }
+
+    @Test
+    public void removedSubtree_listsEveryPath() throws Exception {
+        HierarchySnapshot base = new HierarchySnapshot(1, 0, load());
+        List<UiNode> roots = load();
+        UiNode row = findByText(roots, "系统").parent.parent;
+        row.parent.children.remove(row);
+
+        HierarchyDiff diff = HierarchyDiff.compute(base, new HierarchySnapshot(2, 0, roots));
+        assertEquals(6, diff.getRemoved().size());  // 行 + 图标容器 + 图标 + 文本容器 + 标题 + 摘要
+        assertTrue(diff.getAdded().isEmpty());
+    }
+
+    @Test
+    public void unknownVersion_returnsFullSnapshot() throws Exception {
+        HierarchySnapshotStore store = new HierarchySnapshotStore(2);
+        HierarchySnapshot first = store.publish(0, load());
+        for (int i = 0; i < 3; i++) {
+            List<UiNode> roots = load();
+            findByText(roots, "剩余 86%").text = "剩余 " + i + "%";
+            store.publish(0, roots);
+        }
+        assertNull(store.get(first.getVersion()));  // 已被淘汰
+
+        HierarchySnapshot latest = store.getLatest();
+        JsonObject json = toJson(HierarchyDiff.compute(store.get(first.getVersion()), latest));
+        assertTrue(json.get("full").getAsBoolean());
+        assertEquals(latest.getNodesByPath().size(), json.getAsJsonArray("added").size());
+    }
+
+    /**
+     * 爬虫场景：每次操作后重新dump，只有一个计数文本变化时增量远小于完整XML
+     */
+    @Test
+    public void oneTextChanged_diffMuchSmallerThanXml() throws Exception {
+        List<UiNode> roots = HierarchyFixtures.generate(2000, 5);
+        HierarchySnapshotStore store = new HierarchySnapshotStore(8);
+        HierarchySnapshot base = store.publish(0, roots);
+
+        List<UiNode> next = HierarchyFixtures.generate(2000, 5);
+        findFirstWithText(next).text = "购物车 (3)";
+        HierarchySnapshot current = store.publish(0, next);
+        ByteArrayOutputStream diff = new ByteArrayOutputStream();
+        HierarchyDiff.compute(base, current).writeJson(diff);
+
+        ByteArrayOutputStream xml = new ByteArrayOutputStream();
+        HierarchyFixtures.replay(next, 0, HierarchyFields.ALL, new XmlHierarchyWriter(xml));
+        assertTrue(diff.size() * 10 < xml.size());
+    }
+
+    private static List<UiNode> load() throws Exception {
+        return HierarchyFixtures.loadXml("settings.xml").getRoots();
+    }
+
+    private static JsonObject toJson(HierarchyDiff diff) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        diff.writeJson(out);
+        return JsonParser.parseString(out.toString("UTF-8")).getAsJsonObject();
+    }
+
+    private static UiNode findByText(List<UiNode> nodes, String text) {
+        for (UiNode node : nodes) {
+            if (text.equals(node.text)) return node;
+            UiNode found = findByText(node.children, text);
+            if (found != null) return found;
+        }
+        return null;
+    }
+
+    static UiNode findFirstWithText(List<UiNode> nodes) {
+        for (UiNode node : nodes) {
+            if (node.text != null && !node.text.isEmpty()) return node;
+            UiNode found = findFirstWithText(node.children);
+            if (found != null) return found;
+        }
+        return null;
+    }
+}
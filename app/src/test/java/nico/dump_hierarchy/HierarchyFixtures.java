@@ -0,0 +1,163 @@
+package nico.dump_hierarchy;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.helpers.DefaultHandler;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import javax.xml.parsers.SAXParserFactory;
+
+/**
+ * 测试用的层级数据：src/test/resources/fixtures下录制的dump，以及按规模生成的合成树
+ */
+final class HierarchyFixtures {
+    private static final String[] CLASSES = {
+            "android.widget.FrameLayout", "android.widget.LinearLayout", "android.widget.TextView",
+            "android.widget.ImageView", "android.widget.Button", "androidx.recyclerview.widget.RecyclerView"
+    };
+
+    private HierarchyFixtures() {
+    }
+
+    /**
+     * 读取录制的XML（UiAutomator格式），同时也是XML解码耗时的基准
+     */
+    static UiTreeBuilder loadXml(String resource) throws Exception {
+        try (InputStream in = HierarchyFixtures.class.getResourceAsStream("/fixtures/" + resource)) {
+            if (in == null) throw new IOException("Missing fixture: " + resource);
+            return parseXml(in);
+        }
+    }
+
+    static UiTreeBuilder parseXml(InputStream in) throws Exception {
+        UiTreeBuilder builder = new UiTreeBuilder();
+        SAXParserFactory.newInstance().newSAXParser().parse(in, new DefaultHandler() {
+            private int depth = 0;
+            private final int[] childCounts = new int[256];
+
+            @Override
+            public void startElement(String uri, String localName, String qName, Attributes attributes) {
+                if (qName.equals("hierarchy")) {
+                    builder.startHierarchy(Integer.parseInt(attributes.getValue("rotation")));
+                    return;
+                }
+                UiNode node = new UiNode();
+                node.depth = depth;
+                node.index = parseInt(attributes.getValue("index"), childCounts[depth]);
+                node.text = attributes.getValue("text");
+                node.resourceId = attributes.getValue("resource-id");
+                node.className = attributes.getValue("class");
+                node.packageName = attributes.getValue("package");
+                node.contentDesc = attributes.getValue("content-desc");
+                for (int bit = 0; bit < HierarchyFields.NAMES.length; bit++) {
+                    int flag = HierarchyFields.NODE_FLAGS[bit];
+                    if (flag != 0) node.setFlag(flag, "true".equals(attributes.getValue(HierarchyFields.NAMES[bit])));
+                }
+                String bounds = attributes.getValue("bounds");
+                if (bounds != null) {
+                    String[] parts = bounds.replace("][", ",").replace("[", "").replace("]", "").split(",");
+                    node.left = Integer.parseInt(parts[0]);
+                    node.top = Integer.parseInt(parts[1]);
+                    node.right = Integer.parseInt(parts[2]);
+                    node.bottom = Integer.parseInt(parts[3]);
+                }
+                childCounts[depth]++;
+                depth++;
+                childCounts[depth] = 0;
+                builder.startNode(node, HierarchyFields.ALL);
+            }
+
+            @Override
+            public void endElement(String uri, String localName, String qName) {
+                if (qName.equals("node")) {
+                    depth--;
+                    builder.endNode(null);
+                }
+            }
+        });
+        return builder;
+    }
+
+    /**
+     * 生成约nodeCount个节点的列表型界面：容器嵌套，叶子为带文本的TextView/ImageView
+     */
+    static List<UiNode> generate(int nodeCount, long seed) {
+        Random random = new Random(seed);
+        UiNode root = newNode(random, 0, 0, CLASSES[0], 0, 0, 1080, 2400);
+        List<UiNode> containers = new ArrayList<>();
+        containers.add(root);
+        int count = 1;
+        while (count < nodeCount) {
+            UiNode parent = containers.get(random.nextInt(containers.size()));
+            int index = parent.children.size();
+            int top = parent.top + index * 40;
+            String className = CLASSES[random.nextInt(CLASSES.length)];
+            UiNode child = newNode(random, index, parent.depth + 1, className,
+                    parent.left, top, parent.right, top + 40 + random.nextInt(200));
+            parent.addChild(child);
+            if (className.endsWith("Layout") || className.endsWith("RecyclerView")) containers.add(child);
+            count++;
+        }
+        List<UiNode> roots = new ArrayList<>();
+        roots.add(root);
+        return roots;
+    }
+
+    private static UiNode newNode(Random random, int index, int depth, String className,
+                                  int left, int top, int right, int bottom) {
+        UiNode node = new UiNode();
+        node.index = index;
+        node.depth = depth;
+        node.className = className;
+        node.packageName = "com.example.shop";
+        node.resourceId = random.nextInt(3) == 0 ? "" : "com.example.shop:id/item_" + random.nextInt(40);
+        node.text = className.endsWith("TextView") || className.endsWith("Button")
+                ? "商品 " + random.nextInt(10000) + " ¥" + random.nextInt(500) : "";
+        node.contentDesc = className.endsWith("ImageView") ? "图片 " + random.nextInt(1000) : "";
+        node.setFlag(UiNode.ENABLED, true);
+        node.setFlag(UiNode.VISIBLE, true);
+        node.setFlag(UiNode.CLICKABLE, random.nextInt(4) == 0);
+        node.setFlag(UiNode.FOCUSABLE, random.nextInt(4) == 0);
+        node.setFlag(UiNode.SCROLLABLE, className.endsWith("RecyclerView"));
+        node.left = left;
+        node.top = top;
+        node.right = right;
+        node.bottom = bottom;
+        return node;
+    }
+
+    /**
+     * 把已有的树按先序重放给NodeSink（相当于HierarchyWalker在设备上的输出）
+     */
+    static void replay(List<UiNode> roots, int rotation, int fields, NodeSink sink) throws IOException {
+        sink.startHierarchy(rotation);
+        for (UiNode root : roots) {
+            replayNode(root, fields, sink);
+        }
+        sink.endHierarchy();
+    }
+
+    private static void replayNode(UiNode node, int fields, NodeSink sink) throws IOException {
+        sink.startNode(node, fields);
+        for (UiNode child : node.children) {
+            replayNode(child, fields, sink);
+        }
+        sink.endNode(node);
+    }
+
+    static int countNodes(List<UiNode> roots) {
+        int count = 0;
+        for (UiNode root : roots) {
+            count += 1 + countNodes(root.children);
+        }
+        return count;
+    }
+
+    private static int parseInt(String value, int defaultValue) {
+        return value != null ? Integer.parseInt(value) : defaultValue;
+    }
+}
@@ -0,0 +1,150 @@
+package nico.dump_hierarchy;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * 快照缓存：命中/未命中/失效计数、加载期间失效、fresh绕过，以及在快照上执行选择器
+ */
+public class HierarchySnapshotCacheTest {
+
+    @Test
+    public void staticScreen_servedFromCacheUntilInvalidated() throws Exception {
+        HierarchySnapshotCache cache = new HierarchySnapshotCache(60000);
+        AtomicInteger loads = new AtomicInteger();
+        HierarchySnapshotCache.Loader<String> loader = () -> "tree " + loads.incrementAndGet();
+
+        assertEquals("tree 1", cache.get("snapshot", false, loader));
+        assertEquals("tree 1", cache.get("snapshot", false, loader));
+        assertEquals("tree 1", cache.get("snapshot", false, loader));
+        assertEquals(1, cache.getMissCount());
+        assertEquals(2, cache.getHitCount());
+
+        cache.invalidate();
+        cache.invalidate();  // 没有缓存内容时不计数
+        assertEquals("tree 2", cache.get("snapshot", false, loader));
+        assertEquals(1, cache.getInvalidationCount());
+        assertEquals(2, cache.getMissCount());
+    }
+
+    @Test
+    public void fresh_bypassesButRefreshesCache() throws Exception {
+        HierarchySnapshotCache cache = new HierarchySnapshotCache(60000);
+        AtomicInteger loads = new AtomicInteger();
+        HierarchySnapshotCache.Loader<Integer> loader = loads::incrementAndGet;
+
+        assertEquals(1, (int) cache.get("dump", false, loader));
+        assertEquals(2, (int) cache.get("dump", true, loader));
+        assertEquals(2, (int) cache.get("dump", false, loader));
+        assertEquals(1, cache.getBypassCount());
+        assertEquals(1, cache.getHitCount());
+    }
+
+    @Test
+    public void invalidationDuringLoad_discardsResult() throws Exception {
+        HierarchySnapshotCache cache = new HierarchySnapshotCache(60000);
+        AtomicInteger loads = new AtomicInteger();
+        assertEquals(1, (int) cache.get("snapshot", false, () -> {
+            cache.invalidate();  // 采集过程中界面又变了
+            return loads.incrementAndGet();
+        }));
+        assertEquals(2, (int) cache.get("snapshot", false, loads::incrementAndGet));
+    }
+
+    @Test
+    public void maxAge_expiresAndZeroDisables() throws Exception {
+        AtomicInteger loads = new AtomicInteger();
+        HierarchySnapshotCache cache = new HierarchySnapshotCache(20);
+        cache.get("snapshot", false, loads::incrementAndGet);
+        Thread.sleep(50);
+        assertEquals(2, (int) cache.get("snapshot", false, loads::incrementAndGet));
+
+        HierarchySnapshotCache disabled = new HierarchySnapshotCache(0);
+        disabled.get("snapshot", false, loads::incrementAndGet);
+        assertEquals(4, (int) disabled.get("snapshot", false, loads::incrementAndGet));
+        assertEquals(0, disabled.getHitCount());
+    }
+
+    @Test
+    public void concurrentMisses_loadOnce() throws Exception {
+        HierarchySnapshotCache cache = new HierarchySnapshotCache(60000);
+        AtomicInteger loads = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            Future<?>[] futures = new Future<?>[8];
+            for (int i = 0; i < futures.length; i++) {
+                futures[i] = executor.submit(() -> {
+                    start.await();
+                    return cache.get("snapshot", false, () -> {
+                        Thread.sleep(50);
+                        return loads.incrementAndGet();
+                    });
+                });
+            }
+            start.countDown();
+            for (Future<?> future : futures) assertEquals(1, future.get(5, TimeUnit.SECONDS));
+            assertEquals(1, loads.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void snapshotQuery_matchesBySelectorSemantics() throws Exception {
+        HierarchySnapshot snapshot = new HierarchySnapshot(1, 0, HierarchyFixtures.loadXml("settings.xml").getRoots());
+
+        assertEquals(1, SnapshotQuery.parse("text", "电池").findAll(snapshot, 0).size());
+        assertEquals(0, SnapshotQuery.parse("text", "电").findAll(snapshot, 0).size());
+        assertEquals(16, SnapshotQuery.parse("id", "android:id/title").findAll(snapshot, 0).size());
+        assertEquals(4, SnapshotQuery.parse("pkg", "com.android.systemui").findAll(snapshot, 0).size());
+        assertEquals(1, SnapshotQuery.parse("class", ".ImageButton").findAll(snapshot, 0).size());
+        assertEquals(1, SnapshotQuery.parse("scrollable", "true").findAll(snapshot, 0).size());
+        assertEquals(2, SnapshotQuery.parse("textStartsWith", "安全").findAll(snapshot, 0).size());
+        assertEquals(1, SnapshotQuery.parse("content_descContains", "百分之").findAll(snapshot, 0).size());
+        assertEquals("网络和互联网", SnapshotQuery.parse("id", "android:id/title").findFirst(snapshot).text);
+        try {
+            SnapshotQuery.parse("xpath", "//node");
+            fail();
+        } catch (IllegalArgumentException expected) {
+            assertEquals("Unknown selector type", expected.getMessage());
+        }
+    }
+
+    @Test
+    public void writeAttributes_elementFields() throws Exception {
+        List<UiNode> roots = HierarchyFixtures.loadXml("settings.xml").getRoots();
+        HierarchySnapshot snapshot = new HierarchySnapshot(1, 0, roots);
+        // 最后一行部分滚出RecyclerView，可见区域被裁剪
+        UiNode title = SnapshotQuery.parse("text", "壁纸和样式").findFirst(snapshot);
+        title.text = "壁纸和样式 \"设置\"";
+        title.bottom = 2600;
+
+        String out = JsonStreamWriter.toJson(writer -> {
+            writer.beginObject();
+            SnapshotQuery.writeAttributes(writer, title);
+            writer.endObject();
+        });
+        JsonObject json = JsonParser.parseString(out).getAsJsonObject();
+
+        assertEquals("壁纸和样式 \"设置\"", json.get("text").getAsString());
+        assertEquals("android:id/title", json.get("id").getAsString());
+        assertEquals("android.widget.TextView", json.get("class_name").getAsString());
+        assertEquals("false", json.get("clickable").getAsString());
+        assertEquals("true", json.get("enabled").getAsString());
+        assertEquals("[168,2225][600,2400]", json.get("bounds").getAsString());
+        assertEquals(15, json.size());
+    }
+}
@@ -0,0 +1,310 @@
+package nico.dump_hierarchy;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * 增量请求解析：任意切分喂入、UTF-8请求体、chunked、100-continue、大小限制、随机输入，
+ * 以及与原来逐行读取解析的耗时和分配对比
+ */
+public class HttpRequestParserTest {
+
+    private static byte[] bytes(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static HttpRequest parseOne(String text) throws IOException {
+        HttpRequestParser parser = new HttpRequestParser();
+        byte[] data = bytes(text);
+        assertEquals(data.length, parser.feed(data, 0, data.length));
+        assertTrue(parser.isComplete());
+        return parser.takeRequest();
+    }
+
+    private static HttpRequestParser.ParseException parseError(HttpRequestParser parser, String text) {
+        byte[] data = bytes(text);
+        try {
+            parser.feed(data, 0, data.length);
+            fail("expected parse error for " + text);
+            return null;
+        } catch (HttpRequestParser.ParseException e) {
+            return e;
+        }
+    }
+
+    @Test
+    public void requestLineHeadersAndQuery() throws Exception {
+        HttpRequest request = parseOne("GET /find_element?type=text&value=%E7%99%BB%E5%BD%95 HTTP/1.1\r\n"
+                + "Host: localhost\r\nconnection:  Keep-Alive \r\nX-Empty:\r\nno colon line\r\n\r\n");
+        assertEquals("GET", request.getMethod());
+        assertEquals("/find_element", request.getPath());
+        assertEquals("type=text&value=%E7%99%BB%E5%BD%95", request.getQuery());
+        assertEquals("HTTP/1.1", request.getProtocol());
+        assertEquals("登录", request.getParams().get("value"));
+        assertEquals("Keep-Alive", request.getHeader("Connection"));
+        assertEquals("Keep-Alive", request.getHeader("CONNECTION"));
+        assertEquals("localhost", request.getHeader("host"));
+        assertEquals("", request.getHeader("x-empty"));
+        assertEquals(3, request.getHeaders().size());
+        assertEquals("", request.getBody());
+
+        // 只有方法和路径（HTTP/0.9风格）也接受，请求之前的空行跳过
+        HttpRequest bare = parseOne("\r\n\r\nGET /status\n\n");
+        assertEquals("/status", bare.getPath());
+        assertEquals("", bare.getProtocol());
+    }
+
+    @Test
+    public void contentLengthCountsUtf8Bytes() throws Exception {
+        String json = "[{\"type\":\"find_and_input\",\"params\":{\"text\":\"登录😀\"}}]";
+        byte[] body = bytes(json);
+        HttpRequest request = parseOne("POST /execute_json_script HTTP/1.1\r\nContent-Length: " + body.length
+                + "\r\n\r\n" + json);
+        assertEquals(json, request.getBody());
+    }
+
+    @Test
+    public void chunkedBodyWithExtensionsAndTrailers() throws Exception {
+        String text = "{\"text\":\"分块传输\"}";
+        byte[] body = bytes(text);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(bytes("POST /input HTTP/1.1\r\nTransfer-Encoding: Chunked\r\nContent-Length: 3\r\n\r\n"));
+        out.write(bytes(Integer.toHexString(5) + ";name=value\r\n"));
+        out.write(body, 0, 5);
+        out.write(bytes("\r\n" + Integer.toHexString(body.length - 5).toUpperCase() + "\r\n"));
+        out.write(body, 5, body.length - 5);
+        out.write(bytes("\r\n0\r\nX-Checksum: 1\r\n\r\nGET /next HTTP/1.1\r\n\r\n"));
+        byte[] data = out.toByteArray();
+
+        HttpRequestParser parser = new HttpRequestParser();
+        int consumed = parser.feed(data, 0, data.length);
+        assertTrue(parser.isComplete());
+        assertEquals(text, parser.takeRequest().getBody());
+        // 下一个流水线请求的字节没有被消耗
+        assertEquals("GET /next HTTP/1.1\r\n\r\n",
+                new String(data, consumed, data.length - consumed, StandardCharsets.UTF_8));
+        parser.feed(data, consumed, data.length - consumed);
+        assertEquals("/next", parser.takeRequest().getPath());
+    }
+
+    @Test
+    public void expectContinueOnlyWhenBodyPending() throws Exception {
+        HttpRequestParser parser = new HttpRequestParser();
+        byte[] head = bytes("POST /execute_json_script HTTP/1.1\r\nExpect: 100-continue\r\nContent-Length: 2\r\n\r\n");
+        parser.feed(head, 0, head.length);
+        assertFalse(parser.isComplete());
+        assertTrue(parser.takeContinue());
+        assertFalse(parser.takeContinue());
+        parser.feed(bytes("[]"), 0, 2);
+        assertEquals("[]", parser.takeRequest().getBody());
+
+        parser = new HttpRequestParser();
+        head = bytes("GET /status HTTP/1.1\r\nExpect: 100-continue\r\n\r\n");
+        parser.feed(head, 0, head.length);
+        assertFalse(parser.takeContinue());
+    }
+
+    @Test
+    public void limitsAndMalformedInput() throws Exception {
+        HttpRequestParser small = new HttpRequestParser(128, 1000);
+        StringBuilder longHeader = new StringBuilder("GET / HTTP/1.1\r\nX-Long: ");
+        for (int i = 0; i < 200; i++) longHeader.append('a');
+        assertEquals(431, parseError(small, longHeader.toString()).getStatusCode());
+        assertEquals(413, parseError(new HttpRequestParser(128, 1000),
+                "POST / HTTP/1.1\r\nContent-Length: 1001\r\n\r\n").getStatusCode());
+        assertEquals(413, parseError(new HttpRequestParser(128, 1000),
+                "POST / HTTP/1.1\r\nTransfer-Encoding: chunked\r\n\r\n400\r\n").getStatusCode());
+        assertEquals(413, parseError(new HttpRequestParser(),
+                "POST / HTTP/1.1\r\nTransfer-Encoding: chunked\r\n\r\nffffffffff\r\n").getStatusCode());
+        assertEquals(501, parseError(new HttpRequestParser(),
+                "POST / HTTP/1.1\r\nTransfer-Encoding: gzip\r\n\r\n").getStatusCode());
+        assertEquals(400, parseError(new HttpRequestParser(),
+                "POST / HTTP/1.1\r\nContent-Length: -1\r\n\r\n").getStatusCode());
+        assertEquals(400, parseError(new HttpRequestParser(),
+                "POST / HTTP/1.1\r\nContent-Length: 12abc\r\n\r\n").getStatusCode());
+        assertEquals(400, parseError(new HttpRequestParser(),
+                "POST / HTTP/1.1\r\nContent-Length: 2\r\ncontent-length: 3\r\n\r\n").getStatusCode());
+        assertEquals(400, parseError(new HttpRequestParser(), "GARBAGE\r\n").getStatusCode());
+        assertEquals(400, parseError(new HttpRequestParser(), " / HTTP/1.1\r\n").getStatusCode());
+        assertEquals(400, parseError(new HttpRequestParser(),
+                "POST / HTTP/1.1\r\nTransfer-Encoding: chunked\r\n\r\nzz\r\n").getStatusCode());
+        assertEquals(400, parseError(new HttpRequestParser(),
+                "POST / HTTP/1.1\r\nTransfer-Encoding: chunked\r\n\r\n2\r\nabX\r\n").getStatusCode());
+        // 一致的重复Content-Length可以接受
+        assertEquals("ab", parseOne("POST / HTTP/1.1\r\nContent-Length: 2\r\nContent-Length: 2\r\n\r\nab").getBody());
+    }
+
+    @Test
+    public void read_eofBetweenRequestsAndTruncatedRequest() throws Exception {
+        byte[] data = bytes("GET /a HTTP/1.1\r\n\r\nPOST /b HTTP/1.1\r\nContent-Length: 3\r\n\r\nxyz\r\n");
+        HttpRequestParser parser = new HttpRequestParser();
+        InputStream in = new ByteArrayInputStream(data);
+        assertEquals("/a", parser.read(in, null).getPath());
+        assertEquals("xyz", parser.read(in, null).getBody());
+        // 末尾多余的空行不算请求
+        assertNull(parser.read(in, null));
+
+        parser = new HttpRequestParser();
+        try {
+            parser.read(new ByteArrayInputStream(bytes("POST /b HTTP/1.1\r\nContent-Length: 3\r\n\r\nx")), null);
+            fail();
+        } catch (EOFException expected) {
+        }
+
+        // 头部单独到达时把100 Continue写到输出流
+        String head = "POST /s HTTP/1.1\r\nExpect: 100-continue\r\nContent-Length: 2\r\n\r\n";
+        parser = new HttpRequestParser();
+        ByteArrayOutputStream continueOut = new ByteArrayOutputStream();
+        HttpRequest request = parser.read(new TrickleInputStream(bytes(head + "ok"), head.length()), continueOut);
+        assertEquals("ok", request.getBody());
+        assertEquals("HTTP/1.1 100 Continue\r\n\r\n", continueOut.toString("UTF-8"));
+    }
+
+    /**
+     * 同一批流水线请求按任意位置切分喂入（含逐字节），解析结果都相同
+     */
+    @Test
+    public void fuzz_arbitrarySplitsGiveSameRequests() throws Exception {
+        Random random = new Random(23);
+        for (int round = 0; round < 300; round++) {
+            List<String> bodies = new ArrayList<>();
+            ByteArrayOutputStream stream = new ByteArrayOutputStream();
+            int count = 1 + random.nextInt(5);
+            for (int i = 0; i < count; i++) {
+                String body = randomBody(random);
+                bodies.add(body);
+                writeRequest(stream, i, body, random.nextBoolean(), random);
+            }
+            byte[] data = stream.toByteArray();
+
+            HttpRequestParser parser = new HttpRequestParser();
+            List<HttpRequest> requests = new ArrayList<>();
+            int pos = 0;
+            boolean byteByByte = round % 10 == 0;
+            while (pos < data.length) {
+                int end = Math.min(data.length, pos + (byteByByte ? 1 : 1 + random.nextInt(64)));
+                // 与NIO读缓冲区相同的用法：未消耗的字节留到下一次
+                while (pos < end) {
+                    pos += parser.feed(data, pos, end - pos);
+                    if (!parser.isComplete()) break;
+                    requests.add(parser.takeRequest());
+                }
+            }
+            assertFalse(parser.isStarted());
+            assertEquals(count, requests.size());
+            for (int i = 0; i < count; i++) {
+                HttpRequest request = requests.get(i);
+                assertEquals("/r" + i, request.getPath());
+                assertEquals(String.valueOf(i), request.getParams().get("i"));
+                assertEquals("v" + i, request.getHeader("x-index"));
+                assertEquals(bodies.get(i), request.getBody());
+            }
+        }
+    }
+
+    /**
+     * 随机字节和随机破坏的合法请求：只会抛出ParseException，不会出现其他异常或死循环
+     */
+    @Test
+    public void fuzz_randomInputOnlyRaisesParseException() throws Exception {
+        Random random = new Random(2301);
+        byte[] alphabet = bytes("GETPOST /?&=:;\r\n \t0123456789abcdefABCDEF-chunkedContent-LengthTransfer-Encoding登");
+        for (int round = 0; round < 2000; round++) {
+            byte[] data;
+            if (round % 2 == 0) {
+                data = new byte[random.nextInt(400)];
+                for (int i = 0; i < data.length; i++) data[i] = alphabet[random.nextInt(alphabet.length)];
+            } else {
+                ByteArrayOutputStream stream = new ByteArrayOutputStream();
+                writeRequest(stream, round, randomBody(random), random.nextBoolean(), random);
+                data = stream.toByteArray();
+                for (int i = 0; i < 3; i++) data[random.nextInt(data.length)] = (byte) random.nextInt(256);
+            }
+            HttpRequestParser parser = new HttpRequestParser(1024, 4096);
+            int pos = 0;
+            try {
+                while (pos < data.length) {
+                    int consumed = parser.feed(data, pos, Math.min(data.length - pos, 1 + random.nextInt(32)));
+                    pos += consumed;
+                    if (parser.isComplete()) {
+                        parser.takeRequest();
+                    } else {
+                        assertTrue(consumed > 0);
+                    }
+                }
+            } catch (HttpRequestParser.ParseException e) {
+                assertTrue(e.getStatusCode() >= 400 && e.getStatusCode() <= 501);
+            }
+        }
+    }
+
+    private static String randomBody(Random random) {
+        StringBuilder sb = new StringBuilder();
+        int length = random.nextInt(4) == 0 ? 0 : random.nextInt(3000);
+        for (int i = 0; i < length; i++) {
+            int kind = random.nextInt(10);
+            if (kind == 0) sb.append('登');
+            else if (kind == 1) sb.append("\r\n");
+            else if (kind == 2) sb.appendCodePoint(0x1f600 + random.nextInt(16));
+            else sb.append((char) ('a' + random.nextInt(26)));
+        }
+        return sb.toString();
+    }
+
+    private static void writeRequest(ByteArrayOutputStream out, int index, String body, boolean chunked,
+                                     Random random) throws IOException {
+        byte[] bytes = bytes(body);
+        String method = bytes.length > 0 || random.nextBoolean() ? "POST" : "GET";
+        StringBuilder head = new StringBuilder(method + " /r" + index + "?i=" + index + " HTTP/1.1\r\n");
+        head.append(random.nextBoolean() ? "X-Index: v" : "x-index:v").append(index).append("\r\n");
+        if (chunked) {
+            head.append("Transfer-Encoding: chunked\r\n\r\n");
+            out.write(bytes(head.toString()));
+            int pos = 0;
+            while (pos < bytes.length) {
+                int size = Math.min(bytes.length - pos, 1 + random.nextInt(700));
+                out.write(bytes(Integer.toHexString(size) + "\r\n"));
+                out.write(bytes, pos, size);
+                out.write(bytes("\r\n"));
+                pos += size;
+            }
+            out.write(bytes("0\r\n\r\n"));
+        } else {
+            if (bytes.length > 0 || random.nextBoolean()) head.append("Content-Length: ").append(bytes.length).append("\r\n");
+            head.append("\r\n");
+            out.write(bytes(head.toString()));
+            out.write(bytes);
+        }
+    }
+
+    /**
+     * 每次read最多返回chunk个字节，模拟网络分片
+     */
+    private static class TrickleInputStream extends ByteArrayInputStream {
+        private final int chunk;
+
+        TrickleInputStream(byte[] data, int chunk) {
+            super(data);
+            this.chunk = chunk;
+        }
+
+        @Override
+        public synchronized int read(byte[] b, int off, int len) {
+            return super.read(b, off, Math.min(len, chunk));
+        }
+    }
+}
@@ -0,0 +1,453 @@
+package nico.dump_hierarchy;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * 内嵌HTTP服务的本地测试：持久连接、流水线顺序、大请求体和超限请求、Server-Timing
+ */
+public class HttpServerTest {
+    protected HttpServer server;
+
+    protected HttpServer createServer(WorkerPool.Config config, HttpServer.Handler handler) throws IOException {
+        return new HttpServer(InetAddress.getByName("127.0.0.1"), 0, config, handler);
+    }
+
+    protected HttpServer startServer(int keepAliveTimeout, int maxRequests) throws IOException {
+        server = createServer(new WorkerPool.Config(),
+                (request, response) -> {
+                    String body = "{\"success\":true,\"path\":\"" + request.getPath()
+                            + "\",\"x\":\"" + request.getParams().get("x") + "\"}";
+                    response.send(200, "application/json; charset=UTF-8", body.getBytes("UTF-8"));
+                });
+        server.setKeepAlive(keepAliveTimeout, maxRequests);
+        server.start();
+        return server;
+    }
+
+    @After
+    public void tearDown() {
+        if (server != null) server.stop();
+    }
+
+    @Test
+    public void keepAlive_servesSequentialRequestsOnOneSocket() throws IOException {
+        startServer(5000, 1000);
+        try (Socket socket = connect()) {
+            OutputStream out = socket.getOutputStream();
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            for (int i = 0; i < 10; i++) {
+                out.write(("GET /click?x=" + i + "&y=1 HTTP/1.1\r\nHost: localhost\r\n\r\n").getBytes("UTF-8"));
+                out.flush();
+                Response response = readResponse(in);
+                assertEquals(200, response.status);
+                assertEquals("keep-alive", response.headers.get("connection"));
+                assertTrue(response.body.contains("\"x\":\"" + i + "\""));
+            }
+        }
+    }
+
+    @Test
+    public void pipelinedRequests_answeredInOrder() throws IOException {
+        startServer(5000, 1000);
+        try (Socket socket = connect()) {
+            StringBuilder batch = new StringBuilder();
+            for (int i = 0; i < 5; i++) {
+                batch.append("GET /click?x=").append(i).append(" HTTP/1.1\r\n\r\n");
+            }
+            // 带请求体的POST夹在中间，请求体按字节数读取（含多字节字符）
+            byte[] body = "{\"text\":\"登录\"}".getBytes("UTF-8");
+            batch.append("POST /input HTTP/1.1\r\nContent-Length: ").append(body.length).append("\r\n\r\n");
+            OutputStream out = socket.getOutputStream();
+            out.write(batch.toString().getBytes("UTF-8"));
+            out.write(body);
+            out.write("GET /status HTTP/1.1\r\nConnection: close\r\n\r\n".getBytes("UTF-8"));
+            out.flush();
+
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            for (int i = 0; i < 5; i++) {
+                assertTrue(readResponse(in).body.contains("\"x\":\"" + i + "\""));
+            }
+            assertTrue(readResponse(in).body.contains("/input"));
+            Response last = readResponse(in);
+            assertTrue(last.body.contains("/status"));
+            assertEquals("close", last.headers.get("connection"));
+            assertEquals(-1, in.read());
+        }
+    }
+
+    @Test
+    public void http10_closesUnlessKeepAliveRequested() throws IOException {
+        startServer(5000, 1000);
+        try (Socket socket = connect()) {
+            socket.getOutputStream().write("GET /status HTTP/1.0\r\n\r\n".getBytes("UTF-8"));
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            assertEquals("close", readResponse(in).headers.get("connection"));
+            assertEquals(-1, in.read());
+        }
+    }
+
+    @Test
+    public void maxRequestsPerConnection_closesAfterLimit() throws IOException {
+        startServer(5000, 3);
+        try (Socket socket = connect()) {
+            OutputStream out = socket.getOutputStream();
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            for (int i = 1; i <= 3; i++) {
+                out.write("GET /status HTTP/1.1\r\n\r\n".getBytes("UTF-8"));
+                out.flush();
+                assertEquals(i < 3 ? "keep-alive" : "close", readResponse(in).headers.get("connection"));
+            }
+            assertEquals(-1, in.read());
+        }
+    }
+
+    /**
+     * keepalive_timeout=0：第一个请求的字节晚到也照常响应，响应后关闭连接
+     */
+    @Test
+    public void zeroKeepAliveTimeout_waitsForFirstRequestThenCloses() throws Exception {
+        startServer(0, 1000);
+        try (Socket socket = connect()) {
+            Thread.sleep(300);
+            socket.getOutputStream().write("GET /click?x=1 HTTP/1.1\r\n\r\n".getBytes("UTF-8"));
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            Response response = readResponse(in);
+            assertEquals(200, response.status);
+            assertEquals("close", response.headers.get("connection"));
+            assertEquals(-1, in.read());
+        }
+    }
+
+    /**
+     * 只有一个工作线程时，空闲的持久连接不能让新连接等满keep-alive超时
+     */
+    @Test
+    public void idleKeepAlive_yieldsWorkerToQueuedConnection() throws IOException {
+        WorkerPool.Config config = new WorkerPool.Config();
+        config.poolSize = 1;
+        server = createServer(config, (request, response) ->
+                response.send(200, "text/plain; charset=UTF-8", request.getPath().getBytes("UTF-8")));
+        server.setKeepAlive(30_000, 1000);
+        server.start();
+        try (Socket idle = connect()) {
+            idle.getOutputStream().write("GET /first HTTP/1.1\r\n\r\n".getBytes("UTF-8"));
+            Response first = readResponse(new BufferedInputStream(idle.getInputStream()));
+            assertEquals("keep-alive", first.headers.get("connection"));
+
+            try (Socket next = connect()) {
+                // 读超时远小于keep-alive超时：等满30秒会抛出SocketTimeoutException
+                next.setSoTimeout(3000);
+                next.getOutputStream().write("GET /second HTTP/1.1\r\n\r\n".getBytes("UTF-8"));
+                assertEquals("/second", readResponse(new BufferedInputStream(next.getInputStream())).body);
+            }
+        }
+    }
+
+    /**
+     * 异步响应挂起期间不占用工作线程：只有一个线程时其他连接照常处理；
+     * 路由名额在响应完成时才释放，完成后同一连接继续处理下一个请求
+     */
+    @Test
+    public void asyncResponse_releasesWorkerUntilCompleted() throws Exception {
+        WorkerPool.Config config = new WorkerPool.Config();
+        config.poolSize = 1;
+        config.routeLimits.put("/wait", 1);
+        BlockingQueue<HttpResponse> parked = new LinkedBlockingQueue<>();
+        server = createServer(config, (request, response) -> {
+            if ("/wait".equals(request.getPath())) {
+                response.startAsync();
+                parked.add(response);
+            } else {
+                response.send(200, "text/plain; charset=UTF-8", request.getPath().getBytes("UTF-8"));
+            }
+        });
+        server.start();
+        try (Socket waiting = connect()) {
+            InputStream waitingIn = new BufferedInputStream(waiting.getInputStream());
+            waiting.getOutputStream().write("GET /wait HTTP/1.1\r\n\r\n".getBytes("UTF-8"));
+            HttpResponse response = parked.poll(5, TimeUnit.SECONDS);
+            assertNotNull(response);
+
+            try (Socket other = connect()) {
+                InputStream otherIn = new BufferedInputStream(other.getInputStream());
+                other.getOutputStream().write("GET /status HTTP/1.1\r\n\r\n".getBytes("UTF-8"));
+                assertEquals("/status", readResponse(otherIn).body);
+                other.getOutputStream().write("GET /wait HTTP/1.1\r\n\r\n".getBytes("UTF-8"));
+                assertEquals(503, readResponse(otherIn).status);
+            }
+
+            response.send(200, "text/plain; charset=UTF-8", "done".getBytes("UTF-8"));
+            response.complete();
+            Response done = readResponse(waitingIn);
+            assertEquals("done", done.body);
+            assertEquals("keep-alive", done.headers.get("connection"));
+
+            waiting.getOutputStream().write("GET /next HTTP/1.1\r\n\r\n".getBytes("UTF-8"));
+            assertEquals("/next", readResponse(waitingIn).body);
+            // 名额已释放
+            waiting.getOutputStream().write("GET /wait HTTP/1.1\r\n\r\n".getBytes("UTF-8"));
+            assertNotNull(parked.poll(5, TimeUnit.SECONDS));
+        }
+    }
+
+    /**
+     * caller_runs且队列已满时，完成异步响应的线程不能接着处理连接上的下一个请求
+     */
+    @Test
+    public void asyncCompletion_neverRunsNextRequestOnCompletingThread() throws Exception {
+        WorkerPool.Config config = new WorkerPool.Config();
+        config.poolSize = 1;
+        config.queueSize = 1;
+        config.rejectionPolicy = WorkerPool.RejectionPolicy.CALLER_RUNS;
+        BlockingQueue<HttpResponse> parked = new LinkedBlockingQueue<>();
+        BlockingQueue<Thread> nextThreads = new LinkedBlockingQueue<>();
+        CountDownLatch blocked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        server = createServer(config, (request, response) -> {
+            if ("/wait".equals(request.getPath())) {
+                response.startAsync();
+                parked.add(response);
+                return;
+            }
+            if ("/block".equals(request.getPath())) {
+                blocked.countDown();
+                release.await();
+            } else if ("/next".equals(request.getPath())) {
+                nextThreads.add(Thread.currentThread());
+            }
+            response.send(200, "text/plain; charset=UTF-8", request.getPath().getBytes("UTF-8"));
+        });
+        server.start();
+        try (Socket waiting = connect()) {
+            InputStream waitingIn = new BufferedInputStream(waiting.getInputStream());
+            waiting.getOutputStream().write("GET /wait HTTP/1.1\r\n\r\n".getBytes("UTF-8"));
+            HttpResponse response = parked.poll(5, TimeUnit.SECONDS);
+            assertNotNull(response);
+
+            // 占住唯一的工作线程，再让一个请求占满队列
+            Socket blocking = connect();
+            blocking.getOutputStream().write("GET /block HTTP/1.1\r\n\r\n".getBytes("UTF-8"));
+            assertTrue(blocked.await(5, TimeUnit.SECONDS));
+            Socket queued = connect();
+            queued.getOutputStream().write("GET /status HTTP/1.1\r\n\r\n".getBytes("UTF-8"));
+            for (int i = 0; i < 500 && server.getWorkerPool().getQueueDepth() == 0; i++) Thread.sleep(10);
+            assertEquals(1, server.getWorkerPool().getQueueDepth());
+
+            // 下一个请求已在连接上等待
+            waiting.getOutputStream().write("GET /next HTTP/1.1\r\n\r\n".getBytes("UTF-8"));
+            response.send(200, "text/plain; charset=UTF-8", "done".getBytes("UTF-8"));
+            response.complete();
+            assertEquals("done", readResponse(waitingIn).body);
+            release.countDown();
+            assertEquals("/status", readResponse(new BufferedInputStream(queued.getInputStream())).body);
+            Thread handled = nextThreads.poll(200, TimeUnit.MILLISECONDS);
+            assertNotSame(Thread.currentThread(), handled);
+            blocking.close();
+            queued.close();
+        } finally {
+            release.countDown();
+        }
+    }
+
+    /**
+     * 2MB的多字节脚本：Content-Length分段发送、chunked、Expect: 100-continue，请求体完整到达处理器
+     */
+    @Test
+    public void largeScriptBody_contentLengthChunkedAndContinue() throws IOException {
+        server = createServer(new WorkerPool.Config(), (request, response) -> {
+            String body = request.getBody();
+            String text = "{\"chars\":" + body.length() + ",\"hash\":" + body.hashCode() + "}";
+            response.send(200, "application/json; charset=UTF-8", text.getBytes("UTF-8"));
+        });
+        server.start();
+        StringBuilder script = new StringBuilder("[");
+        while (script.length() < 2_000_000) script.append("{\"type\":\"find_and_input\",\"params\":{\"text\":\"登录\"}},");
+        script.setCharAt(script.length() - 1, ']');
+        String expected = "{\"chars\":" + script.length() + ",\"hash\":" + script.toString().hashCode() + "}";
+        byte[] body = script.toString().getBytes("UTF-8");
+        assertTrue(body.length > 2_000_000);
+
+        try (Socket socket = connect()) {
+            OutputStream out = socket.getOutputStream();
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+
+            out.write(("POST /execute_json_script HTTP/1.1\r\nContent-Length: " + body.length + "\r\n\r\n")
+                    .getBytes("UTF-8"));
+            for (int offset = 0; offset < body.length; offset += 64 * 1024) {
+                out.write(body, offset, Math.min(64 * 1024, body.length - offset));
+                out.flush();
+            }
+            assertEquals(expected, readResponse(in).body);
+
+            out.write("POST /execute_json_script HTTP/1.1\r\nTransfer-Encoding: chunked\r\n\r\n".getBytes("UTF-8"));
+            for (int offset = 0; offset < body.length; offset += 100_000) {
+                int size = Math.min(100_000, body.length - offset);
+                out.write((Integer.toHexString(size) + "\r\n").getBytes("UTF-8"));
+                out.write(body, offset, size);
+                out.write("\r\n".getBytes("UTF-8"));
+            }
+            out.write("0\r\n\r\n".getBytes("UTF-8"));
+            out.flush();
+            assertEquals(expected, readResponse(in).body);
+
+            // curl对大请求体默认先发Expect: 100-continue，等到100响应后才发送请求体
+            out.write(("POST /execute_json_script HTTP/1.1\r\nExpect: 100-continue\r\nContent-Length: "
+                    + body.length + "\r\n\r\n").getBytes("UTF-8"));
+            out.flush();
+            assertEquals("HTTP/1.1 100 Continue", readLine(in));
+            assertEquals("", readLine(in));
+            out.write(body);
+            out.flush();
+            assertEquals(expected, readResponse(in).body);
+        }
+    }
+
+    @Test
+    public void oversizedBody_rejectedAndConnectionClosed() throws IOException {
+        startServer(5000, 1000);
+        try (Socket socket = connect()) {
+            socket.getOutputStream().write(("POST /execute_json_script HTTP/1.1\r\nContent-Length: "
+                    + (HttpRequestParser.DEFAULT_MAX_BODY_SIZE + 1) + "\r\n\r\n").getBytes("UTF-8"));
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            Response response = readResponse(in);
+            assertEquals(413, response.status);
+            assertEquals("close", response.headers.get("connection"));
+            assertEquals(-1, in.read());
+        }
+        try (Socket socket = connect()) {
+            socket.getOutputStream().write("POST /input HTTP/1.1\r\nTransfer-Encoding: gzip\r\n\r\n".getBytes("UTF-8"));
+            assertEquals(501, readResponse(new BufferedInputStream(socket.getInputStream())).status);
+        }
+    }
+
+    /**
+     * server_timing开启时响应带Server-Timing：请求体晚到的时间计入parse，处理器里的打点计入对应阶段
+     */
+    @Test
+    public void serverTiming_headerOnlyWhenEnabled() throws Exception {
+        server = createServer(new WorkerPool.Config(), (request, response) -> {
+            RequestTiming timing = RequestTiming.current();
+            assertTrue(timing.isActive());
+            long start = RequestTiming.now();
+            Thread.sleep(20);
+            timing.stop(RequestTiming.TREE, start);
+            response.send(200, "text/plain; charset=UTF-8", "ok".getBytes("UTF-8"));
+        });
+        server.start();
+        try (Socket socket = connect()) {
+            OutputStream out = socket.getOutputStream();
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            out.write("GET /dump HTTP/1.1\r\n\r\n".getBytes("UTF-8"));
+            assertNull(readResponse(in).headers.get("server-timing"));
+
+            server.setServerTiming(true);
+            out.write("POST /dump HTTP/1.1\r\nContent-Length: 2\r\n\r\n".getBytes("UTF-8"));
+            out.flush();
+            Thread.sleep(30);
+            out.write("{}".getBytes("UTF-8"));
+            out.flush();
+            Map<String, Double> phases = parseServerTiming(readResponse(in).headers.get("server-timing"));
+            assertTrue(phases.toString(), phases.get("parse") >= 25);
+            assertTrue(phases.toString(), phases.get("tree") >= 19);
+            assertTrue(phases.containsKey("queue"));
+            assertFalse(phases.containsKey("match"));
+            assertTrue(phases.toString(), phases.get("total") >= phases.get("parse") + phases.get("tree"));
+        }
+    }
+
+    static Map<String, Double> parseServerTiming(String header) {
+        assertNotNull("missing Server-Timing", header);
+        Map<String, Double> phases = new HashMap<>();
+        for (String metric : header.split(",")) {
+            String[] parts = metric.trim().split(";dur=");
+            phases.put(parts[0], Double.parseDouble(parts[1]));
+        }
+        return phases;
+    }
+
+    protected void runOnNewConnections(int count) throws IOException {
+        for (int i = 0; i < count; i++) {
+            try (Socket socket = connect()) {
+                socket.getOutputStream().write(
+                        ("GET /click?x=" + i + "&y=1 HTTP/1.1\r\nConnection: close\r\n\r\n").getBytes("UTF-8"));
+                assertEquals(200, readResponse(new BufferedInputStream(socket.getInputStream())).status);
+            }
+        }
+    }
+
+    protected void runOnOneConnection(int count) throws IOException {
+        try (Socket socket = connect()) {
+            OutputStream out = socket.getOutputStream();
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            for (int i = 0; i < count; i++) {
+                out.write(("GET /click?x=" + i + "&y=1 HTTP/1.1\r\n\r\n").getBytes("UTF-8"));
+                out.flush();
+                assertEquals(200, readResponse(in).status);
+            }
+        }
+    }
+
+    protected Socket connect() throws IOException {
+        Socket socket = new Socket(InetAddress.getByName("127.0.0.1"), server.getLocalPort());
+        socket.setTcpNoDelay(true);
+        socket.setSoTimeout(5000);
+        return socket;
+    }
+
+    static class Response {
+        int status;
+        final Map<String, String> headers = new HashMap<>();
+        byte[] bytes;
+        String body;
+    }
+
+    static Response readResponse(InputStream in) throws IOException {
+        Response response = new Response();
+        String statusLine = readLine(in);
+        assertNotNull("connection closed before response", statusLine);
+        response.status = Integer.parseInt(statusLine.split(" ")[1]);
+        String line;
+        while ((line = readLine(in)) != null && !line.isEmpty()) {
+            int idx = line.indexOf(':');
+            response.headers.put(line.substring(0, idx).trim().toLowerCase(), line.substring(idx + 1).trim());
+        }
+        int length = Integer.parseInt(response.headers.get("content-length"));
+        byte[] body = new byte[length];
+        int offset = 0;
+        while (offset < length) {
+            int read = in.read(body, offset, length - offset);
+            if (read == -1) throw new IOException("truncated body");
+            offset += read;
+        }
+        response.bytes = body;
+        response.body = new String(body, "UTF-8");
+        return response;
+    }
+
+    static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != -1 && b != '\n') {
+            if (b != '\r') line.write(b);
+        }
+        if (b == -1 && line.size() == 0) return null;
+        return new String(line.toByteArray(), "UTF-8");
+    }
+}
@@ -0,0 +1,210 @@
+package nico.dump_hierarchy;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonWriter;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * 流式JSON输出：转义、逗号与嵌套、数字格式，500个元素的find_elements响应与原来gson路径输出相同
+ */
+public class JsonStreamWriterTest {
+
+    private static String write(JsonStreamWriter.Body body) throws IOException {
+        return JsonStreamWriter.toJson(body);
+    }
+
+    @Test
+    public void escapesStrings() throws Exception {
+        String json = write(writer -> writer.value("a\"b\\c\n\r\t\b\f\u0001\u001f/中文\u2028\u2029😀"));
+        assertEquals("\"a\\\"b\\\\c\\n\\r\\t\\b\\f\\u0001\\u001f/中文\\u2028\\u2029😀\"", json);
+        // 不成对的代理字符转义后保留
+        assertEquals("\"x\\ud83dy\\ude00\"", write(writer -> writer.value("x\ud83dy\ude00")));
+        assertEquals("x\ud83dy\ude00", JsonParser.parseString(write(writer -> writer.value("x\ud83dy\ude00")))
+                .getAsString());
+    }
+
+    @Test
+    public void commasAndNesting() throws Exception {
+        String json = write(writer -> {
+            writer.beginObject();
+            writer.name("a").value(1);
+            writer.name("b").beginArray().value(true).nullValue().value((String) null)
+                    .beginObject().endObject().beginArray().endArray().endArray();
+            writer.name("c").jsonValue("{\"x\":1}");
+            writer.name("d").value(false);
+            writer.endObject();
+        });
+        assertEquals("{\"a\":1,\"b\":[true,null,null,{},[]],\"c\":{\"x\":1},\"d\":false}", json);
+    }
+
+    @Test
+    public void numbers() throws Exception {
+        String json = write(writer -> writer.beginArray()
+                .value(0).value(-7).value(Long.MAX_VALUE).value(Long.MIN_VALUE)
+                .value(0.1f).value(500f).value(1.25).value(Math.round(12.345 * 100) / 100.0)
+                .endArray());
+        assertEquals("[0,-7,9223372036854775807,-9223372036854775808,0.1,500.0,1.25,12.35]", json);
+        try {
+            write(writer -> writer.value(Double.NaN));
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    @Test
+    public void rejectsMisuse() throws Exception {
+        JsonStreamWriter writer = new JsonStreamWriter(new ByteArrayOutputStream());
+        writer.beginArray();
+        try {
+            writer.name("a");
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+        try {
+            writer.endObject();
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+        writer.endArray();
+        try {
+            writer.value(1);
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+    }
+
+    /**
+     * 随机字符串（含控制字符、中文、代理对）经过小缓冲区多次flush后，与gson解析回来的值一致
+     */
+    @Test
+    public void randomStringsRoundTrip() throws Exception {
+        Random random = new Random(22);
+        for (int round = 0; round < 200; round++) {
+            List<String> values = new ArrayList<>();
+            for (int i = 0; i < 20; i++) values.add(randomString(random, random.nextInt(80)));
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            JsonStreamWriter writer = new JsonStreamWriter(out, 32);
+            writer.beginObject();
+            for (int i = 0; i < values.size(); i++) writer.name(values.get(i)).value(values.get(i));
+            writer.endObject();
+            writer.flush();
+
+            JsonObject json = JsonParser.parseString(out.toString("UTF-8")).getAsJsonObject();
+            for (String value : values) {
+                assertEquals(value, json.get(value).getAsString());
+            }
+        }
+    }
+
+    private static String randomString(Random random, int length) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            switch (random.nextInt(5)) {
+                case 0:
+                    sb.append((char) random.nextInt(0x20));
+                    break;
+                case 1:
+                    sb.append("\"\\/".charAt(random.nextInt(3)));
+                    break;
+                case 2:
+                    sb.append((char) (0x4e00 + random.nextInt(0x5000)));
+                    break;
+                case 3:
+                    sb.appendCodePoint(0x1f600 + random.nextInt(0x50));
+                    break;
+                default:
+                    sb.append((char) (0x20 + random.nextInt(0x5f)));
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 500个元素的find_elements响应：原来gson JsonWriter写StringWriter再getBytes，
+     * 现在直接写入复用的ResponseBuffer。两者输出的字节相同
+     */
+    @Test
+    public void findElements500_matchesGson() throws Exception {
+        List<UiNode> nodes = new ArrayList<>();
+        collect(HierarchyFixtures.generate(500, 7), nodes);
+        assertEquals(500, nodes.size());
+        nodes.get(3).text = "引号\"和\\反斜杠\n换行";
+
+        byte[] expected = gsonElements(nodes);
+        ResponseBuffer buffer = streamElements(nodes);
+        assertArrayEquals(expected, Arrays.copyOf(buffer.getBuffer(), buffer.size()));
+        JsonArray parsed = JsonParser.parseString(new String(expected, StandardCharsets.UTF_8)).getAsJsonArray();
+        assertEquals(500, parsed.size());
+        assertEquals("引号\"和\\反斜杠\n换行", parsed.get(3).getAsJsonObject().get("text").getAsString());
+    }
+
+    static void collect(List<UiNode> roots, List<UiNode> out) {
+        for (UiNode node : roots) {
+            out.add(node);
+            collect(node.children, out);
+        }
+    }
+
+    static ResponseBuffer streamElements(List<UiNode> nodes) throws IOException {
+        ResponseBuffer buffer = ResponseBuffer.obtain();
+        JsonStreamWriter writer = new JsonStreamWriter(buffer);
+        writer.beginArray();
+        for (UiNode node : nodes) {
+            writer.beginObject();
+            SnapshotQuery.writeAttributes(writer, node);
+            writer.endObject();
+        }
+        writer.endArray();
+        writer.flush();
+        return buffer;
+    }
+
+    /**
+     * 改动前的路径：gson JsonWriter → StringWriter → String → UTF-8字节
+     */
+    static byte[] gsonElements(List<UiNode> nodes) throws IOException {
+        StringWriter out = new StringWriter();
+        JsonWriter writer = new JsonWriter(out);
+        writer.beginArray();
+        for (UiNode node : nodes) {
+            writer.beginObject();
+            writer.name("text").value(nullToEmpty(node.text));
+            writer.name("id").value(nullToEmpty(node.resourceId));
+            writer.name("class_name").value(nullToEmpty(node.className));
+            writer.name("package").value(nullToEmpty(node.packageName));
+            writer.name("content_desc").value(nullToEmpty(node.contentDesc));
+            writer.name("checkable").value(String.valueOf(node.hasFlag(UiNode.CHECKABLE)));
+            writer.name("checked").value(String.valueOf(node.hasFlag(UiNode.CHECKED)));
+            writer.name("clickable").value(String.valueOf(node.hasFlag(UiNode.CLICKABLE)));
+            writer.name("enabled").value(String.valueOf(node.hasFlag(UiNode.ENABLED)));
+            writer.name("focusable").value(String.valueOf(node.hasFlag(UiNode.FOCUSABLE)));
+            writer.name("focused").value(String.valueOf(node.hasFlag(UiNode.FOCUSED)));
+            writer.name("scrollable").value(String.valueOf(node.hasFlag(UiNode.SCROLLABLE)));
+            writer.name("long_clickable").value(String.valueOf(node.hasFlag(UiNode.LONG_CLICKABLE)));
+            writer.name("selected").value(String.valueOf(node.hasFlag(UiNode.SELECTED)));
+            writer.name("bounds").value(SnapshotQuery.visibleBounds(node));
+            writer.endObject();
+        }
+        writer.endArray();
+        writer.flush();
+        return out.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String nullToEmpty(String value) {
+        return value != null ? value : "";
+    }
+}
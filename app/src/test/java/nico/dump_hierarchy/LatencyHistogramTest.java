@@ -0,0 +1,71 @@
+package nico.dump_hierarchy;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * 对数-线性直方图：桶边界、分位数误差、并发记录
+ */
+public class LatencyHistogramTest {
+
+    @Test
+    public void bucketsCoverValuesContiguously() {
+        long expectedLower = 0;
+        for (int i = 0; i < LatencyHistogram.BUCKET_COUNT - 1; i++) {
+            long upper = LatencyHistogram.bucketUpperBound(i);
+            assertEquals("bucket " + i, i, LatencyHistogram.bucketIndex(expectedLower));
+            assertEquals("bucket " + i, i, LatencyHistogram.bucketIndex(upper));
+            // 桶宽不超过下界的1/8
+            assertTrue(upper - expectedLower <= Math.max(0, expectedLower / 8));
+            expectedLower = upper + 1;
+        }
+        assertEquals(LatencyHistogram.BUCKET_COUNT - 1, LatencyHistogram.bucketIndex(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void percentilesWithinBucketError() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int v = 1; v <= 10_000; v++) histogram.record(v);
+        assertEquals(10_000, histogram.getCount());
+        assertEquals(10_000, histogram.getMax());
+        assertEquals(5000.5, histogram.getMean(), 0.001);
+        long p50 = histogram.getPercentile(0.5);
+        long p99 = histogram.getPercentile(0.99);
+        assertTrue("p50 " + p50, p50 >= 5000 && p50 <= 5000 * 1.125);
+        assertTrue("p99 " + p99, p99 >= 9900 && p99 <= 10_000);
+        assertEquals(10_000, histogram.getPercentile(1));
+        assertEquals(7, histogram.getCountAtOrBelow(7));
+        assertEquals(10_000, histogram.getCountAtOrBelow(Long.MAX_VALUE));
+        assertEquals("{\"count\":10000,\"avg\":5001,\"p50\":" + p50 + ",\"p99\":" + p99 + ",\"max\":10000}",
+                histogram.toJson());
+    }
+
+    @Test
+    public void emptyAndNegative() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getPercentile(0.99));
+        histogram.record(-5);
+        histogram.recordNanos(1500);
+        assertEquals(2, histogram.getCountAtOrBelow(1));
+        assertEquals(1, histogram.getMax());
+    }
+
+    @Test
+    public void concurrentRecording() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final int offset = t;
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 100_000; i++) histogram.record(i % 1000 + offset);
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) thread.join();
+        assertEquals(400_000, histogram.getCount());
+        assertEquals(1002, histogram.getMax());
+        assertEquals(400_000, histogram.getCountAtOrBelow(LatencyHistogram.bucketUpperBound(
+                LatencyHistogram.bucketIndex(1002))));
+    }
+}
@@ -0,0 +1,132 @@
+package nico.dump_hierarchy;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * 多指手势的轨迹生成：自定义轨迹、捏合/张开、旋转、多指滑动，以及参数校验
+ */
+public class MultiGestureTest {
+
+    private static double distance(float[] a, float[] b) {
+        return Math.hypot(a[0] - b[0], a[1] - b[1]);
+    }
+
+    @Test
+    public void parse_tracksResampledOnSharedTimeline() {
+        MultiGesture gesture = MultiGesture.parse("{\"pointers\":["
+                + "[{\"x\":100,\"y\":100},{\"x\":100,\"y\":500}],"
+                + "[{\"x\":300,\"y\":100},{\"x\":300,\"y\":300},{\"x\":500,\"y\":300}]],"
+                + "\"duration\":100,\"interval\":25}");
+        assertEquals(2, gesture.getPointerCount());
+        assertEquals(5, gesture.getFrameCount());
+        assertArrayEquals(new long[]{0, 25, 50, 75, 100}, gesture.getTimes());
+
+        float[][][] tracks = gesture.getTracks();
+        assertEquals(100, tracks[0][0][1], 0.01);
+        assertEquals(300, tracks[0][2][1], 0.01);
+        assertEquals(500, tracks[0][4][1], 0.01);
+        // 第二根手指的折线在一半时长处到达拐点
+        assertEquals(300, tracks[1][2][0], 0.01);
+        assertEquals(300, tracks[1][2][1], 0.01);
+        assertEquals(500, tracks[1][4][0], 0.01);
+    }
+
+    @Test
+    public void parse_pinchMovesFingersTowardsCenter() {
+        MultiGesture gesture = MultiGesture.parse("{\"type\":\"pinch\",\"x\":500,\"y\":1000,"
+                + "\"from\":300,\"to\":50,\"duration\":200,\"interval\":20}");
+        float[][][] tracks = gesture.getTracks();
+        float[] center = {500, 1000};
+        int last = gesture.getFrameCount() - 1;
+        assertEquals(11, gesture.getFrameCount());
+        for (float[][] track : tracks) {
+            assertEquals(300, distance(track[0], center), 0.01);
+            assertEquals(50, distance(track[last], center), 0.01);
+        }
+        // 两指对称分布在中心两侧
+        assertEquals(800, tracks[0][0][0], 0.01);
+        assertEquals(200, tracks[1][0][0], 0.01);
+        assertEquals(1000, tracks[1][0][1], 0.01);
+
+        MultiGesture zoom = MultiGesture.parse("{\"type\":\"zoom\",\"x\":500,\"y\":1000,\"angle\":90}");
+        float[][][] zoomTracks = zoom.getTracks();
+        assertEquals(60, distance(zoomTracks[0][0], center), 0.01);
+        assertEquals(300, distance(zoomTracks[0][zoom.getFrameCount() - 1], center), 0.01);
+        assertEquals(500, zoomTracks[0][0][0], 0.01);
+        assertEquals(1060, zoomTracks[0][0][1], 0.01);
+    }
+
+    @Test
+    public void parse_rotateKeepsRadiusAndSweepsAngle() {
+        MultiGesture gesture = MultiGesture.parse("{\"type\":\"rotate\",\"x\":0,\"y\":0,\"radius\":100,"
+                + "\"degrees\":90,\"fingers\":3}");
+        float[][][] tracks = gesture.getTracks();
+        assertEquals(3, tracks.length);
+        int last = gesture.getFrameCount() - 1;
+        for (float[][] track : tracks) {
+            for (float[] point : track) {
+                assertEquals(100, Math.hypot(point[0], point[1]), 0.01);
+            }
+        }
+        // 第一根手指从(100,0)顺时针转到(0,100)
+        assertEquals(100, tracks[0][0][0], 0.01);
+        assertEquals(0, tracks[0][last][0], 0.01);
+        assertEquals(100, tracks[0][last][1], 0.01);
+    }
+
+    @Test
+    public void parse_swipeKeepsFingersParallel() {
+        MultiGesture gesture = MultiGesture.parse("{\"type\":\"swipe\",\"x1\":500,\"y1\":1500,\"x2\":500,\"y2\":500,"
+                + "\"fingers\":3,\"spacing\":100,\"easing\":\"ease_out\"}");
+        float[][][] tracks = gesture.getTracks();
+        int last = gesture.getFrameCount() - 1;
+        // 竖直滑动时手指沿x轴排开
+        assertEquals(400, tracks[0][0][0], 0.01);
+        assertEquals(500, tracks[1][0][0], 0.01);
+        assertEquals(600, tracks[2][0][0], 0.01);
+        for (int k = 0; k <= last; k++) {
+            assertEquals(tracks[0][k][1], tracks[2][k][1], 0.01);
+            assertEquals(100, distance(tracks[0][k], tracks[1][k]), 0.01);
+        }
+        assertEquals(500, tracks[1][last][1], 0.01);
+    }
+
+    @Test
+    public void parse_zeroDurationStillHasDownAndUpFrames() {
+        MultiGesture gesture = MultiGesture.parse("{\"type\":\"zoom\",\"x\":0,\"y\":0,\"duration\":0}");
+        assertEquals(2, gesture.getFrameCount());
+        assertEquals(0, gesture.getDuration());
+        assertEquals(300, distance(gesture.getTracks()[0][1], new float[]{0, 0}), 0.01);
+    }
+
+    @Test
+    public void parse_rejectsMalformedSpecs() {
+        String[] specs = {
+                null, "[]", "{}", "{\"pointers\":[[{\"x\":1,\"y\":1}]]}",
+                "{\"pointers\":[[{\"x\":1,\"y\":1}],[]]}",
+                "{\"pointers\":[[{\"x\":1,\"y\":1}],[{\"x\":1}]]}",
+                "{\"type\":\"pinch\",\"y\":1}",
+                "{\"type\":\"rotate\",\"x\":1,\"y\":1,\"fingers\":11}",
+                "{\"type\":\"swipe\",\"x1\":1,\"y1\":1,\"x2\":5}",
+                "{\"type\":\"twist\"}",
+                "{\"type\":\"zoom\",\"x\":1,\"y\":1,\"easing\":\"bounce\"}",
+                "{\"type\":\"zoom\",\"x\":1,\"y\":1,\"duration\":100000000,\"interval\":1}",
+                // 字段类型不对时同样是格式错误（400），不能抛出其他异常
+                "{\"pointers\":[[{\"x\":1,\"y\":1}],[{\"x\":{},\"y\":1}]]}",
+                "{\"type\":\"pinch\",\"x\":[1],\"y\":1}",
+                "{\"type\":\"rotate\",\"x\":1,\"y\":1,\"degrees\":{}}",
+                "{\"type\":\"swipe\",\"x1\":1,\"y1\":1,\"x2\":5,\"y2\":5,\"fingers\":\"two\"}",
+                "{\"type\":{},\"x\":1,\"y\":1}",
+                "{\"type\":\"zoom\",\"x\":1,\"y\":1,\"duration\":[300]}"};
+        for (String spec : specs) {
+            try {
+                MultiGesture.parse(spec);
+                fail("expected rejection: " + spec);
+            } catch (IllegalArgumentException expected) {
+                // ok
+            }
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package nico.dump_hierarchy;
+
+import org.junit.Test;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * NIO传输层复用HttpServerTest的全部用例，另外验证少量线程服务大量空闲连接
+ */
+public class NioHttpServerTest extends HttpServerTest {
+
+    @Override
+    protected HttpServer createServer(WorkerPool.Config config, HttpServer.Handler handler) throws IOException {
+        return new NioHttpServer(InetAddress.getByName("127.0.0.1"), 0, config, handler);
+    }
+
+    @Test
+    public void manyIdleConnections_servedByTwoWorkers() throws IOException {
+        WorkerPool.Config config = new WorkerPool.Config();
+        config.poolSize = 2;
+        config.queueSize = 64;
+        server = createServer(config, (request, response) ->
+                response.send(200, "text/plain; charset=UTF-8", request.getPath().getBytes("UTF-8")));
+        server.start();
+
+        List<Socket> sockets = new ArrayList<>();
+        try {
+            // 先建立50个空闲连接，再逐个发请求：阻塞实现下前2个连接会占住全部线程
+            for (int i = 0; i < 50; i++) {
+                sockets.add(connect());
+            }
+            for (int round = 0; round < 2; round++) {
+                for (int i = sockets.size() - 1; i >= 0; i--) {
+                    Socket socket = sockets.get(i);
+                    socket.getOutputStream().write(("GET /conn" + i + " HTTP/1.1\r\n\r\n").getBytes("UTF-8"));
+                    InputStream in = new BufferedInputStream(socket.getInputStream(), 1);
+                    Response response = readResponse(in);
+                    assertEquals(200, response.status);
+                    assertEquals("/conn" + i, response.body);
+                }
+            }
+        } finally {
+            for (Socket socket : sockets) socket.close();
+        }
+    }
+
+    @Test
+    public void largeResponse_streamedWithBackpressure() throws IOException {
+        final byte[] payload = new byte[5 * 1024 * 1024];
+        for (int i = 0; i < payload.length; i++) payload[i] = (byte) i;
+        server = createServer(new WorkerPool.Config(), (request, response) -> {
+            response.writeHead(200, "application/octet-stream", payload.length);
+            for (int offset = 0; offset < payload.length; offset += 64 * 1024) {
+                response.write(payload, offset, Math.min(64 * 1024, payload.length - offset));
+            }
+        });
+        server.start();
+        try (Socket socket = connect()) {
+            socket.getOutputStream().write("GET /big HTTP/1.1\r\n\r\n".getBytes("UTF-8"));
+            Response response = readResponse(new BufferedInputStream(socket.getInputStream()));
+            assertArrayEquals(payload, response.bytes);
+        }
+    }
+}
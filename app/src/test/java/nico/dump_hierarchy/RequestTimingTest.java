@@ -0,0 +1,155 @@
+package nico.dump_hierarchy;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * 阶段耗时：解析器时间戳、Server-Timing/JSON输出、汇总到/metrics
+ */
+public class RequestTimingTest {
+    private static final long MS = 1_000_000;
+
+    @Test
+    public void parserStampsFirstByteAndCompletion() throws Exception {
+        HttpRequestParser parser = new HttpRequestParser();
+        byte[] head = "POST /x HTTP/1.1\r\nContent-Length: 2\r\n\r\n".getBytes("UTF-8");
+        long before = System.nanoTime();
+        parser.feed(head, 0, head.length);
+        Thread.sleep(15);
+        parser.feed(new byte[]{'{', '}'}, 0, 2);
+        HttpRequest request = parser.takeRequest();
+        assertTrue(request.receivedNanos >= before);
+        assertTrue(request.parsedNanos - request.receivedNanos >= 14 * MS);
+
+        // 下一个请求重新从第一个字节计时
+        byte[] next = "GET /y HTTP/1.1\r\n\r\n".getBytes("UTF-8");
+        parser.feed(next, 0, next.length);
+        HttpRequest second = parser.takeRequest();
+        assertTrue(second.receivedNanos >= request.parsedNanos);
+        assertTrue(second.parsedNanos - second.receivedNanos < 14 * MS);
+    }
+
+    @Test
+    public void beginDerivesParseAndQueue() {
+        HttpRequest request = new HttpRequest("GET", "/dump", "", "HTTP/1.1", null, null, null);
+        long now = System.nanoTime();
+        request.receivedNanos = now - 10 * MS;
+        request.parsedNanos = now - 4 * MS;
+        request.queuedNanos = 2 * MS;
+        RequestTiming timing = RequestTiming.begin(request, true);
+        try {
+            assertSame(timing, RequestTiming.current());
+            assertEquals(6 * MS, timing.get(RequestTiming.PARSE));
+            assertTrue(timing.get(RequestTiming.QUEUE) >= 6 * MS);
+            assertTrue(timing.getTotalNanos() >= 10 * MS);
+            assertFalse(timing.isRecorded(RequestTiming.TREE));
+            assertTrue(timing.isReported());
+        } finally {
+            timing.end();
+        }
+        assertFalse(timing.isReported());
+
+        // 没有解析时间戳的请求（如直接构造）不输出parse/queue
+        RequestTiming bare = RequestTiming.begin(new HttpRequest("GET", "/", "", "HTTP/1.1", null, null, null), false);
+        assertFalse(bare.isRecorded(RequestTiming.PARSE));
+        assertFalse(bare.isReported());
+        bare.end();
+    }
+
+    @Test
+    public void headerAndJsonListRecordedPhases() throws Exception {
+        RequestTiming timing = new RequestTiming();
+        timing.reset(System.nanoTime() - 50 * MS);
+        timing.add(RequestTiming.PARSE, 52_400);
+        timing.add(RequestTiming.TREE, 12_345_678);
+        timing.add(RequestTiming.MATCH, 1_000_000);
+        timing.add(RequestTiming.MATCH, 500_000);
+        timing.add(RequestTiming.WRITE, 3 * MS);
+
+        String header = timing.toHeaderValue();
+        assertTrue(header, header.startsWith("parse;dur=0.052, tree;dur=12.346, match;dur=1.5, total;dur="));
+        // 写出头部时响应还没写
+        assertFalse(header.contains("write"));
+        assertTrue(HttpServerTest.parseServerTiming(header).get("total") >= 50);
+
+        JsonObject json = JsonParser.parseString(JsonStreamWriter.toJson(timing::writeJson)).getAsJsonObject();
+        assertEquals(0.052, json.get("parse").getAsDouble(), 0);
+        assertEquals(12.346, json.get("tree").getAsDouble(), 0);
+        assertEquals(3.0, json.get("write").getAsDouble(), 0);
+        assertFalse(json.has("queue"));
+        assertTrue(json.get("total").getAsDouble() >= 50);
+    }
+
+    @Test
+    public void responseStampsWriteAndReportsHeader() throws Exception {
+        HttpRequest request = new HttpRequest("GET", "/dump", "", "HTTP/1.1", null, null, null);
+        RequestTiming timing = RequestTiming.begin(request, true);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            HttpResponse response = new HttpResponse(out, request);
+            response.setTiming(timing);
+            timing.add(RequestTiming.TREE, 2 * MS);
+            response.send(200, "text/plain", "ok".getBytes("UTF-8"));
+            assertTrue(out.toString("UTF-8").contains("\r\nServer-Timing: tree;dur=2.0, total;dur="));
+            assertTrue(timing.isRecorded(RequestTiming.WRITE));
+        } finally {
+            timing.end();
+        }
+    }
+
+    @Test
+    public void routeTableAggregatesPhases() throws Exception {
+        RouteTable table = new RouteTable().add("/find_element", (request, os) -> {
+            RequestTiming.current().add(RequestTiming.MATCH, 3 * MS);
+            os.send(200, "text/plain", new byte[0]);
+        });
+        HttpRequest request = new HttpRequest("GET", "/find_element", "", "HTTP/1.1", null, null, null);
+        RequestTiming timing = RequestTiming.begin(request, false);
+        try {
+            table.handle(request, new HttpResponse(new ByteArrayOutputStream(), request));
+        } finally {
+            timing.end();
+        }
+        assertEquals(1, table.getPhaseLatency(RequestTiming.MATCH).getCount());
+        assertEquals(3000, table.getPhaseLatency(RequestTiming.MATCH).getMax());
+        // 没有经历的阶段不计入
+        assertEquals(0, table.getPhaseLatency(RequestTiming.TREE).getCount());
+        assertTrue(table.toPrometheus().contains(
+                "dump_hierarchy_phase_duration_seconds_count{phase=\"match\"} 1\n"));
+
+        // 不在请求处理中（没有begin）时不汇总
+        table.handle(request, new HttpResponse(new ByteArrayOutputStream(), request));
+        assertEquals(1, table.getPhaseLatency(RequestTiming.MATCH).getCount());
+    }
+
+    /**
+     * 异步路由在完成时汇总阶段：挂起的时间计入wait，完成时的写出计入write
+     */
+    @Test
+    public void asyncRouteRecordsWaitOnCompletion() throws Exception {
+        RouteTable table = new RouteTable().add("/wait_idle", (request, os) -> os.startAsync());
+        HttpRequest request = new HttpRequest("GET", "/wait_idle", "", "HTTP/1.1", null, null, null);
+        HttpResponse response = new HttpResponse(new ByteArrayOutputStream(), request);
+        RequestTiming timing = RequestTiming.begin(request, false);
+        try {
+            response.setTiming(timing);
+            table.handle(request, response);
+        } finally {
+            timing.end();
+        }
+        assertEquals(0, table.getPhaseLatency(RequestTiming.WAIT).getCount());
+
+        Thread.sleep(20);
+        response.send(200, "application/json", "{}".getBytes("UTF-8"));
+        response.complete();
+        assertEquals(1, table.getPhaseLatency(RequestTiming.WAIT).getCount());
+        assertTrue(table.getPhaseLatency(RequestTiming.WAIT).getMax() >= 19_000);
+        assertEquals(1, table.getPhaseLatency(RequestTiming.WRITE).getCount());
+    }
+}
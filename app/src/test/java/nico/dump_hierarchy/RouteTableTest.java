@@ -0,0 +1,193 @@
+package nico.dump_hierarchy;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * 路由表：方法限制、404汇总，以及每个路由的延迟直方图、并发数、错误数、字节数和Prometheus输出
+ */
+public class RouteTableTest {
+
+    private static HttpRequest request(String method, String path) {
+        return new HttpRequest(method, path, null, "HTTP/1.1", null, null, null);
+    }
+
+    private static String call(RouteTable table, String method, String path) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        HttpResponse response = new HttpResponse(out, request(method, path));
+        try {
+            table.handle(request(method, path), response);
+        } catch (IllegalStateException e) {
+            // 与HttpServer相同：写出500后结束响应
+            response.send(500, "text/plain", "Internal Server Error".getBytes("UTF-8"));
+            response.complete();
+        }
+        return out.toString("UTF-8");
+    }
+
+    private static RouteTable table() {
+        return new RouteTable()
+                .add("/status", (request, os) -> os.send(200, "text/plain", "ok".getBytes("UTF-8")))
+                .add("/script", (request, os) -> os.send(200, "text/plain", "done".getBytes("UTF-8")), "POST")
+                .add("/fail", (request, os) -> {
+                    throw new IllegalStateException("boom");
+                })
+                .add("/busy", (request, os) -> os.send(503, "text/plain", "busy".getBytes("UTF-8")));
+    }
+
+    @Test
+    public void dispatchesByPathAndMethod() throws Exception {
+        RouteTable table = table();
+        assertTrue(call(table, "GET", "/status").startsWith("HTTP/1.1 200"));
+        assertTrue(call(table, "POST", "/script").endsWith("done"));
+
+        String rejected = call(table, "GET", "/script");
+        assertTrue(rejected.startsWith("HTTP/1.1 405"));
+        assertTrue(rejected.contains("Allow: POST\r\n"));
+        assertTrue(rejected.endsWith("{\"success\":false,\"message\":\"仅支持POST方法\"}"));
+
+        assertTrue(call(table, "GET", "/nope").startsWith("HTTP/1.1 404"));
+        assertTrue(call(table, "GET", "/nope2").startsWith("HTTP/1.1 404"));
+        assertNull(table.get("/nope"));
+        assertEquals(2, table.getUnmatched().getLatency().getCount());
+
+        try {
+            table.add("/status", (request, os) -> {
+            });
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    @Test
+    public void countsLatencyErrorsAndBytes() throws Exception {
+        RouteTable table = table();
+        long written = 0;
+        for (int i = 0; i < 3; i++) written += call(table, "GET", "/status").getBytes("UTF-8").length;
+        long failWritten = call(table, "GET", "/fail").getBytes("UTF-8").length;
+        call(table, "GET", "/busy");
+        call(table, "GET", "/script");
+
+        RouteTable.Route status = table.get("/status");
+        assertEquals(3, status.getLatency().getCount());
+        // 包含状态行和头部
+        assertEquals(written, status.getBytesOut());
+        assertEquals(0, status.getErrorCount());
+        assertEquals(1, table.get("/fail").getErrorCount());
+        // 抛出异常时的500在处理器返回后才写出，同样计入字节数
+        assertEquals(failWritten, table.get("/fail").getBytesOut());
+        assertEquals(1, table.get("/busy").getErrorCount());
+        // 405属于客户端错误，不计入错误数
+        assertEquals(1, table.get("/script").getLatency().getCount());
+        assertEquals(0, table.get("/script").getErrorCount());
+        for (RouteTable.Route route : table.getRoutes()) assertEquals(0, route.getInFlight());
+    }
+
+    @Test
+    public void inFlightWhileHandling() throws Exception {
+        CountDownLatch entered = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        RouteTable table = new RouteTable().add("/wait", (request, os) -> {
+            entered.countDown();
+            release.await();
+            os.send(200, "text/plain", new byte[0]);
+        });
+        Thread thread = new Thread(() -> {
+            try {
+                call(table, "GET", "/wait");
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+        thread.start();
+        assertTrue(entered.await(5, TimeUnit.SECONDS));
+        assertEquals(1, table.get("/wait").getInFlight());
+        assertTrue(table.toPrometheus().contains("dump_hierarchy_requests_in_flight{route=\"/wait\"} 1\n"));
+        release.countDown();
+        thread.join(5000);
+        assertEquals(0, table.get("/wait").getInFlight());
+        assertEquals(1, table.get("/wait").getLatency().getCount());
+    }
+
+    @Test
+    public void asyncRouteRecordedOnCompletion() throws Exception {
+        RouteTable table = new RouteTable().add("/wait_idle", (request, os) -> os.startAsync());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        HttpResponse response = new HttpResponse(out, request("GET", "/wait_idle"));
+        table.handle(request("GET", "/wait_idle"), response);
+        // 处理器已返回，响应还挂起
+        assertEquals(1, table.get("/wait_idle").getInFlight());
+        assertEquals(0, table.get("/wait_idle").getLatency().getCount());
+
+        response.send(200, "application/json", "{}".getBytes("UTF-8"));
+        response.complete();
+        assertEquals(0, table.get("/wait_idle").getInFlight());
+        assertEquals(1, table.get("/wait_idle").getLatency().getCount());
+        assertEquals(out.size(), table.get("/wait_idle").getBytesOut());
+    }
+
+    @Test
+    public void prometheusText() throws Exception {
+        RouteTable table = table();
+        int written = call(table, "GET", "/status").getBytes("UTF-8").length;
+        call(table, "GET", "/fail");
+        call(table, "GET", "/missing");
+        // 直接记录几个已知延迟，检查累计桶
+        LatencyHistogram latency = table.get("/busy").getLatency();
+        latency.record(500);
+        latency.record(20_000);
+        latency.record(60_000_000);
+
+        String text = table.toPrometheus();
+        Map<String, Double> samples = parse(text);
+        String bucket = "dump_hierarchy_request_duration_seconds_bucket";
+        assertEquals(1, samples.get(bucket + "{route=\"/busy\",le=\"0.001\"}"), 0);
+        assertEquals(2, samples.get(bucket + "{route=\"/busy\",le=\"0.025\"}"), 0);
+        assertEquals(2, samples.get(bucket + "{route=\"/busy\",le=\"30\"}"), 0);
+        assertEquals(3, samples.get(bucket + "{route=\"/busy\",le=\"+Inf\"}"), 0);
+        assertEquals(3, samples.get("dump_hierarchy_request_duration_seconds_count{route=\"/busy\"}"), 0);
+        assertEquals(60.0205, samples.get("dump_hierarchy_request_duration_seconds_sum{route=\"/busy\"}"), 1e-9);
+        assertEquals(1, samples.get("dump_hierarchy_request_duration_seconds_count{route=\"unmatched\"}"), 0);
+        assertEquals(1, samples.get("dump_hierarchy_request_errors_total{route=\"/fail\"}"), 0);
+        assertEquals(written, samples.get("dump_hierarchy_response_bytes_total{route=\"/status\"}"), 0);
+        assertEquals(0, samples.get("dump_hierarchy_requests_in_flight{route=\"/status\"}"), 0);
+
+        // 每个指标族只声明一次，且同一族的样本连续出现
+        String[] lines = text.split("\n");
+        String family = null;
+        Set<String> seen = new HashSet<>();
+        for (String line : lines) {
+            if (line.startsWith("# TYPE ")) {
+                family = line.split(" ")[2];
+                assertTrue(seen.add(family));
+            } else if (!line.startsWith("#")) {
+                assertTrue(line, line.startsWith(family));
+            }
+        }
+        assertEquals(5, seen.size());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        table.sendMetrics(new HttpResponse(out, request("GET", "/metrics")));
+        assertTrue(out.toString("UTF-8").contains("Content-Type: text/plain; version=0.0.4; charset=UTF-8\r\n"));
+    }
+
+    private static Map<String, Double> parse(String text) throws IOException {
+        Map<String, Double> samples = new HashMap<>();
+        for (String line : text.split("\n")) {
+            if (line.startsWith("#") || line.isEmpty()) continue;
+            int space = line.lastIndexOf(' ');
+            samples.put(line.substring(0, space), Double.parseDouble(line.substring(space + 1)));
+        }
+        return samples;
+    }
+}
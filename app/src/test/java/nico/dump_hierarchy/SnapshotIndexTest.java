@@ -0,0 +1,105 @@
+package nico.dump_hierarchy;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * 快照索引：与逐节点遍历匹配的结果（含顺序）一致，属性为null的节点按空串匹配
+ */
+public class SnapshotIndexTest {
+
+    @Test
+    public void index_matchesScanForEverySelectorType() throws Exception {
+        List<UiNode> roots = HierarchyFixtures.generate(3000, 11);
+        HierarchySnapshot snapshot = new HierarchySnapshot(1, 0, roots);
+        for (String[] spec : selectors(roots)) {
+            SnapshotQuery query = SnapshotQuery.parse(spec[0], spec[1]);
+            assertSameNodes(spec[0] + "=" + spec[1], query.scan(roots, 0), query.findAll(snapshot, 0));
+            assertSameNodes(spec[0] + "=" + spec[1] + " limit 1", query.scan(roots, 1), query.findAll(snapshot, 1));
+        }
+    }
+
+    @Test
+    public void index_recordedFixture() throws Exception {
+        HierarchySnapshot snapshot = new HierarchySnapshot(1, 0, HierarchyFixtures.loadXml("settings.xml").getRoots());
+        assertEquals(16, SnapshotQuery.parse("id", "android:id/summary").findAll(snapshot, 0).size());
+        assertEquals(2, SnapshotQuery.parse("textContains", "屏幕").findAll(snapshot, 0).size());
+        assertEquals(13, SnapshotQuery.parse("textContains", "、").findAll(snapshot, 0).size());
+        assertEquals(0, SnapshotQuery.parse("textContains", "不存在的文本").findAll(snapshot, 0).size());
+        assertEquals("安全", SnapshotQuery.parse("textStartsWith", "安全").findFirst(snapshot).text);
+        assertEquals(1, SnapshotQuery.parse("content_desc", "搜索设置").findAll(snapshot, 0).size());
+        assertEquals(snapshot.getNodesByPath().size() - 1,
+                SnapshotQuery.parse("scrollable", "false").findAll(snapshot, 0).size());
+    }
+
+    /**
+     * 没有text/content-desc/resource-id的节点：空串查询在索引和遍历上结果一致
+     */
+    @Test
+    public void nullAttributes_matchEmptyValue() throws Exception {
+        UiNode root = new UiNode();
+        root.className = "android.widget.FrameLayout";
+        root.packageName = "com.example.shop";
+        for (int i = 0; i < 3; i++) {
+            UiNode child = new UiNode();
+            child.className = "android.widget.TextView";
+            child.packageName = "com.example.shop";
+            child.text = i == 0 ? "商品" : i == 1 ? "" : null;
+            child.contentDesc = i == 0 ? "图片" : null;
+            root.addChild(child);
+        }
+        List<UiNode> roots = Arrays.asList(root);
+        HierarchySnapshot snapshot = new HierarchySnapshot(1, 0, roots);
+        String[][] specs = {{"text", ""}, {"textStartsWith", ""}, {"textContains", ""}, {"id", ""},
+                {"content_desc", ""}, {"content_descContains", ""}, {"text", null}};
+        for (String[] spec : specs) {
+            SnapshotQuery query = SnapshotQuery.parse(spec[0], spec[1]);
+            assertSameNodes(spec[0] + "=" + spec[1], query.scan(roots, 0), query.findAll(snapshot, 0));
+        }
+        // 根节点和后两个子节点的text为null或""
+        assertEquals(3, SnapshotQuery.parse("text", "").findAll(snapshot, 0).size());
+        assertEquals(4, SnapshotQuery.parse("id", "").findAll(snapshot, 0).size());
+        assertEquals(4, SnapshotQuery.parse("textContains", "").scan(roots, 0).size());
+        assertEquals(1, SnapshotQuery.parse("content_desc", "图片").scan(roots, 0).size());
+    }
+
+    /**
+     * 覆盖所有选择器类型，取值来自树中实际存在的节点（也包含不存在的取值）
+     */
+    static List<String[]> selectors(List<UiNode> roots) {
+        UiNode sample = roots.get(0);
+        while (!sample.children.isEmpty()) sample = sample.children.get(sample.children.size() / 2);
+        UiNode withText = roots.get(0);
+        for (UiNode node : new SnapshotIndex(roots).find(SnapshotQuery.parse("class", "android.widget.TextView"), 1)) {
+            withText = node;
+        }
+        List<String[]> specs = new ArrayList<>(Arrays.asList(
+                new String[]{"id", "com.example.shop:id/item_7"},
+                new String[]{"id", "com.example.shop:id/missing"},
+                new String[]{"text", withText.text},
+                new String[]{"textStartsWith", "商品 12"},
+                new String[]{"textContains", "¥49"},
+                new String[]{"textContains", "9"},
+                new String[]{"class", "android.widget.Button"},
+                new String[]{"class", ".ImageView"},
+                new String[]{"content_desc", "图片 500"},
+                new String[]{"content_descContains", "片 5"},
+                new String[]{"pkg", sample.packageName},
+                new String[]{"clickable", "true"},
+                new String[]{"scrollable", "false"},
+                new String[]{"checked", "true"}));
+        return specs;
+    }
+
+    private static void assertSameNodes(String message, List<UiNode> expected, List<UiNode> actual) {
+        assertEquals(message, expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertSame(message, expected.get(i), actual.get(i));
+        }
+    }
+}
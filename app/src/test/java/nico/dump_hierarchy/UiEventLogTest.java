@@ -0,0 +1,193 @@
+package nico.dump_hierarchy;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * 事件环形缓冲区：按序号读取、覆盖后的截断标记，以及多生产者/多读者的并发压力测试
+ */
+public class UiEventLogTest {
+
+    private static UiEvent event(int windowId, long time) {
+        return new UiEvent("TYPE_WINDOW_CONTENT_CHANGED", "com.android.settings", windowId, time);
+    }
+
+    @Test
+    public void since_returnsEventsAfterSequence() {
+        UiEventLog log = new UiEventLog(16);
+        for (int i = 1; i <= 5; i++) log.append(event(1, i));
+
+        UiEventLog.Changes changes = log.since(2);
+        assertTrue(changes.isChanged());
+        assertFalse(changes.isTruncated());
+        assertEquals(5, changes.getSequence());
+        assertEquals(3, changes.getCount());
+        List<UiEventLog.Record> records = changes.getRecords();
+        assertEquals(3, records.size());
+        assertEquals(3, records.get(0).getSequence());
+        assertEquals(5, records.get(2).getEvent().getUptimeMillis());
+
+        assertFalse(log.since(5).isChanged());
+        assertEquals(5, log.getLatest().getUptimeMillis());
+    }
+
+    @Test
+    public void since_unknownSequenceMeansNow() {
+        UiEventLog log = new UiEventLog(16);
+        log.append(event(1, 1));
+        // -1和大于当前序号（服务重启过）都从当前位置开始
+        assertFalse(log.since(-1).isChanged());
+        assertEquals(1, log.since(100).getSequence());
+        assertFalse(log.since(100).isChanged());
+    }
+
+    @Test
+    public void since_overwrittenEventsMarkedTruncated() {
+        UiEventLog log = new UiEventLog(8);
+        for (int i = 1; i <= 20; i++) log.append(event(1, i));
+
+        UiEventLog.Changes changes = log.since(0);
+        assertTrue(changes.isTruncated());
+        assertEquals(20, changes.getCount());
+        assertEquals(8, changes.getRecords().size());
+        assertEquals(13, changes.getRecords().get(0).getSequence());
+        assertFalse(log.since(12).isTruncated());
+    }
+
+    @Test
+    public void capacityRoundedToPowerOfTwo() {
+        assertEquals(2, new UiEventLog(1).getCapacity());
+        assertEquals(4, new UiEventLog(3).getCapacity());
+        assertEquals(256, new UiEventLog(256).getCapacity());
+        assertEquals(512, new UiEventLog(257).getCapacity());
+    }
+
+    @Test
+    public void readersDoNotStealEachOthersChanges() throws Exception {
+        UiEventMonitor monitor = new UiEventMonitor();
+        monitor.onEvent(event(1, 1));
+        monitor.onEvent(event(2, 2));
+        // 旧实现中第一个客户端读到变化后会清掉标记，第二个客户端看不到
+        UiEventLog.Changes first = monitor.since(0);
+        UiEventLog.Changes second = monitor.since(0);
+        assertEquals(2, first.getCount());
+        assertEquals(2, second.getCount());
+        assertEquals("{\"changed\":true,\"seq\":2,\"count\":2,\"truncated\":false,\"events\":["
+                        + "{\"seq\":1,\"type\":\"TYPE_WINDOW_CONTENT_CHANGED\",\"package\":\"com.android.settings\","
+                        + "\"window_id\":1,\"time\":1},"
+                        + "{\"seq\":2,\"type\":\"TYPE_WINDOW_CONTENT_CHANGED\",\"package\":\"com.android.settings\","
+                        + "\"window_id\":2,\"time\":2}]}",
+                first.toJson());
+    }
+
+    /**
+     * 4个生产者高速写入，16个读者各自按序号追读：读到的记录序号连续、每个生产者的事件保持顺序，
+     * 落后超过容量时只会被标记为截断，不会读到错位或重复的记录
+     */
+    @Test
+    public void stress_manyReadersWithFastProducers() throws Exception {
+        final int producers = 4;
+        final int eventsPerProducer = 250_000;
+        final int readers = 16;
+        final long total = (long) producers * eventsPerProducer;
+        UiEventLog log = new UiEventLog(1024);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch producersDone = new CountDownLatch(producers);
+
+        Thread[] threads = new Thread[producers + readers];
+        for (int p = 0; p < producers; p++) {
+            final int producer = p;
+            threads[p] = new Thread(() -> {
+                try {
+                    start.await();
+                    for (int i = 0; i < eventsPerProducer; i++) {
+                        log.append(event(producer, i));
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    producersDone.countDown();
+                }
+            });
+        }
+        for (int r = 0; r < readers; r++) {
+            threads[producers + r] = new Thread(() -> {
+                try {
+                    start.await();
+                    long since = 0;
+                    long[] lastTime = new long[producers];
+                    Arrays.fill(lastTime, -1);
+                    while (since < total) {
+                        boolean finished = producersDone.getCount() == 0;
+                        UiEventLog.Changes changes = log.since(since);
+                        List<UiEventLog.Record> records = changes.getRecords();
+                        long expected = changes.isTruncated() && !records.isEmpty()
+                                ? records.get(0).getSequence() : since + 1;
+                        assertTrue(expected > since);
+                        for (UiEventLog.Record record : records) {
+                            assertEquals(expected++, record.getSequence());
+                            UiEvent e = record.getEvent();
+                            assertTrue("producer order", e.getUptimeMillis() > lastTime[e.getWindowId()]);
+                            lastTime[e.getWindowId()] = e.getUptimeMillis();
+                        }
+                        if (!records.isEmpty()) {
+                            assertEquals(records.get(records.size() - 1).getSequence(), changes.getSequence());
+                        }
+                        assertTrue(changes.getSequence() >= since);
+                        since = changes.getSequence();
+                        // 生产者结束后的一次读取必须追到末尾
+                        if (finished) assertEquals(total, since);
+                        if (!changes.isChanged()) Thread.yield();
+                    }
+                } catch (Throwable t) {
+                    failure.compareAndSet(null, t);
+                }
+            });
+        }
+
+        for (Thread thread : threads) thread.start();
+        start.countDown();
+        producersDone.await();
+        for (Thread thread : threads) thread.join(30_000);
+        if (failure.get() != null) throw new AssertionError(failure.get());
+
+        assertEquals(total, log.getSequence());
+    }
+
+    /**
+     * 等待方先登记再检查序号、生产者先写入再检查登记数：高频事件下不会丢失唤醒
+     */
+    @Test
+    public void stress_waitersNeverMissWakeup() throws Exception {
+        UiEventMonitor monitor = new UiEventMonitor(64);
+        final long total = 200_000;
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread[] waiters = new Thread[8];
+        for (int w = 0; w < waiters.length; w++) {
+            waiters[w] = new Thread(() -> {
+                try {
+                    long seen;
+                    while ((seen = monitor.getSequence()) < total) {
+                        assertTrue("lost wakeup at " + seen, monitor.awaitEvent(seen, 2000));
+                    }
+                } catch (Throwable t) {
+                    failure.compareAndSet(null, t);
+                }
+            });
+            waiters[w].start();
+        }
+        for (long i = 0; i < total; i++) {
+            monitor.onEvent();
+            if ((i & 1023) == 0) Thread.yield();
+        }
+        for (Thread waiter : waiters) waiter.join(10_000);
+        if (failure.get() != null) throw new AssertionError(failure.get());
+    }
+}
@@ -0,0 +1,258 @@
+package nico.dump_hierarchy;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * 事件驱动的等待：事件到达时立即重新检查、无事件时按兜底间隔检查、超时
+ */
+public class UiEventMonitorTest {
+
+    @Test
+    public void conditionAlreadyTrue_returnsWithoutWaiting() throws Exception {
+        UiEventMonitor monitor = new UiEventMonitor();
+        assertEquals("found", monitor.await(5000, 1000, fresh -> "found"));
+        assertEquals(1, monitor.getEvaluationCount());
+    }
+
+    @Test
+    public void event_wakesWaiterLongBeforePollCeiling() throws Exception {
+        UiEventMonitor monitor = new UiEventMonitor();
+        AtomicBoolean appeared = new AtomicBoolean();
+        Thread producer = new Thread(() -> {
+            sleep(100);
+            appeared.set(true);
+            monitor.onEvent();
+        });
+        producer.start();
+
+        // 兜底间隔大于超时：返回true说明是事件唤醒的
+        assertEquals(Boolean.TRUE, monitor.await(5000, 10000, fresh -> appeared.get() ? true : null));
+        assertEquals(2, monitor.getEvaluationCount());
+        assertEquals(1, monitor.getEventWakeupCount());
+        assertEquals(0, monitor.getPollWakeupCount());
+        producer.join();
+    }
+
+    @Test
+    public void missedEvent_caughtByPollCeilingWithFreshCheck() throws Exception {
+        UiEventMonitor monitor = new UiEventMonitor();
+        AtomicInteger checks = new AtomicInteger();
+        // 条件在第二次检查时满足，但没有任何事件；只有fresh检查能看到
+        Boolean result = monitor.await(2000, 50, fresh -> checks.incrementAndGet() >= 2 && fresh ? true : null);
+        assertEquals(Boolean.TRUE, result);
+        assertEquals(1, monitor.getPollWakeupCount());
+    }
+
+    @Test
+    public void timeout_returnsNull() throws Exception {
+        UiEventMonitor monitor = new UiEventMonitor();
+        assertNull(monitor.await(150, 1000, fresh -> null));
+        // 等满超时后再检查一次
+        assertEquals(2, monitor.getEvaluationCount());
+        assertEquals(1, monitor.getPollWakeupCount());
+        assertEquals(0, monitor.getEventWakeupCount());
+        assertNull(monitor.await(0, 1000, fresh -> null));
+        assertEquals(3, monitor.getEvaluationCount());
+    }
+
+    @Test
+    public void eventDuringEvaluation_isNotLost() throws Exception {
+        UiEventMonitor monitor = new UiEventMonitor();
+        AtomicInteger checks = new AtomicInteger();
+        // 第一次检查期间发生事件：不应再等满兜底间隔
+        assertEquals(Boolean.TRUE, monitor.await(5000, 10000, fresh -> {
+            if (checks.incrementAndGet() == 1) {
+                monitor.onEvent();
+                return null;
+            }
+            return true;
+        }));
+        assertEquals(1, monitor.getEventWakeupCount());
+        assertEquals(0, monitor.getPollWakeupCount());
+    }
+
+    @Test
+    public void awaitIdle_noEvents_returnsAfterQuietWindow() throws Exception {
+        UiEventMonitor monitor = new UiEventMonitor();
+        UiEventMonitor.IdleResult result = monitor.awaitIdle(100, 5000, null);
+        assertTrue(result.isIdle());
+        assertEquals(0, result.getSettleMillis());
+        assertEquals(0, result.getEvents());
+        assertTrue(result.getWaitedMillis() >= 100);
+    }
+
+    @Test
+    public void awaitIdle_reportsWhenBurstSettled() throws Exception {
+        UiEventMonitor monitor = new UiEventMonitor();
+        Thread producer = startEvents(monitor, "com.android.settings", 15, 20);  // 约300ms的动画
+        UiEventMonitor.IdleResult result = monitor.awaitIdle(100, 5000, null);
+        producer.join();
+        assertTrue(result.isIdle());
+        assertEquals(15, result.getEvents());
+        assertTrue("settle " + result.getSettleMillis(), result.getSettleMillis() >= 250);
+        assertTrue(result.getWaitedMillis() >= result.getSettleMillis() + 100);
+    }
+
+    @Test
+    public void awaitIdle_continuousEvents_timesOut() throws Exception {
+        UiEventMonitor monitor = new UiEventMonitor();
+        Thread producer = startEvents(monitor, "com.android.settings", 40, 20);
+        UiEventMonitor.IdleResult result = monitor.awaitIdle(100, 300, null);
+        producer.join();
+        assertFalse(result.isIdle());
+        assertTrue(result.getWaitedMillis() >= 300);
+        assertTrue(result.getEvents() > 0);
+    }
+
+    @Test
+    public void awaitIdle_ignoresOtherPackages() throws Exception {
+        UiEventMonitor monitor = new UiEventMonitor();
+        // 状态栏持续变化不影响目标应用的静止判断
+        Thread producer = startEvents(monitor, "com.android.systemui", 20, 20);
+        UiEventMonitor.IdleResult result = monitor.awaitIdle(100, 5000, "com.android.settings");
+        producer.join();
+        assertTrue(result.isIdle());
+        assertEquals(0, result.getEvents());
+        assertEquals(0, result.getSettleMillis());
+    }
+
+    @Test
+    public void parkIdle_resultDeliveredOnWaitThread() throws Exception {
+        UiEventMonitor monitor = new UiEventMonitor();
+        CountDownLatch done = new CountDownLatch(1);
+        AtomicReference<UiEventMonitor.IdleResult> result = new AtomicReference<>();
+        AtomicReference<String> thread = new AtomicReference<>();
+        Thread producer = startEvents(monitor, "com.android.settings", 5, 20);
+        monitor.parkIdle(100, 5000, null, idle -> {
+            thread.set(Thread.currentThread().getName());
+            result.set(idle);
+            done.countDown();
+        });
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        producer.join();
+        assertTrue(result.get().isIdle());
+        assertEquals(5, result.get().getEvents());
+        assertEquals("ui-wait", thread.get());
+        awaitNoneParked(monitor);
+    }
+
+    @Test
+    public void parkEvent_eventOrTimeout() throws Exception {
+        UiEventMonitor monitor = new UiEventMonitor();
+        CountDownLatch done = new CountDownLatch(2);
+        List<Boolean> results = new ArrayList<>();
+        monitor.parkEvent(monitor.getSequence(), 5000, changed -> {
+            synchronized (results) {
+                results.add(changed);
+            }
+            done.countDown();
+        });
+        monitor.onEvent();
+        // 登记时已有新事件：立即返回
+        monitor.parkEvent(0, 5000, changed -> {
+            synchronized (results) {
+                results.add(changed);
+            }
+            done.countDown();
+        });
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(2, results.size());
+        assertTrue(results.get(0) && results.get(1));
+
+        CountDownLatch timedOut = new CountDownLatch(1);
+        AtomicBoolean changed = new AtomicBoolean(true);
+        monitor.parkEvent(monitor.getSequence(), 50, result -> {
+            changed.set(result);
+            timedOut.countDown();
+        });
+        assertTrue(timedOut.await(5, TimeUnit.SECONDS));
+        assertFalse(changed.get());
+    }
+
+    /**
+     * 100个登记的等待共用一个等待线程，一个事件唤醒全部
+     */
+    @Test
+    public void park_manyWaitersShareOneThread() throws Exception {
+        UiEventMonitor monitor = new UiEventMonitor();
+        final int waiters = 100;
+        CountDownLatch done = new CountDownLatch(waiters);
+        Set<String> threads = Collections.synchronizedSet(new HashSet<>());
+        long since = monitor.getSequence();
+        for (int i = 0; i < waiters; i++) {
+            monitor.park(since, (changed, now) -> {
+                if (!changed) return now + TimeUnit.SECONDS.toNanos(10);
+                threads.add(Thread.currentThread().getName());
+                done.countDown();
+                return -1;
+            });
+        }
+        assertEquals(waiters, monitor.getParkedCount());
+        monitor.onEvent();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(Collections.singleton("ui-wait"), threads);
+        awaitNoneParked(monitor);
+    }
+
+    @Test
+    public void awaitEventOfType_skipsOtherEvents() throws Exception {
+        UiEventMonitor monitor = new UiEventMonitor();
+        long seen = monitor.getSequence();
+        Thread producer = new Thread(() -> {
+            sleep(20);
+            monitor.onEvent(new UiEvent("TYPE_WINDOW_CONTENT_CHANGED", "com.android.settings", 1, 1));
+            sleep(20);
+            monitor.onEvent(new UiEvent("TYPE_VIEW_CLICKED", "com.android.settings", 1, 2));
+        });
+        producer.start();
+        UiEvent clicked = monitor.awaitEventOfType(seen, "TYPE_VIEW_CLICKED", 2000);
+        producer.join();
+        assertNotNull(clicked);
+        assertEquals(2, clicked.getUptimeMillis());
+        // 点击前已发生的事件不算
+        assertNull(monitor.awaitEventOfType(monitor.getSequence(), "TYPE_VIEW_CLICKED", 50));
+    }
+
+    /**
+     * 回调返回后等待才被移除
+     */
+    private static void awaitNoneParked(UiEventMonitor monitor) {
+        for (int i = 0; i < 500 && monitor.getParkedCount() > 0; i++) sleep(10);
+        assertEquals(0, monitor.getParkedCount());
+    }
+
+    /**
+     * 后台线程每intervalMillis产生一个事件，共count个
+     */
+    static Thread startEvents(UiEventMonitor monitor, String packageName, int count, long intervalMillis) {
+        Thread producer = new Thread(() -> {
+            for (int i = 0; i < count; i++) {
+                sleep(intervalMillis);
+                monitor.onEvent(new UiEvent("TYPE_WINDOW_CONTENT_CHANGED", packageName, 1, i));
+            }
+        });
+        producer.start();
+        return producer;
+    }
+
+    static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,258 @@
+package nico.dump_hierarchy;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * /events推送：突发事件合并、Last-Event-ID续传、客户端断开或到期后结束推送，
+ * 推送期间不占用工作线程（阻塞和NIO两种传输层）
+ */
+public class UiEventStreamTest {
+    private HttpServer server;
+    final UiEventMonitor monitor = new UiEventMonitor();
+    private final CountDownLatch streamEnded = new CountDownLatch(1);
+
+    @After
+    public void tearDown() {
+        if (server != null) server.stop();
+    }
+
+    void startServer(boolean nio) throws IOException {
+        startServer(nio, new WorkerPool.Config());
+    }
+
+    private void startServer(boolean nio, WorkerPool.Config config) throws IOException {
+        InetAddress address = InetAddress.getByName("127.0.0.1");
+        HttpServer.Handler handler = (request, response) -> {
+            if ("/events".equals(request.getPath())) {
+                String lastEventId = request.getHeader("Last-Event-ID");
+                long since = lastEventId != null ? Long.parseLong(lastEventId) : -1;
+                long duration = Long.parseLong(request.getParams().getOrDefault("duration", "0"));
+                response.whenComplete(streamEnded::countDown);
+                new UiEventStream(monitor, 50, 100).start(response, since, duration);
+            } else {
+                response.send(200, "text/plain", String.valueOf(monitor.getSequence()).getBytes("UTF-8"));
+            }
+        };
+        server = nio ? new NioHttpServer(address, 0, config, handler)
+                : new HttpServer(address, 0, config, handler);
+        server.start();
+    }
+
+    @Test
+    public void formatMessage_includesEventFields() throws IOException {
+        String message = UiEventStream.formatMessage(42, 3,
+                new UiEvent("TYPE_WINDOW_CONTENT_CHANGED", "com.android.settings", 7, 123456));
+        assertEquals("id: 42\nevent: ui_change\ndata: {\"seq\":42,\"count\":3,"
+                + "\"type\":\"TYPE_WINDOW_CONTENT_CHANGED\",\"package\":\"com.android.settings\","
+                + "\"window_id\":7,\"time\":123456}\n\n", message);
+    }
+
+    @Test
+    public void burstCoalesced_blocking() throws Exception {
+        burstCoalescedAndStreamEndsOnDisconnect(false);
+    }
+
+    @Test
+    public void burstCoalesced_nio() throws Exception {
+        burstCoalescedAndStreamEndsOnDisconnect(true);
+    }
+
+    private void burstCoalescedAndStreamEndsOnDisconnect(boolean nio) throws Exception {
+        startServer(nio);
+        try (Socket socket = connect()) {
+            socket.getOutputStream().write("GET /events HTTP/1.1\r\n\r\n".getBytes("UTF-8"));
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            Map<String, String> headers = readHeaders(in);
+            assertEquals("text/event-stream; charset=UTF-8", headers.get("content-type"));
+            assertNull(headers.get("content-length"));
+            assertEquals("retry: 1000", readLine(in));
+            assertEquals("", readLine(in));
+
+            // 20个事件的突发合并为一条消息
+            for (int i = 0; i < 20; i++) {
+                monitor.onEvent(new UiEvent("TYPE_WINDOW_CONTENT_CHANGED", "com.android.settings", 3, i));
+            }
+            Map<String, String> message = readMessage(in);
+            assertEquals("20", message.get("id"));
+            assertTrue(message.get("data"), message.get("data").contains("\"count\":20"));
+            assertTrue(message.get("data"), message.get("data").contains("\"time\":19"));
+
+            Thread.sleep(120);
+            monitor.onEvent(new UiEvent("TYPE_WINDOW_STATE_CHANGED", "com.android.systemui", 5, 500));
+            message = readMessage(in);
+            assertEquals("21", message.get("id"));
+            assertTrue(message.get("data"), message.get("data").contains("\"count\":1"));
+            assertTrue(message.get("data"), message.get("data").contains("\"package\":\"com.android.systemui\""));
+        }
+        // 客户端断开后，下一次心跳写失败，推送结束
+        assertTrue(streamEnded.await(5, TimeUnit.SECONDS));
+        awaitNoneParked();
+    }
+
+    @Test
+    public void streamReleasesWorker_blocking() throws Exception {
+        streamReleasesWorkerAndEndsAtDuration(false);
+    }
+
+    @Test
+    public void streamReleasesWorker_nio() throws Exception {
+        streamReleasesWorkerAndEndsAtDuration(true);
+    }
+
+    /**
+     * 只有一个工作线程：推送期间其他连接的请求照常处理，事件照常推送，到期后服务端关闭连接
+     */
+    private void streamReleasesWorkerAndEndsAtDuration(boolean nio) throws Exception {
+        WorkerPool.Config config = new WorkerPool.Config();
+        config.poolSize = 1;
+        startServer(nio, config);
+        try (Socket stream = connect(); Socket other = connect()) {
+            stream.getOutputStream().write("GET /events?duration=1000 HTTP/1.1\r\n\r\n".getBytes("UTF-8"));
+            InputStream in = new BufferedInputStream(stream.getInputStream());
+            readHeaders(in);
+            assertEquals("retry: 1000", readLine(in));
+
+            other.getOutputStream().write("GET /is_ui_change HTTP/1.1\r\n\r\n".getBytes("UTF-8"));
+            assertEquals("0", HttpServerTest.readResponse(new BufferedInputStream(other.getInputStream())).body);
+
+            monitor.onEvent(new UiEvent("TYPE_WINDOW_CONTENT_CHANGED", "com.android.settings", 3, 1));
+            assertEquals("1", readMessage(in).get("id"));
+            // 读到连接关闭（超时会抛出异常）
+            while (readLine(in) != null) {
+                // 心跳
+            }
+        }
+        assertTrue(streamEnded.await(5, TimeUnit.SECONDS));
+        awaitNoneParked();
+    }
+
+    /**
+     * 客户端不再读取时写出会一直阻塞：写出在工作线程上，等待线程照常推进其他等待；
+     * 超过一个心跳间隔还没写完就断开连接，写出失败后结束响应
+     */
+    @Test
+    public void stalledClient_doesNotBlockWaitThread() throws Exception {
+        CountDownLatch aborted = new CountDownLatch(1);
+        boolean[] stalled = {false};
+        OutputStream out = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                if (!stalled[0]) return;
+                try {
+                    aborted.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                throw new IOException("connection aborted");
+            }
+        };
+        WorkerPool pool = new WorkerPool(new WorkerPool.Config());
+        try {
+            HttpResponse response = new HttpResponse(out);
+            response.setWorkerPool(pool);
+            response.setAbortAction(aborted::countDown);
+            response.whenComplete(streamEnded::countDown);
+            new UiEventStream(monitor, 0, 300).start(response, -1, 0);
+            stalled[0] = true;
+            monitor.onEvent(new UiEvent("TYPE_WINDOW_CONTENT_CHANGED", "com.android.settings", 3, 1));
+
+            CountDownLatch woken = new CountDownLatch(1);
+            monitor.parkEvent(monitor.getSequence(), 5000, changed -> woken.countDown());
+            monitor.onEvent(new UiEvent("TYPE_WINDOW_CONTENT_CHANGED", "com.android.settings", 3, 2));
+            assertTrue(woken.await(1, TimeUnit.SECONDS));
+
+            assertTrue(aborted.await(5, TimeUnit.SECONDS));
+            assertTrue(streamEnded.await(5, TimeUnit.SECONDS));
+            awaitNoneParked();
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void lastEventId_resumesMissedEvents() throws Exception {
+        startServer(false);
+        for (int i = 0; i < 8; i++) monitor.onEvent();
+        try (Socket socket = connect()) {
+            socket.getOutputStream().write("GET /events HTTP/1.1\r\nLast-Event-ID: 5\r\n\r\n".getBytes("UTF-8"));
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            readHeaders(in);
+            readLine(in);
+            readLine(in);
+            Map<String, String> message = readMessage(in);
+            assertEquals("8", message.get("id"));
+            assertTrue(message.get("data"), message.get("data").contains("\"count\":3"));
+        }
+    }
+
+    /**
+     * 推送结束后等待线程上的登记在回调返回后才移除
+     */
+    private void awaitNoneParked() throws InterruptedException {
+        for (int i = 0; i < 500 && monitor.getParkedCount() > 0; i++) Thread.sleep(10);
+        assertEquals(0, monitor.getParkedCount());
+    }
+
+    Socket connect() throws IOException {
+        Socket socket = new Socket(InetAddress.getByName("127.0.0.1"), server.getLocalPort());
+        socket.setTcpNoDelay(true);
+        socket.setSoTimeout(5000);
+        return socket;
+    }
+
+    static Map<String, String> readHeaders(InputStream in) throws IOException {
+        String statusLine = readLine(in);
+        assertNotNull("connection closed before response", statusLine);
+        assertTrue(statusLine, statusLine.startsWith("HTTP/1.1 200"));
+        Map<String, String> headers = new HashMap<>();
+        String line;
+        while ((line = readLine(in)) != null && !line.isEmpty()) {
+            int idx = line.indexOf(':');
+            headers.put(line.substring(0, idx).trim().toLowerCase(), line.substring(idx + 1).trim());
+        }
+        return headers;
+    }
+
+    /**
+     * 读取一条SSE消息（跳过心跳注释），返回字段名到值的映射
+     */
+    static Map<String, String> readMessage(InputStream in) throws IOException {
+        Map<String, String> fields = new HashMap<>();
+        String line;
+        while ((line = readLine(in)) != null) {
+            if (line.isEmpty()) {
+                if (!fields.isEmpty()) return fields;
+                continue;
+            }
+            if (line.startsWith(":")) continue;
+            int idx = line.indexOf(':');
+            fields.put(line.substring(0, idx), line.substring(idx + 1).trim());
+        }
+        throw new IOException("stream closed");
+    }
+
+    static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != -1 && b != '\n') {
+            if (b != '\r') line.write(b);
+        }
+        if (b == -1 && line.size() == 0) return null;
+        return new String(line.toByteArray(), "UTF-8");
+    }
+}